@@ -0,0 +1,223 @@
+package com.asascience.ncsos.cdmclasses;
+
+import ucar.ma2.Array;
+import ucar.ma2.IndexIterator;
+import ucar.nc2.Dimension;
+import ucar.nc2.Variable;
+import ucar.nc2.dataset.NetcdfDataset;
+import ucar.nc2.dataset.VariableDS;
+import ucar.nc2.ncml.Aggregation;
+import ucar.nc2.ncml.AggregationExisting;
+import ucar.nc2.units.DateUnit;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Time extents of the component files of a joinExisting NcML aggregation, with
+ * the range of the aggregated dimension each of them holds. A time window is
+ * turned into the row ranges of the components it overlaps, so only those files
+ * are read instead of every file of the aggregation.
+ * <p>
+ * The extent of a component is read from the file itself once and cached by
+ * its location and last modified time, so an aggregation that grows by a file
+ * only opens the new one. Aggregations whose components do not hold the time
+ * variable along the aggregated dimension (ie times given by coordValue in the
+ * NcML) are not indexed.
+ */
+final class AggregationTimeIndex {
+
+    private static final int MAX_CACHED_AGGREGATIONS = 64;
+    private static final int MAX_CACHED_COMPONENTS = 8192;
+
+    private static final Map<String, AggregationTimeIndex> indexes = new LinkedHashMap<String, AggregationTimeIndex>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, AggregationTimeIndex> eldest) {
+            return size() > MAX_CACHED_AGGREGATIONS;
+        }
+    };
+    private static final Map<String, Component> components = new LinkedHashMap<String, Component>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Component> eldest) {
+            return size() > MAX_CACHED_COMPONENTS;
+        }
+    };
+
+    private static org.slf4j.Logger _log = org.slf4j.LoggerFactory.getLogger(AggregationTimeIndex.class);
+
+    private final long lastModified;
+    // first row of each component in the aggregated dimension, and the end of the last one
+    private final int[] starts;
+    private final long[] minTimes;
+    private final long[] maxTimes;
+
+    AggregationTimeIndex(long lastModified, int[] starts, long[] minTimes, long[] maxTimes) {
+        this.lastModified = lastModified;
+        this.starts = starts;
+        this.minTimes = minTimes;
+        this.maxTimes = maxTimes;
+    }
+
+    /**
+     * Returns the index of an aggregated dataset, from the cache if the aggregation has not changed
+     * @param dataset the dataset
+     * @param dim dimension the observations lie along
+     * @param timeVar time variable along the dimension
+     * @return the index, null if the dataset is not a joinExisting aggregation on the dimension
+     */
+    static AggregationTimeIndex get(NetcdfDataset dataset, Dimension dim, Variable timeVar) {
+        Aggregation agg = dataset.getAggregation();
+        if (!(agg instanceof AggregationExisting) || !dim.getShortName().equals(agg.getDimensionName())) {
+            return null;
+        }
+        String location = dataset.getLocation();
+        long lastModified = dataset.getLastModified();
+        String key = (location != null && lastModified > 0) ? location + "\n" + timeVar.getShortName() : null;
+        if (key != null) {
+            synchronized (indexes) {
+                AggregationTimeIndex index = indexes.get(key);
+                if (index != null && index.lastModified == lastModified) {
+                    return index;
+                }
+            }
+        }
+        List<Aggregation.Dataset> datasets = agg.getDatasets();
+        int[] starts = new int[datasets.size() + 1];
+        long[] minTimes = new long[datasets.size()];
+        long[] maxTimes = new long[datasets.size()];
+        for (int i = 0; i < datasets.size(); i++) {
+            Component component = getComponent(datasets.get(i).getLocation(), timeVar.getShortName(), dim.getShortName());
+            if (component == null) {
+                return null;
+            }
+            starts[i + 1] = starts[i] + component.rows;
+            minTimes[i] = component.minTime;
+            maxTimes[i] = component.maxTime;
+        }
+        if (starts[datasets.size()] != dim.getLength()) {
+            _log.debug("Components of " + location + " do not add up to the aggregated dimension, not indexed");
+            return null;
+        }
+        AggregationTimeIndex index = new AggregationTimeIndex(lastModified, starts, minTimes, maxTimes);
+        if (key != null) {
+            synchronized (indexes) {
+                indexes.put(key, index);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Finds the rows of the components whose time extents overlap a window
+     * @param start start of the window, epoch milliseconds
+     * @param end end of the window, epoch milliseconds
+     * @return ascending, non adjacent [first, end) row ranges of the aggregated dimension
+     */
+    List<int[]> findRanges(long start, long end) {
+        List<int[]> ranges = new ArrayList<int[]>();
+        for (int i = 0; i < minTimes.length; i++) {
+            // components without valid times have an empty extent, min after max
+            if (minTimes[i] > maxTimes[i] || minTimes[i] > end || maxTimes[i] < start || starts[i] == starts[i + 1]) {
+                continue;
+            }
+            int[] last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+            if (last != null && last[1] == starts[i]) {
+                last[1] = starts[i + 1];
+            } else {
+                ranges.add(new int[] { starts[i], starts[i + 1] });
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Returns the time extent of a component file, reading it if it is not cached or has changed
+     */
+    private static Component getComponent(String location, String timeName, String dimName) {
+        long fileModified = getFileLastModified(location);
+        String key = location + "\n" + timeName + "\n" + dimName;
+        if (fileModified > 0) {
+            synchronized (components) {
+                Component component = components.get(key);
+                if (component != null && component.lastModified == fileModified) {
+                    return component;
+                }
+            }
+        }
+        Component component = readComponent(location, timeName, dimName, fileModified);
+        if (component != null && fileModified > 0) {
+            synchronized (components) {
+                components.put(key, component);
+            }
+        }
+        return component;
+    }
+
+    private static Component readComponent(String location, String timeName, String dimName, long fileModified) {
+        NetcdfDataset file = null;
+        try {
+            file = NetcdfDataset.openDataset(location);
+            Variable timeVar = file.findVariable(timeName);
+            Dimension dim = file.findDimension(dimName);
+            if (timeVar == null || dim == null || timeVar.getRank() != 1 || !timeVar.getDimension(0).equals(dim)
+                    || timeVar.getUnitsString() == null) {
+                _log.debug("No time variable along " + dimName + " in " + location);
+                return null;
+            }
+            DateUnit unit = new DateUnit(timeVar.getUnitsString());
+            Component component = new Component(fileModified, dim.getLength());
+            Array times = timeVar.read();
+            IndexIterator it = times.getIndexIterator();
+            while (it.hasNext()) {
+                double value = it.getDoubleNext();
+                if (Double.isNaN(value) || (timeVar instanceof VariableDS && ((VariableDS) timeVar).isMissing(value))) {
+                    continue;
+                }
+                long time = unit.makeDate(value).getTime();
+                component.minTime = Math.min(component.minTime, time);
+                component.maxTime = Math.max(component.maxTime, time);
+            }
+            return component;
+        } catch (Exception ex) {
+            _log.warn("Unable to read the time extent of " + location + ": " + ex.getMessage());
+            return null;
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (Exception ex) {
+                    _log.debug("Unable to close " + location + ": " + ex.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return last modified time of a local component file, 0 if it is not a local file
+     */
+    private static long getFileLastModified(String location) {
+        if (location == null) {
+            return 0;
+        }
+        String path = location.startsWith("file:") ? location.substring("file:".length()) : location;
+        return new File(path).lastModified();
+    }
+
+    /**
+     * Extent of a component file; components without valid times get an empty extent
+     */
+    private static class Component {
+        private final long lastModified;
+        private final int rows;
+        private long minTime = Long.MAX_VALUE;
+        private long maxTime = Long.MIN_VALUE;
+
+        private Component(long lastModified, int rows) {
+            this.lastModified = lastModified;
+            this.rows = rows;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.asascience.ncsos.cdmclasses;
+
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.dataset.CoordinateAxis1D;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Nearest value and range lookups on the values of a 1D coordinate axis. Axes
+ * that are monotonic (ascending or descending) are searched with a binary
+ * search, others with a linear scan. Longitude axes wrap: a requested longitude
+ * is compared with the axis values modulo 360, so -70 finds 290 on a 0-360 axis.
+ * Ties go to the lower index.
+ * <p>
+ * Indexes are cached by dataset location, last modified time and axis name, so
+ * the coordinate values are only read and copied once per dataset.
+ */
+final class CoordinateIndex {
+
+    private static final int MAX_CACHED_AXES = 256;
+    private static final Map<String, CoordinateIndex> cache = new LinkedHashMap<String, CoordinateIndex>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CoordinateIndex> eldest) {
+            return size() > MAX_CACHED_AXES;
+        }
+    };
+
+    private final long lastModified;
+    private final double[] values;
+    private final boolean ascending;
+    private final boolean descending;
+    private final boolean longitude;
+
+    CoordinateIndex(long lastModified, double[] values, boolean longitude) {
+        this.lastModified = lastModified;
+        this.values = values;
+        this.longitude = longitude;
+        boolean asc = true;
+        boolean desc = true;
+        for (int i = 1; i < values.length; i++) {
+            if (!(values[i] > values[i - 1])) {
+                asc = false;
+            }
+            if (!(values[i] < values[i - 1])) {
+                desc = false;
+            }
+        }
+        this.ascending = asc;
+        this.descending = desc && values.length > 1;
+    }
+
+    /**
+     * Returns the index of an axis, from the cache if the dataset has not changed
+     * @param file file the axis belongs to
+     * @param axis the axis
+     * @param longitude true if the axis holds longitudes, which wrap at 360
+     * @return index of the axis values
+     */
+    static CoordinateIndex get(NetcdfFile file, CoordinateAxis1D axis, boolean longitude) {
+        long lastModified = file.getLastModified();
+        String key = (file.getLocation() != null && lastModified > 0) ?
+                file.getLocation() + "\n" + axis.getFullName() + "\n" + longitude : null;
+        if (key != null) {
+            synchronized (cache) {
+                CoordinateIndex index = cache.get(key);
+                if (index != null && index.lastModified == lastModified) {
+                    return index;
+                }
+            }
+        }
+        CoordinateIndex index = new CoordinateIndex(lastModified, axis.getCoordValues(), longitude);
+        if (key != null) {
+            synchronized (cache) {
+                cache.put(key, index);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return the axis values; shared, must not be modified
+     */
+    double[] getValues() {
+        return values;
+    }
+
+    /**
+     * Finds the axis value closest to a value
+     * @param value value to find
+     * @return index of the closest axis value, -1 for an empty axis
+     */
+    int findNearest(double value) {
+        if (values.length == 0) {
+            return -1;
+        }
+        if (!ascending && !descending) {
+            return findNearestLinear(value);
+        }
+        double target = longitude ? wrapIntoAxis(value) : value;
+        int insertion = findInsertion(target);
+        if (!longitude && (insertion == 0 || insertion == values.length)) {
+            // beyond an end of the axis, where the distances to huge values may round to the same double
+            return Math.min(insertion, values.length - 1);
+        }
+        // the closest value is next to the insertion point, or at the far end
+        // when a longitude is closer across the 0/360 seam
+        int best = -1;
+        double bestDiff = Double.POSITIVE_INFINITY;
+        int[] candidates = { insertion - 1, insertion, 0, values.length - 1 };
+        for (int i : candidates) {
+            if (i < 0 || i >= values.length) {
+                continue;
+            }
+            double diff = distance(values[i], target);
+            if (diff < bestDiff || (diff == bestDiff && i < best)) {
+                bestDiff = diff;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Finds the axis values within a range
+     * @param min lower bound (inclusive)
+     * @param max upper bound (inclusive)
+     * @return ascending indices of the axis values in the range
+     */
+    int[] findRange(double min, double max) {
+        List<int[]> spans = new ArrayList<int[]>();
+        addSpan(spans, min, max);
+        if (longitude) {
+            addSpan(spans, min + 360, max + 360);
+            addSpan(spans, min - 360, max - 360);
+        }
+        // merge the spans in index order
+        boolean[] hit = new boolean[values.length];
+        int count = 0;
+        for (int[] span : spans) {
+            for (int i = span[0]; i <= span[1]; i++) {
+                if (!hit[i]) {
+                    hit[i] = true;
+                    count++;
+                }
+            }
+        }
+        int[] indices = new int[count];
+        int n = 0;
+        for (int i = 0; i < hit.length && n < count; i++) {
+            if (hit[i]) {
+                indices[n++] = i;
+            }
+        }
+        return indices;
+    }
+
+    private void addSpan(List<int[]> spans, double min, double max) {
+        if (!ascending && !descending) {
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] >= min && values[i] <= max) {
+                    spans.add(new int[] { i, i });
+                }
+            }
+            return;
+        }
+        int first, last;
+        if (ascending) {
+            first = findInsertion(min);
+            last = findInsertionAfter(max) - 1;
+        } else {
+            first = findInsertion(max);
+            last = findInsertionAfter(min) - 1;
+        }
+        if (first <= last) {
+            spans.add(new int[] { first, last });
+        }
+    }
+
+    /**
+     * @return the first index whose value is not before the target in axis order
+     */
+    private int findInsertion(double target) {
+        int lo = 0;
+        int hi = values.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ascending ? values[mid] < target : values[mid] > target) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return the first index whose value is after the target in axis order
+     */
+    private int findInsertionAfter(double target) {
+        int lo = 0;
+        int hi = values.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ascending ? values[mid] <= target : values[mid] >= target) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private int findNearestLinear(double value) {
+        double bestDiff = Double.POSITIVE_INFINITY;
+        int best = -1;
+        for (int i = 0; i < values.length; i++) {
+            double diff = distance(values[i], value);
+            if (diff < bestDiff) {
+                bestDiff = diff;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private double distance(double a, double b) {
+        double diff = Math.abs(a - b);
+        if (longitude) {
+            diff = diff % 360;
+            diff = Math.min(diff, 360 - diff);
+        }
+        return diff;
+    }
+
+    /**
+     * Shifts a longitude by multiples of 360 into the span of the axis
+     */
+    private double wrapIntoAxis(double value) {
+        double min = Math.min(values[0], values[values.length - 1]);
+        double max = Math.max(values[0], values[values.length - 1]);
+        if ((value >= min && value <= max) || Double.isNaN(value) || Double.isInfinite(value)) {
+            return value;
+        }
+        // floor modulo, so the shift takes constant time however large the value
+        return min + (((value - min) % 360) + 360) % 360;
+    }
+}
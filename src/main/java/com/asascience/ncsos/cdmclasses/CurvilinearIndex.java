@@ -0,0 +1,213 @@
+package com.asascience.ncsos.cdmclasses;
+
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.dataset.CoordinateAxis;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Nearest cell lookups on curvilinear grids, whose latitudes and longitudes
+ * are 2D arrays (ie lat(y,x) and lon(y,x) of ROMS output). Unstructured grids
+ * (ie FVCOM), whose coordinates are 1D over the nodes, are not covered. The cell
+ * centres are put in a KD-tree over their positions on the unit sphere, which
+ * needs no special handling of the dateline or the poles, and searching it
+ * takes logarithmic time instead of a scan of every cell. Cells with missing
+ * coordinates (ie masked land) are left out.
+ * <p>
+ * Building the tree reads both coordinate arrays, so indexes are cached by
+ * dataset location, last modified time and axis names and shared by requests.
+ */
+final class CurvilinearIndex {
+
+    private static final int MAX_CACHED_GRIDS = 16;
+    private static final Map<String, CurvilinearIndex> cache = new LinkedHashMap<String, CurvilinearIndex>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CurvilinearIndex> eldest) {
+            return size() > MAX_CACHED_GRIDS;
+        }
+    };
+
+    private final long lastModified;
+    private final int nx;
+    private final double[] lats;
+    private final double[] lons;
+    // positions of the cells on the unit sphere
+    private final double[][] xyz;
+    // cells in tree order: the median of each range splits it on the axis of its depth
+    private final int[] tree;
+
+    CurvilinearIndex(long lastModified, int nx, double[] lats, double[] lons) {
+        this.lastModified = lastModified;
+        this.nx = nx;
+        this.lats = lats;
+        this.lons = lons;
+        this.xyz = new double[3][lats.length];
+        int valid = 0;
+        for (int i = 0; i < lats.length; i++) {
+            if (Double.isNaN(lats[i]) || Double.isNaN(lons[i])) {
+                continue;
+            }
+            double lat = Math.toRadians(lats[i]);
+            double lon = Math.toRadians(lons[i]);
+            xyz[0][i] = Math.cos(lat) * Math.cos(lon);
+            xyz[1][i] = Math.cos(lat) * Math.sin(lon);
+            xyz[2][i] = Math.sin(lat);
+            valid++;
+        }
+        this.tree = new int[valid];
+        int n = 0;
+        for (int i = 0; i < lats.length; i++) {
+            if (!Double.isNaN(lats[i]) && !Double.isNaN(lons[i])) {
+                tree[n++] = i;
+            }
+        }
+        build(0, tree.length, 0);
+    }
+
+    /**
+     * Returns the index of a curvilinear grid, from the cache if the dataset has not changed
+     * @param file file the axes belong to
+     * @param latAxis 2D latitude axis
+     * @param lonAxis 2D longitude axis of the same shape
+     * @return index of the grid cells
+     * @throws IOException if the axes cannot be read or are not 2D
+     */
+    static CurvilinearIndex get(NetcdfFile file, CoordinateAxis latAxis, CoordinateAxis lonAxis) throws IOException {
+        long lastModified = file.getLastModified();
+        String key = (file.getLocation() != null && lastModified > 0) ?
+                file.getLocation() + "\n" + latAxis.getFullName() + "\n" + lonAxis.getFullName() : null;
+        if (key != null) {
+            synchronized (cache) {
+                CurvilinearIndex index = cache.get(key);
+                if (index != null && index.lastModified == lastModified) {
+                    return index;
+                }
+            }
+        }
+        int[] shape = latAxis.getShape();
+        if (shape.length != 2 || !java.util.Arrays.equals(shape, lonAxis.getShape())) {
+            throw new IOException("Latitude and longitude are not 2D axes of the same shape");
+        }
+        double[] lats = (double[]) latAxis.read().get1DJavaArray(double.class);
+        double[] lons = (double[]) lonAxis.read().get1DJavaArray(double.class);
+        CurvilinearIndex index = new CurvilinearIndex(lastModified, shape[1], lats, lons);
+        if (key != null) {
+            synchronized (cache) {
+                cache.put(key, index);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Finds the cell whose centre is closest to a location
+     * @param lat latitude of the location
+     * @param lon longitude of the location
+     * @return cell index (y * nx + x), -1 if the grid has no valid cells
+     */
+    int findNearest(double lat, double lon) {
+        if (tree.length == 0) {
+            return -1;
+        }
+        double latRad = Math.toRadians(lat);
+        double lonRad = Math.toRadians(lon);
+        double[] target = { Math.cos(latRad) * Math.cos(lonRad), Math.cos(latRad) * Math.sin(lonRad), Math.sin(latRad) };
+        Nearest nearest = new Nearest();
+        search(0, tree.length, 0, target, nearest);
+        return nearest.cell;
+    }
+
+    int getY(int cell) {
+        return cell / nx;
+    }
+
+    int getX(int cell) {
+        return cell % nx;
+    }
+
+    double getLat(int cell) {
+        return lats[cell];
+    }
+
+    double getLon(int cell) {
+        return lons[cell];
+    }
+
+    private void build(int lo, int hi, int depth) {
+        if (hi - lo <= 1) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid, xyz[depth % 3]);
+        build(lo, mid, depth + 1);
+        build(mid + 1, hi, depth + 1);
+    }
+
+    /**
+     * Reorders tree[lo..hi] so tree[k] holds the cell that would be there if
+     * the range was sorted on the coordinate, smaller ones before it and larger
+     * ones after it
+     */
+    private void select(int lo, int hi, int k, double[] coord) {
+        while (lo < hi) {
+            double pivot = coord[tree[(lo + hi) >>> 1]];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (coord[tree[i]] < pivot) i++;
+                while (coord[tree[j]] > pivot) j--;
+                if (i <= j) {
+                    int swap = tree[i];
+                    tree[i] = tree[j];
+                    tree[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void search(int lo, int hi, int depth, double[] target, Nearest nearest) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        int cell = tree[mid];
+        double dx = xyz[0][cell] - target[0];
+        double dy = xyz[1][cell] - target[1];
+        double dz = xyz[2][cell] - target[2];
+        double distance = dx * dx + dy * dy + dz * dz;
+        // ties go to the lower cell index, so results do not depend on the tree layout
+        if (distance < nearest.distance || (distance == nearest.distance && cell < nearest.cell)) {
+            nearest.distance = distance;
+            nearest.cell = cell;
+        }
+        int axis = depth % 3;
+        double diff = target[axis] - xyz[axis][cell];
+        if (diff < 0) {
+            search(lo, mid, depth + 1, target, nearest);
+            if (diff * diff <= nearest.distance) {
+                search(mid + 1, hi, depth + 1, target, nearest);
+            }
+        } else {
+            search(mid + 1, hi, depth + 1, target, nearest);
+            if (diff * diff <= nearest.distance) {
+                search(lo, mid, depth + 1, target, nearest);
+            }
+        }
+    }
+
+    private static class Nearest {
+        private int cell = -1;
+        private double distance = Double.MAX_VALUE;
+    }
+}
@@ -1,14 +1,14 @@
 package com.asascience.ncsos.cdmclasses;
 
 import ucar.ma2.Array;
+import ucar.ma2.Index;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Range;
 import ucar.nc2.constants.CF;
-import ucar.nc2.dataset.CoordinateAxis;
 import ucar.nc2.dataset.CoordinateAxis1D;
-import ucar.nc2.dataset.CoordinateAxis1DTime;
 import ucar.nc2.dt.GridCoordSystem;
 import ucar.nc2.dt.GridDataset;
 import ucar.nc2.dt.GridDatatype;
-import ucar.nc2.units.DateFormatter;
 import ucar.unidata.geoloc.LatLonRect;
 import ucar.unidata.geoloc.Station;
 
@@ -20,13 +20,14 @@ public class Grid extends baseCDMClass implements iStationData {
     private static final String DEPTH = "depth";
     private static final String LAT = "latitude";
     private static final String LON = "longitude";
+    // largest number of values read in one section
+    private static final long MAX_SECTION_VALUES = 1 << 20;
     private List<String> stationNameList;
     private List<String> stationDescripList;
     private final String[] variableNames;
     private final ArrayList<String> eventTimes;
     private GridDataset GridData;
     private final Map<String, String> latLonRequest;
-    DateFormatter dateFormatter = new DateFormatter();
 
     /**
      * Constructs a new Grid with parameters passed in
@@ -57,41 +58,62 @@ public class Grid extends baseCDMClass implements iStationData {
     }
 
     /**
-     * Adds a Date entry to the builder from the dates array
-     * @param builder the StringBuilder being built
-     * @param dates Date array from which the first date value (0 index) is pulled from
+     * Adds a row to the batch with the time of a time step
+     * @param batch the ObservationBatch being built
+     * @param timeSteps time steps of the grid, null if it has no time axis
+     * @param timeIndex index of the time step
+     * @param stNum station index of the row
+     * @return index of the new row
      */
-    private void addDateEntry(StringBuilder builder, Date[] dates) {
-        builder.append("time=").append(dateFormatter.toDateTimeStringISO(dates[0]));
-        builder.append(",");
+    private int addDateEntry(ObservationBatch batch, TimeAxisIndex timeSteps, int timeIndex, int stNum) {
+        long time = (timeSteps != null && timeSteps.size() > timeIndex) ? timeSteps.getTime(timeIndex) : ObservationBatch.NO_TIME;
+        return batch.addRow(time, stNum);
     }
 
     /**
-     * Attempts to collect the depth values from latLons and returns them in an array
-     * @param latLons hash map that has lat,lon and maybe depth
+     * Finds the time steps of the requested event time(s): the nearest step to
+     * a single time, or all steps within a start/end window
+     * @param timeSteps time steps of the time axis
+     * @return indices of the first and last time step; the last index is smaller
+     * than the first if no step falls in the window
+     */
+    private int[] getTimeIndexRange(TimeAxisIndex timeSteps) {
+        long[] window = getEventTimeWindow(eventTimes);
+        if (window == null || timeSteps.size() == 0) {
+            return new int[] { 0, 0 };
+        }
+        if (window[0] > window[1]) {
+            return new int[] { 0, -1 };
+        }
+        if (eventTimes.size() == 1) {
+            int nearest = timeSteps.findNearest(window[0]);
+            return new int[] { nearest, nearest };
+        }
+        return timeSteps.findRange(window[0], window[1]);
+    }
+
+    /**
+     * Finds the depth index of each requested point on a vertical axis
+     * @param nPoints number of requested points
+     * @param depthAxis vertical axis of the grid, may be null
      * @return integer array with the indices of the depth values
      */
-    private int[] checkAndGetDepthIndices(Map<String, Integer[]> latLons) {
+    private int[] checkAndGetDepthIndices(int nPoints, CoordinateAxis1D depthAxis) {
         // setup for finding our depth values
-        int[] retVal = new int[latLons.get(LAT).length];
-        CoordinateAxis1D depthData = (CoordinateAxis1D) GridData.getDataVariable(DEPTH);
-        if (depthData != null) {
-            double[] depthDbl = depthData.getCoordValues();
+        int[] retVal = new int[nPoints];
+        if (depthAxis != null && latLonRequest.get(DEPTH) != null) {
+            CoordinateIndex depthIndex = getCoordinateIndex(depthAxis, false);
             String[] requestedDepths = latLonRequest.get(DEPTH).split("[,]");
             int currIndex = 0;
             for (int i=0;i<retVal.length;i++) {
                 currIndex = (i < requestedDepths.length) ? i : requestedDepths.length - 1;
                 try {
-                    retVal[i] = findBestIndex(depthDbl, Double.parseDouble(requestedDepths[currIndex]));
+                    retVal[i] = Math.max(0, depthIndex.findNearest(Double.parseDouble(requestedDepths[currIndex])));
                 } catch (Exception e) {
                     System.out.println("Could not parse: " + requestedDepths[currIndex] + " - " + e.getMessage());
                     retVal[i] = 0;
                 }
             }
-        } else {
-            for (int r=0;r<retVal.length;r++) {
-                retVal[r] = 0;
-            }
         }
         return retVal;
     }
@@ -144,89 +166,187 @@ public class Grid extends baseCDMClass implements iStationData {
     }
 
     @Override
-    public String getDataResponse(int stNum) {
+    public ObservationBatch getDataBatch(int stNum) {
+        ObservationBatch batch = new ObservationBatch(null);
         if (GridData != null) {
-            StringBuilder builder = new StringBuilder();
-            Array data = null;
-
-            GridDatatype grid = GridData.getGrids().get(0);
-            GridCoordSystem gcs = grid.getCoordinateSystem();
-            String lat_name   = GridData.getGrids().get(0).getCoordinateSystem().getYHorizAxis().getOriginalVariable().getFullName();
-            String lon_name   = GridData.getGrids().get(0).getCoordinateSystem().getXHorizAxis().getOriginalVariable().getFullName();
-            String depth_name = null;
-
-            double[] lonDbl = ((CoordinateAxis1D)GridData.getDataVariable(lon_name)).getCoordValues();
-            double[] latDbl = ((CoordinateAxis1D)GridData.getDataVariable(lat_name)).getCoordValues();
-            double[] depthDbl = null;
-
-            CoordinateAxis1D depthAxis = GridData.getGrids().get(0).getCoordinateSystem().getVerticalAxis();
-            if (depthAxis != null) {
-                depth_name = depthAxis.getOriginalVariable().getFullName();
-                depthDbl = ((CoordinateAxis1D)GridData.getDataVariable(depth_name)).getCoordValues();
+            // requested variables by coordinate system, in the order their columns are written;
+            // staggered variables (ie ROMS u, v and w) and variables on another time axis
+            // each get their own points, depths and time steps
+            Map<GridCoordSystem, List<GridDatatype>> gridsets = new LinkedHashMap<GridCoordSystem, List<GridDatatype>>();
+            for (GridDatatype dataGrid : GridData.getGrids()) {
+                if (isInVariableNames(dataGrid.getName())) {
+                    List<GridDatatype> grids = gridsets.get(dataGrid.getCoordinateSystem());
+                    if (grids == null) {
+                        grids = new ArrayList<GridDatatype>();
+                        gridsets.put(dataGrid.getCoordinateSystem(), grids);
+                    }
+                    grids.add(dataGrid);
+                }
             }
+            if (gridsets.isEmpty()) {
+                // no variable requested, the coordinates of the first grid are still written
+                gridsets.put(GridData.getGrids().get(0).getCoordinateSystem(), new ArrayList<GridDatatype>());
+            }
+
+            for (Map.Entry<GridCoordSystem, List<GridDatatype>> gridset : gridsets.entrySet()) {
+                if (!addGridsetRows(batch, gridset.getKey(), gridset.getValue(), stNum)) {
+                    return batch;
+                }
+            }
+            return batch;
+        }
+        _log.warn(DATA_RESPONSE_ERROR + Grid.class);
+        return batch;
 
-            Map<String, Integer[]> latLonDepthHash = findDataIndexs(lonDbl, latDbl, latLonRequest);
+    }
 
-            int[] depthHeights = new int[latLonDepthHash.get(LON).length];
-            Boolean zeroDepths = true;
+    /**
+     * Reads the requested points of the variables sharing a coordinate system
+     * and adds one row per point and time step to the batch
+     * @param batch the ObservationBatch being built
+     * @param gcs coordinate system of the variables
+     * @param dataGrids variables to read, in the order their columns are written
+     * @param stNum station index of the rows
+     * @return false if reading failed, with the error set on the batch
+     */
+    private boolean addGridsetRows(ObservationBatch batch, GridCoordSystem gcs, List<GridDatatype> dataGrids, int stNum) {
+        String lat_name   = gcs.getYHorizAxis().getOriginalVariable().getFullName();
+        String lon_name   = gcs.getXHorizAxis().getOriginalVariable().getFullName();
+        String depth_name = null;
+
+        double[] depthDbl = null;
+
+        CoordinateAxis1D depthAxis = gcs.getVerticalAxis();
+        if (depthAxis != null) {
+            depth_name = depthAxis.getOriginalVariable().getFullName();
+            depthDbl = getCoordinateIndex(depthAxis, false).getValues();
+        }
 
-            for(String vars : variableNames) {
-                if(vars.equalsIgnoreCase(DEPTH)) {
-                    // we do want depths
-                    zeroDepths = false;
-                    depthHeights = checkAndGetDepthIndices(latLonDepthHash);
+        // y and x index of each requested point, with the coordinates of its grid cell
+        Map<String, Integer[]> latLonDepthHash;
+        double[] pointLats;
+        double[] pointLons;
+        if (gcs.getXHorizAxis() instanceof CoordinateAxis1D && gcs.getYHorizAxis() instanceof CoordinateAxis1D) {
+            CoordinateIndex lonCoords = getCoordinateIndex((CoordinateAxis1D) gcs.getXHorizAxis(), true);
+            CoordinateIndex latCoords = getCoordinateIndex((CoordinateAxis1D) gcs.getYHorizAxis(), false);
+            latLonDepthHash = findDataIndexs(lonCoords, latCoords, latLonRequest);
+            Integer[] latIndices = latLonDepthHash.get(LAT);
+            Integer[] lonIndices = latLonDepthHash.get(LON);
+            pointLats = new double[latIndices.length];
+            pointLons = new double[lonIndices.length];
+            for (int k = 0; k < latIndices.length; k++) {
+                if (latIndices[k] < 0 || lonIndices[k] < 0) {
+                    batch.setError("ERROR= the grid has no latitude or longitude values");
+                    return false;
                 }
+                pointLats[k] = latCoords.getValues()[latIndices[k]];
+                pointLons[k] = lonCoords.getValues()[lonIndices[k]];
             }
-            
-            if (zeroDepths) {
-                for(int i=0; i<depthHeights.length; i++) {
-                    depthHeights[i] = 0;
+        } else {
+            // curvilinear grid with 2D latitudes and longitudes
+            CurvilinearIndex cells;
+            try {
+                cells = CurvilinearIndex.get(GridData.getNetcdfFile(), gcs.getYHorizAxis(), gcs.getXHorizAxis());
+            } catch (IOException ex) {
+                batch.setError("ERROR= reading the grid coordinates: " + ex.getLocalizedMessage());
+                return false;
+            }
+            int[] pointCells;
+            try {
+                pointCells = findCells(cells, latLonRequest);
+            } catch (NumberFormatException ex) {
+                _log.error("Invalid latitude or longitude request: " + ex.getMessage());
+                batch.setError("ERROR= invalid latitude or longitude: " + ex.getLocalizedMessage());
+                return false;
+            }
+            Integer[] yIndices = new Integer[pointCells.length];
+            Integer[] xIndices = new Integer[pointCells.length];
+            pointLats = new double[pointCells.length];
+            pointLons = new double[pointCells.length];
+            for (int k = 0; k < pointCells.length; k++) {
+                if (pointCells[k] < 0) {
+                    batch.setError("ERROR= the grid has no cells with valid coordinates");
+                    return false;
                 }
+                yIndices[k] = cells.getY(pointCells[k]);
+                xIndices[k] = cells.getX(pointCells[k]);
+                pointLats[k] = cells.getLat(pointCells[k]);
+                pointLons[k] = cells.getLon(pointCells[k]);
             }
-            
-            for (int k=0; k<latLonDepthHash.get(LAT).length; k++) {
-                java.util.Date[] dates = null;
-                if (gcs.hasTimeAxis1D()) {
-                    CoordinateAxis1DTime tAxis1D = gcs.getTimeAxis1D();
-                    dates = tAxis1D.getTimeDates();
-
-                } else if (gcs.hasTimeAxis()) {
-                    CoordinateAxis tAxis = gcs.getTimeAxis();
+            latLonDepthHash = new HashMap<String, Integer[]>();
+            latLonDepthHash.put(LAT, yIndices);
+            latLonDepthHash.put(LON, xIndices);
+        }
+
+        int[] depthHeights = new int[latLonDepthHash.get(LON).length];
+        for(String vars : variableNames) {
+            if(vars.equalsIgnoreCase(DEPTH)) {
+                // we do want depths, on the vertical axis of these variables
+                depthHeights = checkAndGetDepthIndices(depthHeights.length, depthAxis);
+            }
+        }
+
+        // columns, in the order the values are written
+        int depthColumn = (depthDbl != null) ? batch.addColumn(depth_name) : -1;
+        int latColumn = batch.addColumn(lat_name);
+        int lonColumn = batch.addColumn(lon_name);
+        int[] valueColumns = new int[dataGrids.size()];
+        for (int v = 0; v < dataGrids.size(); v++) {
+            valueColumns[v] = batch.addColumn(dataGrids.get(v).getName());
+        }
+
+        // time steps to read; the first step when no event time is requested
+        TimeAxisIndex timeSteps = null;
+        int firstTime = 0;
+        int lastTime = 0;
+        if (gcs.hasTimeAxis1D()) {
+            timeSteps = TimeAxisIndex.get(GridData.getNetcdfFile(), gcs.getTimeAxis1D());
+            int[] timeRange = getTimeIndexRange(timeSteps);
+            firstTime = timeRange[0];
+            lastTime = timeRange[1];
+        }
+        if (lastTime < firstTime) {
+            // no time step of these variables in the requested window
+            return true;
+        }
+
+        Integer[] yIndices = latLonDepthHash.get(LAT);
+        Integer[] xIndices = latLonDepthHash.get(LON);
+        int nPoints = yIndices.length;
+        int nTimes = lastTime - firstTime + 1;
+
+        // values of each variable by point and time step, read a few sections at a time
+        float[][] values = new float[dataGrids.size()][nPoints * nTimes];
+        List<int[]> readGroups = planReadGroups(yIndices, xIndices, depthHeights, nTimes);
+        for (int v = 0; v < dataGrids.size(); v++) {
+            for (int[] group : readGroups) {
+                try {
+                    readGroup(dataGrids.get(v), group, yIndices, xIndices, depthHeights, firstTime, nTimes, values[v]);
+                } catch (Exception ex) {
+                    _log.error("Error in reading data slice of " + dataGrids.get(v).getName() + " - " + ex.getMessage());
+                    batch.setError("ERROR= reading data slice from GridData: " + ex.getLocalizedMessage());
+                    return false;
                 }
-                //modify for requested dates, add in for loop
-                addDateEntry(builder, dates);
+            }
+        }
+
+        for (int k=0; k<nPoints; k++) {
+            for (int t = firstTime; t <= lastTime; t++) {
+                int row = addDateEntry(batch, timeSteps, t, stNum);
 
                 // add depth
                 if(depthDbl != null) {
-                    builder.append(depth_name).append("=").append(depthDbl[depthHeights[k]]).append(",");
+                    batch.setDouble(depthColumn, row, depthDbl[depthHeights[k]]);
                 }
-                
-                builder.append(lat_name).append("=").append(latDbl[latLonDepthHash.get(LAT)[k]]).append(",");
-                builder.append(lon_name).append("=").append(lonDbl[latLonDepthHash.get(LON)[k]]).append(",");
-                // get data slices
-                String dataName;
-                for (int l=0; l<GridData.getGrids().size();l++) {
-                    dataName = GridData.getGrids().get(l).getName();
-                    if (isInVariableNames(GridData.getGrids().get(l).getName())) {
-                        try {
-                            data = grid.readDataSlice(0, depthHeights[k], latLonDepthHash.get(LAT)[k], latLonDepthHash.get(LON)[k]);
-                            builder.append(dataName).append("=").append(data.getFloat(0)).append(",");
-                        } catch (Exception ex) {
-                            System.out.println("Error in reading data slice, index " + l + " - " + ex.getMessage());
-                            builder.delete(0, builder.length());
-                            builder.append("ERROR= reading data slice from GridData: ").append(ex.getLocalizedMessage());
-                            return builder.toString();
-                        }
-                    }
+
+                batch.setDouble(latColumn, row, pointLats[k]);
+                batch.setDouble(lonColumn, row, pointLons[k]);
+                for (int v = 0; v < dataGrids.size(); v++) {
+                    batch.setFloat(valueColumns[v], row, values[v][k * nTimes + t - firstTime]);
                 }
-                builder.deleteCharAt(builder.length()-1);
-                builder.append(";");
             }
-            builder.append(" ").append("\n");
-            return builder.toString();
         }
-        return DATA_RESPONSE_ERROR + Grid.class;
-
+        return true;
     }
 
     @Override
@@ -392,12 +512,12 @@ public class Grid extends baseCDMClass implements iStationData {
 
     /**
      * find lat lon index's in X|Y axis of requested locations
-     * @param lonDbl array of longitude values
-     * @param latDbl array of latitude values
+     * @param lonCoords index of the longitude values
+     * @param latCoords index of the latitude values
      * @param latLonRequest map with the latitude and longitude request(s)
      * @return map with arrays of indices for latitude and longitude
      */
-    private Map<String, Integer[]> findDataIndexs(double[] lonDbl, double[] latDbl, Map<String, String> latLonRequest) {
+    private Map<String, Integer[]> findDataIndexs(CoordinateIndex lonCoords, CoordinateIndex latCoords, Map<String, String> latLonRequest) {
         Map<String, Integer[]> latLonIndex = new HashMap<String, Integer[]>();
         String lonVal = latLonRequest.get(LON);
         String latVal = latLonRequest.get(LAT);
@@ -427,7 +547,7 @@ public class Grid extends baseCDMClass implements iStationData {
             try {
                 if (lons[j].contains("_")) {
                     String[] bounds = lons[j].split("_");
-                    requestedLons = arrayFromValueRange(bounds, lonDbl, requestedLons);
+                    requestedLons = arrayFromValueRange(bounds, lonCoords, requestedLons);
                 } else {
                     requestedLons[j] = Double.parseDouble(lons[j]);
                 }
@@ -440,7 +560,7 @@ public class Grid extends baseCDMClass implements iStationData {
             try {
                 if (lats[k].contains("_")) {
                     String[] bounds = lats[k].split("_");
-                    requestedLats = arrayFromValueRange(bounds, latDbl, requestedLats);
+                    requestedLats = arrayFromValueRange(bounds, latCoords, requestedLats);
                 } else {
                     requestedLats[k] = Double.parseDouble(lats[k]);
                 }
@@ -458,15 +578,15 @@ public class Grid extends baseCDMClass implements iStationData {
         // get our indices
         for(int i=0;i<requestedArrayLength;i++) {
             if(requestedLons.length > i) {
-                retLons[i] = findBestIndex(lonDbl, requestedLons[i]);
+                retLons[i] = lonCoords.findNearest(requestedLons[i]);
             } else {
-                retLons[i] = findBestIndex(lonDbl, requestedLons[requestedLons.length - 1]);
+                retLons[i] = lonCoords.findNearest(requestedLons[requestedLons.length - 1]);
             }
 
             if(requestedLats.length > i) {
-                retLats[i] = findBestIndex(latDbl, requestedLats[i]);
+                retLats[i] = latCoords.findNearest(requestedLats[i]);
             } else {
-                retLats[i] = findBestIndex(latDbl, requestedLats[requestedLats.length - 1]);
+                retLats[i] = latCoords.findNearest(requestedLats[requestedLats.length - 1]);
             }
         }
 
@@ -479,13 +599,171 @@ public class Grid extends baseCDMClass implements iStationData {
     }
     
     /**
-     * iterate through the arrayToSearch array for values that lie in out boundaries
+     * Groups the requested points into sections that are read with one call
+     * each. Points are sorted by y and x so neighbours end up in the same
+     * section, and a section grows until its bounding box (over time, depth,
+     * y and x) would hold more than MAX_SECTION_VALUES values.
+     * @param yIndices y index of each point
+     * @param xIndices x index of each point
+     * @param depthIndices depth index of each point
+     * @param nTimes number of time steps read for each point
+     * @return the point indices of each section
+     */
+    private List<int[]> planReadGroups(final Integer[] yIndices, final Integer[] xIndices, int[] depthIndices, int nTimes) {
+        Integer[] order = new Integer[yIndices.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                int cmp = yIndices[a].compareTo(yIndices[b]);
+                return (cmp != 0) ? cmp : xIndices[a].compareTo(xIndices[b]);
+            }
+        });
+        List<int[]> groups = new ArrayList<int[]>();
+        List<Integer> current = new ArrayList<Integer>();
+        int y0 = 0, y1 = 0, x0 = 0, x1 = 0, z0 = 0, z1 = 0;
+        for (Integer point : order) {
+            int y = yIndices[point];
+            int x = xIndices[point];
+            int z = depthIndices[point];
+            if (!current.isEmpty()) {
+                long sectionValues = (long) nTimes
+                        * (Math.max(z1, z) - Math.min(z0, z) + 1)
+                        * (Math.max(y1, y) - Math.min(y0, y) + 1)
+                        * (Math.max(x1, x) - Math.min(x0, x) + 1);
+                if (sectionValues > MAX_SECTION_VALUES) {
+                    groups.add(toIntArray(current));
+                    current.clear();
+                }
+            }
+            if (current.isEmpty()) {
+                y0 = y1 = y;
+                x0 = x1 = x;
+                z0 = z1 = z;
+            } else {
+                y0 = Math.min(y0, y);
+                y1 = Math.max(y1, y);
+                x0 = Math.min(x0, x);
+                x1 = Math.max(x1, x);
+                z0 = Math.min(z0, z);
+                z1 = Math.max(z1, z);
+            }
+            current.add(point);
+        }
+        if (!current.isEmpty()) {
+            groups.add(toIntArray(current));
+        }
+        return groups;
+    }
+
+    private static int[] toIntArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * Reads the bounding section of a group of points from a variable and
+     * gathers the value of each point and time step
+     * @param dataGrid variable to read
+     * @param group point indices of the group
+     * @param yIndices y index of each point
+     * @param xIndices x index of each point
+     * @param depthIndices depth index of each point
+     * @param firstTime first time step to read
+     * @param nTimes number of time steps to read
+     * @param values receives the values, by point and time step
+     * @throws IOException
+     * @throws InvalidRangeException
+     */
+    private void readGroup(GridDatatype dataGrid, int[] group, Integer[] yIndices, Integer[] xIndices, int[] depthIndices,
+                           int firstTime, int nTimes, float[] values) throws IOException, InvalidRangeException {
+        int y0 = Integer.MAX_VALUE, y1 = Integer.MIN_VALUE, x0 = Integer.MAX_VALUE, x1 = Integer.MIN_VALUE;
+        int z0 = Integer.MAX_VALUE, z1 = Integer.MIN_VALUE;
+        for (int k : group) {
+            y0 = Math.min(y0, yIndices[k]);
+            y1 = Math.max(y1, yIndices[k]);
+            x0 = Math.min(x0, xIndices[k]);
+            x1 = Math.max(x1, xIndices[k]);
+            z0 = Math.min(z0, depthIndices[k]);
+            z1 = Math.max(z1, depthIndices[k]);
+        }
+        boolean hasTime = dataGrid.getTimeDimension() != null;
+        boolean hasDepth = dataGrid.getZDimension() != null;
+        // only the first run time and ensemble member is read, as the point reads did
+        GridDatatype section = dataGrid.makeSubset(
+                (dataGrid.getRunTimeDimension() != null) ? new Range(0, 0) : null,
+                (dataGrid.getEnsembleDimension() != null) ? new Range(0, 0) : null,
+                hasTime ? new Range(firstTime, firstTime + nTimes - 1) : null,
+                hasDepth ? new Range(z0, z1) : null,
+                new Range(y0, y1), new Range(x0, x1));
+        int nt = hasTime ? nTimes : 1;
+        int nz = hasDepth ? z1 - z0 + 1 : 1;
+        // the slice may drop dimensions of length one, give it a fixed t,z,y,x shape
+        Array data = section.readDataSlice(-1, -1, -1, -1).reshape(new int[] { nt, nz, y1 - y0 + 1, x1 - x0 + 1 });
+        Index index = data.getIndex();
+        for (int k : group) {
+            for (int t = 0; t < nTimes; t++) {
+                index.set(hasTime ? t : 0, hasDepth ? depthIndices[k] - z0 : 0, yIndices[k] - y0, xIndices[k] - x0);
+                values[k * nTimes + t] = data.getFloat(index);
+            }
+        }
+    }
+
+    /**
+     * find the grid cells nearest to the requested locations of a curvilinear grid;
+     * a requested range is resolved to the cell nearest to its centre
+     * @param cells index of the grid cells
+     * @param latLonRequest map with the latitude and longitude request(s)
+     * @return index of the nearest cell for each requested location
+     * @throws NumberFormatException if a requested value is not a number
+     */
+    private int[] findCells(CurvilinearIndex cells, Map<String, String> latLonRequest) {
+        double[] requestedLats = parseRequestedValues(latLonRequest.get(LAT));
+        double[] requestedLons = parseRequestedValues(latLonRequest.get(LON));
+        int requestedArrayLength = Math.max(requestedLats.length, requestedLons.length);
+        int[] retCells = new int[requestedArrayLength];
+        for (int i = 0; i < requestedArrayLength; i++) {
+            double lat = requestedLats[Math.min(i, requestedLats.length - 1)];
+            double lon = requestedLons[Math.min(i, requestedLons.length - 1)];
+            retCells[i] = cells.findNearest(lat, lon);
+        }
+        return retCells;
+    }
+
+    /**
+     * @param requested comma separated values or min_max ranges
+     * @return each value, or the centre of each range
+     * @throws NumberFormatException if a value or a bound is not a number
+     */
+    private static double[] parseRequestedValues(String requested) {
+        String[] split = requested.split(",");
+        double[] values = new double[split.length];
+        for (int i = 0; i < split.length; i++) {
+            if (split[i].contains("_")) {
+                String[] bounds = split[i].split("_");
+                if (bounds.length != 2) {
+                    throw new NumberFormatException("invalid range \"" + split[i] + "\"");
+                }
+                values[i] = (Double.parseDouble(bounds[0]) + Double.parseDouble(bounds[1])) / 2;
+            } else {
+                values[i] = Double.parseDouble(split[i]);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * find the coordinate values that lie in our boundaries
      * @param bounds the upper & lower bounds of the desired values
-     * @param arrayToSearch array to search for values inside given bounds
+     * @param coords index of the coordinate values to search
      * @param arrayToExpand the array to add the desired values to
      * @return arrayToExpand with the new values added
      */
-    private double[] arrayFromValueRange(String[] bounds, double[] arrayToSearch, double[] arrayToExpand) {
+    private double[] arrayFromValueRange(String[] bounds, CoordinateIndex coords, double[] arrayToExpand) {
         double minVal, maxVal;
         try {
             minVal = Double.parseDouble(bounds[0]);
@@ -503,41 +781,22 @@ public class Grid extends baseCDMClass implements iStationData {
             minVal = maxVal;
             maxVal = temp;
         }
-        // looking for a range of doubles, iterate through the arrayToSearch array for values that lie in out boundaries
-        ArrayList<Double> builder = new ArrayList<Double>();
-        for (int k=0;k<arrayToExpand.length;k++) {
-            builder.add(arrayToExpand[k]);
+        int[] inRange = coords.findRange(minVal, maxVal);
+        double[] values = coords.getValues();
+        double[] expanded = Arrays.copyOf(arrayToExpand, arrayToExpand.length + inRange.length);
+        for (int i = 0; i < inRange.length; i++) {
+            expanded[arrayToExpand.length + i] = values[inRange[i]];
         }
-        for (int l=0;l<arrayToSearch.length;l++) {
-            if (arrayToSearch[l] >= minVal && arrayToSearch[l] <= maxVal) {
-                builder.add(arrayToSearch[l]);
-            }
-        }
-        arrayToExpand = new double[builder.size()];
-        for(int i=0;i<builder.size();i++) {
-            arrayToExpand[i] = builder.get(i).doubleValue();
-        }
-        return arrayToExpand;
+        return expanded;
     }
-    
+
     /**
-     * iterate through valueArray to find the index with the value closest to 'valueToFind'
-     * @param valueArray array to iterate through
-     * @param valueToFind value to find
-     * @return index of value closest to 'valueToFind'
+     * @param axis 1D coordinate axis of the grid dataset
+     * @param longitude true for a longitude axis
+     * @return cached index of the axis values
      */
-    private int findBestIndex(double[] valueArray, double valueToFind){
-        // iterate through the array to find the index with the value closest to 'valueToFind'
-        double bestDiffValue = Double.MAX_VALUE;
-        int retIndex = -1;
-        for(int i=0; i<valueArray.length; i++) {
-           double curDiffValue = valueArray[i] - valueToFind;
-           if(Math.abs(curDiffValue) < bestDiffValue) {
-               bestDiffValue = Math.abs(curDiffValue);
-               retIndex = i;
-           }
-        }
-        return retIndex;
+    private CoordinateIndex getCoordinateIndex(CoordinateAxis1D axis, boolean longitude) {
+        return CoordinateIndex.get(GridData.getNetcdfFile(), axis, longitude);
     }
 
     public List<String> getLocationsString(int stNum) {
@@ -0,0 +1,409 @@
+package com.asascience.ncsos.cdmclasses;
+
+import com.asascience.ncsos.util.NumericEncoder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Column oriented set of observations read from a dataset for a single station
+ * (or a single requested location for gridded datasets). Each row has an
+ * epoch-millis time and a station index; each observed property is kept in its
+ * own typed column with a bitmap of the rows that hold no value.
+ * <p>
+ * Replaces the old "time=...,station=0,var=value;" strings so the output
+ * formatters can write values without re-parsing them.
+ */
+public class ObservationBatch {
+
+    /**
+     * Time value used for rows whose time could not be read from the dataset
+     */
+    public static final long NO_TIME = Long.MIN_VALUE;
+
+    /**
+     * Storage type of a column
+     */
+    public enum ColumnType {
+        DOUBLE, FLOAT, LONG, TEXT
+    }
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int size;
+    private long[] times;
+    private int[] stations;
+    private final List<Column> columns;
+    private final Map<String, Integer> columnIndices;
+    private String error;
+
+    /**
+     * Creates an empty batch with one column for each of the variable names
+     * @param variableNames names of the columns, in output order
+     */
+    public ObservationBatch(String[] variableNames) {
+        this.size = 0;
+        this.times = new long[INITIAL_CAPACITY];
+        this.stations = new int[INITIAL_CAPACITY];
+        this.columns = new ArrayList<Column>();
+        this.columnIndices = new HashMap<String, Integer>();
+        this.error = null;
+        if (variableNames != null) {
+            for (String name : variableNames) {
+                addColumn(name);
+            }
+        }
+    }
+
+    /**
+     * Adds a column to the batch. If a column with the same name already
+     * exists its index is returned instead.
+     * @param name column (variable) name
+     * @return index of the column
+     */
+    public int addColumn(String name) {
+        Integer index = columnIndices.get(name);
+        if (index == null) {
+            index = columns.size();
+            columns.add(new Column(name, times.length));
+            columnIndices.put(name, index);
+        }
+        return index;
+    }
+
+    /**
+     * @param name column (variable) name
+     * @return index of the column, -1 if the batch has no such column
+     */
+    public int getColumnIndex(String name) {
+        Integer index = columnIndices.get(name);
+        return (index != null) ? index : -1;
+    }
+
+    public int getColumnCount() {
+        return columns.size();
+    }
+
+    public String getColumnName(int column) {
+        return columns.get(column).name;
+    }
+
+    /**
+     * Caps the fraction digits written for the floating point values of a
+     * column, ie from the least_significant_digit attribute of its variable
+     * @param column index of the column
+     * @param fractionDigits maximum number of fraction digits, NumericEncoder.NO_PRECISION for no cap
+     */
+    public void setPrecision(int column, int fractionDigits) {
+        columns.get(column).precision = fractionDigits;
+    }
+
+    public int getPrecision(int column) {
+        return columns.get(column).precision;
+    }
+
+    /**
+     * @param column index of the column
+     * @return storage type of the column, null if no value has been set in it
+     */
+    public ColumnType getColumnType(int column) {
+        return columns.get(column).type;
+    }
+
+    /**
+     * Appends a new row; all of its columns start out null.
+     * @param time observation time in milliseconds since the epoch, or NO_TIME
+     * @param station index of the station the observation belongs to
+     * @return index of the new row
+     */
+    public int addRow(long time, int station) {
+        if (size == times.length) {
+            int capacity = times.length * 2;
+            times = Arrays.copyOf(times, capacity);
+            stations = Arrays.copyOf(stations, capacity);
+            for (Column col : columns) {
+                col.ensureCapacity(capacity);
+            }
+        }
+        times[size] = time;
+        stations[size] = station;
+        return size++;
+    }
+
+    /**
+     * @return number of rows in the batch
+     */
+    public int size() {
+        return size;
+    }
+
+    public long getTime(int row) {
+        return times[row];
+    }
+
+    public int getStation(int row) {
+        return stations[row];
+    }
+
+    public void setDouble(int column, int row, double value) {
+        Column col = columns.get(column).typed(ColumnType.DOUBLE, times.length);
+        switch (col.type) {
+            case FLOAT:
+                col.floats[row] = (float) value;
+                break;
+            case LONG:
+                col.longs[row] = (long) value;
+                break;
+            case TEXT:
+                col.texts[row] = Double.toString(value);
+                break;
+            default:
+                col.doubles[row] = value;
+        }
+        col.present.set(row);
+    }
+
+    public void setFloat(int column, int row, float value) {
+        Column col = columns.get(column).typed(ColumnType.FLOAT, times.length);
+        switch (col.type) {
+            case DOUBLE:
+                col.doubles[row] = value;
+                break;
+            case LONG:
+                col.longs[row] = (long) value;
+                break;
+            case TEXT:
+                col.texts[row] = Float.toString(value);
+                break;
+            default:
+                col.floats[row] = value;
+        }
+        col.present.set(row);
+    }
+
+    public void setLong(int column, int row, long value) {
+        Column col = columns.get(column).typed(ColumnType.LONG, times.length);
+        switch (col.type) {
+            case DOUBLE:
+                col.doubles[row] = value;
+                break;
+            case FLOAT:
+                col.floats[row] = value;
+                break;
+            case TEXT:
+                col.texts[row] = Long.toString(value);
+                break;
+            default:
+                col.longs[row] = value;
+        }
+        col.present.set(row);
+    }
+
+    /**
+     * Sets a textual value. On a numeric column the text is parsed; text that
+     * is not a number leaves the cell missing rather than failing the batch.
+     * @param column index of the column
+     * @param row index of the row
+     * @param value the value, nothing is set for null
+     */
+    public void setText(int column, int row, String value) {
+        if (value == null) {
+            return;
+        }
+        Column col = columns.get(column).typed(ColumnType.TEXT, times.length);
+        try {
+            switch (col.type) {
+                case DOUBLE:
+                    col.doubles[row] = Double.parseDouble(value);
+                    break;
+                case FLOAT:
+                    col.floats[row] = Float.parseFloat(value);
+                    break;
+                case LONG:
+                    col.longs[row] = Long.parseLong(value);
+                    break;
+                default:
+                    col.texts[row] = value;
+            }
+        } catch (NumberFormatException ex) {
+            // not a number, the cell stays missing
+            return;
+        }
+        col.present.set(row);
+    }
+
+    /**
+     * A value is null when it was never set or when it is a floating point NaN.
+     * @param column index of the column
+     * @param row index of the row
+     * @return true if the column holds no value for the row
+     */
+    public boolean isNull(int column, int row) {
+        Column col = columns.get(column);
+        if (!col.present.get(row)) {
+            return true;
+        }
+        switch (col.type) {
+            case DOUBLE:
+                return Double.isNaN(col.doubles[row]);
+            case FLOAT:
+                return Float.isNaN(col.floats[row]);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @param column index of the column
+     * @param row index of the row
+     * @return true if a value (possibly NaN) was set for the row
+     */
+    public boolean isSet(int column, int row) {
+        return columns.get(column).present.get(row);
+    }
+
+    /**
+     * @param column index of the column
+     * @param row index of the row
+     * @return the value as a double; NaN for null or non-numeric values
+     */
+    public double getDouble(int column, int row) {
+        Column col = columns.get(column);
+        if (!col.present.get(row)) {
+            return Double.NaN;
+        }
+        switch (col.type) {
+            case DOUBLE:
+                return col.doubles[row];
+            case FLOAT:
+                return col.floats[row];
+            case LONG:
+                return col.longs[row];
+            default:
+                return Double.NaN;
+        }
+    }
+
+    /**
+     * @param column index of a LONG column
+     * @param row index of the row
+     * @return the value, 0 for unset cells or columns of other types
+     */
+    public long getLong(int column, int row) {
+        Column col = columns.get(column);
+        if (!col.present.get(row) || col.type != ColumnType.LONG) {
+            return 0;
+        }
+        return col.longs[row];
+    }
+
+    /**
+     * Appends the textual value of a cell to the builder, in the same form the
+     * netCDF scalar objects print themselves (floating point values rounded to
+     * the precision of the column, if set). Nothing is appended for unset cells.
+     * @param builder builder to append to
+     * @param column index of the column
+     * @param row index of the row
+     */
+    public void appendValue(StringBuilder builder, int column, int row) {
+        Column col = columns.get(column);
+        if (!col.present.get(row)) {
+            return;
+        }
+        switch (col.type) {
+            case DOUBLE:
+                NumericEncoder.appendDouble(builder, col.doubles[row], col.precision);
+                break;
+            case FLOAT:
+                NumericEncoder.appendFloat(builder, col.floats[row], col.precision);
+                break;
+            case LONG:
+                builder.append(col.longs[row]);
+                break;
+            default:
+                builder.append(col.texts[row]);
+        }
+    }
+
+    /**
+     * Records an error that occurred while reading the data. Rows read so far
+     * are dropped, as the response will be an exception report.
+     * @param error message describing the problem
+     */
+    public void setError(String error) {
+        this.error = error;
+        this.size = 0;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public boolean hasError() {
+        return error != null;
+    }
+
+    /**
+     * Single typed column; only the array matching the column type is allocated.
+     */
+    private static class Column {
+        private final String name;
+        private ColumnType type;
+        private double[] doubles;
+        private float[] floats;
+        private long[] longs;
+        private String[] texts;
+        private final BitSet present;
+        private int precision;
+
+        private Column(String name, int capacity) {
+            this.name = name;
+            this.type = null;
+            this.precision = NumericEncoder.NO_PRECISION;
+            this.present = new BitSet(capacity);
+        }
+
+        /**
+         * Allocates the storage on first use; afterwards values keep the
+         * column's original type.
+         */
+        private Column typed(ColumnType requested, int capacity) {
+            if (type == null) {
+                type = requested;
+                switch (type) {
+                    case DOUBLE:
+                        doubles = new double[capacity];
+                        break;
+                    case FLOAT:
+                        floats = new float[capacity];
+                        break;
+                    case LONG:
+                        longs = new long[capacity];
+                        break;
+                    default:
+                        texts = new String[capacity];
+                }
+            }
+            return this;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (doubles != null) {
+                doubles = Arrays.copyOf(doubles, capacity);
+            }
+            if (floats != null) {
+                floats = Arrays.copyOf(floats, capacity);
+            }
+            if (longs != null) {
+                longs = Arrays.copyOf(longs, capacity);
+            }
+            if (texts != null) {
+                texts = Arrays.copyOf(texts, capacity);
+            }
+        }
+    }
+}
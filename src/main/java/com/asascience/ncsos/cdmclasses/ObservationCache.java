@@ -0,0 +1,515 @@
+package com.asascience.ncsos.cdmclasses;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Optional local cache of station time series, for stations that are requested
+ * over and over (ie by dashboards polling overlapping windows). The first
+ * requests of a station are read from the dataset as usual; from the second
+ * one on, the station's whole series is read once and written to one columnar
+ * file per variable in the temp directory, which is memory-mapped and serves
+ * every later window with a binary search on its times.
+ * <p>
+ * The cache is off unless the system property ncsos.observationCache.bytes
+ * gives it a byte budget. Files beyond the budget are deleted, least recently
+ * used first. A file records the location and last modified time of its
+ * dataset and is ignored once the dataset changes. Layout (big endian):
+ * <pre>
+ * int magic, int version, long lastModified, UTF location, UTF station,
+ * UTF variable, byte type, int count, long[count] times (ascending),
+ * double/float/long[count] values, long[(count + 63) / 64] set bits
+ * </pre>
+ */
+final class ObservationCache {
+
+    /** System property holding the byte budget of the cache; unset or 0 disables it */
+    static final String BUDGET_PROPERTY = "ncsos.observationCache.bytes";
+
+    private static final int MAGIC = 0x4E434F43;
+    private static final int VERSION = 1;
+    private static final byte TYPE_NONE = 0;
+    private static final byte TYPE_DOUBLE = 1;
+    private static final byte TYPE_FLOAT = 2;
+    private static final byte TYPE_LONG = 3;
+    // requests of a station before its series is materialized
+    private static final int ADMIT_AFTER_REQUESTS = 2;
+    private static final int MAX_TRACKED_STATIONS = 1024;
+
+    private static volatile long budget = Long.getLong(BUDGET_PROPERTY, 0L);
+    private static final File directory = new File(new File(System.getProperty("java.io.tmpdir"), "ncsos"), "obscache");
+
+    // cache files by name, least recently used first
+    private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private static long usedBytes = 0;
+    private static boolean scanned = false;
+
+    // requests per station since its dataset last changed, and stations whose series cannot be cached, by key
+    private static final Map<String, long[]> requests = new LinkedHashMap<String, long[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, long[]> eldest) {
+            return size() > MAX_TRACKED_STATIONS;
+        }
+    };
+    private static final Map<String, Long> rejected = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_TRACKED_STATIONS;
+        }
+    };
+
+    private static org.slf4j.Logger _log = org.slf4j.LoggerFactory.getLogger(ObservationCache.class);
+
+    private ObservationCache() {
+    }
+
+    /**
+     * Deletes the cached files and forgets the request counts
+     * @param budgetBytes new byte budget of the cache; 0 disables it
+     */
+    static void reset(long budgetBytes) {
+        synchronized (entries) {
+            scan();
+            for (String name : entries.keySet()) {
+                new File(directory, name).delete();
+            }
+            entries.clear();
+            usedBytes = 0;
+            budget = budgetBytes;
+        }
+        synchronized (requests) {
+            requests.clear();
+            rejected.clear();
+        }
+    }
+
+    /**
+     * @param location location of the dataset, may be null
+     * @param lastModified last modified time of the dataset
+     * @return true if series of the dataset can be cached
+     */
+    static boolean isEnabled(String location, long lastModified) {
+        return budget > 0 && location != null && lastModified > 0;
+    }
+
+    /**
+     * Reads a station's observations in a time window from the cache
+     * @param location location of the dataset
+     * @param lastModified last modified time of the dataset
+     * @param stationName name of the station
+     * @param stNum index of the station in the request
+     * @param variableNames requested variables
+     * @param window time window from getEventTimeWindow, null for all times
+     * @return the observations, null if any of the variables is not cached
+     */
+    static ObservationBatch read(String location, long lastModified, String stationName, int stNum,
+                                 String[] variableNames, long[] window) {
+        Series[] series = new Series[variableNames.length];
+        for (int v = 0; v < variableNames.length; v++) {
+            series[v] = getSeries(location, lastModified, stationName, variableNames[v]);
+            if (series[v] == null || series[v].count != series[0].count) {
+                return null;
+            }
+        }
+        ObservationBatch batch = new ObservationBatch(variableNames);
+        if (series.length == 0) {
+            return batch;
+        }
+        LongBuffer times = series[0].times;
+        int first = 0;
+        int end = series[0].count;
+        if (window != null) {
+            first = findInsertion(times, end, window[0], false);
+            end = findInsertion(times, end, window[1], true);
+            // rows without a time are never in a window
+            while (first < end && times.get(first) == ObservationBatch.NO_TIME) {
+                first++;
+            }
+        }
+        int[] columns = new int[series.length];
+        for (int v = 0; v < series.length; v++) {
+            columns[v] = batch.getColumnIndex(variableNames[v]);
+        }
+        for (int i = first; i < end; i++) {
+            int row = batch.addRow(times.get(i), stNum);
+            for (int v = 0; v < series.length; v++) {
+                series[v].copyValue(batch, columns[v], row, i);
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Counts a request of a station that was not served from the cache. The
+     * count starts over whenever the dataset changes, so a series is only
+     * materialized once it was asked for twice from the same version of the
+     * dataset; datasets that change between every two requests are never cached.
+     * @param location location of the dataset
+     * @param lastModified last modified time of the dataset
+     * @param stationName name of the station
+     * @return true if the station is now hot enough to have its series cached
+     */
+    static boolean shouldMaterialize(String location, long lastModified, String stationName) {
+        String key = location + "\n" + stationName;
+        synchronized (requests) {
+            Long rejectedAt = rejected.get(key);
+            if (rejectedAt != null && rejectedAt == lastModified) {
+                return false;
+            }
+            // last modified time and number of requests since
+            long[] count = requests.get(key);
+            if (count == null || count[0] != lastModified) {
+                count = new long[] { lastModified, 0 };
+                requests.put(key, count);
+            }
+            count[1]++;
+            return count[1] >= ADMIT_AFTER_REQUESTS;
+        }
+    }
+
+    /**
+     * Writes the whole series of a station to the cache
+     * @param location location of the dataset
+     * @param lastModified last modified time of the dataset
+     * @param stationName name of the station
+     * @param series all observations of the station, in row order
+     * @return false if the series cannot be cached (text values, or times out of order)
+     */
+    static boolean store(String location, long lastModified, String stationName, ObservationBatch series) {
+        boolean stored = !series.hasError() && isCacheable(series);
+        for (int c = 0; stored && c < series.getColumnCount(); c++) {
+            stored = write(location, lastModified, stationName, series, c);
+        }
+        if (!stored) {
+            synchronized (requests) {
+                rejected.put(location + "\n" + stationName, lastModified);
+            }
+        }
+        return stored;
+    }
+
+    private static boolean isCacheable(ObservationBatch series) {
+        for (int c = 0; c < series.getColumnCount(); c++) {
+            if (series.getColumnType(c) == ObservationBatch.ColumnType.TEXT) {
+                return false;
+            }
+        }
+        for (int row = 1; row < series.size(); row++) {
+            if (series.getTime(row) < series.getTime(row - 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean write(String location, long lastModified, String stationName, ObservationBatch series, int column) {
+        String variable = series.getColumnName(column);
+        File file = getCacheFile(location, stationName, variable);
+        // write to a temporary file first, so concurrent requests never map a partial series
+        File temp = new File(directory, file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            directory.mkdirs();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                writeSeries(out, location, lastModified, stationName, variable, series, column);
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) {
+                file.delete();
+                if (!temp.renameTo(file)) {
+                    throw new IOException("Unable to rename " + temp + " to " + file);
+                }
+            }
+        } catch (IOException ex) {
+            _log.warn("Unable to cache " + variable + " of station " + stationName + ": " + ex.getMessage());
+            temp.delete();
+            return false;
+        }
+        synchronized (entries) {
+            scan();
+            Entry previous = entries.remove(file.getName());
+            if (previous != null) {
+                usedBytes -= previous.bytes;
+            }
+            Entry entry = new Entry(file.length());
+            entries.put(file.getName(), entry);
+            usedBytes += entry.bytes;
+            evict(file.getName());
+        }
+        return true;
+    }
+
+    private static void writeSeries(DataOutputStream out, String location, long lastModified, String stationName,
+                                    String variable, ObservationBatch series, int column) throws IOException {
+        ObservationBatch.ColumnType columnType = series.getColumnType(column);
+        byte type = (columnType == null) ? TYPE_NONE :
+                (columnType == ObservationBatch.ColumnType.DOUBLE) ? TYPE_DOUBLE :
+                (columnType == ObservationBatch.ColumnType.FLOAT) ? TYPE_FLOAT : TYPE_LONG;
+        int count = series.size();
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(lastModified);
+        out.writeUTF(location);
+        out.writeUTF(stationName);
+        out.writeUTF(variable);
+        out.writeByte(type);
+        out.writeInt(count);
+        for (int row = 0; row < count; row++) {
+            out.writeLong(series.getTime(row));
+        }
+        for (int row = 0; row < count; row++) {
+            switch (type) {
+                case TYPE_DOUBLE:
+                    out.writeDouble(series.getDouble(column, row));
+                    break;
+                case TYPE_FLOAT:
+                    out.writeFloat((float) series.getDouble(column, row));
+                    break;
+                case TYPE_LONG:
+                    out.writeLong(series.getLong(column, row));
+                    break;
+                default:
+                    // no values
+            }
+        }
+        long word = 0;
+        for (int row = 0; row < count; row++) {
+            if (series.isSet(column, row)) {
+                word |= 1L << row;
+            }
+            if ((row & 63) == 63) {
+                out.writeLong(word);
+                word = 0;
+            }
+        }
+        if ((count & 63) != 0) {
+            out.writeLong(word);
+        }
+    }
+
+    private static Series getSeries(String location, long lastModified, String stationName, String variable) {
+        File file = getCacheFile(location, stationName, variable);
+        Entry entry;
+        synchronized (entries) {
+            scan();
+            entry = entries.get(file.getName());
+            if (entry == null) {
+                return null;
+            }
+            if (entry.series != null) {
+                Series series = entry.series;
+                return series.matches(lastModified, location, stationName, variable) ? series : null;
+            }
+        }
+        Series series = map(file);
+        if (series == null) {
+            return null;
+        }
+        synchronized (entries) {
+            if (entries.get(file.getName()) == entry) {
+                entry.series = series;
+            }
+        }
+        return series.matches(lastModified, location, stationName, variable) ? series : null;
+    }
+
+    private static Series map(File file) {
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+                if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                    return null;
+                }
+                Series series = new Series();
+                series.lastModified = buffer.getLong();
+                series.location = readUTF(buffer);
+                series.station = readUTF(buffer);
+                series.variable = readUTF(buffer);
+                series.type = buffer.get();
+                series.count = buffer.getInt();
+                series.times = slice(buffer, 8L * series.count).asLongBuffer();
+                switch (series.type) {
+                    case TYPE_DOUBLE:
+                        series.doubles = slice(buffer, 8L * series.count).asDoubleBuffer();
+                        break;
+                    case TYPE_FLOAT:
+                        series.floats = slice(buffer, 4L * series.count).asFloatBuffer();
+                        break;
+                    case TYPE_LONG:
+                        series.longs = slice(buffer, 8L * series.count).asLongBuffer();
+                        break;
+                    default:
+                        // no values
+                }
+                series.present = slice(buffer, 8L * ((series.count + 63) / 64)).asLongBuffer();
+                return series;
+            } finally {
+                // the mapping stays valid after the file is closed
+                raf.close();
+            }
+        } catch (Exception ex) {
+            _log.warn("Unable to read the cached series " + file + ": " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Registers the files left by earlier runs, oldest first
+     */
+    private static void scan() {
+        if (scanned) {
+            return;
+        }
+        scanned = true;
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return (diff < 0) ? -1 : (diff > 0) ? 1 : 0;
+            }
+        });
+        for (File file : files) {
+            if (file.getName().endsWith(".tmp")) {
+                file.delete();
+            } else if (file.isFile()) {
+                Entry entry = new Entry(file.length());
+                entries.put(file.getName(), entry);
+                usedBytes += entry.bytes;
+            }
+        }
+        evict(null);
+    }
+
+    /**
+     * Deletes the least recently used files until the cache is within its budget
+     * @param keep name of a file that is not deleted, may be null
+     */
+    private static void evict(String keep) {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (usedBytes > budget && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            if (eldest.getKey().equals(keep)) {
+                continue;
+            }
+            it.remove();
+            usedBytes -= eldest.getValue().bytes;
+            // mapped series stay readable after their file is deleted
+            new File(directory, eldest.getKey()).delete();
+        }
+    }
+
+    private static int findInsertion(LongBuffer times, int count, long time, boolean after) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            long t = times.get(mid);
+            if (after ? t <= time : t < time) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private static String readUTF(ByteBuffer buffer) throws IOException {
+        byte[] bytes = new byte[buffer.getShort() & 0xffff];
+        buffer.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, long length) throws IOException {
+        if (length > buffer.remaining()) {
+            throw new IOException("Truncated cached series");
+        }
+        ByteBuffer slice = buffer.slice();
+        slice.limit((int) length);
+        buffer.position(buffer.position() + (int) length);
+        return slice;
+    }
+
+    /**
+     * @return the cache file of a variable of a station; keys with the same hash share it
+     */
+    static File getCacheFile(String location, String stationName, String variable) {
+        String key = location + "\n" + stationName + "\n" + variable;
+        return new File(directory, "obs-" + Integer.toHexString(key.hashCode()) + "-"
+                + Integer.toHexString(variable.hashCode()) + ".dat");
+    }
+
+    /**
+     * A cache file, with its series once mapped
+     */
+    private static class Entry {
+        private final long bytes;
+        private Series series;
+
+        private Entry(long bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Mapped series of one variable of a station
+     */
+    private static class Series {
+        private long lastModified;
+        private String location;
+        private String station;
+        private String variable;
+        private byte type;
+        private int count;
+        private LongBuffer times;
+        private DoubleBuffer doubles;
+        private FloatBuffer floats;
+        private LongBuffer longs;
+        private LongBuffer present;
+
+        private boolean matches(long lastModified, String location, String station, String variable) {
+            // keys with the same hash share the file name
+            return this.lastModified == lastModified && this.location.equals(location)
+                    && this.station.equals(station) && this.variable.equals(variable);
+        }
+
+        private void copyValue(ObservationBatch batch, int column, int row, int i) {
+            if ((present.get(i >>> 6) & (1L << i)) == 0) {
+                return;
+            }
+            switch (type) {
+                case TYPE_DOUBLE:
+                    batch.setDouble(column, row, doubles.get(i));
+                    break;
+                case TYPE_FLOAT:
+                    batch.setFloat(column, row, floats.get(i));
+                    break;
+                case TYPE_LONG:
+                    batch.setLong(column, row, longs.get(i));
+                    break;
+                default:
+                    // no values
+            }
+        }
+    }
+}
@@ -12,7 +12,6 @@ import ucar.nc2.ft.PointFeature;
 import ucar.nc2.ft.PointFeatureIterator;
 import ucar.nc2.ft.ProfileFeature;
 import ucar.nc2.ft.ProfileFeatureCollection;
-import ucar.nc2.units.DateFormatter;
 import ucar.unidata.geoloc.Station;
 
 import java.io.IOException;
@@ -190,18 +189,17 @@ public class Profile extends baseCDMClass implements iStationData {
     }
 
     @Override
-    public String getDataResponse(int stNum) {
+    public ObservationBatch getDataBatch(int stNum) {
         try {
             if (profileData != null && profileList.containsKey(stNum)) {
                 return createProfileFeature(stNum);
             } else {
-                _log.warn("profileData " + stNum + " is null, not creating a string");
+                _log.warn("profileData " + stNum + " is null, not reading any data");
             }
         } catch (IOException ex) {
             Logger.getLogger(Profile.class.getName()).log(Level.SEVERE, null, ex);
-            return DATA_RESPONSE_ERROR + Profile.class;
         }
-        return DATA_RESPONSE_ERROR + Profile.class;
+        return new ObservationBatch(variableNames);
     }
 
     @Override
@@ -285,56 +283,34 @@ public class Profile extends baseCDMClass implements iStationData {
     
     /**************************************************************************/
     
-    private void addProfileData(List<String> valueList, DateFormatter dateFormatter, StringBuilder builder, ProfileFeature profileFeature, int stNum) {
+    private void addProfileData(ObservationBatch batch, ProfileFeature profileFeature, int stNum) {
         //set the iterator the the correct profile
         try {
             PointFeatureIterator pointIterator = profileFeature.getPointFeatureIterator(-1);
+            long profileTime = getTimeMillis(profileFeature.getTime());
             while (pointIterator.hasNext()) {
                 PointFeature pointFeature = pointIterator.next();
 
                 String profileID = profileFeature.getName();
                 //if there is a profile id use it against the data that is requested
                 if (profileID != null) {
-                    valueList.clear();
-                    valueList.add("time=" + dateFormatter.toDateTimeStringISO(profileFeature.getTime()));
-                    valueList.add("station=" + stNum);
-                    addProfileDataToBuilder(valueList, pointFeature, builder);
+                    int row = batch.addRow(profileTime, stNum);
+                    addDataValues(batch, row, pointFeature.getData(), variableNames);
                 }
             }
         } catch (Exception ex) {
             // error reading
-            builder.delete(0, builder.length());
-            builder.append("ERROR =reading data from dataset: ").append(ex.getLocalizedMessage()).append(". Most likely this property does not exist or is improperly stored in the dataset.");
+            batch.setError(DATA_READ_ERROR + ex.getLocalizedMessage() + DATA_READ_ERROR_HINT);
         }
     }
 
-    private void addProfileDataToBuilder(List<String> valueList, PointFeature pointFeature, StringBuilder builder) throws IOException {
-        for (String variableName : variableNames) {
-            valueList.add(variableName + "=" + pointFeature.getData().getScalarObject(variableName).toString());
-        }
-
-        for (int i = 0; i < valueList.size(); i++) {
-            builder.append(valueList.get(i));
-            if (i < valueList.size() - 1) {
-                builder.append(",");
-            }
-        }
-
-        builder.append(";");
-    }
-
-    private String createProfileFeature(int stNum) throws IOException {
+    private ObservationBatch createProfileFeature(int stNum) throws IOException {
+        ObservationBatch batch = new ObservationBatch(variableNames);
         if (profileList != null && profileList.containsKey((Integer)stNum)) {
-            StringBuilder builder = new StringBuilder();
-            DateFormatter dateFormatter = new DateFormatter();
-            List<String> valueList = new ArrayList<String>();
-
             ProfileFeature pFeature = profileList.get(stNum);
-            addProfileData(valueList, dateFormatter, builder, pFeature, stNum);
-
-            return builder.toString();
+            addProfileData(batch, pFeature, stNum);
         }
-        return "";
+        return batch;
     }
 
     public List<String> getLocationsString(int stNum) {
@@ -0,0 +1,267 @@
+package com.asascience.ncsos.cdmclasses;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Time index of a ragged array (contiguous or indexed) time series dataset,
+ * kept as a sidecar file in the temp directory and memory-mapped on use. For
+ * every station it holds the epoch times of the station's observations in
+ * ascending order, with the row of each observation in the observation
+ * dimension, so a time window is found with a binary search instead of
+ * reading the station's whole time range. Observations with missing times
+ * are left out.
+ * <p>
+ * The file records the location and last modified time of the dataset and is
+ * rebuilt when the dataset changes. Layout (big endian):
+ * <pre>
+ * int magic, int version, long lastModified, UTF location, int stations,
+ * int[stations + 1] start of each station, long[n] times, int[n] rows
+ * </pre>
+ */
+final class RaggedTimeIndex {
+
+    private static final int MAGIC = 0x4E435449;
+    private static final int VERSION = 1;
+    private static final int MAX_OPEN_INDEXES = 32;
+
+    // indexes mapped by this process, by dataset location
+    private static final Map<String, RaggedTimeIndex> indexes = new LinkedHashMap<String, RaggedTimeIndex>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, RaggedTimeIndex> eldest) {
+            return size() > MAX_OPEN_INDEXES;
+        }
+    };
+
+    private final long lastModified;
+    private final IntBuffer starts;
+    private final LongBuffer times;
+    private final IntBuffer rows;
+
+    private static org.slf4j.Logger _log = org.slf4j.LoggerFactory.getLogger(RaggedTimeIndex.class);
+
+    private RaggedTimeIndex(long lastModified, IntBuffer starts, LongBuffer times, IntBuffer rows) {
+        this.lastModified = lastModified;
+        this.starts = starts;
+        this.times = times;
+        this.rows = rows;
+    }
+
+    /**
+     * Returns the index of a dataset from memory or its sidecar file
+     * @param location location of the dataset
+     * @param lastModified last modified time of the dataset
+     * @return the index, null if there is no current index for the dataset
+     */
+    static RaggedTimeIndex get(String location, long lastModified) {
+        synchronized (indexes) {
+            RaggedTimeIndex index = indexes.get(location);
+            if (index != null && index.lastModified == lastModified) {
+                return index;
+            }
+        }
+        RaggedTimeIndex index = map(getIndexFile(location), location, lastModified);
+        if (index != null) {
+            synchronized (indexes) {
+                indexes.put(location, index);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Writes the sidecar file of a dataset and maps it
+     * @param location location of the dataset
+     * @param lastModified last modified time of the dataset
+     * @param stationTimes times of each station's observations, in row order
+     * @param stationRows rows of each station's observations
+     * @return the index, null if it could not be written
+     */
+    static RaggedTimeIndex build(String location, long lastModified, long[][] stationTimes, int[][] stationRows) {
+        File file = getIndexFile(location);
+        // write to a temporary file first, so concurrent requests never map a partial index
+        File temp = new File(file.getParentFile(), file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            file.getParentFile().mkdirs();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                writeIndex(out, location, lastModified, stationTimes, stationRows);
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) {
+                file.delete();
+                if (!temp.renameTo(file)) {
+                    throw new IOException("Unable to rename " + temp + " to " + file);
+                }
+            }
+        } catch (IOException ex) {
+            _log.warn("Unable to write the time index of " + location + ": " + ex.getMessage());
+            temp.delete();
+            return null;
+        }
+        return get(location, lastModified);
+    }
+
+    /**
+     * Forgets the indexes mapped by this process; their sidecar files are kept
+     * and mapped again on the next request
+     */
+    static void clear() {
+        synchronized (indexes) {
+            indexes.clear();
+        }
+    }
+
+    /**
+     * @param station station index
+     * @return position of the station's first observation in the index
+     */
+    int getStart(int station) {
+        return starts.get(station);
+    }
+
+    /**
+     * @param station station index
+     * @return position after the station's last observation in the index
+     */
+    int getEnd(int station) {
+        return starts.get(station + 1);
+    }
+
+    /**
+     * Finds the first observation of a station at or after a time
+     * @param station station index
+     * @param time epoch milliseconds
+     * @return position in the index, getEnd(station) if there is none
+     */
+    int findFirst(int station, long time) {
+        int lo = getStart(station);
+        int hi = getEnd(station);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times.get(mid) < time) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Finds the position after the last observation of a station at or before a time
+     * @param station station index
+     * @param time epoch milliseconds
+     * @return position in the index, getStart(station) if there is none
+     */
+    int findEnd(int station, long time) {
+        int lo = getStart(station);
+        int hi = getEnd(station);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times.get(mid) <= time) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    long getTime(int position) {
+        return times.get(position);
+    }
+
+    int getRow(int position) {
+        return rows.get(position);
+    }
+
+    private static void writeIndex(DataOutputStream out, String location, long lastModified,
+                                   long[][] stationTimes, int[][] stationRows) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(lastModified);
+        out.writeUTF(location);
+        out.writeInt(stationTimes.length);
+        int start = 0;
+        out.writeInt(start);
+        for (long[] t : stationTimes) {
+            start += t.length;
+            out.writeInt(start);
+        }
+        for (long[] t : stationTimes) {
+            for (long time : t) {
+                out.writeLong(time);
+            }
+        }
+        for (int[] r : stationRows) {
+            for (int row : r) {
+                out.writeInt(row);
+            }
+        }
+    }
+
+    private static RaggedTimeIndex map(File file, String location, long lastModified) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+                if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getLong() != lastModified) {
+                    return null;
+                }
+                // locations with the same hash share the file name
+                byte[] name = new byte[buffer.getShort() & 0xffff];
+                buffer.get(name);
+                if (!location.equals(new String(name, "UTF-8"))) {
+                    return null;
+                }
+                int stations = buffer.getInt();
+                IntBuffer starts = slice(buffer, 4 * (stations + 1)).asIntBuffer();
+                int count = starts.get(stations);
+                LongBuffer times = slice(buffer, 8L * count).asLongBuffer();
+                IntBuffer rows = slice(buffer, 4L * count).asIntBuffer();
+                return new RaggedTimeIndex(lastModified, starts, times, rows);
+            } finally {
+                // the mapping stays valid after the file is closed
+                raf.close();
+            }
+        } catch (Exception ex) {
+            _log.warn("Unable to read the time index " + file + ": " + ex.getMessage());
+            return null;
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, long length) throws IOException {
+        if (length > buffer.remaining()) {
+            throw new IOException("Truncated time index");
+        }
+        ByteBuffer slice = buffer.slice();
+        slice.limit((int) length);
+        buffer.position(buffer.position() + (int) length);
+        return slice;
+    }
+
+    /**
+     * @param location location of a dataset
+     * @return the sidecar file of the dataset's index
+     */
+    static File getIndexFile(String location) {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "ncsos");
+        return new File(dir, "timeindex-" + Integer.toHexString(location.hashCode()) + ".idx");
+    }
+}
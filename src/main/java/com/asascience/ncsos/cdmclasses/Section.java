@@ -191,16 +191,16 @@ public class Section extends baseCDMClass implements iStationData {
         throw new UnsupportedOperationException("Not supported yet.");
     }
 
-    public String getDataResponse(int stNum) {
+    public ObservationBatch getDataBatch(int stNum) {
         try {
             if (sectionData != null) {
                 return createSectionData(stNum);
             }
         } catch (Exception ex) {
-//            Logger.getLogger(Trajectory.class.getName()).log(Level.SEVERE, null, ex);
-            return DATA_RESPONSE_ERROR + Profile.class;
+            _log.error(ex.toString());
         }
-        return DATA_RESPONSE_ERROR + Profile.class;
+        _log.warn(DATA_RESPONSE_ERROR + Section.class);
+        return new ObservationBatch(variableNames);
     }
 
     @Override
@@ -290,19 +290,18 @@ public class Section extends baseCDMClass implements iStationData {
     
     /**************************************************************************/
 
-    private String createSectionData(int stNum) {
-        StringBuilder builder = new StringBuilder();
+    private ObservationBatch createSectionData(int stNum) {
+        ObservationBatch batch = new ObservationBatch(variableNames);
         SectionFeature sectionFeature = sectionList.get(stNum);
-        addTrajectoryProfileData(builder, sectionFeature, stNum);
-        return builder.toString();
+        addTrajectoryProfileData(batch, sectionFeature, stNum);
+        return batch;
     }
 
-    private void addTrajectoryProfileData(StringBuilder builder, SectionFeature sectionFeature, int stNum) {
+    private void addTrajectoryProfileData(ObservationBatch batch, SectionFeature sectionFeature, int stNum) {
         try {
-            List<String> valueList = new LinkedList<String>();
             PointFeatureCollectionIterator profileCollectionIter = sectionFeature.getPointFeatureCollectionIterator(-1);
             
-            for (;profileCollectionIter.hasNext();) {
+            for (;profileCollectionIter.hasNext() && !batch.hasError();) {
                 PointFeatureIterator pointIter = profileCollectionIter.next().getPointFeatureIterator(-1);
                 DateTime pointTime;
                 DateTime dtStart;
@@ -315,15 +314,14 @@ public class Section extends baseCDMClass implements iStationData {
 
                         for (;pointIter.hasNext();) {
                             PointFeature point = pointIter.next();
-                            valueList.clear();
                             
                             pointTime = new DateTime(point.getObservationTimeAsCalendarDate().toDate());
                             
                             if (pointTime.isEqual(dtStart) || pointTime.isEqual(dtEnd) || (pointTime.isAfter(dtStart) && pointTime.isBefore(dtEnd))) {
-                                addDataLine(valueList, point, builder);
+                                addDataLine(batch, point, stNum);
                             }
                             // exit if we get an error
-                            if (builder.toString().contains("ERROR"))
+                            if (batch.hasError())
                                 break;
                         }
                     } else {
@@ -331,26 +329,24 @@ public class Section extends baseCDMClass implements iStationData {
 
                         for (;pointIter.hasNext();) {
                             PointFeature point = pointIter.next();
-                            valueList.clear();
                             
                             pointTime = new DateTime(point.getObservationTimeAsCalendarDate().toDate());
                             
                             if (pointTime.isEqual(dtStart)) {
-                                addDataLine(valueList, point, builder);
+                                addDataLine(batch, point, stNum);
                             }
                             
                             // exit if we get an error
-                            if (builder.toString().contains("ERROR"))
+                            if (batch.hasError())
                                 break;
                         }
                     }
                 } else {
                     for (;pointIter.hasNext();) {
                         PointFeature point = pointIter.next();
-                        valueList.clear();
-                        addDataLine(valueList, point, builder);
+                        addDataLine(batch, point, stNum);
                         // exit if we get an error
-                        if (builder.toString().contains("ERROR"))
+                        if (batch.hasError())
                             break;
                     }
                 }
@@ -359,27 +355,18 @@ public class Section extends baseCDMClass implements iStationData {
             profileCollectionIter.finish();
         } catch (Exception e) {
             // add exception to output
-            builder.delete(0, builder.length());
-            builder.append("ERROR =building data: ").append(e.getLocalizedMessage()).append(".");
+            batch.setError("ERROR =building data: " + e.getLocalizedMessage() + ".");
         }
     }
 
-    private void addDataLine(List<String> valueList, PointFeature point, StringBuilder builder) {
-        valueList.add("time=" + df.toDateTimeStringISO(point.getObservationTimeAsCalendarDate().toDate()));
+    private void addDataLine(ObservationBatch batch, PointFeature point, int stNum) {
+        int row = batch.addRow(point.getObservationTimeAsCalendarDate().getMillis(), stNum);
 
         try {
-            for (String variableName : variableNames) {
-                valueList.add(variableName + "=" + point.getData().getScalarObject(variableName).toString());
-            }
-
-            for (String str : valueList) {
-                builder.append(str).append(",");
-            }
-            builder.deleteCharAt(builder.length()-1).append(";");
+            addDataValues(batch, row, point.getData(), variableNames);
         } catch (Exception ex) {
             // error in reading data
-            builder.delete(0, builder.length());
-            builder.append("ERROR =reading data from dataset: ").append(ex.getLocalizedMessage()).append(". Most likely this property does not exist or is improperly stored in the dataset.");
+            batch.setError(DATA_READ_ERROR + ex.getLocalizedMessage() + DATA_READ_ERROR_HINT);
         }
     }
     
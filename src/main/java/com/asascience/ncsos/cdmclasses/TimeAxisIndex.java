@@ -0,0 +1,184 @@
+package com.asascience.ncsos.cdmclasses;
+
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.dataset.CoordinateAxis1DTime;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Nearest time step and time window lookups on a 1D time axis. The time
+ * steps are kept as milliseconds since the epoch and searched with a binary
+ * search when they ascend, with a linear scan otherwise. Ties go to the lower
+ * index.
+ * <p>
+ * Indexes are cached by dataset location, last modified time and axis name, so
+ * the time steps are only converted once per dataset.
+ */
+final class TimeAxisIndex {
+
+    private static final int MAX_CACHED_AXES = 256;
+    private static final Map<String, TimeAxisIndex> cache = new LinkedHashMap<String, TimeAxisIndex>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, TimeAxisIndex> eldest) {
+            return size() > MAX_CACHED_AXES;
+        }
+    };
+
+    private final long lastModified;
+    private final long[] times;
+    private final boolean ascending;
+
+    TimeAxisIndex(long lastModified, long[] times) {
+        this.lastModified = lastModified;
+        this.times = times;
+        boolean asc = true;
+        for (int i = 1; i < times.length && asc; i++) {
+            asc = times[i] >= times[i - 1];
+        }
+        this.ascending = asc;
+    }
+
+    /**
+     * Returns the index of a time axis, from the cache if the dataset has not changed
+     * @param file file the axis belongs to
+     * @param axis the time axis
+     * @return index of the time steps
+     */
+    static TimeAxisIndex get(NetcdfFile file, CoordinateAxis1DTime axis) {
+        long lastModified = file.getLastModified();
+        String key = (file.getLocation() != null && lastModified > 0) ?
+                file.getLocation() + "\n" + axis.getFullName() : null;
+        if (key != null) {
+            synchronized (cache) {
+                TimeAxisIndex index = cache.get(key);
+                if (index != null && index.lastModified == lastModified) {
+                    return index;
+                }
+            }
+        }
+        Date[] dates = axis.getTimeDates();
+        long[] times = new long[dates.length];
+        for (int i = 0; i < dates.length; i++) {
+            times[i] = baseCDMClass.getTimeMillis(dates[i]);
+        }
+        TimeAxisIndex index = new TimeAxisIndex(lastModified, times);
+        if (key != null) {
+            synchronized (cache) {
+                cache.put(key, index);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return number of time steps
+     */
+    int size() {
+        return times.length;
+    }
+
+    /**
+     * @param index index of a time step
+     * @return the time step in milliseconds since the epoch
+     */
+    long getTime(int index) {
+        return times[index];
+    }
+
+    /**
+     * Finds the time step closest to a time
+     * @param time time in milliseconds since the epoch
+     * @return index of the closest time step, -1 for an empty axis
+     */
+    int findNearest(long time) {
+        if (times.length == 0) {
+            return -1;
+        }
+        if (!ascending) {
+            int best = 0;
+            for (int i = 1; i < times.length; i++) {
+                if (distance(times[i], time) < distance(times[best], time)) {
+                    best = i;
+                }
+            }
+            return best;
+        }
+        int insertion = findFirst(time);
+        if (insertion == 0) {
+            return 0;
+        }
+        if (insertion == times.length) {
+            return times.length - 1;
+        }
+        return (distance(times[insertion], time) < distance(times[insertion - 1], time)) ? insertion : insertion - 1;
+    }
+
+    /**
+     * Finds the time steps within a window
+     * @param start first time of the window (inclusive)
+     * @param end last time of the window (inclusive)
+     * @return indices of the first and last time step in the window; the last
+     * index is smaller than the first if no step falls in it
+     */
+    int[] findRange(long start, long end) {
+        if (!ascending) {
+            int first = -1;
+            int last = -2;
+            for (int i = 0; i < times.length; i++) {
+                if (times[i] >= start && times[i] <= end) {
+                    if (first < 0) {
+                        first = i;
+                    }
+                    last = i;
+                }
+            }
+            return (first < 0) ? new int[] { 0, -1 } : new int[] { first, last };
+        }
+        return new int[] { findFirst(start), findAfter(end) - 1 };
+    }
+
+    /**
+     * @return the first index whose time is not before the target, on an ascending axis
+     */
+    private int findFirst(long target) {
+        int lo = 0;
+        int hi = times.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[mid] < target) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return the first index whose time is after the target, on an ascending axis
+     */
+    private int findAfter(long target) {
+        int lo = 0;
+        int hi = times.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[mid] <= target) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private static long distance(long a, long b) {
+        // saturate instead of overflowing for times far apart
+        long diff = a - b;
+        if (((a ^ b) & (a ^ diff)) < 0 || diff == Long.MIN_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        return Math.abs(diff);
+    }
+}
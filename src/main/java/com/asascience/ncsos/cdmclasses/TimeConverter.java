@@ -0,0 +1,42 @@
+package com.asascience.ncsos.cdmclasses;
+
+import ucar.nc2.units.DateUnit;
+
+/**
+ * Converts time coordinates to epoch milliseconds. The origin and scale of the
+ * unit are looked up once, instead of building a Date through the DateUnit
+ * for every observation; the result is the same as baseCDMClass.getDateForTime.
+ */
+final class TimeConverter {
+
+    private final DateUnit unit;
+    private final double originMillis;
+    private final double secondsPerUnit;
+
+    TimeConverter(DateUnit unit) {
+        this.unit = unit;
+        this.originMillis = (double) unit.getDateOrigin().getTime();
+        this.secondsPerUnit = unit.getTimeUnit().getValueInSeconds(1.0);
+    }
+
+    /**
+     * Returns a converter for a unit, reusing the current one if it is for the same unit
+     * @param current converter of the previous observation, may be null
+     * @param unit time unit of the observation
+     * @return a converter for the unit
+     */
+    static TimeConverter forUnit(TimeConverter current, DateUnit unit) {
+        return (current != null && current.unit == unit) ? current : new TimeConverter(unit);
+    }
+
+    /**
+     * @param value time coordinate
+     * @return epoch milliseconds, ObservationBatch.NO_TIME for NaN
+     */
+    long toMillis(double value) {
+        if (Double.isNaN(value)) {
+            return ObservationBatch.NO_TIME;
+        }
+        return Math.round(originMillis + (1000.0 * (value * secondsPerUnit)));
+    }
+}
@@ -7,14 +7,18 @@ package com.asascience.ncsos.cdmclasses;
 import com.asascience.ncsos.go.ObservationOffering;
 import com.asascience.ncsos.service.BaseRequestHandler;
 import com.asascience.ncsos.util.DatasetHandlerAdapter;
-import org.joda.time.Chronology;
+import com.asascience.ncsos.util.DiscreteSamplingGeometryUtil;
 import org.joda.time.DateTime;
 import org.w3c.dom.Document;
+import ucar.nc2.constants.FeatureType;
+import ucar.nc2.dataset.NetcdfDataset;
+import ucar.nc2.ft.FeatureCollection;
+import ucar.nc2.ft.FeatureDataset;
+import ucar.nc2.ft.FeatureDatasetFactoryManager;
 import ucar.nc2.ft.PointFeature;
 import ucar.nc2.ft.PointFeatureIterator;
 import ucar.nc2.ft.StationTimeSeriesFeature;
 import ucar.nc2.ft.StationTimeSeriesFeatureCollection;
-import ucar.nc2.units.DateFormatter;
 import ucar.nc2.units.DateRange;
 import ucar.nc2.units.DateUnit;
 import ucar.unidata.geoloc.Station;
@@ -23,6 +27,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.Formatter;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -38,6 +43,9 @@ public class TimeSeries extends baseCDMClass implements iStationData {
     private List<Station> tsStationList;
     private final ArrayList<String> eventTimes;
     private final String[] variableNames;
+    private TimeSeriesArrayReader arrayReader;
+    private String location;
+    private long lastModified;
 
     /**
      * 
@@ -59,108 +67,121 @@ public class TimeSeries extends baseCDMClass implements iStationData {
             this.eventTimes = null;
     }
 
-    /*******************TIMSERIES*************************/
-    private String createTimeSeriesData(int stNum) throws IOException {
-        //create the iterator for the feature
-        PointFeatureIterator iterator = tsData.getStationFeature(tsStationList.get(stNum)).getPointFeatureIterator(-1);
-
-        //create the string builders and other things needed
-        StringBuilder builder = new StringBuilder();
-        DateFormatter dateFormatter = new DateFormatter();
-        List<String> valueList = new ArrayList<String>();
-
-        while (iterator.hasNext()) {
-            PointFeature pointFeature = iterator.next();
+    /**
+     * Sets the dataset the feature collection was opened from, so the station
+     * data can be read with bulk array reads when its layout allows
+     * @param dataset the dataset of the request
+     */
+    public void setNetcdfDataset(NetcdfDataset dataset) {
+        this.arrayReader = TimeSeriesArrayReader.create(dataset);
+        this.location = dataset.getLocation();
+        this.lastModified = dataset.getLastModified();
+    }
 
-            //if no event time
-            if (eventTimes == null) {
-                createTimeSeriesData(valueList, dateFormatter, pointFeature, builder, stNum);
-                //count = (stationTimeSeriesFeature.size());
-            } //if bounded event time        
-            else if (eventTimes.size() > 1) {
-                parseMultiTimeEventTimeSeries(df, chrono, pointFeature, valueList, dateFormatter, builder, stNum);
-            } //if single event time        
-            else {
-                if (eventTimes.get(0).contentEquals(dateFormatter.toDateTimeStringISO(
-                		getDateForTime(pointFeature.getObservationTime(), pointFeature.getTimeUnit())))) {
-                    createTimeSeriesData(valueList, dateFormatter, pointFeature, builder, stNum);
-                }
+    /**
+     * Creates a copy that reads the same stations through another handle of
+     * the dataset, so that stations can be read on several threads at once.
+     * The copy is only meant for getDataBatch.
+     * @param dataset separately opened handle of the dataset
+     * @return the copy, null if the stations cannot be found through the handle
+     * @throws IOException
+     */
+    public TimeSeries createStationReader(NetcdfDataset dataset) throws IOException {
+        FeatureDataset featureDataset = FeatureDatasetFactoryManager.wrap(FeatureType.STATION, dataset, null, new Formatter(System.err));
+        if (featureDataset == null || tsStationList == null) {
+            return null;
+        }
+        FeatureCollection collection = DiscreteSamplingGeometryUtil.extractFeatureDatasetCollection(featureDataset);
+        if (!(collection instanceof StationTimeSeriesFeatureCollection)) {
+            return null;
+        }
+        TimeSeries reader = new TimeSeries(reqStationNames.toArray(new String[reqStationNames.size()]),
+                (eventTimes != null) ? eventTimes.toArray(new String[eventTimes.size()]) : null,
+                variableNames);
+        reader.tsData = (StationTimeSeriesFeatureCollection) collection;
+        // keep the station order of this instance
+        reader.tsStationList = new ArrayList<Station>(tsStationList.size());
+        for (Station station : tsStationList) {
+            Station copy = reader.tsData.getStation(station.getName());
+            if (copy == null) {
+                return null;
             }
+            reader.tsStationList.add(copy);
         }
-        iterator.finish();
-        //setCount(count);
-        return builder.toString();
+        reader.setNumberOfStations(reader.tsStationList.size());
+        reader.setNetcdfDataset(dataset);
+        return reader;
     }
 
-
-    private void createTimeSeriesData(List<String> valueList, DateFormatter dateFormatter, 
-    								  PointFeature pointFeature, StringBuilder builder, int stNum) {
-        //count++;
-        valueList.clear();
-        
-        Date valDate = getDateForTime(pointFeature.getObservationTime(), pointFeature.getTimeUnit());
-        valueList.add("time=" + dateFormatter.toDateTimeStringISO(valDate));
-        valueList.add("station=" + stNum);
-        try {
-            for (String variableName : variableNames) {
-                valueList.add(variableName + "=" + pointFeature.getData().getScalarObject(variableName).toString());
-            }
-        } catch (Exception ex) {
-            // couldn't find a data var
-            builder.delete(0, builder.length());
-            builder.append("ERROR =reading data from dataset: ").append(ex.getLocalizedMessage()).append(
-            			". Most likely this property does not exist or is improperly stored in the dataset.");
-            return;
+    /*******************TIMSERIES*************************/
+    private ObservationBatch createTimeSeriesData(int stNum) throws IOException {
+        // requested event times, parsed once
+        long[] window = getEventTimeWindow(eventTimes);
+        if (window != null && window[0] > window[1]) {
+            return new ObservationBatch(variableNames);
         }
 
-        for (int i = 0; i < valueList.size(); i++) {
-            builder.append(valueList.get(i));
-            if (i < valueList.size() - 1) {
-                builder.append(",");
+        // hot stations are served from the local cache, when it is enabled
+        if (ObservationCache.isEnabled(location, lastModified)) {
+            String stationName = tsStationList.get(stNum).getName();
+            ObservationBatch cached = ObservationCache.read(location, lastModified, stationName, stNum, variableNames, window);
+            if (cached == null && ObservationCache.shouldMaterialize(location, lastModified, stationName)
+                    && ObservationCache.store(location, lastModified, stationName, readTimeSeriesData(stNum, null))) {
+                cached = ObservationCache.read(location, lastModified, stationName, stNum, variableNames, window);
             }
-        }
-        try {
-            //builder.append(tokenJoiner.join(valueList));
-            // TODO:  conditional inside loop...
-            if (tsData.getStationFeature(tsStationList.get(stNum)).size() > 1) {
-                builder.append(";");
+            if (cached != null) {
+                return cached;
             }
-        } catch (Exception ex) {
-            builder = new StringBuilder();
-            builder.append("ERROR=received the following error when reading the data of the dataset: ").append(ex.getLocalizedMessage());
         }
+        return readTimeSeriesData(stNum, window);
     }
 
     /**
-     * 
-     * @param df
-     * @param chrono
-     * @param pointFeature
-     * @param valueList
-     * @param dateFormatter
-     * @param builder
-     * @param stNum
+     * Reads the observations of a station from the dataset
+     * @param stNum index of the station
+     * @param window time window from getEventTimeWindow, null for all times
+     * @return the observations
      * @throws IOException
      */
-    public void parseMultiTimeEventTimeSeries(DateFormatter df, Chronology chrono, PointFeature pointFeature, 
-    										  List<String> valueList, DateFormatter dateFormatter, 
-    										  StringBuilder builder, int stNum) throws IOException {
-        //get start/end date based on iso date format date        
+    private ObservationBatch readTimeSeriesData(int stNum, long[] window) throws IOException {
+        ObservationBatch batch = new ObservationBatch(variableNames);
+        if (arrayReader != null) {
+            ObservationBatch bulk = arrayReader.read(tsStationList.get(stNum).getName(), stNum, variableNames, window);
+            if (bulk != null) {
+                return bulk;
+            }
+        }
+
+        StationTimeSeriesFeature feature = tsData.getStationFeature(tsStationList.get(stNum));
+        if (window != null && window[0] != Long.MIN_VALUE && window[1] != Long.MAX_VALUE) {
+            // let netCDF-Java skip the observations outside of the requested window
+            feature = feature.subset(new DateRange(new Date(window[0]), new Date(window[1])));
+        }
+        //create the iterator for the feature
+        PointFeatureIterator iterator = feature.getPointFeatureIterator(-1);
+        TimeConverter converter = null;
 
-        DateTime dtStart = new DateTime(df.getISODate(eventTimes.get(0)), chrono);
-        DateTime dtEnd = new DateTime(df.getISODate(eventTimes.get(1)), chrono);
-        DateTime tsDt = new DateTime(getDateForTime(pointFeature.getObservationTime(), pointFeature.getTimeUnit()), chrono);
-     
-        //find out if current time(searchtime) is one or after startTime
-        //same as start
-        if (tsDt.isEqual(dtStart)) {
-            createTimeSeriesData(valueList, dateFormatter, pointFeature, builder, stNum);
-        } //equal end
-        else if (tsDt.isEqual(dtEnd)) {
-            createTimeSeriesData(valueList, dateFormatter, pointFeature, builder, stNum);
-        } //afterStart and before end       
-        else if (tsDt.isAfter(dtStart) && (tsDt.isBefore(dtEnd))) {
-            createTimeSeriesData(valueList, dateFormatter, pointFeature, builder, stNum);
+        while (iterator.hasNext() && !batch.hasError()) {
+            PointFeature pointFeature = iterator.next();
+            converter = TimeConverter.forUnit(converter, pointFeature.getTimeUnit());
+            long time = converter.toMillis(pointFeature.getObservationTime());
+            // the subset is only a hint to the iterator, check the window exactly
+            if (isInTimeWindow(window, time)) {
+                addTimeSeriesData(batch, pointFeature, time, stNum);
+            }
+        }
+        iterator.finish();
+        return batch;
+    }
+
+
+    private void addTimeSeriesData(ObservationBatch batch, PointFeature pointFeature, long time, int stNum) {
+        int row = batch.addRow(time, stNum);
+        try {
+            addDataValues(batch, row, pointFeature.getData(), variableNames);
+        } catch (Exception ex) {
+            // couldn't find a data var
+            batch.setError(DATA_READ_ERROR + ex.getLocalizedMessage() + DATA_READ_ERROR_HINT);
         }
     }
 
@@ -231,16 +252,16 @@ public class TimeSeries extends baseCDMClass implements iStationData {
     }
 
     @Override
-    public String getDataResponse(int stNum) {
+    public ObservationBatch getDataBatch(int stNum) {
         try {
             if (tsData != null) {
                 return createTimeSeriesData(stNum);
             }
         } catch (IOException ex) {
             Logger.getLogger(TimeSeries.class.getName()).log(Level.SEVERE, null, ex);
-            return DATA_RESPONSE_ERROR + TimeSeries.class;
         }
-        return DATA_RESPONSE_ERROR + TimeSeries.class;
+        _log.warn(DATA_RESPONSE_ERROR + TimeSeries.class);
+        return new ObservationBatch(variableNames);
     }
 
     @Override
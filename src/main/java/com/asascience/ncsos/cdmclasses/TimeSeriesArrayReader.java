@@ -0,0 +1,591 @@
+package com.asascience.ncsos.cdmclasses;
+
+import ucar.ma2.Array;
+import ucar.ma2.ArrayChar;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.Attribute;
+import ucar.nc2.Dimension;
+import ucar.nc2.Variable;
+import ucar.nc2.constants.AxisType;
+import ucar.nc2.dataset.NetcdfDataset;
+import ucar.nc2.dataset.VariableDS;
+import ucar.nc2.units.DateUnit;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the observations of a station directly from the variable arrays of a
+ * CF 1.6 discrete sampling geometry time series dataset, with one read per
+ * variable instead of one StructureData per observation. Supports the
+ * orthogonal and incomplete multidimensional layouts and the contiguous and
+ * indexed ragged array layouts. Time windows on the ragged layouts are found
+ * through a persisted RaggedTimeIndex; on joinExisting aggregations of the
+ * orthogonal layout only the component files overlapping the window are read,
+ * through an AggregationTimeIndex.
+ * <p>
+ * read returns null whenever a station or variable does not fit the layout
+ * (ie character data per observation); the caller then falls back to
+ * iterating the station's point features.
+ */
+class TimeSeriesArrayReader {
+
+    private enum Layout {
+        ORTHOGONAL, INCOMPLETE, CONTIGUOUS_RAGGED, INDEXED_RAGGED
+    }
+
+    private static final String CF_ROLE = "cf_role";
+    private static final String TIMESERIES_ID = "timeseries_id";
+    private static final String SAMPLE_DIMENSION = "sample_dimension";
+    private static final String INSTANCE_DIMENSION = "instance_dimension";
+
+    private final NetcdfDataset dataset;
+    private final Layout layout;
+    private final Variable timeVar;
+    private final Variable stationVar;
+    // null for a dataset with a single station
+    private final Dimension stationDim;
+    // time dimension of the orthogonal layout, observation dimension of the others
+    private final Dimension obsDim;
+    // count variable of the contiguous layout, index variable of the indexed layout
+    private final Variable raggedVar;
+
+    // read on first use
+    private TimeConverter timeConverter;
+    private Map<String, Integer> stationIndices;
+    private double[] orthogonalTimes;
+    private int[] rowStarts;
+    private int[] rowCounts;
+    private int[][] stationRows;
+    private boolean timeIndexChecked;
+    private RaggedTimeIndex timeIndex;
+    private boolean aggregationIndexChecked;
+    private AggregationTimeIndex aggregationIndex;
+
+    private static org.slf4j.Logger _log = org.slf4j.LoggerFactory.getLogger(TimeSeriesArrayReader.class);
+
+    private TimeSeriesArrayReader(NetcdfDataset dataset, Layout layout, Variable timeVar, Variable stationVar,
+                                  Dimension stationDim, Dimension obsDim, Variable raggedVar) {
+        this.dataset = dataset;
+        this.layout = layout;
+        this.timeVar = timeVar;
+        this.stationVar = stationVar;
+        this.stationDim = stationDim;
+        this.obsDim = obsDim;
+        this.raggedVar = raggedVar;
+    }
+
+    /**
+     * Determines the layout of the dataset
+     * @param dataset time series dataset
+     * @return a reader for the dataset, null if its layout is not recognized
+     */
+    static TimeSeriesArrayReader create(NetcdfDataset dataset) {
+        if (dataset == null) {
+            return null;
+        }
+        Variable timeVar = dataset.findCoordinateAxis(AxisType.Time);
+        Variable stationVar = null;
+        Variable countVar = null;
+        Variable indexVar = null;
+        for (Variable var : dataset.getVariables()) {
+            Attribute role = var.findAttributeIgnoreCase(CF_ROLE);
+            if (role != null && TIMESERIES_ID.equalsIgnoreCase(role.getStringValue())) {
+                stationVar = var;
+            }
+            if (var.findAttributeIgnoreCase(SAMPLE_DIMENSION) != null) {
+                countVar = var;
+            }
+            if (var.findAttributeIgnoreCase(INSTANCE_DIMENSION) != null) {
+                indexVar = var;
+            }
+        }
+        if (timeVar == null || stationVar == null) {
+            return null;
+        }
+
+        // station ids are either a scalar/1-D string or a (station, strlen) char array
+        Dimension stationDim = null;
+        int idRank = stationVar.getRank() - ((stationVar.getDataType() == DataType.CHAR) ? 1 : 0);
+        if (idRank == 1) {
+            stationDim = stationVar.getDimension(0);
+        } else if (idRank != 0) {
+            return null;
+        }
+
+        if (countVar != null) {
+            Dimension obsDim = dataset.findDimension(countVar.findAttributeIgnoreCase(SAMPLE_DIMENSION).getStringValue());
+            if (obsDim == null || stationDim == null || !hasDimensions(countVar, stationDim) || !hasDimensions(timeVar, obsDim)) {
+                return null;
+            }
+            return new TimeSeriesArrayReader(dataset, Layout.CONTIGUOUS_RAGGED, timeVar, stationVar, stationDim, obsDim, countVar);
+        }
+        if (indexVar != null) {
+            if (stationDim == null || indexVar.getRank() != 1) {
+                return null;
+            }
+            Dimension obsDim = indexVar.getDimension(0);
+            if (!hasDimensions(timeVar, obsDim)) {
+                return null;
+            }
+            return new TimeSeriesArrayReader(dataset, Layout.INDEXED_RAGGED, timeVar, stationVar, stationDim, obsDim, indexVar);
+        }
+        if (timeVar.getRank() == 1 && !timeVar.getDimension(0).equals(stationDim)) {
+            return new TimeSeriesArrayReader(dataset, Layout.ORTHOGONAL, timeVar, stationVar, stationDim, timeVar.getDimension(0), null);
+        }
+        if (timeVar.getRank() == 2 && stationDim != null && timeVar.getDimension(0).equals(stationDim)) {
+            return new TimeSeriesArrayReader(dataset, Layout.INCOMPLETE, timeVar, stationVar, stationDim, timeVar.getDimension(1), null);
+        }
+        return null;
+    }
+
+    /**
+     * Reads the observations of a station within the time window
+     * @param stationName name of the station
+     * @param stNum station index to put in the rows
+     * @param variableNames variables to read
+     * @param window inclusive window of epoch milliseconds, null for all times
+     * @return the observations, null if they cannot be read from the arrays
+     * @throws IOException
+     */
+    ObservationBatch read(String stationName, int stNum, String[] variableNames, long[] window) throws IOException {
+        try {
+            Integer station = getStationIndex(stationName);
+            if (station == null) {
+                return null;
+            }
+            int st = station;
+
+            if (window != null && (layout == Layout.CONTIGUOUS_RAGGED || layout == Layout.INDEXED_RAGGED)) {
+                RaggedTimeIndex index = getTimeIndex();
+                if (index != null) {
+                    return readIndexed(index, st, stNum, variableNames, window);
+                }
+            }
+            if (window != null && layout == Layout.ORTHOGONAL) {
+                AggregationTimeIndex index = getAggregationIndex();
+                if (index != null) {
+                    return readPruned(index, st, stNum, variableNames, window);
+                }
+            }
+
+            // range of the observation dimension holding the station's observations
+            int rangeStart;
+            int rangeLength;
+            int[] rows = null;
+            double[] times;
+            switch (layout) {
+                case ORTHOGONAL:
+                    rangeStart = 0;
+                    rangeLength = obsDim.getLength();
+                    times = getOrthogonalTimes();
+                    break;
+                case INCOMPLETE:
+                    rangeStart = 0;
+                    rangeLength = obsDim.getLength();
+                    times = toDoubles(timeVar.read(new int[] { st, 0 }, new int[] { 1, rangeLength }));
+                    break;
+                case CONTIGUOUS_RAGGED:
+                    readRowSizes();
+                    rangeStart = rowStarts[st];
+                    rangeLength = rowCounts[st];
+                    times = (rangeLength > 0) ? toDoubles(timeVar.read(new int[] { rangeStart }, new int[] { rangeLength })) : new double[0];
+                    break;
+                default:
+                    readStationRows();
+                    rows = stationRows[st];
+                    rangeStart = (rows.length > 0) ? rows[0] : 0;
+                    rangeLength = (rows.length > 0) ? rows[rows.length - 1] - rows[0] + 1 : 0;
+                    times = (rangeLength > 0) ? toDoubles(timeVar.read(new int[] { rangeStart }, new int[] { rangeLength })) : new double[0];
+                    break;
+            }
+
+            // positions (relative to rangeStart) of the observations in the window
+            int count = (rows != null) ? rows.length : rangeLength;
+            int[] selected = new int[count];
+            long[] selectedTimes = new long[count];
+            int nSelected = 0;
+            TimeConverter converter = getTimeConverter();
+            for (int i = 0; i < count; i++) {
+                int pos = (rows != null) ? rows[i] - rangeStart : i;
+                double value = times[pos];
+                if (isMissingTime(value)) {
+                    continue;
+                }
+                long time = converter.toMillis(value);
+                if (baseCDMClass.isInTimeWindow(window, time)) {
+                    selected[nSelected] = pos;
+                    selectedTimes[nSelected] = time;
+                    nSelected++;
+                }
+            }
+
+            // make the positions absolute rows of the observation dimension
+            for (int i = 0; i < nSelected; i++) {
+                selected[i] += rangeStart;
+            }
+            return readRows(st, stNum, variableNames, selected, selectedTimes, nSelected);
+        } catch (InvalidRangeException ex) {
+            _log.warn("Unable to read " + stationName + " with array reads: " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Reads the observations of a station through the time index
+     */
+    private ObservationBatch readIndexed(RaggedTimeIndex index, int st, int stNum, String[] variableNames, long[] window)
+            throws IOException, InvalidRangeException {
+        int first = index.findFirst(st, window[0]);
+        int end = index.findEnd(st, window[1]);
+        int nSelected = Math.max(0, end - first);
+        // the index is in time order, the rows are written in row order like the arrays
+        long[] keys = new long[nSelected];
+        for (int i = 0; i < nSelected; i++) {
+            keys[i] = ((long) index.getRow(first + i) << 32) | i;
+        }
+        Arrays.sort(keys);
+        int[] selected = new int[nSelected];
+        long[] selectedTimes = new long[nSelected];
+        for (int i = 0; i < nSelected; i++) {
+            selected[i] = (int) (keys[i] >>> 32);
+            selectedTimes[i] = index.getTime(first + (int) keys[i]);
+        }
+        return readRows(st, stNum, variableNames, selected, selectedTimes, nSelected);
+    }
+
+    /**
+     * Reads the observations of a station from the component files of an
+     * aggregation whose time extents overlap the window
+     */
+    private ObservationBatch readPruned(AggregationTimeIndex index, int st, int stNum, String[] variableNames, long[] window)
+            throws IOException, InvalidRangeException {
+        ObservationBatch batch = new ObservationBatch(variableNames);
+        TimeConverter converter = getTimeConverter();
+        for (int[] range : index.findRanges(window[0], window[1])) {
+            int length = range[1] - range[0];
+            double[] times = toDoubles(timeVar.read(new int[] { range[0] }, new int[] { length }));
+            int[] selected = new int[length];
+            long[] selectedTimes = new long[length];
+            int nSelected = 0;
+            for (int i = 0; i < length; i++) {
+                if (isMissingTime(times[i])) {
+                    continue;
+                }
+                long time = converter.toMillis(times[i]);
+                if (baseCDMClass.isInTimeWindow(window, time)) {
+                    selected[nSelected] = range[0] + i;
+                    selectedTimes[nSelected] = time;
+                    nSelected++;
+                }
+            }
+            if (!appendRows(batch, st, stNum, variableNames, selected, selectedTimes, nSelected)) {
+                return null;
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Reads the variables of the selected observations
+     * @param st station index in the dataset
+     * @param stNum station index to put in the rows
+     * @param variableNames variables to read
+     * @param selected ascending rows of the observation dimension
+     * @param selectedTimes epoch milliseconds of the selected rows
+     * @param nSelected number of selected rows
+     * @return the observations, null if a variable cannot be read from the arrays
+     */
+    private ObservationBatch readRows(int st, int stNum, String[] variableNames, int[] selected, long[] selectedTimes,
+                                      int nSelected) throws IOException, InvalidRangeException {
+        ObservationBatch batch = new ObservationBatch(variableNames);
+        return appendRows(batch, st, stNum, variableNames, selected, selectedTimes, nSelected) ? batch : null;
+    }
+
+    /**
+     * Reads the variables of the selected observations into a batch
+     * @return false if a variable cannot be read from the arrays
+     */
+    private boolean appendRows(ObservationBatch batch, int st, int stNum, String[] variableNames, int[] selected,
+                               long[] selectedTimes, int nSelected) throws IOException, InvalidRangeException {
+        if (nSelected == 0) {
+            return true;
+        }
+        // only read the part of the dimension that holds the selected observations
+        int lo = selected[0];
+        int length = selected[nSelected - 1] - lo + 1;
+
+        Array[] data = new Array[variableNames.length];
+        boolean[] perObservation = new boolean[variableNames.length];
+        for (int v = 0; v < variableNames.length; v++) {
+            Variable var = dataset.findVariable(variableNames[v]);
+            if (var == null || !isSupportedType(var.getDataType())) {
+                return false;
+            }
+            if (isObservationVariable(var)) {
+                data[v] = readObservations(var, st, lo, length);
+                perObservation[v] = true;
+            } else if (stationDim != null && hasDimensions(var, stationDim)) {
+                data[v] = var.read(new int[] { st }, new int[] { 1 });
+            } else if (var.getRank() == 0) {
+                data[v] = var.read();
+            } else {
+                return false;
+            }
+            if (data[v] == null) {
+                return false;
+            }
+        }
+
+        for (int i = 0; i < nSelected; i++) {
+            int row = batch.addRow(selectedTimes[i], stNum);
+            for (int v = 0; v < variableNames.length; v++) {
+                int index = perObservation[v] ? selected[i] - lo : 0;
+                setValue(batch, v, row, data[v], index);
+            }
+        }
+        return true;
+    }
+
+    private boolean isObservationVariable(Variable var) {
+        switch (layout) {
+            case ORTHOGONAL:
+                if (stationDim == null) {
+                    return hasDimensions(var, obsDim);
+                }
+                return hasDimensions(var, stationDim, obsDim) || hasDimensions(var, obsDim, stationDim);
+            case INCOMPLETE:
+                return hasDimensions(var, stationDim, obsDim);
+            default:
+                return hasDimensions(var, obsDim);
+        }
+    }
+
+    private Array readObservations(Variable var, int st, int start, int length) throws IOException, InvalidRangeException {
+        if (var.getRank() == 1) {
+            return var.read(new int[] { start }, new int[] { length });
+        }
+        if (var.getDimension(0).equals(stationDim)) {
+            return var.read(new int[] { st, start }, new int[] { 1, length });
+        }
+        return var.read(new int[] { start, st }, new int[] { length, 1 });
+    }
+
+    private static void setValue(ObservationBatch batch, int column, int row, Array array, int index) {
+        switch (array.getDataType()) {
+            case DOUBLE:
+                batch.setDouble(column, row, array.getDouble(index));
+                break;
+            case FLOAT:
+                batch.setFloat(column, row, array.getFloat(index));
+                break;
+            case LONG:
+            case INT:
+            case SHORT:
+            case BYTE:
+                batch.setLong(column, row, array.getLong(index));
+                break;
+            default:
+                batch.setText(column, row, String.valueOf(array.getObject(index)));
+        }
+    }
+
+    private static boolean isSupportedType(DataType type) {
+        switch (type) {
+            case DOUBLE:
+            case FLOAT:
+            case LONG:
+            case INT:
+            case SHORT:
+            case BYTE:
+            case STRING:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean hasDimensions(Variable var, Dimension... dims) {
+        List<Dimension> varDims = var.getDimensions();
+        if (varDims.size() != dims.length) {
+            return false;
+        }
+        for (int i = 0; i < dims.length; i++) {
+            if (!varDims.get(i).equals(dims[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isMissingTime(double value) {
+        if (Double.isNaN(value)) {
+            return true;
+        }
+        return (timeVar instanceof VariableDS) && ((VariableDS) timeVar).isMissing(value);
+    }
+
+    private static double[] toDoubles(Array array) {
+        return (double[]) array.get1DJavaArray(double.class);
+    }
+
+    private synchronized TimeConverter getTimeConverter() throws IOException {
+        if (timeConverter == null) {
+            try {
+                timeConverter = new TimeConverter(new DateUnit(timeVar.getUnitsString()));
+            } catch (Exception ex) {
+                throw new IOException("Unable to parse the time units: " + timeVar.getUnitsString());
+            }
+        }
+        return timeConverter;
+    }
+
+    private synchronized Integer getStationIndex(String stationName) throws IOException {
+        if (stationIndices == null) {
+            stationIndices = new HashMap<String, Integer>();
+            Array ids = stationVar.read();
+            if (stationDim == null) {
+                String name = (ids instanceof ArrayChar) ? ((ArrayChar) ids).getString() : String.valueOf(ids.getObject(0));
+                stationIndices.put(name.trim(), 0);
+            } else if (ids instanceof ArrayChar) {
+                ArrayChar chars = (ArrayChar) ids;
+                for (int i = 0; i < stationDim.getLength(); i++) {
+                    stationIndices.put(chars.getString(i).trim(), i);
+                }
+            } else {
+                for (int i = 0; i < stationDim.getLength(); i++) {
+                    stationIndices.put(String.valueOf(ids.getObject(i)).trim(), i);
+                }
+            }
+        }
+        return stationIndices.get(stationName);
+    }
+
+    /**
+     * Returns the time index of a ragged dataset, building its sidecar file
+     * if there is no current one
+     * @return the index, null if the dataset cannot be indexed
+     */
+    private synchronized RaggedTimeIndex getTimeIndex() throws IOException {
+        if (timeIndexChecked) {
+            return timeIndex;
+        }
+        timeIndexChecked = true;
+        String location = dataset.getLocation();
+        long lastModified = dataset.getLastModified();
+        // changes to datasets without a modified time could not be detected
+        if (location == null || lastModified <= 0) {
+            return null;
+        }
+        timeIndex = RaggedTimeIndex.get(location, lastModified);
+        if (timeIndex != null) {
+            return timeIndex;
+        }
+
+        final double[] times = toDoubles(timeVar.read());
+        TimeConverter converter = getTimeConverter();
+        int stations = stationDim.getLength();
+        long[][] stationTimes = new long[stations][];
+        int[][] stationRowsByTime = new int[stations][];
+        for (int st = 0; st < stations; st++) {
+            int[] rows = getRows(st);
+            // stable sort by time, observations at the same time stay in row order
+            Integer[] order = new Integer[rows.length];
+            int count = 0;
+            for (int row : rows) {
+                if (!isMissingTime(times[row])) {
+                    order[count++] = row;
+                }
+            }
+            Arrays.sort(order, 0, count, new Comparator<Integer>() {
+                public int compare(Integer a, Integer b) {
+                    return Double.compare(times[a], times[b]);
+                }
+            });
+            stationTimes[st] = new long[count];
+            stationRowsByTime[st] = new int[count];
+            for (int i = 0; i < count; i++) {
+                stationRowsByTime[st][i] = order[i];
+                stationTimes[st][i] = converter.toMillis(times[order[i]]);
+            }
+        }
+        _log.info("Building the time index of " + location);
+        timeIndex = RaggedTimeIndex.build(location, lastModified, stationTimes, stationRowsByTime);
+        return timeIndex;
+    }
+
+    /**
+     * @return the component index of a joinExisting aggregation, null if the dataset is not one
+     */
+    private synchronized AggregationTimeIndex getAggregationIndex() {
+        if (!aggregationIndexChecked) {
+            aggregationIndexChecked = true;
+            aggregationIndex = AggregationTimeIndex.get(dataset, obsDim, timeVar);
+        }
+        return aggregationIndex;
+    }
+
+    private int[] getRows(int st) throws IOException {
+        if (layout == Layout.INDEXED_RAGGED) {
+            readStationRows();
+            return stationRows[st];
+        }
+        readRowSizes();
+        int[] rows = new int[rowCounts[st]];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = rowStarts[st] + i;
+        }
+        return rows;
+    }
+
+    private synchronized double[] getOrthogonalTimes() throws IOException {
+        if (orthogonalTimes == null) {
+            orthogonalTimes = toDoubles(timeVar.read());
+        }
+        return orthogonalTimes;
+    }
+
+    private synchronized void readRowSizes() throws IOException {
+        if (rowCounts == null) {
+            int[] counts = (int[]) raggedVar.read().get1DJavaArray(int.class);
+            int[] starts = new int[counts.length];
+            int start = 0;
+            for (int i = 0; i < counts.length; i++) {
+                starts[i] = start;
+                start += counts[i];
+            }
+            rowStarts = starts;
+            rowCounts = counts;
+        }
+    }
+
+    private synchronized void readStationRows() throws IOException {
+        if (stationRows == null) {
+            int[] index = (int[]) raggedVar.read().get1DJavaArray(int.class);
+            int stations = stationDim.getLength();
+            int[] counts = new int[stations];
+            for (int st : index) {
+                if (st >= 0 && st < stations) {
+                    counts[st]++;
+                }
+            }
+            int[][] rows = new int[stations][];
+            for (int i = 0; i < stations; i++) {
+                rows[i] = new int[counts[i]];
+                counts[i] = 0;
+            }
+            for (int obs = 0; obs < index.length; obs++) {
+                int st = index[obs];
+                if (st >= 0 && st < stations) {
+                    rows[st][counts[st]++] = obs;
+                }
+            }
+            stationRows = rows;
+        }
+    }
+}
@@ -9,7 +9,6 @@ import com.asascience.ncsos.service.BaseRequestHandler;
 import org.joda.time.DateTime;
 import org.w3c.dom.Document;
 import ucar.nc2.ft.*;
-import ucar.nc2.units.DateFormatter;
 import ucar.unidata.geoloc.Station;
 
 import java.io.IOException;
@@ -32,6 +31,8 @@ public class TimeSeriesProfile extends baseCDMClass implements iStationData {
     private final ArrayList<String> eventTimes;
     private final String[] variableNames;
     private ArrayList<Double> altMin, altMax;
+    // sorted profile times of each station
+    private List<long[]> profileTimes;
 
     /**
      * 
@@ -57,98 +58,84 @@ public class TimeSeriesProfile extends baseCDMClass implements iStationData {
     }
 
     /****************TIMESERIESPROFILE*******************/
-    private String createStationProfileFeature(int stNum) throws IOException {
-        StringBuilder builder = new StringBuilder();
-        DateFormatter dateFormatter = new DateFormatter();
-        List<String> valueList = new ArrayList<String>();
-
-        StationProfileFeature stationProfileFeature = tsProfileData.getStationProfileFeature(tsStationList.get(stNum));
-        List<Date> z = stationProfileFeature.getTimes();
+    private ObservationBatch createStationProfileFeature(int stNum) throws IOException {
+        ObservationBatch batch = new ObservationBatch(variableNames);
+        // requested event times, parsed once
+        long[] window = getEventTimeWindow(eventTimes);
+        if (window != null && window[0] > window[1]) {
+            return batch;
+        }
 
-        ProfileFeature pf = null;
+        // the time index tells how many profiles are wanted, so the pass over
+        // the profiles can stop after the last of them. netCDF-Java only hands
+        // out the profiles of a station in sequence, so the pass still starts
+        // at the first profile: only the point data of the profiles before the
+        // window is skipped, and a window at the end of a long station is
+        // still linear in its number of profiles
+        int wanted = countProfiles(profileTimes.get(stNum), window);
+        if (wanted == 0) {
+            return batch;
+        }
 
-        //if not event time is specified get all the data
-        if (eventTimes == null) {
-            //test getting items by date(index(0))
-            for (int i = 0; i < z.size(); i++) {
-                pf = stationProfileFeature.getProfileByDate(z.get(i));
-                createStationProfileData(pf, valueList, dateFormatter, builder, stNum);
-                if (builder.toString().contains("ERROR"))
-                    break;
-            }
-        } else if (eventTimes.size() > 1) {
-            for (int i = 0; i < z.size(); i++) {
-
-                pf = stationProfileFeature.getProfileByDate(z.get(i));
-
-                DateTime dtStart = new DateTime(df.getISODate(eventTimes.get(0)), chrono);
-                DateTime dtEnd = new DateTime(df.getISODate(eventTimes.get(1)), chrono);
-                DateTime tsDt = new DateTime(pf.getTime(), chrono);
-
-                //find out if current time(searchtime) is one or after startTime
-                //same as start
-                if (tsDt.isEqual(dtStart)) {
-                    createStationProfileData(pf, valueList, dateFormatter, builder, stNum);
-                } //equal end
-                else if (tsDt.isEqual(dtEnd)) {
-                    createStationProfileData(pf, valueList, dateFormatter, builder, stNum);
-                } //afterStart and before end       
-                else if (tsDt.isAfter(dtStart) && (tsDt.isBefore(dtEnd))) {
-                    createStationProfileData(pf, valueList, dateFormatter, builder, stNum);
-                }
-                if (builder.toString().contains("ERROR"))
+        StationProfileFeature stationProfileFeature = tsProfileData.getStationProfileFeature(tsStationList.get(stNum));
+        int found = 0;
+        for (stationProfileFeature.resetIteration(); stationProfileFeature.hasNext() && found < wanted;) {
+            ProfileFeature pf = stationProfileFeature.next();
+            if (isInTimeWindow(window, pf.getTime().getTime())) {
+                found++;
+                createStationProfileData(pf, batch, stNum);
+                if (batch.hasError())
                     break;
             }
-        } //if the event time is specified get the correct data        
-        else {
-            for (int i = 0; i < z.size(); i++) {
+        }
+        return batch;
+    }
 
-                if (df.toDateTimeStringISO(z.get(i)).contentEquals(eventTimes.get(0).toString())) {
-                    pf = stationProfileFeature.getProfileByDate(z.get(i));
-                    createStationProfileData(pf, valueList, dateFormatter, builder, stNum);
-                }
-                
-                if (builder.toString().contains("ERROR"))
-                    break;
+    /**
+     * Counts the profiles of a station in a time window
+     * @param times sorted profile times of the station
+     * @param window inclusive time window, null for all times
+     * @return number of profiles in the window
+     */
+    private static int countProfiles(long[] times, long[] window) {
+        if (window == null) {
+            return times.length;
+        }
+        return firstIndexAfter(times, window[1]) - firstIndexAfter(times, window[0] - 1);
+    }
+
+    private static int firstIndexAfter(long[] times, long time) {
+        if (time == Long.MIN_VALUE) {
+            return 0;
+        }
+        int lo = 0;
+        int hi = times.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[mid] <= time) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
             }
         }
-        return builder.toString();
+        return lo;
     }
 
-    private void createStationProfileData(ProfileFeature pf, List<String> valueList, DateFormatter dateFormatter, StringBuilder builder, int stNum) {
+    private void createStationProfileData(ProfileFeature pf, ObservationBatch batch, int stNum) {
 
         try {
             PointFeatureIterator it = pf.getPointFeatureIterator(-1);
+            TimeConverter converter = null;
 
             while (it.hasNext()) {
                 PointFeature pointFeature = it.next();
-                valueList.clear();
-                valueList.add("time=" + dateFormatter.toDateTimeStringISO(
-                		getDateForTime(pointFeature.getObservationTime(), pointFeature.getTimeUnit())));
-
-                for (String variableName : variableNames) {
-                    valueList.add(variableName + "=" + pointFeature.getData().getScalarObject(variableName).toString());
-                }
-
-                for (int i = 0; i < valueList.size(); i++) {
-                    builder.append(valueList.get(i));
-                    if (i < valueList.size() - 1) {
-                        builder.append(",");
-                    }
-                }
-
-                //builder.append(tokenJoiner.join(valueList));
-                // TODO:  conditional inside loop...
-                if (tsProfileData.getStationProfileFeature(tsStationList.get(stNum)).size() > 1) {
-    //                builder.append(" ");
-    //                builder.append("\n");
-                    builder.append(";");
-                }
+                converter = TimeConverter.forUnit(converter, pointFeature.getTimeUnit());
+                int row = batch.addRow(converter.toMillis(pointFeature.getObservationTime()), stNum);
+                addDataValues(batch, row, pointFeature.getData(), variableNames);
             }
         } catch (Exception ex ) {
             // print error
-            builder.delete(0, builder.length());
-            builder.append("ERROR =reading data from dataset: ").append(ex.getLocalizedMessage()).append(". Most likely this property does not exist or is improperly stored in the dataset.");
+            batch.setError(DATA_READ_ERROR + ex.getLocalizedMessage() + DATA_READ_ERROR_HINT);
         }
     }
 
@@ -176,6 +163,7 @@ public class TimeSeriesProfile extends baseCDMClass implements iStationData {
         
         altMin = new ArrayList<Double>();
         altMax = new ArrayList<Double>();
+        profileTimes = new ArrayList<long[]>();
 
         DateTime curTime;
         DateTime dtStart = null;
@@ -186,6 +174,12 @@ public class TimeSeriesProfile extends baseCDMClass implements iStationData {
             for (int i = 0; i < tsStationList.size(); i++) {
                 StationProfileFeature sPFeature = tsProfileData.getStationProfileFeature(tsStationList.get(i));
                 List<Date> times = sPFeature.getTimes();
+                long[] sortedTimes = new long[times.size()];
+                for (int j = 0; j < sortedTimes.length; j++) {
+                    sortedTimes[j] = times.get(j).getTime();
+                }
+                Arrays.sort(sortedTimes);
+                profileTimes.add(sortedTimes);
 
                 if (i == 0) {
                     setInitialLatLonBoundaries(tsStationList);
@@ -246,16 +240,16 @@ public class TimeSeriesProfile extends baseCDMClass implements iStationData {
     }
 
     @Override
-    public String getDataResponse(int stNum) {
+    public ObservationBatch getDataBatch(int stNum) {
         try {
             if (tsProfileData != null) {
                 return createStationProfileFeature(stNum);
             }
         } catch (IOException ex) {
             Logger.getLogger(TimeSeriesProfile.class.getName()).log(Level.SEVERE, null, ex);
-            return DATA_RESPONSE_ERROR + TimeSeries.class;
         }
-        return DATA_RESPONSE_ERROR + TimeSeries.class;
+        _log.warn(DATA_RESPONSE_ERROR + TimeSeriesProfile.class);
+        return new ObservationBatch(variableNames);
     }
 
     @Override
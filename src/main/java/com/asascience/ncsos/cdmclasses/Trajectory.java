@@ -5,7 +5,6 @@ import com.asascience.ncsos.util.DatasetHandlerAdapter;
 import org.joda.time.DateTime;
 import org.w3c.dom.Document;
 import ucar.nc2.ft.*;
-import ucar.nc2.units.DateFormatter;
 import ucar.unidata.geoloc.Station;
 
 import java.io.IOException;
@@ -52,31 +51,23 @@ public class Trajectory extends baseCDMClass implements iStationData {
         lowerAlt = Double.POSITIVE_INFINITY;
     }
 
-    private void addAllTrajectoryData(PointFeatureIterator trajFeatureIterator, List<String> valueList, DateFormatter dateFormatter, StringBuilder builder) throws IOException {
-        while (trajFeatureIterator.hasNext()) {
+    private void addAllTrajectoryData(PointFeatureIterator trajFeatureIterator, ObservationBatch batch, int stNum) throws IOException {
+        TimeConverter converter = null;
+        while (trajFeatureIterator.hasNext() && !batch.hasError()) {
             PointFeature trajFeature = trajFeatureIterator.next();
-            valueList.clear();
-            addDataLine(valueList, dateFormatter, trajFeature, builder);
+            converter = TimeConverter.forUnit(converter, trajFeature.getTimeUnit());
+            addDataLine(batch, trajFeature, converter.toMillis(trajFeature.getObservationTime()), stNum);
         }
     }
 
-    private void addDataLine(List<String> valueList, DateFormatter dateFormatter, PointFeature trajFeature, StringBuilder builder) {
-        valueList.add("time=" + dateFormatter.toDateTimeStringISO(getDateForTime(trajFeature.getObservationTime(), trajFeature.getTimeUnit())));
+    private void addDataLine(ObservationBatch batch, PointFeature trajFeature, long time, int stNum) {
+        int row = batch.addRow(time, stNum);
 
         try {
-            for (int i = 0; i < variableNames.length; i++) {
-                valueList.add(variableNames[i] + "=" + trajFeature.getData().getScalarObject(variableNames[i]).toString());
-            }
-
-            for (String str : valueList) {
-                builder.append(str).append(",");
-            }
-
-            builder.deleteCharAt(builder.length() - 1).append(";");
+            addDataValues(batch, row, trajFeature.getData(), variableNames);
         } catch (Exception ex) {
             // print error
-            builder.delete(0, builder.length());
-            builder.append("ERROR =reading data from dataset: ").append(ex.getLocalizedMessage()).append(". Most likely this property does not exist or is improperly stored in the dataset.");
+            batch.setError(DATA_READ_ERROR + ex.getLocalizedMessage() + DATA_READ_ERROR_HINT);
         }
     }
 
@@ -209,16 +200,16 @@ public class Trajectory extends baseCDMClass implements iStationData {
     }
 
     @Override
-    public String getDataResponse(int stNum) {
+    public ObservationBatch getDataBatch(int stNum) {
         try {
             if (trajectoryData != null) {
                 return createTrajectoryFeature(stNum);
             }
         } catch (IOException ex) {
             Logger.getLogger(Trajectory.class.getName()).log(Level.SEVERE, null, ex);
-            return DATA_RESPONSE_ERROR + Profile.class;
         }
-        return DATA_RESPONSE_ERROR + Profile.class;
+        _log.warn(DATA_RESPONSE_ERROR + Trajectory.class);
+        return new ObservationBatch(variableNames);
     }
 
     @Override
@@ -313,44 +304,39 @@ public class Trajectory extends baseCDMClass implements iStationData {
         throw new UnsupportedOperationException("Not supported yet.");
     }
 
-    private String createTrajectoryFeature(int stNum) throws IOException {
-        StringBuilder builder = new StringBuilder();
-        DateFormatter dateFormatter = new DateFormatter();
+    private ObservationBatch createTrajectoryFeature(int stNum) throws IOException {
+        ObservationBatch batch = new ObservationBatch(variableNames);
         TrajectoryFeature trajFeature = trajList.get(stNum);
-        addTrajectoryData(dateFormatter, builder, trajFeature, stNum);
-        return builder.toString();
+        addTrajectoryData(batch, trajFeature, stNum);
+        return batch;
     }
 
-    private void addTrajectoryData(DateFormatter dateFormatter, StringBuilder builder, TrajectoryFeature traj, int stNum) throws IOException {
+    private void addTrajectoryData(ObservationBatch batch, TrajectoryFeature traj, int stNum) throws IOException {
 
-        List<String> valueList = new ArrayList<String>();
         PointFeatureIterator trajFeatureIterator = traj.getPointFeatureIterator(-1);
 
-        DateTime trajTime;
         DateTime dtStart;
         DateTime dtEnd;
 
         //if no times are specified
         if (eventTimes == null) {
-            addAllTrajectoryData(trajFeatureIterator, valueList, dateFormatter, builder);
+            addAllTrajectoryData(trajFeatureIterator, batch, stNum);
         } //if more than one date is specified
         else if (eventTimes.size() > 1) {
             //get the dates in iso format
             dtStart = new DateTime(df.getISODate(eventTimes.get(0)), chrono);
             dtEnd = new DateTime(df.getISODate(eventTimes.get(1)), chrono);
 
-            while (trajFeatureIterator.hasNext()) {
+            long start = dtStart.getMillis();
+            long end = dtEnd.getMillis();
+            TimeConverter converter = null;
+            while (trajFeatureIterator.hasNext() && !batch.hasError()) {
                 PointFeature trajFeature = trajFeatureIterator.next();
-                valueList.clear();
-
-                trajTime = new DateTime(getDateForTime(trajFeature.getObservationTime(), trajFeature.getTimeUnit()), chrono);
+                converter = TimeConverter.forUnit(converter, trajFeature.getTimeUnit());
+                long time = converter.toMillis(trajFeature.getObservationTime());
 
-                if (trajTime.isEqual(dtStart)) {
-                    addDataLine(valueList, dateFormatter, trajFeature, builder);
-                } else if (trajTime.isEqual(dtEnd)) {
-                    addDataLine(valueList, dateFormatter, trajFeature, builder);
-                } else if (trajTime.isAfter(dtStart) && (trajTime.isBefore(dtEnd))) {
-                    addDataLine(valueList, dateFormatter, trajFeature, builder);
+                if (time != ObservationBatch.NO_TIME && time >= start && time <= end) {
+                    addDataLine(batch, trajFeature, time, stNum);
                 }
 
             }
@@ -358,20 +344,22 @@ public class Trajectory extends baseCDMClass implements iStationData {
         else if (eventTimes.size() == 1) {
             //get the single date in iso format
             dtStart = new DateTime(df.getISODate(eventTimes.get(0)), chrono);
+            long start = dtStart.getMillis();
+            TimeConverter converter = null;
             while (trajFeatureIterator.hasNext()) {
                 PointFeature trajFeature = trajFeatureIterator.next();
-                valueList.clear();
-                trajTime = new DateTime(getDateForTime(trajFeature.getObservationTime(), trajFeature.getTimeUnit()), chrono);
+                converter = TimeConverter.forUnit(converter, trajFeature.getTimeUnit());
+                long time = converter.toMillis(trajFeature.getObservationTime());
 
-                if (trajTime.isEqual(dtStart)) {
-                    addDataLine(valueList, dateFormatter, trajFeature, builder);
+                if (time == start) {
+                    addDataLine(batch, trajFeature, time, stNum);
                     //if it matches return...
                     break;
                 }
             }
         } //times specified are weird, report all
         else {
-            addAllTrajectoryData(trajFeatureIterator, valueList, dateFormatter, builder);
+            addAllTrajectoryData(trajFeatureIterator, batch, stNum);
         }
     }
 
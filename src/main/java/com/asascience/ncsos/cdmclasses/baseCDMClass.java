@@ -6,10 +6,13 @@ package com.asascience.ncsos.cdmclasses;
 
 import org.joda.time.Chronology;
 import org.joda.time.chrono.ISOChronology;
+import ucar.ma2.StructureData;
+import ucar.ma2.StructureMembers;
 import ucar.nc2.units.DateFormatter;
 import ucar.nc2.units.DateUnit;
 import ucar.unidata.geoloc.Station;
 
+import java.io.IOException;
 import java.util.Date;
 import java.util.List;
 
@@ -28,6 +31,8 @@ public abstract class baseCDMClass implements iStationData {
     protected static final String ERROR_NULL_DATE = "ERROR NULL Date!!!!";
     protected static final int Invalid_Value = -9999999;
     protected static final String Invalid_Station = "INVALID_ST";
+    protected static final String DATA_READ_ERROR = "ERROR =reading data from dataset: ";
+    protected static final String DATA_READ_ERROR_HINT = ". Most likely this property does not exist or is improperly stored in the dataset.";
     protected Chronology chrono = ISOChronology.getInstance();
     protected DateFormatter df = new DateFormatter();
     
@@ -65,6 +70,97 @@ public abstract class baseCDMClass implements iStationData {
     	double secs = dateUnit.getTimeUnit().getValueInSeconds(timeVal); //
     	return new Date(Math.round( ((double) dateUnit.getDateOrigin().getTime()+ (1000.0*secs))));
     }
+
+    /**
+     * Compiles the requested event times into an inclusive window of epoch
+     * milliseconds, so they are parsed once per request instead of once per
+     * observation. A single event time matches any time within the same
+     * second, as it did when the times were compared by their ISO strings.
+     * @param eventTimes requested start and end times or a single time, may be null
+     * @return {start, end}, or null if no event time was requested
+     */
+    protected long[] getEventTimeWindow(List<String> eventTimes) {
+        if (eventTimes == null || eventTimes.isEmpty()) {
+            return null;
+        }
+        Date start = df.getISODate(eventTimes.get(0));
+        if (eventTimes.size() > 1) {
+            Date end = df.getISODate(eventTimes.get(1));
+            return new long[] { (start != null) ? start.getTime() : Long.MIN_VALUE,
+                                (end != null) ? end.getTime() : Long.MAX_VALUE };
+        }
+        if (start == null) {
+            // unparsable time, nothing can match it
+            return new long[] { Long.MAX_VALUE, Long.MIN_VALUE };
+        }
+        long second = start.getTime() - (((start.getTime() % 1000) + 1000) % 1000);
+        return new long[] { second, second + 999 };
+    }
+
+    /**
+     * @param window window from getEventTimeWindow, null for no window
+     * @param time time in milliseconds since the epoch, or ObservationBatch.NO_TIME
+     * @return true if the time falls in the window
+     */
+    protected static boolean isInTimeWindow(long[] window, long time) {
+        if (window == null) {
+            return true;
+        }
+        return time != ObservationBatch.NO_TIME && time >= window[0] && time <= window[1];
+    }
+
+    /**
+     * @param date date to convert, may be null
+     * @return milliseconds since the epoch, or ObservationBatch.NO_TIME for a null date
+     */
+    protected static long getTimeMillis(Date date) {
+        return (date != null) ? date.getTime() : ObservationBatch.NO_TIME;
+    }
+
+    /**
+     * Copies the scalar values of the variables from a point's data into a row
+     * of the batch, keeping the netCDF data type of each variable.
+     * @param batch batch being filled
+     * @param row row of the batch to set
+     * @param data data of the point feature
+     * @param variableNames variables to copy
+     * @throws IOException if a variable is not a member of the data
+     */
+    protected static void addDataValues(ObservationBatch batch, int row, StructureData data, String[] variableNames) throws IOException {
+        for (String variableName : variableNames) {
+            StructureMembers.Member member = data.findMember(variableName);
+            if (member == null) {
+                throw new IOException("no member named " + variableName);
+            }
+            int column = batch.addColumn(variableName);
+            switch (member.getDataType()) {
+                case DOUBLE:
+                    batch.setDouble(column, row, data.getScalarDouble(member));
+                    break;
+                case FLOAT:
+                    batch.setFloat(column, row, data.getScalarFloat(member));
+                    break;
+                case LONG:
+                    batch.setLong(column, row, data.getScalarLong(member));
+                    break;
+                case INT:
+                    batch.setLong(column, row, data.getScalarInt(member));
+                    break;
+                case SHORT:
+                    batch.setLong(column, row, data.getScalarShort(member));
+                    break;
+                case BYTE:
+                    batch.setLong(column, row, data.getScalarByte(member));
+                    break;
+                case CHAR:
+                case STRING:
+                    batch.setText(column, row, data.getScalarString(member));
+                    break;
+                default:
+                    batch.setText(column, row, data.getScalarObject(member).toString());
+            }
+        }
+    }
     
     
     @Override
@@ -119,11 +119,12 @@ public interface iStationData {
     public boolean isStationInFinalList(int stNum);
     
     /**
-     * call to actually get the data response in the form of a create then add
+     * call to actually read the data of a station for the Get Observation response
      * @param stNum station index of the set of queried stations
-     * @return String that contains a formatted response of values for Get Observation response
+     * @return batch with a row for each observation of the station; holds the error
+     * message instead if the data could not be read
      */
-    public String getDataResponse(int stNum);
+    public ObservationBatch getDataBatch(int stNum);
     
     /**
      * Does what is says on the tin
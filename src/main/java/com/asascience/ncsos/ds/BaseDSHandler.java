@@ -8,10 +8,11 @@ import com.asascience.ncsos.outputformatter.ErrorFormatter;
 import com.asascience.ncsos.outputformatter.ds.IoosNetwork10Formatter;
 import com.asascience.ncsos.outputformatter.ds.IoosPlatform10Formatter;
 import com.asascience.ncsos.service.BaseRequestHandler;
+import com.asascience.ncsos.service.ProcedureRegistry;
 import ucar.nc2.dataset.NetcdfDataset;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Main handler class for Describe Sensor requests. Processes the request to determine
@@ -41,7 +42,7 @@ public class BaseDSHandler extends BaseRequestHandler {
      * @throws IOException 
      */
     public BaseDSHandler(NetcdfDataset dataset, String outputFormat, String procedure, String uri, String query) throws IOException {
-        super(dataset);
+        super(dataset, uri);
         
         this.procedure = procedure;
         
@@ -111,23 +112,15 @@ public class BaseDSHandler extends BaseRequestHandler {
             return true;
         // get a list of procedures from dataset and compare it to the passed-in procedure
         // get list of station names
-        HashMap<Integer,String> stationNames = getStationNames();
+        Map<Integer,String> stationNames = getStationNames();
         if (stationNames == null) {
             _log.error("stationNames is null");
             return false;
         }
-        // go through each station urn and compare it to procedure
-        for (String stationName : stationNames.values()) {
-            if (getUrnName(stationName).equalsIgnoreCase(procedure))
-                return true;
-        }
-        // go through each sensor urn and compare it to procedure
-        for (String sensorName : getSensorNames()) {
-            for (String stationName : stationNames.values()) {
-                if (getSensorUrnName(stationName, sensorName).equalsIgnoreCase(procedure))
-                    return true;
-            }
-        }
+        // look the procedure up among the station and sensor urns
+        ProcedureRegistry registry = getProcedureRegistry();
+        if (registry != null && (registry.isStationUrn(procedure) || registry.getSensorStationIndex(procedure) >= 0))
+            return true;
         
         return false;
     }
@@ -1,6 +1,7 @@
 package com.asascience.ncsos.ds;
 
 import com.asascience.ncsos.service.BaseRequestHandler;
+import com.asascience.ncsos.service.ProcedureRegistry;
 import com.asascience.ncsos.util.IFReportMechanism;
 import ucar.nc2.Attribute;
 import ucar.nc2.VariableSimpleIF;
@@ -27,28 +28,19 @@ public class Ioos10Handler extends BaseRequestHandler {
     }
     
     protected boolean checkForProcedure(String procedure) {
-        String validProcedure;
+        ProcedureRegistry registry = this.getProcedureRegistry();
+        if (registry == null) {
+            return false;
+        }
+        logger.debug("Looking up " + procedure);
         if (procedure.contains("station") || procedure.contains("sensor")) {
-            for (String stname : this.getStationNames().values()) {
-                if (procedure.contains("sensor")) {
-                    for (String senname : this.getSensorNames()) {
-                        validProcedure = this.getSensorUrnName(stname, senname);
-                        logger.debug("Comparing " + procedure + " to " + validProcedure);
-                        if (procedure.equalsIgnoreCase(validProcedure))
-                            return true;
-                    }
-                } else {
-                    validProcedure = this.getUrnName(stname);
-                    logger.debug("Comparing " + procedure + " to " + validProcedure);
-                    if (procedure.equalsIgnoreCase(validProcedure))
-                        return true;
-                }
+            if (procedure.contains("sensor")) {
+                return registry.getSensorStationIndex(procedure) >= 0;
+            } else {
+                return registry.isStationUrn(procedure);
             }
         } else if (procedure.contains("network")) {
-            validProcedure = this.getUrnNetworkAll();
-            logger.debug("Comparing " + procedure + " to " + validProcedure);
-            if (procedure.equalsIgnoreCase(validProcedure))
-                return true;
+            return registry.isNetworkAll(procedure);
         }
             
         return false;
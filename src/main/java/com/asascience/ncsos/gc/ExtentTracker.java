@@ -0,0 +1,409 @@
+package com.asascience.ncsos.gc;
+
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.IndexIterator;
+import ucar.nc2.Attribute;
+import ucar.nc2.Dimension;
+import ucar.nc2.Variable;
+import ucar.nc2.constants.AxisType;
+import ucar.nc2.constants.FeatureType;
+import ucar.nc2.dataset.NetcdfDataset;
+import ucar.nc2.dataset.VariableDS;
+import ucar.nc2.time.CalendarDate;
+import ucar.nc2.time.CalendarDateRange;
+import ucar.nc2.units.DateUnit;
+import ucar.unidata.geoloc.LatLonPointImpl;
+import ucar.unidata.geoloc.LatLonRect;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the time and spatial extents of the stations or trajectories of a
+ * dataset between GetCapabilities requests, with the number of records they
+ * were computed from. Real-time datasets (ie the timeagg.ncml aggregations of
+ * the glider DAC) grow by appending records or files; when such a dataset
+ * changes, only the records after the last one seen are read and the cached
+ * extents are extended with them, instead of computing the bounds of every
+ * feature again.
+ * <p>
+ * This applies to CF discrete sampling geometries whose observations lie along
+ * one growing dimension: a single feature, the orthogonal time series layout
+ * and the contiguous and indexed ragged array layouts (for a contiguous ragged
+ * array only the last feature may grow). For any other change (a different
+ * number of features, records removed, rows moved between features) the
+ * extents are computed again from scratch.
+ */
+final class ExtentTracker {
+
+    private enum Layout {
+        SINGLE, ORTHOGONAL, CONTIGUOUS_RAGGED, INDEXED_RAGGED
+    }
+
+    private static final String CF_ROLE = "cf_role";
+    private static final String TIMESERIES_ID = "timeseries_id";
+    private static final String TRAJECTORY_ID = "trajectory_id";
+    private static final String SAMPLE_DIMENSION = "sample_dimension";
+    private static final String INSTANCE_DIMENSION = "instance_dimension";
+    private static final String CALENDAR = "calendar";
+    private static final int MAX_TRACKED_DATASETS = 64;
+
+    private static final Map<String, ExtentTracker> trackers = new LinkedHashMap<String, ExtentTracker>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ExtentTracker> eldest) {
+            return size() > MAX_TRACKED_DATASETS;
+        }
+    };
+
+    private static org.slf4j.Logger _log = org.slf4j.LoggerFactory.getLogger(ExtentTracker.class);
+
+    private final long lastModified;
+    private final Snapshot snapshot;
+    private final Map<Integer, CalendarDateRange> dateRanges;
+    private final Map<Integer, LatLonRect> boxes;
+    private final CalendarDate start;
+    private final CalendarDate end;
+
+    private ExtentTracker(long lastModified, Snapshot snapshot, Map<Integer, CalendarDateRange> dateRanges,
+                          Map<Integer, LatLonRect> boxes, CalendarDate start, CalendarDate end) {
+        this.lastModified = lastModified;
+        this.snapshot = snapshot;
+        this.dateRanges = dateRanges;
+        this.boxes = boxes;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Takes the snapshot of the records of a dataset that its extents are about
+     * to be computed from; taken before the computation, so records appended
+     * meanwhile are read again (harmlessly) by the next refresh
+     * @param dataset the dataset
+     * @param featureType feature type of the dataset
+     * @return the snapshot, null if the extents of the dataset cannot be tracked
+     */
+    static Snapshot snapshot(NetcdfDataset dataset, FeatureType featureType) {
+        if (dataset == null || dataset.getLocation() == null || dataset.getLastModified() <= 0
+                || (featureType != FeatureType.STATION && featureType != FeatureType.TRAJECTORY)) {
+            return null;
+        }
+        try {
+            return Snapshot.of(dataset, featureType);
+        } catch (Exception ex) {
+            _log.debug("Extents of " + dataset.getLocation() + " are not tracked: " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Remembers the extents computed for a dataset
+     * @param dataset the dataset
+     * @param snapshot snapshot taken before the extents were computed, may be null
+     * @param dateRanges time extent of each feature, by index
+     * @param boxes bounding box of each feature, by index
+     * @param start start of the dataset
+     * @param end end of the dataset
+     */
+    static void record(NetcdfDataset dataset, Snapshot snapshot, Map<Integer, CalendarDateRange> dateRanges,
+                       Map<Integer, LatLonRect> boxes, CalendarDate start, CalendarDate end) {
+        // every feature must have its own extents for the indices to line up
+        if (snapshot == null || dateRanges.size() != snapshot.features || boxes.size() != snapshot.features) {
+            return;
+        }
+        ExtentTracker tracker = new ExtentTracker(dataset.getLastModified(), snapshot,
+                new HashMap<Integer, CalendarDateRange>(dateRanges), new HashMap<Integer, LatLonRect>(boxes), start, end);
+        synchronized (trackers) {
+            trackers.put(dataset.getLocation(), tracker);
+        }
+    }
+
+    /**
+     * Returns the extents of a dataset, extended with the records appended
+     * since they were recorded
+     * @param dataset the dataset
+     * @param featureType feature type of the dataset
+     * @return the current extents, null if they have to be computed from scratch
+     */
+    static ExtentTracker refresh(NetcdfDataset dataset, FeatureType featureType) {
+        if (dataset == null || dataset.getLocation() == null) {
+            return null;
+        }
+        ExtentTracker tracker;
+        synchronized (trackers) {
+            tracker = trackers.get(dataset.getLocation());
+        }
+        if (tracker == null || tracker.snapshot.featureType != featureType) {
+            return null;
+        }
+        if (tracker.lastModified == dataset.getLastModified()) {
+            return tracker;
+        }
+        try {
+            Snapshot current = Snapshot.of(dataset, featureType);
+            ExtentTracker refreshed = tracker.extend(dataset, current);
+            if (refreshed != null) {
+                _log.debug("Extended the extents of " + dataset.getLocation() + " with records "
+                        + tracker.snapshot.records + " to " + current.records);
+                synchronized (trackers) {
+                    trackers.put(dataset.getLocation(), refreshed);
+                }
+            }
+            return refreshed;
+        } catch (Exception ex) {
+            _log.debug("Unable to extend the extents of " + dataset.getLocation() + ": " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Forgets the extents of every dataset
+     */
+    static void clear() {
+        synchronized (trackers) {
+            trackers.clear();
+        }
+    }
+
+    /**
+     * @return time extent of each feature, by index (a copy)
+     */
+    HashMap<Integer, CalendarDateRange> getDateRanges() {
+        return new HashMap<Integer, CalendarDateRange>(dateRanges);
+    }
+
+    /**
+     * @return bounding box of each feature, by index (a copy)
+     */
+    HashMap<Integer, LatLonRect> getBoundingBoxes() {
+        return new HashMap<Integer, LatLonRect>(boxes);
+    }
+
+    CalendarDate getStart() {
+        return start;
+    }
+
+    CalendarDate getEnd() {
+        return end;
+    }
+
+    private ExtentTracker extend(NetcdfDataset dataset, Snapshot current) throws Exception {
+        if (current.layout != snapshot.layout || current.features != snapshot.features || current.records < snapshot.records) {
+            return null;
+        }
+        int[] owners = null;
+        int owner = 0;
+        if (current.layout == Layout.CONTIGUOUS_RAGGED) {
+            // rows may only have been appended to the last feature
+            int last = current.features - 1;
+            for (int i = 0; i < last; i++) {
+                if (current.rowSizes[i] != snapshot.rowSizes[i]) {
+                    return null;
+                }
+            }
+            owner = last;
+        }
+        int first = snapshot.records;
+        int count = current.records - first;
+        Map<Integer, CalendarDateRange> ranges = new HashMap<Integer, CalendarDateRange>(dateRanges);
+        Map<Integer, LatLonRect> rects = new HashMap<Integer, LatLonRect>(boxes);
+        CalendarDate newStart = start;
+        CalendarDate newEnd = end;
+        if (count > 0) {
+            Variable timeVar = dataset.findCoordinateAxis(AxisType.Time);
+            Variable latVar = dataset.findCoordinateAxis(AxisType.Lat);
+            Variable lonVar = dataset.findCoordinateAxis(AxisType.Lon);
+            DateUnit unit = new DateUnit(timeVar.getUnitsString());
+            double[] times = readTail(timeVar, first, count);
+            double[] lats = current.perRowLocation ? readTail(latVar, first, count) : null;
+            double[] lons = current.perRowLocation ? readTail(lonVar, first, count) : null;
+            if (current.layout == Layout.INDEXED_RAGGED) {
+                Array index = dataset.findVariable(current.indexVarName).read(new int[] { first }, new int[] { count });
+                owners = (int[]) index.get1DJavaArray(int.class);
+            }
+
+            // extents of the new records, per feature
+            double[][] tail = new double[current.features][];
+            for (int r = 0; r < count; r++) {
+                int feature = (owners != null) ? owners[r] : owner;
+                if (feature < 0 || feature >= current.features || Double.isNaN(times[r])) {
+                    continue;
+                }
+                double[] t = tail[feature];
+                if (t == null) {
+                    t = new double[] { times[r], times[r], Double.NaN, Double.NaN, Double.NaN, Double.NaN };
+                    tail[feature] = t;
+                }
+                t[0] = Math.min(t[0], times[r]);
+                t[1] = Math.max(t[1], times[r]);
+                if (lats != null && !Double.isNaN(lats[r]) && !Double.isNaN(lons[r])) {
+                    t[2] = Double.isNaN(t[2]) ? lats[r] : Math.min(t[2], lats[r]);
+                    t[3] = Double.isNaN(t[3]) ? lats[r] : Math.max(t[3], lats[r]);
+                    t[4] = Double.isNaN(t[4]) ? lons[r] : Math.min(t[4], lons[r]);
+                    t[5] = Double.isNaN(t[5]) ? lons[r] : Math.max(t[5], lons[r]);
+                }
+            }
+            if (current.layout == Layout.ORTHOGONAL) {
+                // the new times belong to every station
+                for (int i = 1; i < current.features; i++) {
+                    tail[i] = tail[0];
+                }
+            }
+            for (int i = 0; i < current.features; i++) {
+                double[] t = tail[i];
+                if (t == null) {
+                    continue;
+                }
+                CalendarDate tailStart = CalendarDate.of(unit.makeDate(t[0]));
+                CalendarDate tailEnd = CalendarDate.of(unit.makeDate(t[1]));
+                ranges.put(i, extend(ranges.get(i), tailStart, tailEnd));
+                if (newStart == null || newStart.isAfter(tailStart)) {
+                    newStart = tailStart;
+                }
+                if (newEnd == null || newEnd.isBefore(tailEnd)) {
+                    newEnd = tailEnd;
+                }
+                if (!Double.isNaN(t[2])) {
+                    LatLonRect rect = new LatLonRect(new LatLonPointImpl(t[2], t[4]), new LatLonPointImpl(t[3], t[5]));
+                    LatLonRect previous = rects.get(i);
+                    if (previous != null) {
+                        // copy, the recorded boxes may still be in use
+                        rect.extend(new LatLonRect(previous.getLowerLeftPoint(), previous.getUpperRightPoint()));
+                    }
+                    rects.put(i, rect);
+                }
+            }
+        }
+        return new ExtentTracker(dataset.getLastModified(), current, ranges, rects, newStart, newEnd);
+    }
+
+    private static CalendarDateRange extend(CalendarDateRange range, CalendarDate start, CalendarDate end) {
+        if (range == null) {
+            return CalendarDateRange.of(start, end);
+        }
+        CalendarDate s = range.getStart().isAfter(start) ? start : range.getStart();
+        CalendarDate e = range.getEnd().isBefore(end) ? end : range.getEnd();
+        return CalendarDateRange.of(s, e);
+    }
+
+    /**
+     * Reads records of a 1D variable, with missing values as NaN
+     */
+    private static double[] readTail(Variable var, int first, int count) throws Exception {
+        Array data = var.read(new int[] { first }, new int[] { count });
+        double[] values = new double[count];
+        IndexIterator it = data.getIndexIterator();
+        for (int i = 0; i < count; i++) {
+            double value = it.getDoubleNext();
+            values[i] = (var instanceof VariableDS && ((VariableDS) var).isMissing(value)) ? Double.NaN : value;
+        }
+        return values;
+    }
+
+    /**
+     * Layout of the features of a dataset and the number of records it holds;
+     * only names are kept, not the netCDF objects of the request's dataset
+     */
+    static final class Snapshot {
+        private FeatureType featureType;
+        private Layout layout;
+        private int features;
+        private int records;
+        private int[] rowSizes;
+        private String indexVarName;
+        // true if latitude and longitude are given for every record, false for every feature
+        private boolean perRowLocation;
+
+        private static Snapshot of(NetcdfDataset dataset, FeatureType featureType) throws Exception {
+            String role;
+            if (featureType == FeatureType.STATION) {
+                role = TIMESERIES_ID;
+            } else if (featureType == FeatureType.TRAJECTORY) {
+                role = TRAJECTORY_ID;
+            } else {
+                throw new Exception("feature type " + featureType);
+            }
+            Variable timeVar = dataset.findCoordinateAxis(AxisType.Time);
+            Variable latVar = dataset.findCoordinateAxis(AxisType.Lat);
+            Variable lonVar = dataset.findCoordinateAxis(AxisType.Lon);
+            if (timeVar == null || latVar == null || lonVar == null || timeVar.getRank() != 1
+                    || timeVar.getUnitsString() == null) {
+                throw new Exception("no 1D time axis with units");
+            }
+            Attribute calendar = timeVar.findAttributeIgnoreCase(CALENDAR);
+            if (calendar != null && !isGregorian(calendar.getStringValue())) {
+                throw new Exception("calendar " + calendar.getStringValue());
+            }
+            Variable featureVar = null;
+            Variable countVar = null;
+            Variable indexVar = null;
+            for (Variable var : dataset.getVariables()) {
+                Attribute attr = var.findAttributeIgnoreCase(CF_ROLE);
+                if (attr != null && role.equalsIgnoreCase(attr.getStringValue())) {
+                    featureVar = var;
+                }
+                if (var.findAttributeIgnoreCase(SAMPLE_DIMENSION) != null) {
+                    countVar = var;
+                }
+                if (var.findAttributeIgnoreCase(INSTANCE_DIMENSION) != null) {
+                    indexVar = var;
+                }
+            }
+            if (featureVar == null) {
+                throw new Exception("no " + role + " variable");
+            }
+            Dimension obsDim = timeVar.getDimension(0);
+            int idRank = featureVar.getRank() - ((featureVar.getDataType() == DataType.CHAR) ? 1 : 0);
+            Dimension featureDim = (idRank == 1) ? featureVar.getDimension(0) : null;
+            if (idRank > 1 || obsDim.equals(featureDim)) {
+                throw new Exception("observations are not along a single dimension");
+            }
+
+            Snapshot snapshot = new Snapshot();
+            snapshot.featureType = featureType;
+            snapshot.records = obsDim.getLength();
+            snapshot.features = (featureDim != null) ? featureDim.getLength() : 1;
+            if (isAlong(latVar, obsDim) && isAlong(lonVar, obsDim)) {
+                snapshot.perRowLocation = true;
+            } else if (!isPerFeature(latVar, featureDim) || !isPerFeature(lonVar, featureDim)) {
+                throw new Exception("locations are neither per record nor per feature");
+            }
+            if (featureDim == null || snapshot.features == 1) {
+                snapshot.layout = Layout.SINGLE;
+            } else if (countVar != null) {
+                if (!obsDim.getShortName().equals(countVar.findAttributeIgnoreCase(SAMPLE_DIMENSION).getStringValue())
+                        || !isAlong(countVar, featureDim)) {
+                    throw new Exception("unexpected count variable");
+                }
+                snapshot.layout = Layout.CONTIGUOUS_RAGGED;
+                snapshot.rowSizes = (int[]) countVar.read().get1DJavaArray(int.class);
+            } else if (indexVar != null) {
+                if (!isAlong(indexVar, obsDim)) {
+                    throw new Exception("unexpected index variable");
+                }
+                snapshot.layout = Layout.INDEXED_RAGGED;
+                snapshot.indexVarName = indexVar.getFullNameEscaped();
+            } else if (featureType == FeatureType.STATION && !snapshot.perRowLocation) {
+                snapshot.layout = Layout.ORTHOGONAL;
+            } else {
+                throw new Exception("unsupported layout");
+            }
+            return snapshot;
+        }
+
+        private static boolean isAlong(Variable var, Dimension dim) {
+            return var.getRank() == 1 && var.getDimension(0).equals(dim);
+        }
+
+        private static boolean isPerFeature(Variable var, Dimension featureDim) {
+            return (featureDim == null) ? var.getRank() == 0 || (var.getRank() == 1 && var.getShape()[0] == 1)
+                    : isAlong(var, featureDim);
+        }
+
+        private static boolean isGregorian(String calendar) {
+            return Arrays.asList("gregorian", "standard", "proleptic_gregorian").contains(calendar.toLowerCase());
+        }
+    }
+}
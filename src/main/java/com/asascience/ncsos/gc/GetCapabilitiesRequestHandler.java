@@ -33,10 +33,10 @@ public class GetCapabilitiesRequestHandler extends BaseRequestHandler {
     private String sections;
     private BitSet requestedSections;
     private static final int SECTION_COUNT = 4;
-    private static CalendarDate setStartDate;
-    private static CalendarDate setEndDate;
-    private static HashMap<Integer, CalendarDateRange> stationDateRange;
-    private static HashMap<Integer, LatLonRect> stationBBox;
+    private CalendarDate setStartDate;
+    private CalendarDate setEndDate;
+    private HashMap<Integer, CalendarDateRange> stationDateRange;
+    private HashMap<Integer, LatLonRect> stationBBox;
     private static org.slf4j.Logger _log = org.slf4j.LoggerFactory.getLogger(GetCapabilitiesRequestHandler.class);
 
     /**
@@ -49,7 +49,7 @@ public class GetCapabilitiesRequestHandler extends BaseRequestHandler {
      * @throws IOException
      */
     public GetCapabilitiesRequestHandler(NetcdfDataset netCDFDataset, String threddsURI, String sections) throws IOException {
-        super(netCDFDataset);
+        super(netCDFDataset, threddsURI);
         this.threddsURI = threddsURI;
         this.sections = sections.toLowerCase();
         this.formatter = new GetCapsFormatter(this);
@@ -152,6 +152,16 @@ public class GetCapabilitiesRequestHandler extends BaseRequestHandler {
     private void CalculateBoundsForFeatureSet() throws IOException {
         FeatureType featype = this.getDatasetFeatureType();
         if (featype != null) {
+            // growing datasets only need their new records read
+            ExtentTracker tracked = ExtentTracker.refresh(netCDFDataset, featype);
+            if (tracked != null) {
+                this.stationDateRange = tracked.getDateRanges();
+                this.stationBBox = tracked.getBoundingBoxes();
+                this.setStartDate = tracked.getStart();
+                this.setEndDate = tracked.getEnd();
+                return;
+            }
+            ExtentTracker.Snapshot snapshot = ExtentTracker.snapshot(netCDFDataset, featype);
             this.stationDateRange = new HashMap<Integer, CalendarDateRange>();
             this.stationBBox = new HashMap<Integer, LatLonRect>();
             CalendarDate start = null, end = null;
@@ -300,6 +310,7 @@ public class GetCapabilitiesRequestHandler extends BaseRequestHandler {
             }
             this.setStartDate = start;
             this.setEndDate = end;
+            ExtentTracker.record(netCDFDataset, snapshot, stationDateRange, stationBBox, start, end);
         } else {
             _log.error("Unknown feature type - getDatasetFeatureType is null");
         }
@@ -5,11 +5,13 @@ import com.asascience.ncsos.outputformatter.ErrorFormatter;
 import com.asascience.ncsos.outputformatter.go.Ioos10Formatter;
 import com.asascience.ncsos.outputformatter.go.OosTethysFormatter;
 import com.asascience.ncsos.service.BaseRequestHandler;
+import com.asascience.ncsos.service.ProcedureRegistry;
+import com.asascience.ncsos.service.VariableIndex;
 import com.asascience.ncsos.util.ListComprehension;
+import com.asascience.ncsos.util.NumericEncoder;
 import ucar.nc2.Attribute;
 import ucar.nc2.Variable;
 import ucar.nc2.constants.AxisType;
-import ucar.nc2.constants.CF;
 import ucar.nc2.constants.FeatureType;
 import ucar.nc2.dataset.CoordinateAxis;
 import ucar.nc2.dataset.CoordinateAxis1D;
@@ -19,6 +21,7 @@ import java.io.IOException;
 import java.net.URLDecoder;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -27,14 +30,19 @@ public class GetObservationRequestHandler extends BaseRequestHandler {
     public static final String STANDARD_NAME = "standard_name";
     private static final String LAT = "latitude";
     private static final String LON = "longitude";
+    // largest requested coordinates; longitudes may be given on -180..180 or 0..360 axes
+    private static final double MAX_LATITUDE = 90;
+    private static final double MAX_LONGITUDE = 360;
 
     public static final String TEXTXML = "text/xml";
     public static final String UNKNOWN = "unknown";
     private String[] obsProperties;
     private String[] procedures;
     private iStationData CDMDataSet;
+    private ObservationBatch[] observationBatches;
+    private Map<String, Integer> precisions;
     private org.slf4j.Logger _log = org.slf4j.LoggerFactory.getLogger(GetObservationRequestHandler.class);
-    private static final String FILL_VALUE_NAME = "_FillValue";
+    private static final String LEAST_SIGNIFICANT_DIGIT = "least_significant_digit";
     public static final String IOOS10_RESPONSE_FORMAT = "text/xml;subtype=\"om/1.0.0/profiles/ioos_sos/1.0\"";
     public static final String OOSTETHYS_RESPONSE_FORMAT = "text/xml;subtype=\"om/1.0.0\"";
     private final List<String> eventTimes;
@@ -56,7 +64,29 @@ public class GetObservationRequestHandler extends BaseRequestHandler {
                                         String[] eventTime,
                                         String responseFormat,
                                         Map<String, String> latLonRequest) throws IOException {
-        super(netCDFDataset);
+        this(netCDFDataset, requestedProcedures, offering, variableNames, eventTime, responseFormat, latLonRequest, null);
+    }
+
+    /**
+     * SOS get obs request handler
+     * @param netCDFDataset dataset for which the get observation request is being made
+     * @param requestedStationNames collection of offerings from the request
+     * @param variableNames collection of observed properties from the request
+     * @param eventTime event time range from the request
+     * @param responseFormat response format from the request
+     * @param latLonRequest map of the latitudes and longitude (points or ranges) from the request
+     * @param threddsURI uri from the thredds request
+     * @throws IOException 
+     */
+    public GetObservationRequestHandler(NetcdfDataset netCDFDataset,
+                                        String[] requestedProcedures,
+                                        String offering,
+                                        String[] variableNames,
+                                        String[] eventTime,
+                                        String responseFormat,
+                                        Map<String, String> latLonRequest,
+                                        String threddsURI) throws IOException {
+        super(netCDFDataset, threddsURI);
 
         // Translate back to an URN.  (gml:id fields in XML can't have colons)
         offering = offering.replace("_-_",":");
@@ -83,21 +113,14 @@ public class GetObservationRequestHandler extends BaseRequestHandler {
         String[] actualVariableNames = variableNames.clone();
 
         // make sure that all of the requested variable names are in the dataset
+        VariableIndex variableIndex = getVariableIndex();
         for (int i = 0 ; i < variableNames.length ; i++) {
             String vars = variableNames[i];
-            boolean isInDataset = false;
-            for (Variable dVar : netCDFDataset.getVariables()) {
-                if (dVar.getFullName().equalsIgnoreCase(vars)) {
-                    isInDataset = true;
-                    break;
-                } else {
-                    Attribute std = dVar.findAttributeIgnoreCase(CF.STANDARD_NAME);
-                    if (std != null && std.getStringValue().equalsIgnoreCase(vars)) {
-                        isInDataset = true;
-                        // Replace standard_name with the variable name
-                        actualVariableNames[i] = dVar.getFullName();
-                    }
-                }
+            String actualName = variableIndex.resolveVariableName(vars);
+            boolean isInDataset = actualName != null;
+            if (isInDataset && !actualName.equalsIgnoreCase(vars)) {
+                // Replace standard_name with the variable name
+                actualVariableNames[i] = actualName;
             }
             if (!isInDataset) {
                 formatter = new ErrorFormatter();
@@ -188,29 +211,24 @@ public class GetObservationRequestHandler extends BaseRequestHandler {
                 return;
             }
 
-            List<String> lats = Arrays.asList(latLonRequest.get(LAT).split(","));
-            for (String s : lats) {
-                try {
-                    Double.parseDouble(s);
-                } catch (NumberFormatException e) {
-                    formatter = new ErrorFormatter();
-                    ((ErrorFormatter)formatter).setException("Invalid latitude specified", INVALID_PARAMETER, "latitude");
-                    CDMDataSet = null;
-                    return;
-                }
+            if (!isValidCoordinateList(latLonRequest.get(LAT), MAX_LATITUDE)) {
+                formatter = new ErrorFormatter();
+                ((ErrorFormatter)formatter).setException("Invalid latitude specified", INVALID_PARAMETER, "latitude");
+                CDMDataSet = null;
+                return;
             }
-            List<String> lons = Arrays.asList(latLonRequest.get(LON).split(","));
-            for (String s : lons) {
-                try {
-                    Double.parseDouble(s);
-                } catch (NumberFormatException e) {
-                    formatter = new ErrorFormatter();
-                    ((ErrorFormatter)formatter).setException("Invalid longitude specified", INVALID_PARAMETER, "longitude");
-                    CDMDataSet = null;
-                    return;
-                }
+            if (!isValidCoordinateList(latLonRequest.get(LON), MAX_LONGITUDE)) {
+                formatter = new ErrorFormatter();
+                ((ErrorFormatter)formatter).setException("Invalid longitude specified", INVALID_PARAMETER, "longitude");
+                CDMDataSet = null;
+                return;
+            }
+            if (latLonRequest.containsKey(DEPTH) && !isValidCoordinateList(latLonRequest.get(DEPTH), Double.MAX_VALUE)) {
+                formatter = new ErrorFormatter();
+                ((ErrorFormatter)formatter).setException("Invalid depth specified", INVALID_PARAMETER, "depth");
+                CDMDataSet = null;
+                return;
             }
-
 
             Variable depthAxis;
             if (!latLonRequest.isEmpty()) {
@@ -229,7 +247,9 @@ public class GetObservationRequestHandler extends BaseRequestHandler {
             if (getDatasetFeatureType() == FeatureType.TRAJECTORY) {
                 CDMDataSet = new Trajectory(this.procedures, eventTime, this.obsProperties);
             } else if (getDatasetFeatureType() == FeatureType.STATION) {
-                CDMDataSet = new TimeSeries(this.procedures, eventTime, this.obsProperties);
+                TimeSeries timeSeries = new TimeSeries(this.procedures, eventTime, this.obsProperties);
+                timeSeries.setNetcdfDataset(netCDFDataset);
+                CDMDataSet = timeSeries;
             } else if (getDatasetFeatureType() == FeatureType.STATION_PROFILE) {
                 CDMDataSet = new TimeSeriesProfile(this.procedures, eventTime, this.obsProperties);
             } else if (getDatasetFeatureType() == FeatureType.PROFILE) {
@@ -247,6 +267,33 @@ public class GetObservationRequestHandler extends BaseRequestHandler {
         }
     }
 
+    /**
+     * @param values comma separated coordinate values or min_max ranges from the request
+     * @param maxMagnitude largest absolute value accepted
+     * @return true if every value, and both bounds of every range, is a finite
+     * number within the bounds
+     */
+    private static boolean isValidCoordinateList(String values, double maxMagnitude) {
+        for (String s : values.split(",")) {
+            String[] bounds = s.split("_", -1);
+            if (bounds.length > 2) {
+                return false;
+            }
+            for (String bound : bounds) {
+                double value;
+                try {
+                    value = Double.parseDouble(bound);
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+                if (Double.isNaN(value) || Double.isInfinite(value) || Math.abs(value) > maxMagnitude) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     /**
      * checks for the presence of height in the netcdf dataset if it finds it but not in the variables selected it adds it
      * @param Axis the axis being checked
@@ -280,40 +327,14 @@ public class GetObservationRequestHandler extends BaseRequestHandler {
         return variableNames1;
     }
 
-     /**
-     * Create the observation data for go, passing it to our formatter
-     */
-    public void parseObservations() {
-    	if(CDMDataSet != null){
-    		for (int s = 0; s < CDMDataSet.getNumberOfStations(); s++) {
-    			String dataString = CDMDataSet.getDataResponse(s);
-    			for (String dataPoint : dataString.split(";")) {
-    				if (!dataPoint.equals("")) {
-    					formatter.addDataFormattedStringToInfoList(dataPoint);
-    				}
-    			}
-    		}
-    	}
-    }
-
     /**
      * Returns the 'standard_name' attribute of a variable, if it exists
      * @param varName the name of the variable
      * @return the 'standard_name' if it exists, otherwise ""
      */
     public String getVariableStandardName(String varName) {
-        String retval = UNKNOWN;
-
-        for (Variable var : netCDFDataset.getVariables()) {
-            if (varName.equalsIgnoreCase(var.getFullName())) {
-                Attribute attr = var.findAttribute(STANDARD_NAME);
-                if (attr != null) {
-                    retval = attr.getStringValue();
-                }
-            }
-        }
-
-        return retval;
+        String standardName = getVariableIndex().getStandardName(varName);
+        return (standardName != null) ? standardName : UNKNOWN;
     }
 
     public List<String> getRequestedEventTimes() {
@@ -387,49 +408,79 @@ public class GetObservationRequestHandler extends BaseRequestHandler {
         return getUnitsOfVariable(dataVarName);
     }
 
-    public String getValueBlockForAllObs(String block, String decimal, String token, int relIndex) {
-        _log.info("Getting data for index: " + relIndex);
-        String retval = CDMDataSet.getDataResponse(relIndex);
-        return retval.replaceAll("\\.", decimal).replaceAll(",", token).replaceAll(";", block);
-    }
-    //</editor-fold>
-
-    public String getFillValue(String obsProp) {
-        Attribute[] attrs = getAttributesOfVariable(obsProp);
-        for (Attribute attr : attrs) {
-            if (attr.getFullNameEscaped().equalsIgnoreCase(FILL_VALUE_NAME)) {
-                return attr.getValue(0).toString();
+    /**
+     * Reads the observations of a station. The batch is handed over to the
+     * caller and not kept by the handler, so a response written station by
+     * station only holds the batch being written. Time series requests for
+     * several stations read all of them in parallel on the first call; those
+     * batches are held until they are taken.
+     * @param relIndex station index of the set of queried stations
+     * @return typed columns of the station's observations
+     */
+    public ObservationBatch getObservationBatch(int relIndex) {
+        if (observationBatches == null) {
+            observationBatches = new ObservationBatch[CDMDataSet.getNumberOfStations()];
+            if (CDMDataSet instanceof TimeSeries && netCDFDataset.getLocation() != null
+                    && ParallelStationReader.isParallel(netCDFDataset, observationBatches.length)) {
+                _log.info("Getting data for " + observationBatches.length + " stations in parallel");
+                ParallelStationReader.read(netCDFDataset.getLocation(), (TimeSeries) CDMDataSet, observationBatches);
+            }
+        }
+        ObservationBatch batch = observationBatches[relIndex];
+        if (batch == null) {
+            _log.info("Getting data for index: " + relIndex);
+            batch = CDMDataSet.getDataBatch(relIndex);
+        } else {
+            observationBatches[relIndex] = null;
+        }
+        if (batch != null) {
+            for (int c = 0; c < batch.getColumnCount(); c++) {
+                batch.setPrecision(c, getPrecision(batch.getColumnName(c)));
             }
         }
-        return "";
+        return batch;
     }
 
-    public boolean hasFillValue(String obsProp) {
-        Attribute[] attrs = getAttributesOfVariable(obsProp);
-        if (attrs == null) {
-            return false;
+    /**
+     * Returns the number of fraction digits written for the values of a
+     * variable, from its least_significant_digit attribute
+     * @param variableName name of the variable
+     * @return fraction digits, NumericEncoder.NO_PRECISION if the variable has no cap
+     */
+    private int getPrecision(String variableName) {
+        if (precisions == null) {
+            precisions = new HashMap<String, Integer>();
         }
-        for (Attribute attr : attrs) {
-            if (attr.getFullNameEscaped().equalsIgnoreCase(FILL_VALUE_NAME)) {
-                return true;
+        Integer precision = precisions.get(variableName);
+        if (precision == null) {
+            precision = NumericEncoder.NO_PRECISION;
+            Variable var = getVariableByName(variableName);
+            Attribute attr = (var != null) ? var.findAttributeIgnoreCase(LEAST_SIGNIFICANT_DIGIT) : null;
+            if (attr != null && attr.isNumeric() && attr.getNumericValue() != null) {
+                int digits = attr.getNumericValue().intValue();
+                if (digits >= 0) {
+                    precision = digits;
+                }
             }
+            precisions.put(variableName, precision);
         }
-        return false;
+        return precision;
+    }
+    //</editor-fold>
 
+    public String getFillValue(String obsProp) {
+        String fillValue = getVariableIndex().getFillValue(obsProp);
+        return (fillValue != null) ? fillValue : "";
     }
 
-    private void checkProcedureValidity() throws IOException {
-        List<String> stProc = new ArrayList<String>();
-        stProc.add(this.getUrnNetworkAll());
-        for (String stname : this.getStationNames().values()) {
-            for (String senname : this.getSensorNames()) {
-                stProc.add(this.getSensorUrnName(stname, senname));
-            }
-            stProc.add(this.getUrnName(stname));
-        }
+    public boolean hasFillValue(String obsProp) {
+        return getVariableIndex().getFillValue(obsProp) != null;
+    }
 
+    private void checkProcedureValidity() throws IOException {
+        ProcedureRegistry registry = this.getProcedureRegistry();
         for (String proc : this.procedures) {
-            if (ListComprehension.filter(stProc, proc).size() < 1) {
+            if (registry == null || !registry.isProcedure(proc)) {
                 formatter = new ErrorFormatter();
                 ((ErrorFormatter)formatter).setException("Invalid procedure " + proc + ". Check GetCapabilities document for valid procedures.", INVALID_PARAMETER, "procedure");
             }
@@ -0,0 +1,116 @@
+package com.asascience.ncsos.go;
+
+import com.asascience.ncsos.cdmclasses.ObservationBatch;
+import com.asascience.ncsos.cdmclasses.TimeSeries;
+import com.asascience.ncsos.util.HttpCacheUtils;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.dataset.NetcdfDataset;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Reads the observations of many stations (ie for a network-all request) on a
+ * bounded fork-join pool shared by all requests. netCDF-Java datasets cannot
+ * be read from several threads, so the stations are split into contiguous
+ * ranges and each range is read through its own handle of the dataset. The
+ * batches are stored by station index, so the formatters see them in the same
+ * order as a serial read.
+ * <p>
+ * The extra handles are acquired from the dataset location through the netCDF
+ * file cache and wrapped the same way as the request's own dataset. That only
+ * reproduces the request's dataset for a plain local file: NcML added by the
+ * catalog, NcML files, aggregations and remote datasets would be lost or read
+ * differently, so those are always read serially.
+ */
+class ParallelStationReader {
+
+    private static final int PARALLELISM = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private static final ForkJoinPool pool = new ForkJoinPool(PARALLELISM);
+
+    private static org.slf4j.Logger _log = org.slf4j.LoggerFactory.getLogger(ParallelStationReader.class);
+
+    private ParallelStationReader() {
+    }
+
+    /**
+     * @param dataset dataset of the request
+     * @param stations number of stations in the request
+     * @return true if reading the stations in parallel can pay off and extra
+     * handles of the dataset read the same data
+     */
+    static boolean isParallel(NetcdfDataset dataset, int stations) {
+        return PARALLELISM > 1 && stations > 1 && HttpCacheUtils.getLocalFile(dataset) != null;
+    }
+
+    /**
+     * Reads all stations of a time series request. Stations that could not be
+     * read are left null, for the caller to read serially.
+     * @param location location to open the extra dataset handles from
+     * @param timeSeries time series of the request
+     * @param batches receives the batch of each station, by station index
+     */
+    static void read(String location, TimeSeries timeSeries, ObservationBatch[] batches) {
+        int handles = Math.min(PARALLELISM, batches.length);
+        pool.invoke(new StationRangeTask(location, timeSeries, batches, 0, batches.length, handles));
+    }
+
+    private static class StationRangeTask extends RecursiveAction {
+        private final String location;
+        private final TimeSeries timeSeries;
+        private final ObservationBatch[] batches;
+        private final int start, end, handles;
+
+        private StationRangeTask(String location, TimeSeries timeSeries, ObservationBatch[] batches,
+                                 int start, int end, int handles) {
+            this.location = location;
+            this.timeSeries = timeSeries;
+            this.batches = batches;
+            this.start = start;
+            this.end = end;
+            this.handles = handles;
+        }
+
+        @Override
+        protected void compute() {
+            if (handles <= 1) {
+                readRange();
+                return;
+            }
+            int leftHandles = handles / 2;
+            int split = start + (int) ((long) (end - start) * leftHandles / handles);
+            invokeAll(new StationRangeTask(location, timeSeries, batches, start, split, leftHandles),
+                      new StationRangeTask(location, timeSeries, batches, split, end, handles - leftHandles));
+        }
+
+        private void readRange() {
+            if (start >= end) {
+                return;
+            }
+            NetcdfDataset dataset = null;
+            try {
+                NetcdfFile file = NetcdfDataset.acquireFile(location, null);
+                dataset = new NetcdfDataset(file);
+                TimeSeries reader = timeSeries.createStationReader(dataset);
+                if (reader == null) {
+                    _log.warn("Unable to find the stations in another handle of " + location);
+                    return;
+                }
+                for (int i = start; i < end; i++) {
+                    batches[i] = reader.getDataBatch(i);
+                }
+            } catch (IOException ex) {
+                _log.warn("Unable to read stations " + start + "-" + (end - 1) + " of " + location + ": " + ex.getMessage());
+            } finally {
+                if (dataset != null) {
+                    try {
+                        dataset.close();
+                    } catch (IOException ex) {
+                        _log.warn(ex.getMessage());
+                    }
+                }
+            }
+        }
+    }
+}
@@ -21,9 +21,6 @@ public class BaseOutputFormatter extends OutputFormatter {
         return "";
     }
 
-    public void addDataFormattedStringToInfoList(String dataFormattedString) {
-    }
-
     protected void setupException(String message) {
         ErrorFormatter ef = new ErrorFormatter();
         ef.setException(message);
@@ -0,0 +1,44 @@
+package com.asascience.ncsos.outputformatter;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes a response that was serialized by an earlier request, without
+ * building or parsing a document.
+ */
+public class CachedResponseFormatter extends OutputFormatter {
+
+    private final String content;
+    private final String contentType;
+
+    /**
+     * @param content the serialized response
+     * @param contentType Content-type of the response
+     */
+    public CachedResponseFormatter(String content, String contentType) {
+        super();
+        this.content = content;
+        this.contentType = contentType;
+    }
+
+    protected String getTemplateLocation() {
+        return null;
+    }
+
+    /**
+     * @return number of characters in the response
+     */
+    public int length() {
+        return content.length();
+    }
+
+    public void writeOutput(Writer writer) throws IOException {
+        writer.write(content);
+        writer.flush();
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+}
@@ -101,8 +101,12 @@ public abstract class OutputFormatter {
     protected Document  document;
 
     public OutputFormatter() {
-        this.document = XMLDomUtils.loadFile(getClass().getClassLoader().getResourceAsStream(this.getTemplateLocation()));
-        this.initNamespaces();
+        // formatters that do not build a document (ie cached responses) have no template
+        String template = this.getTemplateLocation();
+        if (template != null) {
+            this.document = XMLDomUtils.loadTemplate(template);
+            this.initNamespaces();
+        }
     }
 
      public Element getRoot() {
@@ -123,18 +127,10 @@ public abstract class OutputFormatter {
     }
 
     /**
-     * Returns the template path to parse
+     * Returns the template path to parse; null if the formatter has no template
      */
     protected abstract String getTemplateLocation();
 
-    /**
-     * Adds data from a formatted string to some container defined in the individual formatters.
-     *
-     * @param dataFormattedString a csv string that usually follows the format of key=value,key1=value1,key2=value2,etc
-     *                            'value' can be csvs as well, allowing for multiple values per key
-     */
-    public abstract void addDataFormattedStringToInfoList(String dataFormattedString);
-
     /**
      * Writes prepared output to the writer (usually will be a response stream from a http request
      *
@@ -0,0 +1,186 @@
+package com.asascience.ncsos.outputformatter;
+
+import org.jdom.Document;
+import org.jdom.Element;
+import org.jdom.output.Format;
+import org.jdom.output.XMLOutputter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a JDOM document exactly like XMLOutputter with the pretty format,
+ * except that elements can be given a ContentStreamer that writes their text
+ * directly to the Writer when the element is reached, so large blocks (ie
+ * swe:values) never have to be held in the document.
+ * <p>
+ * The document itself is still printed by XMLOutputter, with a marker in
+ * place of the content of each streamed element; the output is then copied
+ * to the Writer and each marker is replaced by the streamed text, escaped by
+ * the same XMLOutputter.
+ */
+public class StreamingXMLOutputter {
+
+    /**
+     * Writes the text of a single element while the document is being output.
+     */
+    public interface ContentStreamer {
+        /**
+         * @param out writer of the element's text, which is escaped as
+         * XMLOutputter escapes element text
+         * @throws IOException
+         */
+        public void writeContent(Writer out) throws IOException;
+    }
+
+    private static final int CHUNK_SIZE = 8192;
+    private static final String MARKER = "ncsos-streamed-content-";
+    private static final char MARKER_END = ';';
+
+    private final Map<Element, ContentStreamer> streamers;
+
+    public StreamingXMLOutputter() {
+        this.streamers = new IdentityHashMap<Element, ContentStreamer>();
+    }
+
+    /**
+     * Registers a streamer for an element; any content the element has in
+     * the document is ignored.
+     * @param element element of the document being output
+     * @param streamer writes the text of the element
+     */
+    public void setContentStreamer(Element element, ContentStreamer streamer) {
+        streamers.put(element, streamer);
+    }
+
+    /**
+     * Writes the document to the writer, flushing it at the end
+     * @param document document to write
+     * @param writer destination of the output
+     * @throws IOException
+     */
+    public void output(Document document, Writer writer) throws IOException {
+        XMLOutputter outputter = new XMLOutputter(Format.getPrettyFormat());
+
+        // swap the content of the streamed elements for markers while the rest is printed
+        String prefix = MARKER + Long.toHexString(System.nanoTime()) + "-";
+        List<Element> elements = new ArrayList<Element>();
+        List<List> contents = new ArrayList<List>();
+        for (Element element : streamers.keySet()) {
+            if (element.getDocument() == document) {
+                contents.add(element.removeContent());
+                element.setText(prefix + elements.size() + MARKER_END);
+                elements.add(element);
+            }
+        }
+        StringWriter skeleton = new StringWriter();
+        try {
+            outputter.output(document, skeleton);
+        } finally {
+            for (int i = 0; i < elements.size(); i++) {
+                elements.get(i).setContent(contents.get(i));
+            }
+        }
+
+        String text = skeleton.toString();
+        int from = 0;
+        int marker;
+        while ((marker = text.indexOf(prefix, from)) >= 0) {
+            int end = text.indexOf(MARKER_END, marker);
+            Element element = elements.get(Integer.parseInt(text.substring(marker + prefix.length(), end)));
+            // the '>' closing the start tag is only written once the element has content
+            writer.write(text, from, marker - 1 - from);
+            ElementTextWriter content = new ElementTextWriter(writer, outputter);
+            streamers.get(element).writeContent(content);
+            from = end + 1;
+            if (!content.hasContent()) {
+                // the form XMLOutputter gives elements without content
+                writer.write(" />");
+                from += ("</" + element.getQualifiedName() + ">").length();
+            }
+        }
+        writer.write(text, from, text.length() - from);
+        writer.flush();
+    }
+
+    /**
+     * Writes the builder's content and empties it, once it holds at least a
+     * chunk worth of characters (or always, when forced).
+     * @param out writer to write to
+     * @param builder characters to write
+     * @param buffer reusable buffer, may be null on the first call
+     * @param force write regardless of the builder's length
+     * @return the buffer (reallocated if the builder had outgrown it)
+     * @throws IOException
+     */
+    public static char[] writeCharacters(Writer out, StringBuilder builder, char[] buffer, boolean force) throws IOException {
+        int length = builder.length();
+        if (length == 0 || (!force && length < CHUNK_SIZE)) {
+            return buffer;
+        }
+        if (buffer == null || buffer.length < length) {
+            buffer = new char[Math.max(length, CHUNK_SIZE)];
+        }
+        builder.getChars(0, length, buffer, 0);
+        out.write(buffer, 0, length);
+        builder.setLength(0);
+        return buffer;
+    }
+
+    /**
+     * Escapes the text of a streamed element and closes its start tag
+     * before the first character.
+     */
+    private static final class ElementTextWriter extends Writer {
+
+        private final Writer out;
+        private final XMLOutputter outputter;
+        private boolean content;
+
+        ElementTextWriter(Writer out, XMLOutputter outputter) {
+            this.out = out;
+            this.outputter = outputter;
+        }
+
+        boolean hasContent() {
+            return content;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            write(new String(cbuf, off, len));
+        }
+
+        @Override
+        public void write(String str) throws IOException {
+            if (str.length() == 0) {
+                return;
+            }
+            if (!content) {
+                out.write('>');
+                content = true;
+            }
+            out.write(outputter.escapeElementEntities(str));
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            write(str.substring(off, off + len));
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() {
+            // the response writer is closed by its owner
+        }
+    }
+}
@@ -283,10 +283,6 @@ public class GetCapsFormatter extends BaseOutputFormatter {
     /***********************/
     /** Interface Methods **/
     /***********************/
-    public void addDataFormattedStringToInfoList(String dataFormattedString) {
-        throw new UnsupportedOperationException("Not supported yet.");
-    }
-
     private void setHTTPMethods(Element parent, String threddsURI) {
         Namespace owsns = this.getNamespace("ows");
         // GET
@@ -1,11 +1,13 @@
 package com.asascience.ncsos.outputformatter.go;
 
+import com.asascience.ncsos.cdmclasses.ObservationBatch;
 import com.asascience.ncsos.go.GetObservationRequestHandler;
 import com.asascience.ncsos.outputformatter.BaseOutputFormatter;
+import com.asascience.ncsos.outputformatter.StreamingXMLOutputter;
+import com.asascience.ncsos.util.IsoDateWriter;
 import com.asascience.ncsos.util.VocabDefinitions;
 import org.jdom.Element;
 import org.jdom.Namespace;
-import org.springframework.util.StringUtils;
 import ucar.nc2.Attribute;
 import ucar.nc2.constants.FeatureType;
 
@@ -45,6 +47,7 @@ public class Ioos10Formatter extends BaseOutputFormatter {
     private static final String DEFINITION = "definition";
     private Namespace OM_NS, GML_NS, SWE2_NS, XLINK_NS, SWE_NS = null;
     private GetObservationRequestHandler handler = null;
+    private final StreamingXMLOutputter outputter = new StreamingXMLOutputter();
 
     //============== Constructor ============================================//
     public Ioos10Formatter(GetObservationRequestHandler handler) {
@@ -329,18 +332,19 @@ public class Ioos10Formatter extends BaseOutputFormatter {
         Element dynamic_array = new Element("DataArray", this.SWE2_NS);
         dynamic_array.setAttribute(DEFINITION, OBS_COLLECTION_DEF);
         // get the count of records (total)
-        StringBuilder strBuilder = new StringBuilder();
+        List<ObservationBatch> batches = new ArrayList<ObservationBatch>();
+        int count = 0;
         for (int p = 0; p < this.handler.getProcedures().length; p++) {
-            strBuilder.append(this.handler.getValueBlockForAllObs(BLOCK_SEPERATOR, DECIMAL_SEPERATOR, TOKEN_SEPERATOR, p));
-        }
-
-        if (StringUtils.countOccurrencesOf(strBuilder.toString(), "ERROR") > 0) {
-            this.hasError = true;
-            this.setupException(strBuilder.toString());
-            return dr;
+            ObservationBatch batch = this.handler.getObservationBatch(p);
+            if (batch.hasError()) {
+                this.hasError = true;
+                this.setupException(batch.getError());
+                return dr;
+            }
+            batches.add(batch);
+            count += batch.size();
         }
 
-        int count = StringUtils.countOccurrencesOf(strBuilder.toString(), BLOCK_SEPERATOR);
         // create count element
         dynamic_array.addContent(this.createElementCount(count));
 
@@ -351,7 +355,7 @@ public class Ioos10Formatter extends BaseOutputFormatter {
         dynamic_array.addContent(this.createEncodingElement());
 
         // add value block to values
-        dynamic_array.addContent(this.createValuesElement(strBuilder));
+        dynamic_array.addContent(this.createValuesElement(batches));
 
         dynamic_data.addContent(dynamic_array);
 
@@ -463,43 +467,71 @@ public class Ioos10Formatter extends BaseOutputFormatter {
         }
     }
 
-    private Element createValuesElement(StringBuilder strBuilder) {
+    private Element createValuesElement(final List<ObservationBatch> batches) {
         /*
          * Creates:
          * <swe2:valuse>data_blocks</swe2:values>
          */
-        // need to operate to pull out the unwanted information from the data string
-        // here is what it looks like from the observation handler:
-        //time=1990-01-01T00:00:00Z,station=0,temperature=22.0,alt=5.6375227[BLOCK_SEPERATOR]time=1990-01-01T00:00:00Z,station=1,temperature=14.0,alt=7.396358
-        // we need to remove all of the 'keys' (ie time, station, etc) and replace with desired info
+        // the blocks are written straight to the response stream when the
+        // element is reached, see writeOutput
+        Element values = new Element("values", this.SWE2_NS);
+        this.outputter.setContentStreamer(values, new StreamingXMLOutputter.ContentStreamer() {
+            public void writeContent(Writer out) throws IOException {
+                writeValueBlocks(out, batches);
+            }
+        });
+        return values;
+    }
+
+    private void writeValueBlocks(Writer out, List<ObservationBatch> batches) throws IOException {
+        // each requested measurement of a row becomes its own block:
+        //1990-01-01T00:00:00Z,station_name_temperature,22.0[BLOCK_SEPERATOR]1990-01-01T00:00:00Z,station_name_alt,5.6375227
         StringBuilder newString = new StringBuilder();
+        char[] buffer = null;
+        boolean first = true;
         List<String> obsProps = this.handler.getRequestedObservedProperties();
-        for (String block : strBuilder.toString().split(BLOCK_SEPERATOR)) {
-            // split on token seperator
-            StringBuilder newBlock = new StringBuilder();
-            for (String token : block.split(TOKEN_SEPERATOR)) {
-                if (token.contains("time")) {
-                    newBlock.append(token.replaceAll("time=", "")).append(TOKEN_SEPERATOR);
-                } else if (token.contains("station")) {
-                    String[] tokenSplit = token.split("=");
-                    int stNum = Integer.parseInt(tokenSplit[1]);
-                    newBlock.append(stationToFieldName(this.handler.getProcedures()[stNum])).append("_");
-                } else {
-                    String[] tokenSplit = token.split("=");
-                    if (obsProps.contains(tokenSplit[0]) && tokenSplit.length > 1) {
-                        // create a new block for each measurement
-                        // add name of measurement to match the data choice
-                        newString.append(newBlock.toString()).append(tokenSplit[0]).append(TOKEN_SEPERATOR);
-                        newString.append(tokenSplit[1]);
+        IsoDateWriter dateWriter = new IsoDateWriter();
+        String[] stationFieldNames = new String[this.handler.getProcedures().length];
+        for (int b = 0; b < batches.size(); b++) {
+            ObservationBatch batch = batches.get(b);
+            // let the batch go once its blocks are written
+            batches.set(b, null);
+            // columns of the batch that were requested, in column order
+            int[] columns = new int[batch.getColumnCount()];
+            int columnCount = 0;
+            for (int c = 0; c < batch.getColumnCount(); c++) {
+                if (obsProps.contains(batch.getColumnName(c))) {
+                    columns[columnCount++] = c;
+                }
+            }
+            for (int row = 0; row < batch.size(); row++) {
+                int stNum = batch.getStation(row);
+                if (stationFieldNames[stNum] == null) {
+                    stationFieldNames[stNum] = stationToFieldName(this.handler.getProcedures()[stNum]);
+                }
+                long time = batch.getTime(row);
+                for (int i = 0; i < columnCount; i++) {
+                    int col = columns[i];
+                    if (!batch.isSet(col, row)) {
+                        continue;
+                    }
+                    // create a new block for each measurement
+                    // add name of measurement to match the data choice
+                    if (!first) {
                         newString.append(BLOCK_SEPERATOR);
                     }
+                    first = false;
+                    if (time != ObservationBatch.NO_TIME) {
+                        dateWriter.append(newString, time);
+                    }
+                    newString.append(TOKEN_SEPERATOR);
+                    newString.append(stationFieldNames[stNum]).append("_").append(batch.getColumnName(col)).append(TOKEN_SEPERATOR);
+                    batch.appendValue(newString, col, row);
                 }
+                buffer = StreamingXMLOutputter.writeCharacters(out, newString, buffer, false);
             }
         }
-        // remove the last block seperator
-        Element values = new Element("values", this.SWE2_NS);
-        values.setText(newString.substring(0, newString.length() - BLOCK_SEPERATOR.length()));
-        return values;
+        StreamingXMLOutputter.writeCharacters(out, newString, buffer, true);
     }
 
     private Element createElementCount(int count) {
@@ -729,6 +761,6 @@ public class Ioos10Formatter extends BaseOutputFormatter {
         if (!hasError) {
             this.createIoosSosResponse();
         }
-        super.writeOutput(writer);
+        this.outputter.output(this.document, writer);
     }
 }
@@ -1,7 +1,10 @@
 package com.asascience.ncsos.outputformatter.go;
 
+import com.asascience.ncsos.cdmclasses.ObservationBatch;
 import com.asascience.ncsos.go.GetObservationRequestHandler;
 import com.asascience.ncsos.outputformatter.BaseOutputFormatter;
+import com.asascience.ncsos.outputformatter.StreamingXMLOutputter;
+import com.asascience.ncsos.util.IsoDateWriter;
 import org.jdom.Element;
 import org.jdom.Namespace;
 
@@ -18,6 +21,7 @@ public class OosTethysFormatter extends BaseOutputFormatter {
     private static final String TOKEN_SEPERATOR = ",";
     private static final String DECIMAL_SEPERATOR = ".";
     private GetObservationRequestHandler handler = null;
+    private final StreamingXMLOutputter outputter = new StreamingXMLOutputter();
     private Namespace OM_NS, GML_NS, SWE_NS, XLINK_NS = null;
     
     private static org.slf4j.Logger _log = org.slf4j.LoggerFactory.getLogger(OosTethysFormatter.class);
@@ -46,7 +50,7 @@ public class OosTethysFormatter extends BaseOutputFormatter {
         if (!hasError) {
             parseObservations(this.handler.getProcedures());
         }
-        super.writeOutput(writer);
+        this.outputter.output(this.document, writer);
     }
 
     private void parseObservations(String[] procedures) {
@@ -222,37 +226,63 @@ public class OosTethysFormatter extends BaseOutputFormatter {
         
         dataArray.addContent(getEncodingElement());
         
-//        dataArray.appendChild(createNodeWithText("swe:values", obsHandler.getValueBlockForAllObs(BLOCK_SEPERATOR, DECIMAL_SEPERATOR, TOKEN_SEPERATOR, index)));
-        dataArray.addContent(createNodeWithText(SWE_NS, "values",
-                processDataBlock(this.handler.getValueBlockForAllObs(BLOCK_SEPERATOR, DECIMAL_SEPERATOR, TOKEN_SEPERATOR, index))));
+        // the station's data is only read once the values element is reached
+        // while the response is being written, see writeOutput
+        final int stationIndex = index;
+        Element values = new Element("values", SWE_NS);
+        this.outputter.setContentStreamer(values, new StreamingXMLOutputter.ContentStreamer() {
+            public void writeContent(Writer out) throws IOException {
+                ObservationBatch batch = handler.getObservationBatch(stationIndex);
+                if (batch.hasError()) {
+                    // the response has already started, so it can no longer become an
+                    // exception report; the error takes the place of the values instead
+                    _log.error(batch.getError());
+                    out.write(batch.getError());
+                    return;
+                }
+                processDataBlock(out, batch);
+            }
+        });
+        dataArray.addContent(values);
         
         parent.addContent(dataArray);
         
         return parent;
     }
     
-    private String processDataBlock(String dataBlock) {
-        // split on token separator then on '='
+    private void processDataBlock(Writer out, ObservationBatch batch) throws IOException {
+        // time first, then each requested observed property in column order
         StringBuilder retval = new StringBuilder();
-        String[] blockSplit = dataBlock.split(BLOCK_SEPERATOR);
-        for (String block : blockSplit) {
-            String[] tokenSplit = block.split(TOKEN_SEPERATOR);
-            for (String obsValue : tokenSplit) {
-                String[] obs = obsValue.split("=");
-                if (obs.length > 1 && (obs[0].equals("time") || isInRequestObservedProperties(obs[0]))) {
-                    retval.append(obs[1]).append(TOKEN_SEPERATOR);
+        char[] buffer = null;
+        IsoDateWriter dateWriter = new IsoDateWriter();
+        int[] columns = new int[batch.getColumnCount()];
+        int columnCount = 0;
+        for (int c = 0; c < batch.getColumnCount(); c++) {
+            if (isInRequestObservedProperties(batch.getColumnName(c))) {
+                columns[columnCount++] = c;
+            }
+        }
+        for (int row = 0; row < batch.size(); row++) {
+            if (row > 0) {
+                retval.append(BLOCK_SEPERATOR);
+            }
+            long time = batch.getTime(row);
+            if (time != ObservationBatch.NO_TIME) {
+                dateWriter.append(retval, time).append(TOKEN_SEPERATOR);
+            }
+            for (int i = 0; i < columnCount; i++) {
+                if (batch.isSet(columns[i], row)) {
+                    batch.appendValue(retval, columns[i], row);
+                    retval.append(TOKEN_SEPERATOR);
                 }
             }
             // remove last token seperator
-            if (retval.length() > 1)
-                retval.deleteCharAt(retval.length()-1);
-            retval.append(BLOCK_SEPERATOR);
+            if (retval.length() > 0 && retval.charAt(retval.length() - 1) == TOKEN_SEPERATOR.charAt(0)) {
+                retval.setLength(retval.length() - 1);
+            }
+            buffer = StreamingXMLOutputter.writeCharacters(out, retval, buffer, false);
         }
-        // remove last block separator
-        if (retval.length() > 1)
-                retval.deleteCharAt(retval.length()-1);
-        
-        return retval.toString();
+        StreamingXMLOutputter.writeCharacters(out, retval, buffer, true);
     }
     
     private boolean isInRequestObservedProperties(String name) {
@@ -2,7 +2,7 @@ package com.asascience.ncsos.service;
 
 import com.asascience.ncsos.outputformatter.OutputFormatter;
 import com.asascience.ncsos.util.DiscreteSamplingGeometryUtil;
-import com.asascience.ncsos.util.ListComprehension;
+import com.asascience.ncsos.util.NumericEncoder;
 import ucar.ma2.DataType;
 import ucar.nc2.Attribute;
 import ucar.nc2.Variable;
@@ -15,7 +15,6 @@ import ucar.nc2.dt.GridDataset;
 import ucar.nc2.ft.*;
 
 import java.io.IOException;
-import java.text.NumberFormat;
 import java.util.*;
 
 public abstract class BaseRequestHandler {
@@ -32,9 +31,8 @@ public abstract class BaseRequestHandler {
     public static final String SENSOR_URN_BASE = "urn:ioos:sensor:";
     public static final String NETWORK_URN_BASE = "urn:ioos:network:";
     public static final String DEFAULT_NAMING_AUTHORITY = "ncsos";
-    private static final NumberFormat FORMAT_DEGREE;
     // list of keywords to filter variables on to remove non-data variables from the list
-    private static final String[] NON_DATAVAR_NAMES = { "rowsize", "row_size", PROFILE, "info", "time", "z", "alt", "height", "station_info" };
+    static final String[] NON_DATAVAR_NAMES = { "rowsize", "row_size", PROFILE, "info", "time", "z", "alt", "height", "station_info" };
     private FeatureDataset featureDataset;
     private FeatureCollection CDMPointFeatureCollection;
     private GridDataset gridDataSet = null;
@@ -46,7 +44,7 @@ public abstract class BaseRequestHandler {
     protected final NetcdfDataset netCDFDataset;
     protected Variable latVariable, lonVariable, timeVariable, depthVariable;
     protected Variable stationVariable;
-    private HashMap<Integer, String> stationNames;
+    private Map<Integer, String> stationNames;
     private List<String> sensorNames;
 
 
@@ -59,12 +57,11 @@ public abstract class BaseRequestHandler {
 
     private org.slf4j.Logger _log = org.slf4j.LoggerFactory.getLogger(BaseRequestHandler.class);
 
-    static {
-        FORMAT_DEGREE = NumberFormat.getNumberInstance();
-        FORMAT_DEGREE.setMinimumFractionDigits(1);
-        FORMAT_DEGREE.setMaximumFractionDigits(14);
-    }
     private FeatureType dataFeatureType;
+    private ProcedureRegistry procedureRegistry;
+    private DatasetMetadata datasetMetadata;
+    private VariableIndex variableIndex;
+    private List<VariableSimpleIF> dataVariables;
     protected OutputFormatter formatter;
 
     /**
@@ -73,6 +70,17 @@ public abstract class BaseRequestHandler {
      * @throws IOException
      */
     public BaseRequestHandler(NetcdfDataset netCDFDataset) throws IOException {
+        this(netCDFDataset, null);
+    }
+
+    /**
+     * Takes in a dataset and wraps it based on its feature type.
+     * @param netCDFDataset the dataset being acted on
+     * @param datasetUri uri the dataset was requested by; the scanned metadata
+     * is cached per dataset and uri
+     * @throws IOException
+     */
+    public BaseRequestHandler(NetcdfDataset netCDFDataset, String datasetUri) throws IOException {
         // check for non-null dataset
         if(netCDFDataset == null) {
 //            _log.error("received null dataset -- probably exception output");
@@ -92,6 +100,12 @@ public abstract class BaseRequestHandler {
             CDMPointFeatureCollection = DiscreteSamplingGeometryUtil.extractFeatureDatasetCollection(featureDataset);
             dataFeatureType = CDMPointFeatureCollection.getCollectionFeatureType();
         }
+        DatasetMetadata metadata = DatasetMetadata.get(netCDFDataset, datasetUri);
+        if (metadata != null && metadata.getFeatureType() == dataFeatureType) {
+            // dataset was already scanned, skip straight to the cached results
+            loadMetadata(metadata);
+            return;
+        }
         // find the global attributes
         parseGlobalAttributes();
         // get the station variable and several other bits needed
@@ -103,6 +117,37 @@ public abstract class BaseRequestHandler {
         lonVariable = netCDFDataset.findCoordinateAxis(AxisType.Lon);
         timeVariable = netCDFDataset.findCoordinateAxis(AxisType.Time);
         depthVariable = netCDFDataset.findCoordinateAxis(AxisType.Height);
+        DatasetMetadata scanned = new DatasetMetadata(netCDFDataset, datasetUri, dataFeatureType, stationNames, sensorNames,
+                global_attributes, stationVariable, latVariable, lonVariable, timeVariable, depthVariable);
+        this.procedureRegistry = scanned.getProcedureRegistry();
+        this.datasetMetadata = scanned;
+        DatasetMetadata.put(scanned);
+    }
+
+    /**
+     * Sets up the handler from metadata cached by an earlier request; the
+     * variables are looked up by name in this request's dataset.
+     * @param metadata the cached metadata of the dataset
+     */
+    private void loadMetadata(DatasetMetadata metadata) {
+        this.global_attributes.putAll(metadata.getGlobalAttributes());
+        this.stationNames = metadata.getStationNames();
+        this.sensorNames = metadata.getSensorNames();
+        this.stationVariable = findVariableByName(metadata.getStationVariableName());
+        this.latVariable = findAxisByName(metadata.getLatAxisName());
+        this.lonVariable = findAxisByName(metadata.getLonAxisName());
+        this.timeVariable = findAxisByName(metadata.getTimeAxisName());
+        this.depthVariable = findAxisByName(metadata.getDepthAxisName());
+        this.procedureRegistry = metadata.getProcedureRegistry();
+        this.datasetMetadata = metadata;
+    }
+
+    private Variable findVariableByName(String name) {
+        return (name != null) ? netCDFDataset.findVariable(name) : null;
+    }
+
+    private Variable findAxisByName(String name) {
+        return (name != null) ? netCDFDataset.findCoordinateAxis(name) : null;
     }
     
     /**
@@ -331,69 +376,31 @@ public abstract class BaseRequestHandler {
         }
     }
     
-    /**
-     * Attempts to find the coordinate reference authority
-     * @param varName var name to check for crs authority
-     * @return the authority name, if there is one
-     */
-    private String getAuthorityFromVariable(String varName) {
-        String retval = null;
-
-        Variable crsVar = null;
-        for (Variable var : netCDFDataset.getVariables()) {
-            if (var.getFullName().equalsIgnoreCase(varName)) {
-                crsVar = var;
-                break;
-            }
-        }
-        
-        if (crsVar != null) {
-            for (Attribute attr : crsVar.getAttributes()) {
-                if (attr.getName().toLowerCase().contains("code")) {
-                    retval = attr.getValue(0).toString();
-                    break;
-                }
-            }
-        }
-        
-        return retval;
-    }
-    
     /**
      * Returns the index of the station name
      * @param stationToLookFor the name of the station to find
      * @return the index of the station; -1 if no station with the name exists
      */
     protected int getStationIndex(String stationToLookFor) {
-        try {
-            if (stationToLookFor == null)
-                throw new Exception("Looking for null station");
-            // look for the station in the hashmap and return its index
-            int retval = -1;
-            if (stationNames != null && stationNames.containsValue(stationToLookFor)) {
-                int index = 0;
-                for (String stationName : stationNames.values()) {
-                    if (stationToLookFor.equalsIgnoreCase(stationName)) {
-                        retval = index;
-                        break;
-                    }
-                    index++;
-                }
-            }
-
-            return retval;
-        } catch (Exception ex) {
-            ex.printStackTrace();
+        if (stationToLookFor == null || procedureRegistry == null) {
+            return -1;
         }
-        
-        return -1;
+        return procedureRegistry.getStationIndex(stationToLookFor);
+    }
+    
+    /**
+     * @return case-insensitive registry of the procedures (network, station
+     * and sensor URNs) of the dataset
+     */
+    protected ProcedureRegistry getProcedureRegistry() {
+        return this.procedureRegistry;
     }
     
     /**
      * Get the station names, parsed from a Variable containing "station" and "name"
      * @return list of station names
      */
-    protected HashMap<Integer,String> getStationNames() {
+    protected Map<Integer,String> getStationNames() {
         return this.stationNames;
     }
     
@@ -449,14 +456,9 @@ public abstract class BaseRequestHandler {
      * @return the units string or "none" if the variable could not be found
      */
     protected String getUnitsOfVariable(String varName) {
-        Variable var;
-        if (featureDataset != null) {
-            var = (Variable) featureDataset.getDataVariable(varName);
-        } else {
-            var = netCDFDataset.findVariable(varName);
-        }
-        if (var != null) {
-            return var.getUnitsString();
+        VariableIndex index = getVariableIndex();
+        if (index.isDataVariable(varName)) {
+            return index.getUnits(varName);
         }
         return "none";
     }
@@ -483,6 +485,20 @@ public abstract class BaseRequestHandler {
         return this.netCDFDataset.findVariable(variableName);
     }
 
+    /**
+     * Returns the index of the variable metadata (standard names, units, fill
+     * values...) of the dataset, shared by requests against the same dataset
+     * @return the variable index
+     */
+    public final VariableIndex getVariableIndex() {
+        if (variableIndex == null) {
+            variableIndex = (datasetMetadata != null) ?
+                    datasetMetadata.getVariableIndex(netCDFDataset, featureDataset) :
+                    VariableIndex.build(netCDFDataset, featureDataset);
+        }
+        return variableIndex;
+    }
+
     /**
      * Returns the dataset, wrapped according to its feature type
      * @return wrapped dataset
@@ -548,18 +564,12 @@ public abstract class BaseRequestHandler {
      * @return
      */
     public String getUrnName(String stationName) {
-        String[] feature_name = stationName.split(":");
-        if (feature_name.length > 1 && feature_name[0].equalsIgnoreCase("urn")) {
-            // We already have a URN, so just return it.
-            return stationName;
-        } else {
-            return STATION_URN_BASE + this.global_attributes.get("naming_authority") + ":" + stationName;
-        }
+        return ProcedureRegistry.stationUrn(this.global_attributes.get("naming_authority"), stationName);
     }
     
     public String getUrnNetworkAll() {
         // returns the network-all urn of the authority
-        return NETWORK_URN_BASE + this.global_attributes.get("naming_authority") + ":all";
+        return ProcedureRegistry.networkAllUrn(this.global_attributes.get("naming_authority"));
     }
     
     /**
@@ -569,38 +579,16 @@ public abstract class BaseRequestHandler {
      * @return urn of the station/sensor combo
      */
     public String getSensorUrnName(String stationName, String sensorName) {
-        String[] feature_name = stationName.split(":");
-        if (feature_name.length > 1 && feature_name[0].equalsIgnoreCase("urn")) {
-            // We have a station URN, so strip out the name
-            stationName = feature_name[feature_name.length - 1];
-        }
-        return SENSOR_URN_BASE + this.global_attributes.get("naming_authority") + ":" + stationName + ":" + sensorName;
+        return ProcedureRegistry.sensorUrn(this.global_attributes.get("naming_authority"), stationName, sensorName);
     }
 
     /**
-     * Finds the CRS/SRS authorities used for the data vars. This method reads
-     * through variables in a highly inefficient manner, therefore if a method
-     * provided by the netcdf-java api is found that provides the same output it
-     * should be favored over this.
+     * Finds the CRS/SRS authorities used for the data vars, from the 'code'
+     * attribute of their grid_mapping variables
      * @return an array of crs/srs authorities if there are any; else null
      */
     public String[] getCRSSRSAuthorities() {
-        ArrayList<String> returnList = new ArrayList<String>();
-        for (VariableSimpleIF var : featureDataset.getDataVariables()) {
-            for (Attribute attr : var.getAttributes()) {
-                if (attr.getFullName().equalsIgnoreCase(GRID_MAPPING)) {
-                    String stName = attr.getValue(0).toString();
-                    String auth = getAuthorityFromVariable(stName);
-                    if (auth != null && !returnList.contains(auth)) {
-                        returnList.add(auth);
-                    }
-                }
-            }
-        }
-        if (returnList.size() > 0)
-            return returnList.toArray(new String[returnList.size()]);
-        else
-            return null;
+        return getVariableIndex().getCRSAuthorities();
     }
     
     /**
@@ -616,12 +604,12 @@ public abstract class BaseRequestHandler {
     }
 
                       /**
-     * Formats degree, using a number formatter
+     * Formats degree, with at least 1 and at most 14 fraction digits
      * @param degree a number to format to a degree
      * @return the number as a degree
      */
     public static String formatDegree(double degree) {
-        return FORMAT_DEGREE.format(degree);
+        return NumericEncoder.formatDegree(degree);
     }
 
 
@@ -661,48 +649,20 @@ public abstract class BaseRequestHandler {
      * @return list of variable interfaces
      */
     public List<VariableSimpleIF> getDataVariables() {
-        List<VariableSimpleIF> retval = ListComprehension.map(this.featureDataset.getDataVariables(), new ListComprehension.Func<VariableSimpleIF, VariableSimpleIF>() {
-            public VariableSimpleIF apply(VariableSimpleIF in) {
-                // check for direct name comparisons
-                for (String name : NON_DATAVAR_NAMES) {
-                    String sname = in.getShortName().toLowerCase();
-                    if (sname.equalsIgnoreCase(name))
-                        return null;
+        if (dataVariables == null) {
+            Map<String, VariableSimpleIF> byName = new HashMap<String, VariableSimpleIF>();
+            for (VariableSimpleIF var : this.featureDataset.getDataVariables()) {
+                byName.put(var.getShortName(), var);
+            }
+            List<VariableSimpleIF> retval = new ArrayList<VariableSimpleIF>();
+            for (String name : getVariableIndex().getDataVariableNames()) {
+                if (byName.containsKey(name)) {
+                    retval.add(byName.get(name));
                 }
-                return in;
             }
-        });
-        retval = ListComprehension.filterOut(retval, null);
-        // get any ancillary variables from the current data variables
-        List<String> ancillaryVariables = ListComprehension.map(retval, new ListComprehension.Func<VariableSimpleIF, String>() {
-           public String apply(VariableSimpleIF in) {
-               Attribute av = in.findAttributeIgnoreCase("ancillary_variables");
-               if (av != null)
-                   return av.getStringValue();
-               return null;
-           } 
-        });
-        final List<String> ancillaryVariablesF = ListComprehension.filterOut(ancillaryVariables, null);
-        // remove any ancillary variables from the current retval list
-        retval = ListComprehension.map(retval, new ListComprehension.Func<VariableSimpleIF, VariableSimpleIF>() {
-           public VariableSimpleIF apply(VariableSimpleIF in) {
-                List<Boolean> add = ListComprehension.map(ancillaryVariablesF, in, new ListComprehension.Func2P<String, VariableSimpleIF, Boolean>() {
-                  public Boolean apply(String sin, VariableSimpleIF vin) {
-                      if (sin.equals(vin.getShortName()))
-                          return false;
-                      return true;
-                  }
-               });
-                // filter out all of the 'trues' in the list, if there are any 'falses' left, then the
-                // variable should not be in the final list
-               add = ListComprehension.filterOut(add, true);
-               if (add.size() > 0)
-                   return null;
-               
-               return in;
-           } 
-        });
-        return ListComprehension.filterOut(retval, null);
+            dataVariables = Collections.unmodifiableList(retval);
+        }
+        return dataVariables;
     }
 
 }
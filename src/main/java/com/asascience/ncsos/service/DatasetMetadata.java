@@ -0,0 +1,215 @@
+package com.asascience.ncsos.service;
+
+import ucar.nc2.Variable;
+import ucar.nc2.constants.FeatureType;
+import ucar.nc2.dataset.NetcdfDataset;
+import ucar.nc2.ft.FeatureDataset;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable summary of a dataset that every request handler needs: the
+ * feature type, station and sensor names, global attributes and the names of
+ * the station and axis variables. Scanning the dataset for these is expensive
+ * for large collections (every nested feature is iterated for the station
+ * names), so the summary is built once and cached by dataset location and
+ * request URI, and dropped when the last modified time changes. The URI is
+ * part of the key because a catalog can serve the same file under several
+ * paths, each wrapped by its own NcML that changes attributes or variables.
+ * <p>
+ * Only names are kept; the netCDF objects themselves belong to the dataset
+ * instance of a single request and are looked up again by the handler. The
+ * index of the variable metadata is the exception: it is built by the first
+ * request that needs it and shared from then on.
+ */
+public final class DatasetMetadata {
+
+    private static final int MAX_CACHED_DATASETS = 64;
+    private static final Map<String, DatasetMetadata> cache = new LinkedHashMap<String, DatasetMetadata>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, DatasetMetadata> eldest) {
+            return size() > MAX_CACHED_DATASETS;
+        }
+    };
+
+    private final String key;
+    private final String location;
+    private final long lastModified;
+    private final FeatureType featureType;
+    private final Map<Integer, String> stationNames;
+    private final List<String> sensorNames;
+    private final Map<String, Object> globalAttributes;
+    private final String stationVariableName;
+    private final String latAxisName, lonAxisName, timeAxisName, depthAxisName;
+    private final ProcedureRegistry procedureRegistry;
+    // built on first use, since not every request needs it
+    private VariableIndex variableIndex;
+
+    DatasetMetadata(NetcdfDataset dataset,
+                    String datasetUri,
+                    FeatureType featureType,
+                    Map<Integer, String> stationNames,
+                    List<String> sensorNames,
+                    Map<String, Object> globalAttributes,
+                    Variable stationVariable,
+                    Variable latAxis, Variable lonAxis, Variable timeAxis, Variable depthAxis) {
+        this.key = createKey(dataset, datasetUri);
+        this.location = dataset.getLocation();
+        this.lastModified = dataset.getLastModified();
+        this.featureType = featureType;
+        this.stationNames = (stationNames != null) ?
+                Collections.unmodifiableMap(new HashMap<Integer, String>(stationNames)) : null;
+        this.sensorNames = (sensorNames != null) ?
+                Collections.unmodifiableList(new ArrayList<String>(sensorNames)) : null;
+        this.globalAttributes = Collections.unmodifiableMap(new HashMap<String, Object>(globalAttributes));
+        this.stationVariableName = nameOf(stationVariable);
+        this.latAxisName = nameOf(latAxis);
+        this.lonAxisName = nameOf(lonAxis);
+        this.timeAxisName = nameOf(timeAxis);
+        this.depthAxisName = nameOf(depthAxis);
+        this.procedureRegistry = new ProcedureRegistry(this.globalAttributes.get("naming_authority"),
+                this.stationNames, this.sensorNames);
+    }
+
+    /**
+     * Creates the cache key of a dataset
+     * @param dataset the dataset of the request
+     * @param datasetUri uri the dataset was requested by, may be null
+     * @return key for the dataset; null if the dataset cannot be identified
+     */
+    static String createKey(NetcdfDataset dataset, String datasetUri) {
+        if (dataset.getLocation() == null) {
+            return null;
+        }
+        return dataset.getLocation() + '\n' + datasetUri;
+    }
+
+    /**
+     * Looks up the cached metadata of a dataset
+     * @param dataset the dataset of the request
+     * @param datasetUri uri the dataset was requested by, may be null
+     * @return the metadata, or null if the dataset has not been scanned yet
+     * under that uri or was modified since
+     */
+    public static DatasetMetadata get(NetcdfDataset dataset, String datasetUri) {
+        String key = createKey(dataset, datasetUri);
+        if (key == null) {
+            return null;
+        }
+        DatasetMetadata metadata;
+        synchronized (cache) {
+            metadata = cache.get(key);
+        }
+        if (metadata != null && metadata.lastModified != dataset.getLastModified()) {
+            return null;
+        }
+        return metadata;
+    }
+
+    /**
+     * Caches the metadata of a dataset. Datasets that do not report a last
+     * modified time are not cached, since changes to them could not be detected.
+     * @param metadata metadata to cache
+     */
+    public static void put(DatasetMetadata metadata) {
+        if (metadata.key == null || metadata.lastModified <= 0) {
+            return;
+        }
+        synchronized (cache) {
+            cache.put(metadata.key, metadata);
+        }
+    }
+
+    /**
+     * Removes all cached metadata
+     */
+    public static void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    private static String nameOf(Variable var) {
+        return (var != null) ? var.getFullNameEscaped() : null;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public FeatureType getFeatureType() {
+        return featureType;
+    }
+
+    /**
+     * @return unmodifiable map of station index to station name
+     */
+    public Map<Integer, String> getStationNames() {
+        return stationNames;
+    }
+
+    /**
+     * @return unmodifiable list of the sensor (data variable) names
+     */
+    public List<String> getSensorNames() {
+        return sensorNames;
+    }
+
+    /**
+     * @return unmodifiable map of the global attributes, with the required
+     * defaults filled in
+     */
+    public Map<String, Object> getGlobalAttributes() {
+        return globalAttributes;
+    }
+
+    public String getStationVariableName() {
+        return stationVariableName;
+    }
+
+    public String getLatAxisName() {
+        return latAxisName;
+    }
+
+    public String getLonAxisName() {
+        return lonAxisName;
+    }
+
+    public String getTimeAxisName() {
+        return timeAxisName;
+    }
+
+    public String getDepthAxisName() {
+        return depthAxisName;
+    }
+
+    /**
+     * @return registry of the station, sensor and network procedures of the dataset
+     */
+    public ProcedureRegistry getProcedureRegistry() {
+        return procedureRegistry;
+    }
+
+    /**
+     * Returns the variable index of the dataset, scanning the dataset of the
+     * calling request the first time it is needed
+     * @param dataset the dataset of the request
+     * @param featureDataset the request's dataset wrapped by feature type, may be null
+     * @return the index
+     */
+    public synchronized VariableIndex getVariableIndex(NetcdfDataset dataset, FeatureDataset featureDataset) {
+        if (variableIndex == null) {
+            variableIndex = VariableIndex.build(dataset, featureDataset);
+        }
+        return variableIndex;
+    }
+}
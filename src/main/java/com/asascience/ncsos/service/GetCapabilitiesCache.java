@@ -0,0 +1,143 @@
+package com.asascience.ncsos.service;
+
+import com.asascience.ncsos.outputformatter.CachedResponseFormatter;
+import com.asascience.ncsos.outputformatter.OutputFormatter;
+import ucar.nc2.dataset.NetcdfDataset;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory cache of serialized GetCapabilities responses. Entries are keyed
+ * by the dataset location, the request URI (it is written into the response)
+ * and the requested sections. An entry is dropped when the last modified time
+ * of the dataset (or its NcML aggregation) changes. The cache is bounded by the
+ * total number of characters held and evicts the least recently used responses.
+ */
+public final class GetCapabilitiesCache {
+
+    // 16M characters (~32MB)
+    private static final long MAX_CACHED_CHARS = 16L * 1024 * 1024;
+    // a single response may take at most a quarter of the cache
+    private static final long MAX_RESPONSE_CHARS = MAX_CACHED_CHARS / 4;
+
+    private static final Map<String, Entry> cache = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private static long cachedChars = 0;
+
+    private static org.slf4j.Logger _log = org.slf4j.LoggerFactory.getLogger(GetCapabilitiesCache.class);
+
+    private GetCapabilitiesCache() {
+    }
+
+    /**
+     * Creates the cache key of a request
+     * @param dataset the dataset of the request
+     * @param threddsURI uri of the request
+     * @param sections comma separated sections from the request
+     * @return key for the request; null if the dataset cannot be identified
+     */
+    public static String createKey(NetcdfDataset dataset, String threddsURI, String sections) {
+        if (dataset == null || dataset.getLocation() == null) {
+            return null;
+        }
+        // the order and case of the sections does not change the response
+        String[] split = sections.toLowerCase().split(",");
+        for (int i = 0; i < split.length; i++) {
+            split[i] = split[i].trim();
+        }
+        Arrays.sort(split);
+        StringBuilder key = new StringBuilder(dataset.getLocation());
+        key.append('\n').append(threddsURI).append('\n');
+        for (String section : split) {
+            key.append(section).append(',');
+        }
+        return key.toString();
+    }
+
+    /**
+     * Looks up a cached response
+     * @param dataset the dataset of the request
+     * @param key key from createKey
+     * @return formatter writing the cached response; null if it is not cached
+     * or the dataset was modified since it was cached
+     */
+    public static OutputFormatter get(NetcdfDataset dataset, String key) {
+        if (key == null) {
+            return null;
+        }
+        long lastModified = dataset.getLastModified();
+        synchronized (cache) {
+            Entry entry = cache.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.lastModified != lastModified) {
+                _log.debug("Dataset changed, dropping cached GetCapabilities: " + dataset.getLocation());
+                remove(key);
+                return null;
+            }
+            return entry.response;
+        }
+    }
+
+    /**
+     * Serializes a GetCapabilities response and caches it
+     * @param dataset the dataset of the request
+     * @param key key from createKey
+     * @param formatter formatter holding the response
+     * @return formatter writing the serialized response
+     * @throws IOException
+     */
+    public static OutputFormatter put(NetcdfDataset dataset, String key, OutputFormatter formatter) throws IOException {
+        long lastModified = dataset.getLastModified();
+        StringWriter writer = new StringWriter();
+        formatter.writeOutput(writer);
+        CachedResponseFormatter response = new CachedResponseFormatter(writer.toString(), formatter.getContentType());
+        // datasets without a modified time could never be invalidated
+        if (key == null || lastModified <= 0 || response.length() > MAX_RESPONSE_CHARS) {
+            return response;
+        }
+        synchronized (cache) {
+            remove(key);
+            cache.put(key, new Entry(response, lastModified));
+            cachedChars += response.length();
+            Iterator<Entry> it = cache.values().iterator();
+            while (cachedChars > MAX_CACHED_CHARS && it.hasNext()) {
+                cachedChars -= it.next().response.length();
+                it.remove();
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Removes all cached responses
+     */
+    public static void clear() {
+        synchronized (cache) {
+            cache.clear();
+            cachedChars = 0;
+        }
+    }
+
+    private static void remove(String key) {
+        Entry entry = cache.remove(key);
+        if (entry != null) {
+            cachedChars -= entry.response.length();
+        }
+    }
+
+    private static class Entry {
+        private final CachedResponseFormatter response;
+        private final long lastModified;
+
+        private Entry(CachedResponseFormatter response, long lastModified) {
+            this.response = response;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -4,20 +4,17 @@ import com.asascience.ncsos.ds.BaseDSHandler;
 import com.asascience.ncsos.error.ExceptionResponseHandler;
 import com.asascience.ncsos.gc.GetCapabilitiesRequestHandler;
 import com.asascience.ncsos.go.GetObservationRequestHandler;
-import com.asascience.ncsos.outputformatter.CachedFileFormatter;
 import com.asascience.ncsos.outputformatter.OutputFormatter;
+import com.asascience.ncsos.outputformatter.gc.GetCapsFormatter;
 import com.asascience.ncsos.util.LogUtils;
 import com.asascience.ncsos.util.LowerCaseStringMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.xml.sax.SAXException;
 import ucar.nc2.dataset.NetcdfDataset;
 
-import javax.xml.parsers.ParserConfigurationException;
 import java.io.*;
 import java.net.URLDecoder;
-import java.util.Calendar;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -29,14 +26,12 @@ public class Parser {
     public static final String DESCRIBESENSOR = "DescribeSensor";
     public static final String OUTPUT_FORMATTER = "outputFormatter";
     public static final String SECTIONS = "sections";
-    public static final String USECACHE = "usecache";
     public static final String XML = "xml";
     private LowerCaseStringMap queryParameters;
     private Logger _log;
     private Map<String, String> coordsHash;
     private final String defService = "sos";
     private final String defVersion = "1.0.0";
-    private final String TRUE_STRING = "true";
     public final static String PROCEDURE = "procedure";
     public final static String ACCEPT_VERSIONS = "AcceptVersions";
     public final static String VERSION = "version";
@@ -50,9 +45,6 @@ public class Parser {
     public final static String OBSERVED_PROPERTY = "observedProperty";
     public final static String OFFERING = "offering";
     public final static String EVENT_TIME = "eventTime";
-    private final int numDays = 7;
-    // millisecs per sec * secs per hour * hour per day * day limit (1 week)
-    private final long CACHE_AGE_LIMIT = 1000 * 3600 * 24 * numDays;
 
     // Exception codes - Table 25 of OGC 06-121r3 (OWS Common)
     protected static String INVALID_PARAMETER       = "InvalidParameterValue";
@@ -88,7 +80,7 @@ public class Parser {
      * @param dataset NetcdfDataset to enhanceGETRequest the NCML
      * @param query query string provided by request
      * @param threddsURI
-     * @param savePath provides a directory to cache requests for quick replies (currently unsupported)
+     * @param savePath unused; GetCapabilities responses are cached in memory, see GetCapabilitiesCache
      * @return
      * @throws IOException  
      */
@@ -128,53 +120,29 @@ public class Parser {
                 if (queryParameters.containsKey(SECTIONS)) {
                     sections = queryParameters.get(SECTIONS).toString();
                 }
-                // check to see if cache is enabled
-                if (queryParameters.containsKey(USECACHE) && queryParameters.get(USECACHE).toString().equals(TRUE_STRING) && savePath != null) {
-                    //Check to see if get caps exists, if it does not actual parse the file
-                    _log.debug("Cache enabled for GetCapabilities");
-                    File f = new File(savePath + getCacheXmlFileName(threddsURI));
-                    if (f.exists()) {
-                        //if the file exists check the modified data against current data
-                        long fileDateTime = f.lastModified();
-                        Calendar today = Calendar.getInstance();
-                        //if the file is older than seven days (age limit) reprocess the data
-                        if (today.getTimeInMillis() - fileDateTime > CACHE_AGE_LIMIT) {
-                            _log.debug("File is older than " + Integer.toString(numDays) + " days");
-                            capHandler = createGetCapsCacheFile(dataset, threddsURI, savePath);
-                            capHandler.resetCapabilitiesSections(sections);
-                        } else {
-                            try {
-                                // add the cached file to the response
-                                retval.put(OUTPUT_FORMATTER, fileIsInDate(f, sections));
-                            } catch (Exception ex) {
-                                _log.error(ex.getLocalizedMessage());
-                                errorHandler.setException("Unable to retrieve cached get capabilities document");
-                                retval.put(OUTPUT_FORMATTER, errorHandler.getOutputFormatter());
-                            }
-                        }
-                    } else {
-                        _log.debug("File does NOT exist");
-                        try {
-                            //create the file as it does not exist
-                            capHandler = createGetCapsCacheFile(dataset, threddsURI, savePath);
-                            capHandler.resetCapabilitiesSections(sections);
-                        } catch (IOException ex) {
-                            _log.error(ex.getMessage());
-                            capHandler = null;
-                        }
-                    }
-                } else {
-                    try {
-                        capHandler = new GetCapabilitiesRequestHandler(dataset, threddsURI, sections);
-                    } catch (IOException ex) {
-                        _log.error(ex.getMessage(), ex);
-                        capHandler = null;
-                    }
+                // serve the response from the cache if the dataset has not changed
+                String cacheKey = GetCapabilitiesCache.createKey(dataset, threddsURI, sections);
+                OutputFormatter cached = GetCapabilitiesCache.get(dataset, cacheKey);
+                if (cached != null) {
+                    _log.debug("Using cached GetCapabilities response");
+                    retval.put(OUTPUT_FORMATTER, cached);
+                    return retval;
+                }
+                try {
+                    capHandler = new GetCapabilitiesRequestHandler(dataset, threddsURI, sections);
+                } catch (IOException ex) {
+                    _log.error(ex.getMessage(), ex);
+                    capHandler = null;
                 }
                 if (capHandler != null) {
                     parseGetCaps(capHandler);
-                    retval.put(OUTPUT_FORMATTER, capHandler.getOutputFormatter());
-                } else if (!retval.containsKey(OUTPUT_FORMATTER)) {
+                    OutputFormatter output = capHandler.getOutputFormatter();
+                    // exception reports are not cached
+                    if (output instanceof GetCapsFormatter) {
+                        output = GetCapabilitiesCache.put(dataset, cacheKey, output);
+                    }
+                    retval.put(OUTPUT_FORMATTER, output);
+                } else {
                     errorHandler.setException("Internal Error in preparing output for GetCapabilities request, received null handler.");
                     retval.put(OUTPUT_FORMATTER, errorHandler.getOutputFormatter());
                 }
@@ -209,7 +177,8 @@ public class Parser {
                             (String[]) queryParameters.get(OBSERVED_PROPERTY),
                             eventTime,
                             queryParameters.get(RESPONSE_FORMAT).toString(),
-                            coordsHash);
+                            coordsHash,
+                            threddsURI);
 
                     if (obsHandler.getFeatureDataset() == null) {
                         errorHandler.setException("NetCDF-Java can not determine the FeatureType of the dataset.");
@@ -219,10 +188,9 @@ public class Parser {
                         // Errors are caught internally in the obsHandler
                         retval.put(OUTPUT_FORMATTER, obsHandler.getOutputFormatter());
                         return retval;
-                    } else {
-                        obsHandler.parseObservations();
                     }
-                    // add our handler to the return value
+                    // add our handler to the return value; the observations are
+                    // read by its formatter while the response is written
                     retval.put(OUTPUT_FORMATTER, obsHandler.getOutputFormatter());
                 } catch (Exception ex) {
                     _log.error("Internal Error in creating output for GetObservation request:", ex);
@@ -336,38 +304,6 @@ public class Parser {
         queryParameters.put(fieldName, value);
     }
 
-    private String getCacheXmlFileName(String threddsURI) {
-        _log.debug("thredds uri: " + threddsURI);
-        String[] splitStr = threddsURI.split("/");
-        String dName = splitStr[splitStr.length - 1];
-        splitStr = dName.split("\\.");
-        dName = "";
-        for (int i = 0; i < splitStr.length - 1; i++) {
-            dName += splitStr[i] + ".";
-        }
-        return "/" + dName + XML;
-    }
-
-    private GetCapabilitiesRequestHandler createGetCapsCacheFile(NetcdfDataset dataset, String threddsURI, String savePath) throws IOException {
-        _log.debug("Writing cache file for Get Capabilities request.");
-        GetCapabilitiesRequestHandler cacheHandle = new GetCapabilitiesRequestHandler(dataset, threddsURI, "all");
-        parseGetCaps(cacheHandle);
-        File file = new File(savePath + getCacheXmlFileName(threddsURI));
-        file.createNewFile();
-        Writer writer = new BufferedWriter(new FileWriter(file, false));
-        writer.flush();
-        cacheHandle.formatter.writeOutput(writer);
-        _log.debug("Write cache to: " + file.getAbsolutePath());
-        return cacheHandle;
-    }
-
-    private OutputFormatter fileIsInDate(File f, String sections) throws ParserConfigurationException, SAXException, IOException {
-        _log.debug("Using cached get capabilities doc");
-        CachedFileFormatter retval = new CachedFileFormatter(f);
-        retval.setSections(sections);
-        return retval;
-    }
-
     private HashMap<String, Object> checkQueryParameters() {
         try {
             HashMap<String, Object> retval = new HashMap<String, Object>();
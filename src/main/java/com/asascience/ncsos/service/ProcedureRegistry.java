@@ -0,0 +1,192 @@
+package com.asascience.ncsos.service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Case-insensitive lookup of the procedures of a dataset: the network-all URN,
+ * station names and URNs, and sensor URNs. Each station resolves to the key of
+ * the station map (its index in the dataset), so lookups no longer depend on
+ * the iteration order of the map. Sensor URNs are split into their station and
+ * sensor parts and looked up separately, so the registry holds one entry per
+ * station and per sensor instead of one per combination.
+ * <p>
+ * A registry is immutable; registries of cached datasets are kept with their
+ * DatasetMetadata and shared by requests.
+ */
+public final class ProcedureRegistry {
+
+    private final String networkAllUrn;
+    private final String sensorUrnPrefix;
+    // lower case station names, to the station index
+    private final Map<String, Integer> stationNames;
+    // lower case station URNs, to the station index
+    private final Map<String, Integer> stationUrns;
+    // lower case station part of the sensor URNs, to the station index
+    private final Map<String, Integer> sensorStations;
+    // lower case sensor names, to the sensor (variable) name
+    private final Map<String, String> sensors;
+
+    /**
+     * @param namingAuthority naming authority of the dataset
+     * @param stationNames map of station index to station name
+     * @param sensorNames names of the sensor variables
+     */
+    public ProcedureRegistry(Object namingAuthority, Map<Integer, String> stationNames, List<String> sensorNames) {
+        this.networkAllUrn = networkAllUrn(namingAuthority).toLowerCase();
+        this.sensorUrnPrefix = (BaseRequestHandler.SENSOR_URN_BASE + namingAuthority + ":").toLowerCase();
+        int stationCount = (stationNames != null) ? stationNames.size() : 0;
+        this.stationNames = new HashMap<String, Integer>(stationCount * 2);
+        this.stationUrns = new HashMap<String, Integer>(stationCount * 2);
+        this.sensorStations = new HashMap<String, Integer>(stationCount * 2);
+        if (stationNames != null) {
+            for (Map.Entry<Integer, String> station : stationNames.entrySet()) {
+                String name = station.getValue();
+                // the first station wins when names only differ in case
+                putIfAbsent(this.stationNames, name.toLowerCase(), station.getKey());
+                putIfAbsent(stationUrns, stationUrn(namingAuthority, name).toLowerCase(), station.getKey());
+                putIfAbsent(sensorStations, sensorStationPart(name).toLowerCase(), station.getKey());
+            }
+        }
+        this.sensors = new HashMap<String, String>();
+        if (sensorNames != null) {
+            for (String sensor : sensorNames) {
+                if (!sensors.containsKey(sensor.toLowerCase())) {
+                    sensors.put(sensor.toLowerCase(), sensor);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param namingAuthority naming authority of the dataset
+     * @param stationName name (or URN) of the station
+     * @return the URN of the station
+     */
+    public static String stationUrn(Object namingAuthority, String stationName) {
+        String[] feature_name = stationName.split(":");
+        if (feature_name.length > 1 && feature_name[0].equalsIgnoreCase("urn")) {
+            // We already have a URN, so just return it.
+            return stationName;
+        }
+        return BaseRequestHandler.STATION_URN_BASE + namingAuthority + ":" + stationName;
+    }
+
+    /**
+     * @param namingAuthority naming authority of the dataset
+     * @param stationName name (or URN) of the station holding the sensor
+     * @param sensorName name of the sensor
+     * @return the URN of the sensor
+     */
+    public static String sensorUrn(Object namingAuthority, String stationName, String sensorName) {
+        return BaseRequestHandler.SENSOR_URN_BASE + namingAuthority + ":" + sensorStationPart(stationName) + ":" + sensorName;
+    }
+
+    /**
+     * @param namingAuthority naming authority of the dataset
+     * @return the network-all URN
+     */
+    public static String networkAllUrn(Object namingAuthority) {
+        return BaseRequestHandler.NETWORK_URN_BASE + namingAuthority + ":all";
+    }
+
+    /**
+     * @return the part of a station name used in sensor URNs; station URNs are
+     * reduced to their last component
+     */
+    private static String sensorStationPart(String stationName) {
+        String[] feature_name = stationName.split(":");
+        if (feature_name.length > 1 && feature_name[0].equalsIgnoreCase("urn")) {
+            return feature_name[feature_name.length - 1];
+        }
+        return stationName;
+    }
+
+    private static void putIfAbsent(Map<String, Integer> map, String key, Integer value) {
+        if (!map.containsKey(key)) {
+            map.put(key, value);
+        }
+    }
+
+    /**
+     * @param procedure a procedure from a request
+     * @return true if it is the network-all URN of the dataset
+     */
+    public boolean isNetworkAll(String procedure) {
+        return procedure != null && networkAllUrn.equals(procedure.toLowerCase());
+    }
+
+    /**
+     * Looks up a station by name, then by URN, ignoring case. A station URN
+     * resolves to its station as well as the bare name does.
+     * @param nameOrUrn station name or station URN
+     * @return index of the station, -1 if the dataset has no such station
+     */
+    public int getStationIndex(String nameOrUrn) {
+        if (nameOrUrn == null) {
+            return -1;
+        }
+        String key = nameOrUrn.toLowerCase();
+        Integer index = stationNames.get(key);
+        if (index == null) {
+            index = stationUrns.get(key);
+        }
+        return (index != null) ? index : -1;
+    }
+
+    /**
+     * @param urn a sensor URN
+     * @return index of the station holding the sensor, -1 if it is not a sensor of the dataset
+     */
+    public int getSensorStationIndex(String urn) {
+        String[] parts = splitSensorUrn(urn);
+        if (parts == null || !sensors.containsKey(parts[1])) {
+            return -1;
+        }
+        Integer index = sensorStations.get(parts[0]);
+        return (index != null) ? index : -1;
+    }
+
+    /**
+     * @param urn a sensor URN
+     * @return the sensor (variable) name, null if it is not a sensor of the dataset
+     */
+    public String getSensorName(String urn) {
+        if (getSensorStationIndex(urn) < 0) {
+            return null;
+        }
+        return sensors.get(splitSensorUrn(urn)[1]);
+    }
+
+    /**
+     * @param procedure a procedure from a request
+     * @return true if it is the network-all URN, a station URN or a sensor URN of the dataset
+     */
+    public boolean isProcedure(String procedure) {
+        return isNetworkAll(procedure) || isStationUrn(procedure) || getSensorStationIndex(procedure) >= 0;
+    }
+
+    /**
+     * @param procedure a procedure from a request
+     * @return true if it is the URN of a station of the dataset
+     */
+    public boolean isStationUrn(String procedure) {
+        return procedure != null && stationUrns.containsKey(procedure.toLowerCase());
+    }
+
+    /**
+     * @return the lower case station and sensor parts of a sensor URN, null if it is not one
+     */
+    private String[] splitSensorUrn(String urn) {
+        if (urn == null) {
+            return null;
+        }
+        String lower = urn.toLowerCase();
+        int last = lower.lastIndexOf(':');
+        if (!lower.startsWith(sensorUrnPrefix) || last < sensorUrnPrefix.length()) {
+            return null;
+        }
+        return new String[] { lower.substring(sensorUrnPrefix.length(), last), lower.substring(last + 1) };
+    }
+}
@@ -0,0 +1,212 @@
+package com.asascience.ncsos.service;
+
+import ucar.nc2.Attribute;
+import ucar.nc2.Variable;
+import ucar.nc2.VariableSimpleIF;
+import ucar.nc2.constants.CF;
+import ucar.nc2.dataset.NetcdfDataset;
+import ucar.nc2.ft.FeatureDataset;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Per dataset index of the variable metadata the request handlers look up
+ * for every station and sensor: variables by name and by standard_name, the
+ * units, fill values and ancillary variables of the data variables, the list
+ * of measurement variables and the CRS authorities. The dataset is scanned
+ * once and the index is kept with its DatasetMetadata; like the metadata it
+ * only holds names and attribute values, never netCDF objects.
+ */
+public final class VariableIndex {
+
+    private static final String FILL_VALUE_NAME = "_FillValue";
+    private static final String ANCILLARY_VARIABLES = "ancillary_variables";
+
+    // lower case full name, to the full name
+    private final Map<String, String> fullNames = new HashMap<String, String>();
+    // lower case full name, to the standard_name attribute
+    private final Map<String, String> standardNames = new HashMap<String, String>();
+    // lower case standard_name, to the full name of the variable having it
+    private final Map<String, String> byStandardName = new HashMap<String, String>();
+    // data variable name, to its units, fill value and ancillary variables
+    private final Map<String, String> units = new HashMap<String, String>();
+    private final Map<String, String> fillValues = new HashMap<String, String>();
+    private final Map<String, String> ancillaryVariables = new HashMap<String, String>();
+    private final List<String> dataVariableNames;
+    private final String[] crsAuthorities;
+
+    private VariableIndex(NetcdfDataset dataset, FeatureDataset featureDataset) {
+        for (Variable var : dataset.getVariables()) {
+            String key = var.getFullName().toLowerCase();
+            fullNames.put(key, var.getFullName());
+            // the attribute name and its value are both matched in any case
+            Attribute std = var.findAttributeIgnoreCase(CF.STANDARD_NAME);
+            if (std != null && std.getStringValue() != null) {
+                standardNames.put(key, std.getStringValue());
+                byStandardName.put(std.getStringValue().toLowerCase(), var.getFullName());
+            }
+        }
+
+        List<VariableSimpleIF> dataVariables = new ArrayList<VariableSimpleIF>();
+        if (featureDataset != null) {
+            dataVariables.addAll(featureDataset.getDataVariables());
+            for (VariableSimpleIF var : dataVariables) {
+                indexDataVariable(var.getShortName(), var);
+            }
+        } else {
+            for (Variable var : dataset.getVariables()) {
+                indexDataVariable(var.getFullNameEscaped(), var);
+            }
+        }
+
+        // measurement variables: no axis or bookkeeping names, and no variable
+        // that is the ancillary_variables of another one
+        Set<String> nonData = new HashSet<String>();
+        for (String name : BaseRequestHandler.NON_DATAVAR_NAMES) {
+            nonData.add(name.toLowerCase());
+        }
+        Set<String> ancillaries = new HashSet<String>();
+        for (VariableSimpleIF var : dataVariables) {
+            Attribute av = var.findAttributeIgnoreCase(ANCILLARY_VARIABLES);
+            if (av != null && av.getStringValue() != null && !nonData.contains(var.getShortName().toLowerCase())) {
+                ancillaries.add(av.getStringValue());
+            }
+        }
+        List<String> names = new ArrayList<String>(dataVariables.size());
+        for (VariableSimpleIF var : dataVariables) {
+            if (!nonData.contains(var.getShortName().toLowerCase()) && !ancillaries.contains(var.getShortName())) {
+                names.add(var.getShortName());
+            }
+        }
+        this.dataVariableNames = Collections.unmodifiableList(names);
+        this.crsAuthorities = findCRSAuthorities(dataset, dataVariables);
+    }
+
+    /**
+     * Scans a dataset for its variable metadata
+     * @param dataset the dataset
+     * @param featureDataset the dataset wrapped by feature type, may be null
+     * @return the index
+     */
+    static VariableIndex build(NetcdfDataset dataset, FeatureDataset featureDataset) {
+        return new VariableIndex(dataset, featureDataset);
+    }
+
+    private void indexDataVariable(String name, VariableSimpleIF var) {
+        units.put(name, var.getUnitsString());
+        for (Attribute attr : var.getAttributes()) {
+            if (attr.getFullNameEscaped().equalsIgnoreCase(FILL_VALUE_NAME)) {
+                fillValues.put(name, attr.getValue(0).toString());
+                break;
+            }
+        }
+        Attribute av = var.findAttributeIgnoreCase(ANCILLARY_VARIABLES);
+        if (av != null && av.getStringValue() != null) {
+            ancillaryVariables.put(name, av.getStringValue());
+        }
+    }
+
+    private static String[] findCRSAuthorities(NetcdfDataset dataset, List<VariableSimpleIF> dataVariables) {
+        List<String> authorities = new ArrayList<String>();
+        for (VariableSimpleIF var : dataVariables) {
+            for (Attribute attr : var.getAttributes()) {
+                if (attr.getFullName().equalsIgnoreCase(BaseRequestHandler.GRID_MAPPING)) {
+                    String auth = findAuthority(dataset, attr.getValue(0).toString());
+                    if (auth != null && !authorities.contains(auth)) {
+                        authorities.add(auth);
+                    }
+                }
+            }
+        }
+        return authorities.isEmpty() ? null : authorities.toArray(new String[authorities.size()]);
+    }
+
+    /**
+     * @return the first 'code' attribute of the grid mapping variable, null if there is none
+     */
+    private static String findAuthority(NetcdfDataset dataset, String varName) {
+        for (Variable var : dataset.getVariables()) {
+            if (var.getFullName().equalsIgnoreCase(varName)) {
+                for (Attribute attr : var.getAttributes()) {
+                    if (attr.getShortName().toLowerCase().contains("code")) {
+                        return attr.getValue(0).toString();
+                    }
+                }
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Resolves an observed property to a variable
+     * @param nameOrStandardName variable name or standard_name, in any case
+     * @return the full name of the variable, null if the dataset has none by that name
+     */
+    public String resolveVariableName(String nameOrStandardName) {
+        String key = nameOrStandardName.toLowerCase();
+        String name = fullNames.get(key);
+        return (name != null) ? name : byStandardName.get(key);
+    }
+
+    /**
+     * @param varName full name of a variable, in any case
+     * @return the standard_name attribute of the variable, in any case of the
+     * attribute name, null if it has none
+     */
+    public String getStandardName(String varName) {
+        return standardNames.get(varName.toLowerCase());
+    }
+
+    /**
+     * @param varName name of a data variable
+     * @return units string of the variable, null if it has none
+     */
+    public String getUnits(String varName) {
+        return units.get(varName);
+    }
+
+    /**
+     * @param varName name of a data variable
+     * @return true if the name is a data variable of the dataset
+     */
+    public boolean isDataVariable(String varName) {
+        return units.containsKey(varName);
+    }
+
+    /**
+     * @param varName name of a data variable
+     * @return the _FillValue of the variable as a string, null if it has none
+     */
+    public String getFillValue(String varName) {
+        return fillValues.get(varName);
+    }
+
+    /**
+     * @param varName name of a data variable
+     * @return the ancillary_variables attribute of the variable, null if it has none
+     */
+    public String getAncillaryVariables(String varName) {
+        return ancillaryVariables.get(varName);
+    }
+
+    /**
+     * @return unmodifiable list of the short names of the measurement variables
+     */
+    public List<String> getDataVariableNames() {
+        return dataVariableNames;
+    }
+
+    /**
+     * @return the CRS/SRS authorities of the data variables, null if there are none
+     */
+    public String[] getCRSAuthorities() {
+        return (crsAuthorities != null) ? crsAuthorities.clone() : null;
+    }
+}
@@ -16,6 +16,36 @@ public class DatasetHandlerAdapter {
 
     private static final Logger _log = Logger.getLogger(DatasetHandlerAdapter.class);
 
+    /**
+     * Gets the path of the dataset from the incoming url request.
+     *
+     * @param req incoming url request
+     * @return path of the dataset, relative to the sos service
+     */
+    public static String getDatasetPath(final HttpServletRequest req) {
+        String servletPath = req.getServletPath();
+        return servletPath.substring("/sos".length()  , servletPath.length());
+    }
+
+    /**
+     * Runs the TDS resource control check for the dataset of the request, the
+     * same check DatasetHandler makes when the dataset is opened. Requests that
+     * are answered without opening the dataset must pass it first.
+     *
+     * @param req incoming url request
+     * @param res outgoing web based response; if access is denied the
+     * challenge or error has already been sent on it
+     * @return true if the client may read the dataset
+     */
+    public static boolean isAccessAllowed(final HttpServletRequest req,
+            final HttpServletResponse res) {
+        String datasetPath = getDatasetPath(req);
+        if (datasetPath.startsWith("/")) {
+            datasetPath = datasetPath.substring(1);
+        }
+        return DatasetHandler.resourceControlOk(req, res, datasetPath);
+    }
+
     /** 
      * Open a NetcdfDataset based on the incoming url request.
      * 
@@ -29,8 +59,7 @@ public class DatasetHandlerAdapter {
         NetcdfFile netcdfFile = null;
         NetcdfDataset dataset = null;
         //String datasetPath = req.getPathInfo();
-        String servletPath = req.getServletPath();
-        String datasetPath = servletPath.substring("/sos".length()  , servletPath.length());
+        String datasetPath = getDatasetPath(req);
         if (datasetPath == null) { // passing in a dataset URL, presumably
             // opendap
             datasetPath = ServletUtil.getParameterIgnoreCase(req, "dataset");
@@ -0,0 +1,213 @@
+package com.asascience.ncsos.util;
+
+import com.asascience.ncsos.outputformatter.OutputFormatter;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.dataset.NetcdfDataset;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Conditional GET support (ETag/Last-Modified, If-None-Match/If-Modified-Since)
+ * for the metadata requests, GetCapabilities and DescribeSensor. The
+ * validators are derived from the dataset's last modified time and the
+ * normalized request parameters, and are specific to the dataset path.
+ * <p>
+ * Once a dataset has been opened, the local file backing it is remembered by
+ * dataset path, so later conditional requests can be answered from a stat of
+ * that file without opening the dataset, once the TDS access check for the
+ * dataset has passed. Datasets that are not a single local
+ * file (NcML, including NcML added by the catalog, aggregations, remote) get
+ * their validators after being opened.
+ */
+public class HttpCacheUtils {
+
+    private static final String[] VALIDATED_REQUESTS = { "GetCapabilities", "DescribeSensor" };
+    private static final int MAX_REMEMBERED_DATASETS = 1024;
+    private static final Map<String, File> datasetFiles = new LinkedHashMap<String, File>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, File> eldest) {
+            return size() > MAX_REMEMBERED_DATASETS;
+        }
+    };
+
+    /**
+     * Only metadata requests get validators; observations are usually
+     * requested for moving time windows.
+     * @param query query string of the request
+     * @return true if the request is a GetCapabilities or DescribeSensor request
+     */
+    public static boolean isValidatedRequest(String query) {
+        if (query == null) {
+            return false;
+        }
+        for (String param : query.split("&")) {
+            String[] keyVal = param.split("=", 2);
+            if (keyVal.length == 2 && keyVal[0].equalsIgnoreCase("request")) {
+                for (String req : VALIDATED_REQUESTS) {
+                    if (req.equalsIgnoreCase(decode(keyVal[1]).trim())) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Creates the entity tag of a response
+     * @param datasetPath path of the dataset in the request
+     * @param lastModified last modified time of the dataset
+     * @param query query string of the request
+     * @return quoted entity tag
+     */
+    public static String createETag(String datasetPath, long lastModified, String query) {
+        String key = OutputFormatter.NCSOS_VERSION + "|" + datasetPath + "|" + normalizeQuery(query);
+        return "\"" + Long.toHexString(lastModified) + "-" + Integer.toHexString(key.hashCode()) + "\"";
+    }
+
+    /**
+     * Checks the conditional headers of the request. If-None-Match takes
+     * precedence over If-Modified-Since when both are sent.
+     * @param req the request
+     * @param etag entity tag of the response
+     * @param lastModified last modified time of the dataset
+     * @return true if the client's copy is current and a 304 can be sent
+     */
+    public static boolean isNotModified(HttpServletRequest req, String etag, long lastModified) {
+        String ifNoneMatch = req.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals("*") || tag.equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        long ifModifiedSince;
+        try {
+            ifModifiedSince = req.getDateHeader("If-Modified-Since");
+        } catch (IllegalArgumentException ex) {
+            return false;
+        }
+        // http dates have a resolution of seconds
+        return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    /**
+     * Adds the ETag and Last-Modified headers to the response
+     * @param res the response
+     * @param etag entity tag of the response
+     * @param lastModified last modified time of the dataset
+     */
+    public static void setValidators(HttpServletResponse res, String etag, long lastModified) {
+        res.setHeader("ETag", etag);
+        res.setDateHeader("Last-Modified", lastModified);
+    }
+
+    /**
+     * Returns the last modified time of an opened dataset and remembers its
+     * file for later requests, if it is backed by a single local file.
+     * @param datasetPath path of the dataset in the request
+     * @param dataset the opened dataset
+     * @return last modified time, 0 if it is not known
+     */
+    public static long getLastModified(String datasetPath, NetcdfDataset dataset) {
+        File file = getLocalFile(dataset);
+        synchronized (datasetFiles) {
+            if (file != null) {
+                datasetFiles.put(datasetPath, file);
+            } else {
+                datasetFiles.remove(datasetPath);
+            }
+        }
+        return (file != null) ? file.lastModified() : dataset.getLastModified();
+    }
+
+    /**
+     * Returns the last modified time of a dataset that was opened by an
+     * earlier request, without opening it.
+     * @param datasetPath path of the dataset in the request
+     * @return last modified time, 0 if the dataset is not known or not a local file
+     */
+    public static long getLastModified(String datasetPath) {
+        File file;
+        synchronized (datasetFiles) {
+            file = datasetFiles.get(datasetPath);
+        }
+        return (file != null) ? file.lastModified() : 0;
+    }
+
+    /**
+     * Returns the file of a dataset that is a single local file without NcML.
+     * The modified time of such a file is the modified time of the dataset,
+     * and the file can be opened again to read the same data.
+     * @param dataset the opened dataset
+     * @return the file; null for NcML (from the catalog or a file),
+     * aggregations and remote datasets
+     */
+    public static File getLocalFile(NetcdfDataset dataset) {
+        String location = dataset.getLocation();
+        if (location == null || dataset.getAggregation() != null) {
+            return null;
+        }
+        // catalog NcML comes back from the dataset handler as a dataset of its own
+        NetcdfFile referenced = dataset.getReferencedFile();
+        if (referenced == null || referenced instanceof NetcdfDataset) {
+            return null;
+        }
+        String lower = location.toLowerCase();
+        if (lower.endsWith("xml") || lower.endsWith("ncml")) {
+            return null;
+        }
+        if (lower.startsWith("file:")) {
+            location = location.substring("file:".length());
+        }
+        File file = new File(location);
+        return file.isFile() ? file : null;
+    }
+
+    private static String normalizeQuery(String query) {
+        if (query == null) {
+            return "";
+        }
+        List<String> params = new ArrayList<String>();
+        for (String param : query.split("&")) {
+            String[] keyVal = param.split("=", 2);
+            if (keyVal[0].length() == 0) {
+                continue;
+            }
+            String value = (keyVal.length > 1) ? decode(keyVal[1]).trim() : "";
+            params.add(decode(keyVal[0]).toLowerCase() + "=" + value);
+        }
+        Collections.sort(params);
+        StringBuilder builder = new StringBuilder();
+        for (String param : params) {
+            builder.append(param).append('&');
+        }
+        return builder.toString();
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            return value;
+        } catch (IllegalArgumentException e) {
+            return value;
+        }
+    }
+}
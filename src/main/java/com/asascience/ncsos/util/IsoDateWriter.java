@@ -0,0 +1,105 @@
+package com.asascience.ncsos.util;
+
+import ucar.nc2.units.DateFormatter;
+
+import java.util.Date;
+
+/**
+ * Appends epoch milliseconds as ISO-8601 timestamps (yyyy-MM-ddTHH:mm:ssZ, the
+ * format of DateFormatter.toDateTimeStringISO) to a StringBuilder without
+ * creating Date, Calendar or String objects. The date part of the last day
+ * written is kept, so consecutive timestamps on the same day only format
+ * the time of day.
+ * <p>
+ * An instance holds that state and must not be shared between threads; create
+ * one per response (they are cheap).
+ */
+public final class IsoDateWriter {
+
+    private static final long MILLIS_PER_DAY = 86400000L;
+    // dates before the gregorian cutover are formatted by DateFormatter, which
+    // uses the julian calendar for them
+    private static final long GREGORIAN_CUTOVER = -12219292800000L;
+
+    private long cachedDay = Long.MIN_VALUE;
+    private final char[] dayPrefix = new char[16];
+    private int dayPrefixLength;
+    private DateFormatter fallback;
+
+    /**
+     * Appends a timestamp
+     * @param out builder to append to
+     * @param millis milliseconds since the epoch
+     * @return the builder
+     */
+    public StringBuilder append(StringBuilder out, long millis) {
+        if (millis < GREGORIAN_CUTOVER) {
+            if (fallback == null) {
+                fallback = new DateFormatter();
+            }
+            return out.append(fallback.toDateTimeStringISO(new Date(millis)));
+        }
+        long day = floorDiv(millis, MILLIS_PER_DAY);
+        if (day != cachedDay) {
+            setDayPrefix(day);
+            cachedDay = day;
+        }
+        out.append(dayPrefix, 0, dayPrefixLength);
+        int secondOfDay = (int) ((millis - day * MILLIS_PER_DAY) / 1000);
+        appendTwoDigits(out, secondOfDay / 3600);
+        out.append(':');
+        appendTwoDigits(out, (secondOfDay / 60) % 60);
+        out.append(':');
+        appendTwoDigits(out, secondOfDay % 60);
+        return out.append('Z');
+    }
+
+    /**
+     * @param millis milliseconds since the epoch
+     * @return the timestamp
+     */
+    public String format(long millis) {
+        return append(new StringBuilder(20), millis).toString();
+    }
+
+    /**
+     * Formats the date part of a day, from the days-to-civil algorithm of
+     * Howard Hinnant (proleptic gregorian calendar)
+     */
+    private void setDayPrefix(long epochDay) {
+        long z = epochDay + 719468;
+        long era = floorDiv(z, 146097);
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+
+        StringBuilder prefix = new StringBuilder(16);
+        String yearStr = Long.toString(year);
+        for (int i = yearStr.length(); i < 4; i++) {
+            prefix.append('0');
+        }
+        prefix.append(yearStr).append('-');
+        appendTwoDigits(prefix, month);
+        prefix.append('-');
+        appendTwoDigits(prefix, day);
+        prefix.append('T');
+        dayPrefixLength = prefix.length();
+        prefix.getChars(0, dayPrefixLength, dayPrefix, 0);
+    }
+
+    private static void appendTwoDigits(StringBuilder out, int value) {
+        out.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        if ((x % y != 0) && ((x < 0) != (y < 0))) {
+            q--;
+        }
+        return q;
+    }
+}
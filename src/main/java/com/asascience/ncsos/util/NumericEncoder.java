@@ -0,0 +1,159 @@
+package com.asascience.ncsos.util;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Writes float and double values as decimal text straight into a
+ * StringBuilder. Values with up to a few fraction digits (most observations
+ * and coordinates) are written in plain notation from integer arithmetic, using
+ * the fewest fraction digits that still read back as the same value; others go
+ * through StringBuilder.append, which also writes without creating a String.
+ * The output never depends on the default locale.
+ * <p>
+ * Values can be capped to a number of fraction digits, ie from the CF
+ * least_significant_digit attribute of a variable. All methods are static and
+ * thread safe.
+ */
+public final class NumericEncoder {
+
+    /** No cap on the number of fraction digits */
+    public static final int NO_PRECISION = -1;
+
+    // fraction digits tried on the plain notation path
+    private static final int MAX_PLAIN_DOUBLE_DIGITS = 15;
+    private static final int MAX_PLAIN_FLOAT_DIGITS = 8;
+    // largest magnitude held exactly by a double
+    private static final double MAX_EXACT = 9007199254740992.0;
+    // range Double.toString writes without an exponent
+    private static final double MIN_PLAIN = 1e-3;
+    private static final double MAX_PLAIN = 1e7;
+    // fraction digits of formatted degrees
+    private static final int DEGREE_DIGITS = 14;
+
+    private static final long[] POWERS_OF_TEN = new long[19];
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private NumericEncoder() {
+    }
+
+    /**
+     * Appends a double, in the notation of Double.toString
+     * @param out builder to append to
+     * @param value the value
+     * @param maxFractionDigits cap on the fraction digits, or NO_PRECISION
+     * @return the builder
+     */
+    public static StringBuilder appendDouble(StringBuilder out, double value, int maxFractionDigits) {
+        value = round(value, maxFractionDigits);
+        if (isPlainRange(value) && appendPlain(out, value, MAX_PLAIN_DOUBLE_DIGITS, false)) {
+            return out;
+        }
+        return out.append(value);
+    }
+
+    /**
+     * Appends a float, in the notation of Float.toString
+     * @param out builder to append to
+     * @param value the value
+     * @param maxFractionDigits cap on the fraction digits, or NO_PRECISION
+     * @return the builder
+     */
+    public static StringBuilder appendFloat(StringBuilder out, float value, int maxFractionDigits) {
+        if (maxFractionDigits >= 0) {
+            value = (float) round(value, maxFractionDigits);
+        }
+        if (isPlainRange(value) && appendPlain(out, value, MAX_PLAIN_FLOAT_DIGITS, true)) {
+            return out;
+        }
+        return out.append(value);
+    }
+
+    /**
+     * Formats a degree (or other coordinate) in plain notation with at least
+     * one and at most 14 fraction digits
+     * @param degree the value
+     * @return the formatted value
+     */
+    public static String formatDegree(double degree) {
+        StringBuilder out = new StringBuilder(24);
+        if (Double.isNaN(degree) || Double.isInfinite(degree)) {
+            return out.append(degree).toString();
+        }
+        if (!appendPlain(out, degree, DEGREE_DIGITS, false)) {
+            String plain = new BigDecimal(degree).setScale(DEGREE_DIGITS, RoundingMode.HALF_EVEN).stripTrailingZeros().toPlainString();
+            out.append(plain);
+            if (plain.indexOf('.') < 0) {
+                out.append(".0");
+            }
+        }
+        return out.toString();
+    }
+
+    private static boolean isPlainRange(double value) {
+        double abs = Math.abs(value);
+        return (abs >= MIN_PLAIN && abs < MAX_PLAIN) || value == 0;
+    }
+
+    private static double round(double value, int maxFractionDigits) {
+        if (maxFractionDigits < 0 || maxFractionDigits >= POWERS_OF_TEN.length
+                || Double.isNaN(value) || Double.isInfinite(value)) {
+            return value;
+        }
+        double scale = POWERS_OF_TEN[maxFractionDigits];
+        double scaled = value * scale;
+        if (Math.abs(scaled) >= MAX_EXACT) {
+            // already has no more fraction digits than the cap can show
+            return value;
+        }
+        return Math.rint(scaled) / scale;
+    }
+
+    /**
+     * Appends the value with the fewest fraction digits (at least one) that
+     * read back as the same value
+     * @return false if more than maxDigits fraction digits would be needed
+     */
+    private static boolean appendPlain(StringBuilder out, double value, int maxDigits, boolean isFloat) {
+        if (value == 0) {
+            out.append((1 / value < 0) ? "-0.0" : "0.0");
+            return true;
+        }
+        for (int digits = 0; digits <= maxDigits; digits++) {
+            double scale = POWERS_OF_TEN[digits];
+            double scaled = Math.rint(value * scale);
+            if (Math.abs(scaled) >= MAX_EXACT) {
+                return false;
+            }
+            double back = scaled / scale;
+            if (isFloat ? (float) back == (float) value : back == value) {
+                appendScaled(out, (long) scaled, digits);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void appendScaled(StringBuilder out, long scaled, int digits) {
+        if (scaled < 0) {
+            out.append('-');
+            scaled = -scaled;
+        }
+        long power = POWERS_OF_TEN[digits];
+        out.append(scaled / power).append('.');
+        if (digits == 0) {
+            out.append('0');
+            return;
+        }
+        long fraction = scaled % power;
+        for (long p = power / 10; p > fraction && p > 1; p /= 10) {
+            out.append('0');
+        }
+        out.append(fraction);
+    }
+}
@@ -2,16 +2,26 @@ package com.asascience.ncsos.util;
 
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Set;
 
 public final class VocabDefinitions {
     
     private static final String CF_PARAMETERS = "resources/cf_parameters.txt";
-    private static HashSet<String> cfSet;
-    private static HashSet<String> ioosDefs;
     private static org.slf4j.Logger _log = org.slf4j.LoggerFactory.getLogger(VocabDefinitions.class);
     
     private VocabDefinitions() {}
+
+    // the sets are built by the class loader the first time they are used,
+    // which makes them safe to share between request threads
+    private static class CFSetHolder {
+        private static final Set<String> cfSet = CreateCFSet();
+    }
+
+    private static class IoosDefsHolder {
+        private static final Set<String> ioosDefs = CreateIoosDefs();
+    }
     
     /**
      * Determines the necessary term for the parameter.
@@ -19,10 +29,7 @@ public final class VocabDefinitions {
      * @return if in CF table: http://mmissw.org/ont/cf/parameter/param else http://mmisw.org/ont/ioos/parameter/param
      */
     public static String GetDefinitionForParameter(String param) {
-        if (cfSet == null)
-            CreateCFSet();
-        
-        if (cfSet.contains(param))
+        if (CFSetHolder.cfSet.contains(param))
             return "http://mmisw.org/ont/cf/parameter/" + param;
         
         // default
@@ -30,21 +37,18 @@ public final class VocabDefinitions {
     }
     
     public static String GetIoosDefinition(String def) {
-        if (ioosDefs == null)
-            CreateIoosDefs();
-        
-        if (ioosDefs.contains(def.toLowerCase()))
+        if (IoosDefsHolder.ioosDefs.contains(def.toLowerCase()))
             return "http://mmisw.org/ont/ioos/definition/" + def;
             
         return def;
     }
     
-    private static void CreateCFSet() {
+    private static Set<String> CreateCFSet() {
+        HashSet<String> cfSet = new HashSet<String>();
         try {
             InputStream fin = VocabDefinitions.class.getClassLoader().getResourceAsStream(CF_PARAMETERS);
             InputStreamReader freader = new InputStreamReader(fin);
 //            FileReader fin = new FileReader(CF_PARAMETERS);
-            cfSet = new HashSet<String>();
             StringBuilder builder = new StringBuilder();
             char[] buffer = new char[1];
             while(freader.read(buffer) > 0) {
@@ -55,14 +59,16 @@ public final class VocabDefinitions {
                     builder.append(buffer[0]);
                 }
             }
+            freader.close();
         } catch (Exception ex) {
             _log.error(ex.toString());
         }
+        return Collections.unmodifiableSet(cfSet);
     }
     
-    private static void CreateIoosDefs() {
+    private static Set<String> CreateIoosDefs() {
         // short list of definitions at http://mmisw.org/ont/ioos/definition
-        ioosDefs = new HashSet<String>();
+        HashSet<String> ioosDefs = new HashSet<String>();
         // longName
         ioosDefs.add("longname"); ioosDefs.add("long_name"); ioosDefs.add("long name");
         // networkId
@@ -89,6 +95,7 @@ public final class VocabDefinitions {
         ioosDefs.add("stationid"); ioosDefs.add("station_id"); ioosDefs.add("station id");
         // wmoID
         ioosDefs.add("wmoid"); ioosDefs.add("wmo_id"); ioosDefs.add("wmo id");
+        return Collections.unmodifiableSet(ioosDefs);
     }
     
 }
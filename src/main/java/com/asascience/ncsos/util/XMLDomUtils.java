@@ -6,8 +6,11 @@ import org.jdom.Namespace;
 import org.jdom.input.SAXBuilder;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * this class hold a number of the XML DOM utils
@@ -16,6 +19,8 @@ import java.util.List;
  */
 public class XMLDomUtils {
 
+    // parsed templates, by classpath location
+    private static final ConcurrentMap<String, Document> templates = new ConcurrentHashMap<String, Document>();
 
     public static Document loadFile(InputStream filestream) {
         Document doc = null;
@@ -43,6 +48,40 @@ public class XMLDomUtils {
         return doc;
     }
 
+    /**
+     * Returns a copy of a template on the classpath. Each template is parsed
+     * only the first time it is requested; the parsed document is kept as a
+     * prototype that is never handed out, so callers are free to modify the copy.
+     * @param templateLocation classpath location of the template
+     * @return a deep copy of the template, null if it could not be loaded
+     */
+    public static Document loadTemplate(String templateLocation) {
+        Document prototype = templates.get(templateLocation);
+        if (prototype == null) {
+            InputStream stream = XMLDomUtils.class.getClassLoader().getResourceAsStream(templateLocation);
+            if (stream == null) {
+                return null;
+            }
+            try {
+                prototype = loadFile(stream);
+            } finally {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    // nothing more to do with the stream
+                }
+            }
+            if (prototype == null) {
+                return null;
+            }
+            Document existing = templates.putIfAbsent(templateLocation, prototype);
+            if (existing != null) {
+                prototype = existing;
+            }
+        }
+        return (Document) prototype.clone();
+    }
+
     public static Document getTemplateDom(InputStream templateFileLocation) {
         return XMLDomUtils.loadFile(templateFileLocation);
     }
@@ -3,6 +3,7 @@ package thredds.server.ncsos.controller;
 import com.asascience.ncsos.outputformatter.OutputFormatter;
 import com.asascience.ncsos.service.Parser;
 import com.asascience.ncsos.util.DatasetHandlerAdapter;
+import com.asascience.ncsos.util.HttpCacheUtils;
 import org.apache.log4j.BasicConfigurator;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -22,8 +23,6 @@ public class SosController implements ISosContoller {
     private static org.slf4j.Logger _log = org.slf4j.LoggerFactory.getLogger(SosController.class);
     private static org.slf4j.Logger _logServerStartup = org.slf4j.LoggerFactory.getLogger("serverStartup");
     
-    private HashMap<String, Object> respMap;
-
     protected String getPath() {
         return "Sos/";
     }
@@ -50,9 +49,28 @@ public class SosController implements ISosContoller {
     @Override
     public void handleSOSRequest(final HttpServletRequest req, final HttpServletResponse res) throws ServletException, IOException {
 
+        // the controller is a singleton shared by all request threads, so all
+        // request state is kept in locals
         NetcdfDataset dataset = null;
-        
-        respMap = new HashMap<String, Object>();
+
+        // answer conditional metadata requests from a stat of the dataset's file, before opening it
+        String datasetPath = DatasetHandlerAdapter.getDatasetPath(req);
+        boolean validated = HttpCacheUtils.isValidatedRequest(req.getQueryString());
+        if (validated) {
+            long lastModified = HttpCacheUtils.getLastModified(datasetPath);
+            if (lastModified > 0) {
+                // the access check that opening the dataset would make
+                if (!DatasetHandlerAdapter.isAccessAllowed(req, res)) {
+                    return;
+                }
+                String etag = HttpCacheUtils.createETag(datasetPath, lastModified, req.getQueryString());
+                if (HttpCacheUtils.isNotModified(req, etag, lastModified)) {
+                    HttpCacheUtils.setValidators(res, etag, lastModified);
+                    res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                    return;
+                }
+            }
+        }
 
         try {
             //see http://tomcat.apache.org/tomcat-5.5-doc/config/context.html ----- workdir    
@@ -60,8 +78,20 @@ public class SosController implements ISosContoller {
          
             dataset = DatasetHandlerAdapter.openDataset(req, res);
 
+            if (validated && dataset != null) {
+                long lastModified = HttpCacheUtils.getLastModified(datasetPath, dataset);
+                if (lastModified > 0) {
+                    String etag = HttpCacheUtils.createETag(datasetPath, lastModified, req.getQueryString());
+                    HttpCacheUtils.setValidators(res, etag, lastModified);
+                    if (HttpCacheUtils.isNotModified(req, etag, lastModified)) {
+                        res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                        return;
+                    }
+                }
+            }
+
             Parser md = new Parser();
-            respMap = md.enhanceGETRequest(dataset, req.getQueryString(), req.getRequestURL()+"?".toString(),tempdir);            
+            HashMap<String, Object> respMap = md.enhanceGETRequest(dataset, req.getQueryString(), req.getRequestURL()+"?".toString(),tempdir);            
             
             Writer writer = res.getWriter();
             OutputFormatter output = (OutputFormatter)respMap.get("outputFormatter");
@@ -0,0 +1,146 @@
+package com.asascience.ncsos;
+
+import com.asascience.ncsos.outputformatter.OutputFormatter;
+import com.asascience.ncsos.service.DatasetMetadata;
+import com.asascience.ncsos.service.GetCapabilitiesCache;
+import com.asascience.ncsos.service.Parser;
+import junit.framework.Assert;
+import org.apache.commons.lang.StringUtils;
+import org.jdom.Element;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import ucar.nc2.dataset.NetcdfDataset;
+
+import java.io.CharArrayWriter;
+import java.io.File;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs GetCapabilities and GetObservation requests for all of the test
+ * datasets on many threads at once and checks that every response is identical
+ * to the response of the same request made serially.
+ */
+public class ConcurrentRequestTest extends NcSOSTest {
+
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 4;
+
+    private static List<Request> requests = new ArrayList<Request>();
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        NcSOSTest.setUpClass();
+
+        String responseFormat = URLEncoder.encode("text/xml;subtype=\"om/1.0.0/profiles/ioos_sos/1.0\"", "UTF-8");
+        for (Element e : fileElements) {
+            String path = new File("resources" + systemSeparator + "datasets" + systemSeparator + e.getAttributeValue("path")).getAbsolutePath();
+
+            HashMap<String,String> caps = new HashMap<String, String>();
+            caps.put("request", "GetCapabilities");
+            caps.put("service", "SOS");
+            requests.add(new Request(path, caps));
+
+            if (!e.getAttributeValue("feature").equalsIgnoreCase("timeSeries")) {
+                continue;
+            }
+            String networkOffering = "urn:ioos:network:" + e.getAttributeValue("authority","ncsos") + ":all";
+            for (Element p : (List<Element>) e.getChildren("platform")) {
+                List<String> observedProperties = new ArrayList<String>();
+                for (Element s : (List<Element>) p.getChildren("sensor")) {
+                    observedProperties.add(s.getAttributeValue("standard"));
+                }
+                HashMap<String,String> obs = new HashMap<String, String>();
+                obs.put("request", "GetObservation");
+                obs.put("service", "SOS");
+                obs.put("version", "1.0.0");
+                obs.put("responseFormat", responseFormat);
+                obs.put("offering", networkOffering);
+                obs.put("procedure", p.getAttributeValue("id"));
+                obs.put("observedProperty", StringUtils.join(observedProperties, ','));
+                requests.add(new Request(path, obs));
+            }
+            // every station of the network at once, read in parallel
+            Element platform = e.getChild("platform");
+            if (platform != null) {
+                List<String> observedProperties = new ArrayList<String>();
+                for (Element s : (List<Element>) platform.getChildren("sensor")) {
+                    observedProperties.add(s.getAttributeValue("standard"));
+                }
+                HashMap<String,String> all = new HashMap<String, String>();
+                all.put("request", "GetObservation");
+                all.put("service", "SOS");
+                all.put("version", "1.0.0");
+                all.put("responseFormat", responseFormat);
+                all.put("offering", networkOffering);
+                all.put("procedure", networkOffering);
+                all.put("observedProperty", StringUtils.join(observedProperties, ','));
+                requests.add(new Request(path, all));
+            }
+        }
+    }
+
+    @Test
+    public void testParallelRequestsMatchSerial() throws Exception {
+        // serial responses are the reference
+        for (Request r : requests) {
+            r.expected = r.call();
+        }
+        // start over so the parallel requests also build the cached metadata and responses
+        DatasetMetadata.clear();
+        GetCapabilitiesCache.clear();
+
+        List<Request> shuffled = new ArrayList<Request>();
+        for (int i = 0; i < ROUNDS; i++) {
+            shuffled.addAll(requests);
+        }
+        Collections.shuffle(shuffled, new Random(42));
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<String>> results = pool.invokeAll(shuffled);
+            for (int i = 0; i < shuffled.size(); i++) {
+                Request r = shuffled.get(i);
+                Assert.assertEquals("Parallel response differs for " + r, r.expected, results.get(i).get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static class Request implements Callable<String> {
+        private final String path;
+        private final HashMap<String,String> kvp;
+        private String expected;
+
+        private Request(String path, HashMap<String,String> kvp) {
+            this.path = path;
+            this.kvp = kvp;
+        }
+
+        public String call() throws Exception {
+            NetcdfDataset dataset = NetcdfDataset.openDataset(path);
+            try {
+                CharArrayWriter writer = new CharArrayWriter();
+                OutputFormatter output = (OutputFormatter) new Parser().enhanceGETRequest(dataset, getQueryString(kvp), path).get(Parser.OUTPUT_FORMATTER);
+                output.writeOutput(writer);
+                return writer.toString();
+            } finally {
+                dataset.close();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return path + " " + kvp;
+        }
+    }
+}
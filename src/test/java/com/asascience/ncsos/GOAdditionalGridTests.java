@@ -103,4 +103,32 @@ public class GOAdditionalGridTests extends NcSOSTest {
         Assert.assertEquals(NcSOSTest.MISSING_PARAMETER, NcSOSTest.getExceptionCode(result));
         Assert.assertEquals("longitude", NcSOSTest.getExceptionLocator(result));
     }
+
+    @Test
+    public void testLatitudeAndLongitudeRanges() throws NoSuchMethodException {
+        HashMap<String,String> pairs = (HashMap<String,String>) kvp.clone();
+        pairs.put("latitude", "-1_1");
+        pairs.put("longitude", "-1.5_1.5");
+
+        File file = new File("resources" + systemSeparator + "datasets" + systemSeparator + currentFile.getAttributeValue("path"));
+        String output   = new File(outputDir + systemSeparator + testName.getMethodName() + ".xml").getAbsolutePath();
+        Element result = NcSOSTest.makeTestRequest(file.getAbsolutePath(), output, pairs);
+        // ranges are read by the grid, not rejected as parameters
+        Assert.assertFalse(NcSOSTest.isException(result) && NcSOSTest.INVALID_PARAMETER.equals(NcSOSTest.getExceptionCode(result)));
+    }
+
+    @Test
+    public void testBadLatitudeRanges() throws NoSuchMethodException {
+        File file = new File("resources" + systemSeparator + "datasets" + systemSeparator + currentFile.getAttributeValue("path"));
+        for (String range : new String[] { "1_", "_1", "1_2_3", "1_NOT", "1_95" }) {
+            HashMap<String,String> pairs = (HashMap<String,String>) kvp.clone();
+            pairs.put("latitude", range);
+
+            String output   = new File(outputDir + systemSeparator + testName.getMethodName() + ".xml").getAbsolutePath();
+            Element result = NcSOSTest.makeTestRequest(file.getAbsolutePath(), output, pairs);
+            Assert.assertTrue(range, NcSOSTest.isException(result));
+            Assert.assertEquals(range, NcSOSTest.INVALID_PARAMETER, NcSOSTest.getExceptionCode(result));
+            Assert.assertEquals(range, "latitude", NcSOSTest.getExceptionLocator(result));
+        }
+    }
 }
@@ -0,0 +1,185 @@
+package com.asascience.ncsos.cdmclasses;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Test;
+import ucar.ma2.Array;
+import ucar.ma2.ArrayChar;
+import ucar.ma2.DataType;
+import ucar.nc2.Attribute;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.Variable;
+import ucar.nc2.dataset.NetcdfDataset;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Component pruning of joinExisting aggregations
+ */
+public class AggregationTimeIndexTest {
+
+    private static final long HOUR = 3600000L;
+    // 2013-01-01T00:00:00Z
+    private static final long EPOCH = 1356998400000L;
+    private static final int FILES = 3;
+    private static final int STEPS_PER_FILE = 3;
+
+    private final List<File> files = new ArrayList<File>();
+
+    @After
+    public void tearDown() {
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    private static String ranges(List<int[]> ranges) {
+        StringBuilder out = new StringBuilder();
+        for (int[] range : ranges) {
+            out.append('[').append(range[0]).append(',').append(range[1]).append(')');
+        }
+        return out.toString();
+    }
+
+    @Test
+    public void testFindRangesReturnsOnlyOverlappingComponents() {
+        // rows [0,3) hours 0-2, [3,6) hours 3-5, [6,6) empty, [6,9) hours 6-8, [9,12) hours 20-22
+        AggregationTimeIndex index = new AggregationTimeIndex(1L, new int[] { 0, 3, 6, 6, 9, 12 },
+                new long[] { 0, 3 * HOUR, 0, 6 * HOUR, 20 * HOUR },
+                new long[] { 2 * HOUR, 5 * HOUR, 24 * HOUR, 8 * HOUR, 22 * HOUR });
+        Assert.assertEquals("[3,9)", ranges(index.findRanges(4 * HOUR, 7 * HOUR)));
+        Assert.assertEquals("[0,3)", ranges(index.findRanges(0, HOUR)));
+        Assert.assertEquals("[9,12)", ranges(index.findRanges(21 * HOUR, 30 * HOUR)));
+        Assert.assertEquals("[0,12)", ranges(index.findRanges(Long.MIN_VALUE, Long.MAX_VALUE)));
+        // the bounds of a window are inclusive
+        Assert.assertEquals("[0,6)", ranges(index.findRanges(2 * HOUR, 3 * HOUR)));
+        // between components
+        Assert.assertEquals("", ranges(index.findRanges(2 * HOUR + 1, 3 * HOUR - 1)));
+        Assert.assertEquals("", ranges(index.findRanges(9 * HOUR, 19 * HOUR)));
+        Assert.assertEquals("", ranges(index.findRanges(30 * HOUR, 40 * HOUR)));
+    }
+
+    @Test
+    public void testFindRangesOfUnorderedComponents() {
+        // rows [0,2) hours 0-1, [2,4) hours 10-11, [4,6) hours 2-3, [6,8) without valid times
+        AggregationTimeIndex index = new AggregationTimeIndex(1L, new int[] { 0, 2, 4, 6, 8 },
+                new long[] { 0, 10 * HOUR, 2 * HOUR, Long.MAX_VALUE },
+                new long[] { HOUR, 11 * HOUR, 3 * HOUR, Long.MIN_VALUE });
+        Assert.assertEquals("[0,2)[4,6)", ranges(index.findRanges(0, 5 * HOUR)));
+        Assert.assertEquals("[0,6)", ranges(index.findRanges(0, 10 * HOUR)));
+        Assert.assertEquals("[0,6)", ranges(index.findRanges(Long.MIN_VALUE, Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void testPrunedReadMatchesUnprunedRead() throws Exception {
+        NetcdfDataset dataset = NetcdfDataset.openDataset(writeAggregation().getPath());
+        try {
+            AggregationTimeIndex index = AggregationTimeIndex.get(dataset, dataset.findDimension("time"), dataset.findVariable("time"));
+            Assert.assertNotNull(index);
+            Assert.assertEquals("[3,9)", ranges(index.findRanges(EPOCH + 4 * HOUR, EPOCH + 7 * HOUR)));
+
+            String[] variables = { "temp", "station_height" };
+            TimeSeriesArrayReader reader = TimeSeriesArrayReader.create(dataset);
+            Assert.assertNotNull(reader);
+            long[][] windows = {
+                    { EPOCH + 4 * HOUR, EPOCH + 7 * HOUR },
+                    { EPOCH, EPOCH },
+                    { EPOCH + 2 * HOUR, EPOCH + 3 * HOUR },
+                    { Long.MIN_VALUE, Long.MAX_VALUE },
+                    { EPOCH + 100 * HOUR, EPOCH + 200 * HOUR } };
+            for (String station : new String[] { "north", "south" }) {
+                // every row, through the unpruned path
+                ObservationBatch all = reader.read(station, 1, variables, null);
+                Assert.assertEquals(FILES * STEPS_PER_FILE, all.size());
+                for (long[] window : windows) {
+                    ObservationBatch pruned = reader.read(station, 1, variables, window);
+                    Assert.assertNotNull(pruned);
+                    int row = 0;
+                    for (int i = 0; i < all.size(); i++) {
+                        if (all.getTime(i) < window[0] || all.getTime(i) > window[1]) {
+                            continue;
+                        }
+                        Assert.assertTrue(row < pruned.size());
+                        Assert.assertEquals(all.getTime(i), pruned.getTime(row));
+                        Assert.assertEquals(1, pruned.getStation(row));
+                        for (int v = 0; v < variables.length; v++) {
+                            Assert.assertEquals(all.getDouble(v, i), pruned.getDouble(v, row));
+                        }
+                        row++;
+                    }
+                    Assert.assertEquals(row, pruned.size());
+                }
+            }
+        } finally {
+            dataset.close();
+        }
+    }
+
+    /**
+     * Writes the component files and the NcML aggregating them along time
+     * @return the NcML file
+     */
+    private File writeAggregation() throws Exception {
+        StringBuilder ncml = new StringBuilder();
+        ncml.append("<netcdf xmlns=\"http://www.unidata.ucar.edu/namespaces/netcdf/ncml-2.2\">\n");
+        ncml.append("  <aggregation dimName=\"time\" type=\"joinExisting\">\n");
+        for (int f = 0; f < FILES; f++) {
+            File component = File.createTempFile("aggregation-" + f + "-", ".nc");
+            files.add(component);
+            writeComponent(component, f);
+            ncml.append("    <netcdf location=\"").append(component.toURI()).append("\"/>\n");
+        }
+        ncml.append("  </aggregation>\n");
+        ncml.append("</netcdf>\n");
+        File file = File.createTempFile("aggregation", ".ncml");
+        files.add(file);
+        FileWriter out = new FileWriter(file);
+        try {
+            out.write(ncml.toString());
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * Writes an orthogonal time series file of two stations holding the
+     * hours f * STEPS_PER_FILE to (f + 1) * STEPS_PER_FILE - 1
+     */
+    private static void writeComponent(File file, int f) throws Exception {
+        NetcdfFileWriter writer = NetcdfFileWriter.createNew(NetcdfFileWriter.Version.netcdf3, file.getPath());
+        writer.addGroupAttribute(null, new Attribute("Conventions", "CF-1.6"));
+        writer.addGroupAttribute(null, new Attribute("featureType", "timeSeries"));
+        writer.addDimension(null, "station", 2);
+        writer.addDimension(null, "time", STEPS_PER_FILE);
+        writer.addDimension(null, "name_strlen", 8);
+        Variable id = writer.addVariable(null, "station_name", DataType.CHAR, "station name_strlen");
+        writer.addVariableAttribute(id, new Attribute("cf_role", "timeseries_id"));
+        Variable height = writer.addVariable(null, "station_height", DataType.DOUBLE, "station");
+        Variable time = writer.addVariable(null, "time", DataType.DOUBLE, "time");
+        writer.addVariableAttribute(time, new Attribute("standard_name", "time"));
+        writer.addVariableAttribute(time, new Attribute("units", "hours since 2013-01-01 00:00:00"));
+        Variable temp = writer.addVariable(null, "temp", DataType.DOUBLE, "time station");
+        writer.addVariableAttribute(temp, new Attribute("coordinates", "time"));
+        writer.create();
+
+        ArrayChar.D2 names = new ArrayChar.D2(2, 8);
+        names.setString(0, "north");
+        names.setString(1, "south");
+        writer.write(id, names);
+        writer.write(height, Array.factory(new double[] { 2.5, 4.0 }));
+        double[] times = new double[STEPS_PER_FILE];
+        double[] temps = new double[STEPS_PER_FILE * 2];
+        for (int t = 0; t < STEPS_PER_FILE; t++) {
+            times[t] = f * STEPS_PER_FILE + t;
+            temps[2 * t] = 10 + times[t];
+            temps[2 * t + 1] = 20 + times[t];
+        }
+        writer.write(time, Array.factory(times));
+        writer.write(temp, Array.factory(DataType.DOUBLE, new int[] { STEPS_PER_FILE, 2 }, temps));
+        writer.close();
+    }
+}
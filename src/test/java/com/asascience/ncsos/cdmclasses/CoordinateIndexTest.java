@@ -0,0 +1,212 @@
+package com.asascience.ncsos.cdmclasses;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Test;
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.nc2.Attribute;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.Variable;
+import ucar.nc2.dataset.CoordinateAxis1D;
+import ucar.nc2.dataset.NetcdfDataset;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Nearest value and range lookups on coordinate axes, longitude wrapping and
+ * the per dataset cache of the indexes
+ */
+public class CoordinateIndexTest {
+
+    private File fixture;
+
+    @After
+    public void tearDown() {
+        if (fixture != null) {
+            fixture.delete();
+        }
+    }
+
+    private static CoordinateIndex index(boolean longitude, double... values) {
+        return new CoordinateIndex(1L, values, longitude);
+    }
+
+    /**
+     * @return values from first to last (inclusive) by step
+     */
+    private static double[] steps(double first, double last, double step) {
+        double[] values = new double[(int) Math.round((last - first) / step) + 1];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = first + i * step;
+        }
+        return values;
+    }
+
+    private static void assertIndices(int[] expected, int[] actual) {
+        Assert.assertEquals(Arrays.toString(expected), Arrays.toString(actual));
+    }
+
+    @Test
+    public void testAscendingAxis() {
+        CoordinateIndex index = index(false, 0, 1, 2, 3, 4);
+        Assert.assertEquals(2, index.findNearest(2.4));
+        Assert.assertEquals(3, index.findNearest(2.6));
+        Assert.assertEquals(2, index.findNearest(2));
+        Assert.assertEquals(0, index.findNearest(-5));
+        Assert.assertEquals(4, index.findNearest(10));
+        assertIndices(new int[] { 1, 2, 3 }, index.findRange(1, 3));
+        assertIndices(new int[] { 1, 2, 3 }, index.findRange(0.5, 3.5));
+        assertIndices(new int[] {}, index.findRange(1.2, 1.8));
+        assertIndices(new int[] {}, index.findRange(5, 6));
+    }
+
+    @Test
+    public void testDescendingAxis() {
+        CoordinateIndex index = index(false, 4, 3, 2, 1, 0);
+        Assert.assertEquals(2, index.findNearest(2.4));
+        Assert.assertEquals(1, index.findNearest(2.6));
+        Assert.assertEquals(4, index.findNearest(-5));
+        Assert.assertEquals(0, index.findNearest(10));
+        assertIndices(new int[] { 1, 2, 3 }, index.findRange(1, 3));
+        assertIndices(new int[] {}, index.findRange(-2, -1));
+    }
+
+    @Test
+    public void testUnsortedAxisIsScanned() {
+        CoordinateIndex index = index(false, 0, 5, 2);
+        Assert.assertEquals(2, index.findNearest(2.2));
+        Assert.assertEquals(1, index.findNearest(4));
+        assertIndices(new int[] { 1, 2 }, index.findRange(1, 6));
+    }
+
+    @Test
+    public void testTiesGoToTheLowerIndex() {
+        Assert.assertEquals(0, index(false, 0, 2).findNearest(1));
+        Assert.assertEquals(0, index(false, 2, 0).findNearest(1));
+        Assert.assertEquals(1, index(false, 0, 2, 4).findNearest(3));
+        Assert.assertEquals(0, index(false, 0, 5, 2).findNearest(1));
+        // across the seam: 355 is as far from 0 as from 350
+        Assert.assertEquals(0, index(true, steps(0, 350, 10)).findNearest(-5));
+    }
+
+    @Test
+    public void testEmptyAxis() {
+        Assert.assertEquals(-1, index(false).findNearest(1));
+        Assert.assertEquals(-1, index(true).findNearest(1));
+        assertIndices(new int[] {}, index(false).findRange(-1, 1));
+        assertIndices(new int[] {}, index(true).findRange(-1, 1));
+    }
+
+    @Test
+    public void testSingleValueAxis() {
+        CoordinateIndex index = index(false, 5);
+        Assert.assertEquals(0, index.findNearest(-100));
+        Assert.assertEquals(0, index.findNearest(100));
+        assertIndices(new int[] { 0 }, index.findRange(0, 10));
+        assertIndices(new int[] { 0 }, index.findRange(5, 5));
+        assertIndices(new int[] {}, index.findRange(6, 10));
+        Assert.assertEquals(0, index(true, 5).findNearest(365));
+        assertIndices(new int[] { 0 }, index(true, 5).findRange(360, 370));
+    }
+
+    @Test
+    public void testLongitudeOnZeroTo360Axis() {
+        CoordinateIndex index = index(true, 0, 90, 180, 270, 350);
+        Assert.assertEquals(3, index.findNearest(-70));
+        Assert.assertEquals(4, index.findNearest(-8));
+        Assert.assertEquals(1, index.findNearest(450));
+        Assert.assertEquals(2, index.findNearest(180));
+    }
+
+    @Test
+    public void testLongitudeOnMinus180To180Axis() {
+        CoordinateIndex index = index(true, -170, -90, 0, 90, 170);
+        Assert.assertEquals(1, index.findNearest(270));
+        Assert.assertEquals(0, index.findNearest(185));
+        Assert.assertEquals(4, index.findNearest(-190));
+        Assert.assertEquals(2, index.findNearest(360));
+    }
+
+    @Test
+    public void testLongitudeRangesMergeAcrossTheSeam() {
+        // 0, 10, .. 350
+        CoordinateIndex positive = index(true, steps(0, 350, 10));
+        assertIndices(new int[] { 0, 1, 2, 34, 35 }, positive.findRange(-20, 20));
+        assertIndices(new int[] { 0, 1, 35 }, positive.findRange(350, 370));
+        Assert.assertEquals(36, positive.findRange(-180, 180).length);
+        Assert.assertEquals(36, positive.findRange(-360, 360).length);
+        // -180, -170, .. 170
+        CoordinateIndex signed = index(true, steps(-180, 170, 10));
+        assertIndices(new int[] { 0, 1, 35 }, signed.findRange(170, 190));
+        assertIndices(new int[] { 17, 18, 19 }, signed.findRange(350, 370));
+        Assert.assertEquals(36, signed.findRange(0, 360).length);
+    }
+
+    @Test(timeout = 5000)
+    public void testExtremeLongitudes() {
+        double[] extremes = { 1e20, -1e20, Double.MAX_VALUE, -Double.MAX_VALUE, 1e300, Math.ulp(0.0) };
+        CoordinateIndex[] axes = { index(true, steps(0, 350, 10)), index(true, steps(-180, 170, 10)),
+                                   index(true, steps(350, 0, -10)), index(true, 5) };
+        for (CoordinateIndex axis : axes) {
+            for (double value : extremes) {
+                int nearest = axis.findNearest(value);
+                Assert.assertTrue(value + " -> " + nearest, nearest >= 0 && nearest < axis.getValues().length);
+                axis.findRange(value, value);
+            }
+            Assert.assertEquals(axis.getValues().length, axis.findRange(-1e20, 1e20).length);
+        }
+    }
+
+    @Test
+    public void testExtremeValues() {
+        CoordinateIndex index = index(false, 0, 1, 2);
+        Assert.assertEquals(2, index.findNearest(Double.MAX_VALUE));
+        Assert.assertEquals(0, index.findNearest(-Double.MAX_VALUE));
+        Assert.assertEquals(3, index.findRange(-Double.MAX_VALUE, Double.MAX_VALUE).length);
+    }
+
+    @Test
+    public void testCacheIsInvalidatedWhenTheDatasetChanges() throws Exception {
+        fixture = File.createTempFile("coordinate-index", ".nc");
+        writeLongitudes(fixture, new double[] { 0, 90, 180, 270 });
+        fixture.setLastModified(1380000000000L);
+
+        NetcdfDataset dataset = NetcdfDataset.openDataset(fixture.getPath());
+        CoordinateIndex first;
+        try {
+            CoordinateAxis1D axis = (CoordinateAxis1D) dataset.findCoordinateAxis("lon");
+            first = CoordinateIndex.get(dataset, axis, true);
+            Assert.assertSame(first, CoordinateIndex.get(dataset, axis, true));
+            // the same axis read as plain values is a separate index
+            Assert.assertNotSame(first, CoordinateIndex.get(dataset, axis, false));
+        } finally {
+            dataset.close();
+        }
+
+        writeLongitudes(fixture, new double[] { -180, -90, 0, 90 });
+        fixture.setLastModified(1380000002000L);
+
+        dataset = NetcdfDataset.openDataset(fixture.getPath());
+        try {
+            CoordinateAxis1D axis = (CoordinateAxis1D) dataset.findCoordinateAxis("lon");
+            CoordinateIndex second = CoordinateIndex.get(dataset, axis, true);
+            Assert.assertNotSame(first, second);
+            Assert.assertEquals(-180.0, second.getValues()[0]);
+            Assert.assertSame(second, CoordinateIndex.get(dataset, axis, true));
+        } finally {
+            dataset.close();
+        }
+    }
+
+    private static void writeLongitudes(File file, double[] values) throws Exception {
+        NetcdfFileWriter writer = NetcdfFileWriter.createNew(NetcdfFileWriter.Version.netcdf3, file.getPath());
+        writer.addDimension(null, "lon", values.length);
+        Variable lon = writer.addVariable(null, "lon", DataType.DOUBLE, "lon");
+        writer.addVariableAttribute(lon, new Attribute("units", "degrees_east"));
+        writer.create();
+        writer.write(lon, Array.factory(values));
+        writer.close();
+    }
+}
@@ -0,0 +1,170 @@
+package com.asascience.ncsos.cdmclasses;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Nearest cell searches of the KD-tree over curvilinear grid cells, against
+ * a scan of every cell
+ */
+public class CurvilinearIndexTest {
+
+    /**
+     * @return index of the cell nearest to the location on the unit sphere,
+     * ties going to the lower cell index
+     */
+    private static int bruteForce(double[] lats, double[] lons, double lat, double lon) {
+        double[] target = toXyz(lat, lon);
+        int best = -1;
+        double bestDistance = Double.MAX_VALUE;
+        for (int i = 0; i < lats.length; i++) {
+            if (Double.isNaN(lats[i]) || Double.isNaN(lons[i])) {
+                continue;
+            }
+            double[] cell = toXyz(lats[i], lons[i]);
+            double distance = 0;
+            for (int k = 0; k < 3; k++) {
+                distance += (cell[k] - target[k]) * (cell[k] - target[k]);
+            }
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static double[] toXyz(double lat, double lon) {
+        double latRad = Math.toRadians(lat);
+        double lonRad = Math.toRadians(lon);
+        return new double[] { Math.cos(latRad) * Math.cos(lonRad), Math.cos(latRad) * Math.sin(lonRad), Math.sin(latRad) };
+    }
+
+    /**
+     * @return a ny by nx grid rotated by the angle (degrees) around its first
+     * cell, with cells step degrees apart
+     */
+    private static double[][] rotatedGrid(int ny, int nx, double lat0, double lon0, double step, double angle) {
+        double[] lats = new double[ny * nx];
+        double[] lons = new double[ny * nx];
+        double cos = Math.cos(Math.toRadians(angle));
+        double sin = Math.sin(Math.toRadians(angle));
+        for (int y = 0; y < ny; y++) {
+            for (int x = 0; x < nx; x++) {
+                lats[y * nx + x] = lat0 + step * (x * sin + y * cos);
+                lons[y * nx + x] = lon0 + step * (x * cos - y * sin);
+            }
+        }
+        return new double[][] { lats, lons };
+    }
+
+    @Test
+    public void testAgreesWithBruteForce() {
+        Random random = new Random(42);
+        double[][] grid = rotatedGrid(20, 30, 30, -80, 0.25, 30);
+        // a few masked cells
+        for (int i = 0; i < 40; i++) {
+            grid[0][random.nextInt(grid[0].length)] = Double.NaN;
+        }
+        CurvilinearIndex index = new CurvilinearIndex(1L, 30, grid[0], grid[1]);
+        for (int i = 0; i < 2000; i++) {
+            double lat = 25 + 15 * random.nextDouble();
+            double lon = -90 + 20 * random.nextDouble();
+            Assert.assertEquals(lat + "," + lon, bruteForce(grid[0], grid[1], lat, lon), index.findNearest(lat, lon));
+        }
+        // the centres of the cells themselves
+        for (int cell = 0; cell < grid[0].length; cell++) {
+            if (!Double.isNaN(grid[0][cell])) {
+                Assert.assertEquals(cell, index.findNearest(grid[0][cell], grid[1][cell]));
+            }
+        }
+    }
+
+    @Test
+    public void testCellIndices() {
+        double[][] grid = rotatedGrid(3, 4, 0, 0, 1, 0);
+        CurvilinearIndex index = new CurvilinearIndex(1L, 4, grid[0], grid[1]);
+        int cell = index.findNearest(2.1, 0.9);
+        Assert.assertEquals(2, index.getY(cell));
+        Assert.assertEquals(1, index.getX(cell));
+        Assert.assertEquals(2.0, index.getLat(cell));
+        Assert.assertEquals(1.0, index.getLon(cell));
+    }
+
+    @Test
+    public void testAntimeridian() {
+        // longitudes 178, 179, 180, -179, -178 on each row
+        double[] lats = new double[10];
+        double[] lons = new double[10];
+        double[] rowLons = { 178, 179, 180, -179, -178 };
+        for (int y = 0; y < 2; y++) {
+            for (int x = 0; x < 5; x++) {
+                lats[y * 5 + x] = 10 + y;
+                lons[y * 5 + x] = rowLons[x];
+            }
+        }
+        CurvilinearIndex index = new CurvilinearIndex(1L, 5, lats, lons);
+        Assert.assertEquals(2, index.findNearest(10, -179.9));
+        Assert.assertEquals(2, index.findNearest(10, 179.9));
+        Assert.assertEquals(3, index.findNearest(10, -179.4));
+        Assert.assertEquals(3, index.findNearest(10, 180.6));
+        Assert.assertEquals(9, index.findNearest(11, 182));
+        Assert.assertEquals(5, index.findNearest(11, -182));
+        // the same location given on 0..360
+        Assert.assertEquals(index.findNearest(10.2, -178.6), index.findNearest(10.2, 181.4));
+        for (double lon = 170; lon <= 190; lon += 0.1) {
+            Assert.assertEquals(bruteForce(lats, lons, 10.4, lon), index.findNearest(10.4, lon));
+        }
+    }
+
+    @Test
+    public void testPoles() {
+        // rings of cells at 88 and 89 degrees north, every 30 degrees of longitude
+        double[] lats = new double[24];
+        double[] lons = new double[24];
+        for (int y = 0; y < 2; y++) {
+            for (int x = 0; x < 12; x++) {
+                lats[y * 12 + x] = 88 + y;
+                lons[y * 12 + x] = -180 + 30 * x;
+            }
+        }
+        CurvilinearIndex index = new CurvilinearIndex(1L, 12, lats, lons);
+        // every cell of the upper ring is about as close to the pole
+        Assert.assertTrue(index.findNearest(90, 0) >= 12);
+        Assert.assertEquals(bruteForce(lats, lons, 90, 0), index.findNearest(90, 0));
+        // longitudes near the pole
+        Assert.assertEquals(12, index.findNearest(89.5, 181));
+        Assert.assertEquals(12 + 6, index.findNearest(89.9, 0));
+        Assert.assertEquals(9, index.findNearest(87, 90));
+        // far from the grid, on the other pole
+        Assert.assertEquals(bruteForce(lats, lons, -90, 0), index.findNearest(-90, 0));
+        Random random = new Random(7);
+        for (int i = 0; i < 500; i++) {
+            double lat = 85 + 5 * random.nextDouble();
+            double lon = -180 + 360 * random.nextDouble();
+            Assert.assertEquals(bruteForce(lats, lons, lat, lon), index.findNearest(lat, lon));
+        }
+    }
+
+    @Test
+    public void testMaskedCellsAreSkipped() {
+        double[][] grid = rotatedGrid(3, 3, 0, 0, 1, 0);
+        // mask the centre cell and the latitude of a corner
+        grid[0][4] = Double.NaN;
+        grid[1][4] = Double.NaN;
+        grid[0][8] = Double.NaN;
+        CurvilinearIndex index = new CurvilinearIndex(1L, 3, grid[0], grid[1]);
+        for (double lat = -1; lat <= 3; lat += 0.25) {
+            for (double lon = -1; lon <= 3; lon += 0.25) {
+                int cell = index.findNearest(lat, lon);
+                Assert.assertTrue(cell != 4 && cell != 8);
+                Assert.assertEquals(bruteForce(grid[0], grid[1], lat, lon), cell);
+            }
+        }
+        double[] masked = { Double.NaN, Double.NaN };
+        Assert.assertEquals(-1, new CurvilinearIndex(1L, 2, masked, new double[] { 0, 1 }).findNearest(0, 0));
+        Assert.assertEquals(-1, new CurvilinearIndex(1L, 0, new double[0], new double[0]).findNearest(0, 0));
+    }
+}
@@ -0,0 +1,190 @@
+package com.asascience.ncsos.cdmclasses;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.nc2.Attribute;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.Variable;
+import ucar.nc2.dt.grid.GridDataset;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Point extraction from grids whose variables do not share one coordinate
+ * system: a staggered variable on its own latitudes, a variable on another
+ * time axis and a variable with ensemble members
+ */
+public class GridTest {
+
+    private static final double[] LATS = { 0, 1, 2, 3 };
+    private static final double[] U_LATS = { 0.5, 1.5, 2.5 };
+    private static final double[] LONS = { 10, 11 };
+    private static final double[] TIMES = { 0, 1 };
+    private static final double[] WAVE_TIMES = { 0, 3, 6 };
+    private static final int MEMBERS = 3;
+    private static final long HOUR = 3600000L;
+    // 2013-01-01T00:00:00Z
+    private static final long EPOCH = 1356998400000L;
+
+    private File fixture;
+    private GridDataset dataset;
+
+    @Before
+    public void setUp() throws Exception {
+        fixture = File.createTempFile("grid", ".nc");
+        NetcdfFileWriter writer = NetcdfFileWriter.createNew(NetcdfFileWriter.Version.netcdf3, fixture.getPath());
+        writer.addDimension(null, "time", TIMES.length);
+        writer.addDimension(null, "wave_time", WAVE_TIMES.length);
+        writer.addDimension(null, "lat", LATS.length);
+        writer.addDimension(null, "lat_u", U_LATS.length);
+        writer.addDimension(null, "lon", LONS.length);
+        writer.addDimension(null, "ensemble", MEMBERS);
+        Variable time = addAxis(writer, "time", "hours since 2013-01-01 00:00:00");
+        Variable waveTime = addAxis(writer, "wave_time", "hours since 2013-01-01 00:00:00");
+        Variable lat = addAxis(writer, "lat", "degrees_north");
+        Variable latU = addAxis(writer, "lat_u", "degrees_north");
+        Variable lon = addAxis(writer, "lon", "degrees_east");
+        Variable ensemble = writer.addVariable(null, "ensemble", DataType.INT, "ensemble");
+        writer.addVariableAttribute(ensemble, new Attribute("_CoordinateAxisType", "Ensemble"));
+        Variable temp = writer.addVariable(null, "temp", DataType.FLOAT, "time lat lon");
+        Variable u = writer.addVariable(null, "u", DataType.FLOAT, "time lat_u lon");
+        Variable wave = writer.addVariable(null, "wave", DataType.FLOAT, "wave_time lat lon");
+        Variable members = writer.addVariable(null, "members", DataType.FLOAT, "ensemble time lat lon");
+        writer.create();
+        writer.write(time, Array.factory(TIMES));
+        writer.write(waveTime, Array.factory(WAVE_TIMES));
+        writer.write(lat, Array.factory(LATS));
+        writer.write(latU, Array.factory(U_LATS));
+        writer.write(lon, Array.factory(LONS));
+        writer.write(temp, values(0, TIMES.length, LATS.length));
+        writer.write(u, values(1000, TIMES.length, U_LATS.length));
+        writer.write(wave, values(2000, WAVE_TIMES.length, LATS.length));
+        writer.write(ensemble, Array.factory(new int[] { 0, 1, 2 }));
+        // member m holds the temp values plus 5000 + 1000 * m
+        Array memberValues = Array.factory(DataType.FLOAT, new int[] { MEMBERS, TIMES.length, LATS.length, LONS.length });
+        Array temps = values(0, TIMES.length, LATS.length);
+        for (int m = 0; m < MEMBERS; m++) {
+            for (int i = 0; i < temps.getSize(); i++) {
+                memberValues.setFloat(m * (int) temps.getSize() + i, 5000 + 1000 * m + temps.getFloat(i));
+            }
+        }
+        writer.write(members, memberValues);
+        writer.close();
+        dataset = GridDataset.open(fixture.getPath());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (dataset != null) {
+            dataset.close();
+        }
+        fixture.delete();
+    }
+
+    private static Variable addAxis(NetcdfFileWriter writer, String name, String units) {
+        Variable axis = writer.addVariable(null, name, DataType.DOUBLE, name);
+        writer.addVariableAttribute(axis, new Attribute("units", units));
+        return axis;
+    }
+
+    /**
+     * @return offset + 100 * time + 10 * y + x for every cell
+     */
+    private static Array values(int offset, int nTimes, int nLats) {
+        float[] values = new float[nTimes * nLats * LONS.length];
+        int n = 0;
+        for (int t = 0; t < nTimes; t++) {
+            for (int y = 0; y < nLats; y++) {
+                for (int x = 0; x < LONS.length; x++) {
+                    values[n++] = offset + 100 * t + 10 * y + x;
+                }
+            }
+        }
+        return Array.factory(DataType.FLOAT, new int[] { nTimes, nLats, LONS.length }, values);
+    }
+
+    private ObservationBatch read(String[] eventTime, String... variables) throws Exception {
+        Map<String, String> latLonRequest = new HashMap<String, String>();
+        latLonRequest.put("latitude", "3");
+        latLonRequest.put("longitude", "11");
+        Grid grid = new Grid(new String[] { "grid" }, eventTime, variables, latLonRequest);
+        grid.setData(dataset);
+        ObservationBatch batch = grid.getDataBatch(0);
+        Assert.assertFalse(batch.getError(), batch.hasError());
+        return batch;
+    }
+
+    @Test
+    public void testStaggeredVariableUsesItsOwnCoordinates() throws Exception {
+        ObservationBatch batch = read(null, "temp", "u");
+        int temp = batch.getColumnIndex("temp");
+        int u = batch.getColumnIndex("u");
+        Assert.assertEquals(2, batch.size());
+        int tempRows = 0;
+        int uRows = 0;
+        for (int row = 0; row < batch.size(); row++) {
+            if (batch.isSet(temp, row)) {
+                tempRows++;
+                Assert.assertFalse(batch.isSet(u, row));
+                Assert.assertEquals(3.0, batch.getDouble(batch.getColumnIndex("lat"), row));
+                Assert.assertEquals(31.0, batch.getDouble(temp, row));
+            } else {
+                uRows++;
+                // the last u latitude is the nearest to 3
+                Assert.assertEquals(2.5, batch.getDouble(batch.getColumnIndex("lat_u"), row));
+                Assert.assertEquals(1021.0, batch.getDouble(u, row));
+            }
+            Assert.assertEquals(11.0, batch.getDouble(batch.getColumnIndex("lon"), row));
+        }
+        Assert.assertEquals(1, tempRows);
+        Assert.assertEquals(1, uRows);
+    }
+
+    @Test
+    public void testVariablesOnAnotherTimeAxisUseTheirOwnSteps() throws Exception {
+        ObservationBatch batch = read(new String[] { "2013-01-01T00:00:00Z", "2013-01-01T04:00:00Z" }, "temp", "wave");
+        int temp = batch.getColumnIndex("temp");
+        int wave = batch.getColumnIndex("wave");
+        Assert.assertEquals(4, batch.size());
+        for (int row = 0; row < batch.size(); row++) {
+            long hours = (batch.getTime(row) - EPOCH) / HOUR;
+            if (batch.isSet(temp, row)) {
+                Assert.assertEquals(100.0 * hours + 31, batch.getDouble(temp, row));
+            } else {
+                // steps at 0 and 3 hours
+                Assert.assertEquals(2000.0 + 100 * (hours / 3) + 31, batch.getDouble(wave, row));
+            }
+        }
+    }
+
+    @Test
+    public void testSingleTimeSelectsTheNearestStepOfEachAxis() throws Exception {
+        ObservationBatch batch = read(new String[] { "2013-01-01T02:00:00Z" }, "temp", "wave");
+        Assert.assertEquals(2, batch.size());
+        for (int row = 0; row < batch.size(); row++) {
+            long hours = (batch.getTime(row) - EPOCH) / HOUR;
+            if (batch.isSet(batch.getColumnIndex("temp"), row)) {
+                Assert.assertEquals(1, hours);
+            } else {
+                Assert.assertEquals(3, hours);
+            }
+        }
+    }
+
+    @Test
+    public void testEnsembleVariableReadsTheFirstMember() throws Exception {
+        ObservationBatch batch = read(new String[] { "2013-01-01T00:00:00Z", "2013-01-01T01:00:00Z" }, "members");
+        int members = batch.getColumnIndex("members");
+        Assert.assertEquals(2, batch.size());
+        for (int row = 0; row < batch.size(); row++) {
+            long hours = (batch.getTime(row) - EPOCH) / HOUR;
+            Assert.assertEquals(5000.0 + 100 * hours + 31, batch.getDouble(members, row));
+        }
+    }
+}
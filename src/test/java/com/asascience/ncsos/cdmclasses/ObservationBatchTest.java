@@ -0,0 +1,40 @@
+package com.asascience.ncsos.cdmclasses;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class ObservationBatchTest {
+
+    @Test
+    public void testTextOnNumericColumnIsParsed() {
+        ObservationBatch batch = new ObservationBatch(new String[] { "temperature" });
+        int first = batch.addRow(0, 0);
+        int second = batch.addRow(1000, 0);
+        batch.setDouble(0, first, 1.5);
+        batch.setText(0, second, "2.25");
+        Assert.assertEquals(ObservationBatch.ColumnType.DOUBLE, batch.getColumnType(0));
+        Assert.assertEquals(2.25, batch.getDouble(0, second));
+    }
+
+    @Test
+    public void testMalformedTextOnNumericColumnIsMissing() {
+        ObservationBatch batch = new ObservationBatch(new String[] { "temperature", "count" });
+        int first = batch.addRow(0, 0);
+        int second = batch.addRow(1000, 0);
+        batch.setFloat(0, first, 1.5f);
+        batch.setLong(1, first, 3);
+        batch.setText(0, second, "not a number");
+        batch.setText(1, second, "4.5");
+
+        Assert.assertFalse(batch.hasError());
+        Assert.assertEquals(2, batch.size());
+        Assert.assertTrue(batch.isNull(0, second));
+        Assert.assertFalse(batch.isSet(1, second));
+        StringBuilder out = new StringBuilder();
+        batch.appendValue(out, 0, second);
+        Assert.assertEquals("", out.toString());
+        // rows before the bad value are untouched
+        Assert.assertEquals(1.5, batch.getDouble(0, first));
+        Assert.assertEquals(3, batch.getLong(1, first));
+    }
+}
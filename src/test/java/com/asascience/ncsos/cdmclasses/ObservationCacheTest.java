@@ -0,0 +1,188 @@
+package com.asascience.ncsos.cdmclasses;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+/**
+ * File format, invalidation, time windows, admission and budget of the local
+ * cache of station time series
+ */
+public class ObservationCacheTest {
+
+    private static final long MODIFIED = 1380000000000L;
+    private static final String[] VARIABLES = { "temperature", "salinity", "count", "empty" };
+
+    private String location;
+
+    @Before
+    public void setUp() {
+        ObservationCache.reset(Long.MAX_VALUE);
+        location = "/data/cache-" + System.nanoTime() + ".nc";
+    }
+
+    @After
+    public void tearDown() {
+        ObservationCache.reset(0);
+    }
+
+    /**
+     * @return a series with a double, a float, a long and an empty column;
+     * the second row has no temperature and the third no time
+     */
+    private static ObservationBatch series(long... times) {
+        ObservationBatch batch = new ObservationBatch(VARIABLES);
+        for (int i = 0; i < times.length; i++) {
+            int row = batch.addRow(times[i], 0);
+            if (i != 1) {
+                batch.setDouble(0, row, 10.5 + i);
+            }
+            batch.setFloat(1, row, 30.25f + i);
+            batch.setLong(2, row, 100L + i);
+        }
+        return batch;
+    }
+
+    private ObservationBatch read(String station, long lastModified, long[] window) {
+        return ObservationCache.read(location, lastModified, station, 3, VARIABLES, window);
+    }
+
+    @Test
+    public void testRoundTrip() {
+        ObservationBatch series = series(ObservationBatch.NO_TIME, 1000L, 2000L, 3000L);
+        Assert.assertTrue(ObservationCache.store(location, MODIFIED, "station", series));
+
+        ObservationBatch cached = read("station", MODIFIED, null);
+        Assert.assertNotNull(cached);
+        Assert.assertEquals(series.size(), cached.size());
+        for (int row = 0; row < series.size(); row++) {
+            Assert.assertEquals(series.getTime(row), cached.getTime(row));
+            Assert.assertEquals(3, cached.getStation(row));
+            for (int c = 0; c < VARIABLES.length; c++) {
+                Assert.assertEquals(series.isSet(c, row), cached.isSet(c, row));
+                Assert.assertEquals(series.getColumnType(c), cached.getColumnType(c));
+                if (series.isSet(c, row)) {
+                    Assert.assertEquals(series.getDouble(c, row), cached.getDouble(c, row));
+                }
+            }
+            Assert.assertEquals(series.getLong(2, row), cached.getLong(2, row));
+        }
+    }
+
+    @Test
+    public void testRoundTripOfMoreThanOneWordOfSetBits() {
+        long[] times = new long[130];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = 1000L * i;
+        }
+        Assert.assertTrue(ObservationCache.store(location, MODIFIED, "station", series(times)));
+        ObservationBatch cached = read("station", MODIFIED, null);
+        Assert.assertEquals(times.length, cached.size());
+        for (int row = 0; row < times.length; row++) {
+            Assert.assertEquals(row != 1, cached.isSet(0, row));
+            Assert.assertEquals(100L + row, cached.getLong(2, row));
+        }
+    }
+
+    @Test
+    public void testWindowBinarySearch() {
+        ObservationCache.store(location, MODIFIED, "station", series(ObservationBatch.NO_TIME, 1000L, 2000L, 2000L, 3000L));
+        assertTimes(read("station", MODIFIED, new long[] { 2000L, 2000L }), 2000L, 2000L);
+        assertTimes(read("station", MODIFIED, new long[] { 1500L, 3000L }), 2000L, 2000L, 3000L);
+        assertTimes(read("station", MODIFIED, new long[] { 2500L, 2600L }));
+        assertTimes(read("station", MODIFIED, new long[] { 4000L, 5000L }));
+        // rows without a time are never in a window
+        assertTimes(read("station", MODIFIED, new long[] { Long.MIN_VALUE, 1000L }), 1000L);
+        // an unparsable single time gives an empty window
+        assertTimes(read("station", MODIFIED, new long[] { Long.MAX_VALUE, Long.MIN_VALUE }));
+    }
+
+    private static void assertTimes(ObservationBatch batch, long... times) {
+        Assert.assertNotNull(batch);
+        Assert.assertEquals(times.length, batch.size());
+        for (int row = 0; row < times.length; row++) {
+            Assert.assertEquals(times[row], batch.getTime(row));
+        }
+    }
+
+    @Test
+    public void testStaleSeriesIsIgnored() {
+        ObservationCache.store(location, MODIFIED, "station", series(1000L, 2000L));
+        Assert.assertNull(read("station", MODIFIED + 1, null));
+        Assert.assertNull(ObservationCache.read(location + ".other", MODIFIED, "station", 0, VARIABLES, null));
+        Assert.assertNull(read("other", MODIFIED, null));
+        // a variable that was not cached
+        Assert.assertNull(ObservationCache.read(location, MODIFIED, "station", 0, new String[] { "temperature", "wind" }, null));
+    }
+
+    @Test
+    public void testCorruptFileIsIgnored() throws Exception {
+        ObservationCache.store(location, MODIFIED, "station", series(1000L, 2000L));
+        File file = ObservationCache.getCacheFile(location, "station", "salinity");
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.writeInt(0);
+        } finally {
+            raf.close();
+        }
+        Assert.assertNull(read("station", MODIFIED, null));
+    }
+
+    @Test
+    public void testUncacheableSeriesAreRejected() {
+        ObservationBatch text = series(1000L, 2000L);
+        text.setText(text.addColumn("flag"), 0, "good");
+        Assert.assertFalse(ObservationCache.store(location, MODIFIED, "text", text));
+        Assert.assertFalse(ObservationCache.store(location, MODIFIED, "unordered", series(2000L, 1000L)));
+        Assert.assertNull(read("unordered", MODIFIED, null));
+
+        // rejected until the dataset changes
+        Assert.assertFalse(ObservationCache.shouldMaterialize(location, MODIFIED, "unordered"));
+        Assert.assertFalse(ObservationCache.shouldMaterialize(location, MODIFIED, "unordered"));
+        Assert.assertFalse(ObservationCache.shouldMaterialize(location, MODIFIED + 1, "unordered"));
+        Assert.assertTrue(ObservationCache.shouldMaterialize(location, MODIFIED + 1, "unordered"));
+    }
+
+    @Test
+    public void testRequestCountsStartOverWhenTheDatasetChanges() {
+        Assert.assertFalse(ObservationCache.shouldMaterialize(location, MODIFIED, "station"));
+        Assert.assertTrue(ObservationCache.shouldMaterialize(location, MODIFIED, "station"));
+        // one request of the new version is not enough
+        Assert.assertFalse(ObservationCache.shouldMaterialize(location, MODIFIED + 1, "station"));
+        Assert.assertTrue(ObservationCache.shouldMaterialize(location, MODIFIED + 1, "station"));
+        // a dataset that changes between every two requests is never materialized
+        for (long version = MODIFIED + 2; version < MODIFIED + 10; version++) {
+            Assert.assertFalse(ObservationCache.shouldMaterialize(location, version, "busy"));
+        }
+        // other stations are counted separately
+        Assert.assertFalse(ObservationCache.shouldMaterialize(location, MODIFIED, "other"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedSeriesAreEvictedBeyondTheBudget() {
+        ObservationCache.store(location, MODIFIED, "first", series(1000L, 2000L));
+        long seriesBytes = 0;
+        for (String variable : VARIABLES) {
+            seriesBytes += ObservationCache.getCacheFile(location, "first", variable).length();
+        }
+        Assert.assertTrue(seriesBytes > 0);
+        // room for two stations of the same size; the station names have the same length
+        ObservationCache.reset(2 * seriesBytes);
+        ObservationCache.store(location, MODIFIED, "first", series(1000L, 2000L));
+        ObservationCache.store(location, MODIFIED, "secnd", series(1000L, 2000L));
+        // reading the first station makes the second one the least recently used
+        Assert.assertNotNull(read("first", MODIFIED, null));
+        ObservationCache.store(location, MODIFIED, "third", series(1000L, 2000L));
+
+        Assert.assertNotNull(read("first", MODIFIED, null));
+        Assert.assertNull(read("secnd", MODIFIED, null));
+        Assert.assertNotNull(read("third", MODIFIED, null));
+        for (String variable : VARIABLES) {
+            Assert.assertFalse(ObservationCache.getCacheFile(location, "secnd", variable).exists());
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.asascience.ncsos.cdmclasses;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Round trips and invalidation of the sidecar time index of ragged datasets
+ */
+public class RaggedTimeIndexTest {
+
+    private static final long MODIFIED = 1380000000000L;
+
+    // station 0: three sorted times, station 1: none, station 2: two times
+    private static final long[][] TIMES = { { 1000L, 2000L, 2000L, 5000L }, {}, { 3000L, 4000L } };
+    private static final int[][] ROWS = { { 0, 2, 3, 7 }, {}, { 1, 4 } };
+
+    private final List<String> locations = new ArrayList<String>();
+
+    @After
+    public void tearDown() {
+        RaggedTimeIndex.clear();
+        for (String location : locations) {
+            RaggedTimeIndex.getIndexFile(location).delete();
+        }
+    }
+
+    private String newLocation(String name) {
+        String location = "/data/" + name + "-" + System.nanoTime() + ".nc";
+        locations.add(location);
+        return location;
+    }
+
+    private static void assertIndex(RaggedTimeIndex index) {
+        Assert.assertNotNull(index);
+        for (int station = 0; station < TIMES.length; station++) {
+            Assert.assertEquals(TIMES[station].length, index.getEnd(station) - index.getStart(station));
+            for (int i = 0; i < TIMES[station].length; i++) {
+                Assert.assertEquals(TIMES[station][i], index.getTime(index.getStart(station) + i));
+                Assert.assertEquals(ROWS[station][i], index.getRow(index.getStart(station) + i));
+            }
+        }
+    }
+
+    @Test
+    public void testBuildRoundTrip() {
+        String location = newLocation("build");
+        assertIndex(RaggedTimeIndex.build(location, MODIFIED, TIMES, ROWS));
+        Assert.assertTrue(RaggedTimeIndex.getIndexFile(location).isFile());
+    }
+
+    @Test
+    public void testBinarySearch() {
+        RaggedTimeIndex index = RaggedTimeIndex.build(newLocation("search"), MODIFIED, TIMES, ROWS);
+        int start = index.getStart(0);
+        // inclusive window over the duplicated time
+        Assert.assertEquals(start + 1, index.findFirst(0, 2000L));
+        Assert.assertEquals(start + 3, index.findEnd(0, 2000L));
+        // between times
+        Assert.assertEquals(start + 3, index.findFirst(0, 2500L));
+        Assert.assertEquals(start + 3, index.findEnd(0, 2500L));
+        // outside the station's times
+        Assert.assertEquals(start, index.findFirst(0, Long.MIN_VALUE));
+        Assert.assertEquals(index.getEnd(0), index.findEnd(0, Long.MAX_VALUE));
+        Assert.assertEquals(index.getEnd(0), index.findFirst(0, 6000L));
+        Assert.assertEquals(start, index.findEnd(0, 999L));
+        // a station without observations
+        Assert.assertEquals(index.getStart(1), index.findFirst(1, 0L));
+        Assert.assertEquals(index.getStart(1), index.findEnd(1, Long.MAX_VALUE));
+        // the next station is not searched into
+        Assert.assertEquals(index.getStart(2), index.findFirst(2, 0L));
+        Assert.assertEquals(index.getEnd(2), index.findEnd(2, 4500L));
+    }
+
+    @Test
+    public void testReopenFromFile() {
+        String location = newLocation("reopen");
+        RaggedTimeIndex.build(location, MODIFIED, TIMES, ROWS);
+        RaggedTimeIndex.clear();
+        RaggedTimeIndex reopened = RaggedTimeIndex.get(location, MODIFIED);
+        assertIndex(reopened);
+        Assert.assertSame(reopened, RaggedTimeIndex.get(location, MODIFIED));
+    }
+
+    @Test
+    public void testMissingIndex() {
+        Assert.assertNull(RaggedTimeIndex.get(newLocation("missing"), MODIFIED));
+    }
+
+    @Test
+    public void testStaleIndexIsIgnored() {
+        String location = newLocation("stale");
+        RaggedTimeIndex.build(location, MODIFIED, TIMES, ROWS);
+        // in memory
+        Assert.assertNull(RaggedTimeIndex.get(location, MODIFIED + 1));
+        // and from the file
+        RaggedTimeIndex.clear();
+        Assert.assertNull(RaggedTimeIndex.get(location, MODIFIED + 1));
+        // rebuilt for the new time, the old one is gone
+        long[][] times = { { 1000L }, {}, {} };
+        int[][] rows = { { 0 }, {}, {} };
+        RaggedTimeIndex rebuilt = RaggedTimeIndex.build(location, MODIFIED + 1, times, rows);
+        Assert.assertEquals(1, rebuilt.getEnd(0));
+        RaggedTimeIndex.clear();
+        Assert.assertNull(RaggedTimeIndex.get(location, MODIFIED));
+    }
+
+    @Test
+    public void testOtherLocationWithSameFileName() {
+        // "Aa" and "BB" have the same hash code, so both map to the same sidecar file
+        String prefix = "/data/collide-" + System.nanoTime() + "-";
+        String first = prefix + "Aa";
+        String second = prefix + "BB";
+        locations.add(first);
+        Assert.assertEquals(RaggedTimeIndex.getIndexFile(first), RaggedTimeIndex.getIndexFile(second));
+        RaggedTimeIndex.build(first, MODIFIED, TIMES, ROWS);
+        RaggedTimeIndex.clear();
+        Assert.assertNull(RaggedTimeIndex.get(second, MODIFIED));
+        assertIndex(RaggedTimeIndex.get(first, MODIFIED));
+    }
+
+    @Test
+    public void testTruncatedIndexIsIgnored() throws Exception {
+        String location = newLocation("truncated");
+        RaggedTimeIndex.build(location, MODIFIED, TIMES, ROWS);
+        RaggedTimeIndex.clear();
+        File file = RaggedTimeIndex.getIndexFile(location);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(raf.length() - 6);
+        } finally {
+            raf.close();
+        }
+        Assert.assertNull(RaggedTimeIndex.get(location, MODIFIED));
+        // and is replaced by the next build
+        assertIndex(RaggedTimeIndex.build(location, MODIFIED, TIMES, ROWS));
+    }
+
+    @Test
+    public void testCorruptIndexIsIgnored() throws Exception {
+        String location = newLocation("corrupt");
+        File file = RaggedTimeIndex.getIndexFile(location);
+        file.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[] { 1, 2, 3 });
+        } finally {
+            out.close();
+        }
+        Assert.assertNull(RaggedTimeIndex.get(location, MODIFIED));
+    }
+}
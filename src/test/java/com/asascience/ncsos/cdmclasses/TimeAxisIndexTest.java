@@ -0,0 +1,66 @@
+package com.asascience.ncsos.cdmclasses;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class TimeAxisIndexTest {
+
+    private static final long HOUR = 3600000L;
+
+    private static TimeAxisIndex index(long... times) {
+        return new TimeAxisIndex(1L, times);
+    }
+
+    @Test
+    public void testFindNearest() {
+        TimeAxisIndex index = index(0, HOUR, 2 * HOUR, 3 * HOUR);
+        Assert.assertEquals(0, index.findNearest(-HOUR));
+        Assert.assertEquals(3, index.findNearest(10 * HOUR));
+        Assert.assertEquals(2, index.findNearest(2 * HOUR));
+        Assert.assertEquals(1, index.findNearest(HOUR + HOUR / 3));
+        Assert.assertEquals(2, index.findNearest(2 * HOUR - HOUR / 3));
+        // halfway goes to the earlier step
+        Assert.assertEquals(1, index.findNearest(HOUR + HOUR / 2));
+    }
+
+    @Test
+    public void testFindNearestExtremes() {
+        TimeAxisIndex index = index(-HOUR, HOUR);
+        Assert.assertEquals(0, index.findNearest(Long.MIN_VALUE));
+        Assert.assertEquals(1, index.findNearest(Long.MAX_VALUE));
+        Assert.assertEquals(-1, index().findNearest(0));
+        Assert.assertEquals(0, index(5).findNearest(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void testFindRange() {
+        TimeAxisIndex index = index(0, HOUR, HOUR, 2 * HOUR, 3 * HOUR);
+        assertRange(1, 3, index.findRange(HOUR, 2 * HOUR));
+        assertRange(1, 2, index.findRange(HOUR / 2, HOUR));
+        assertRange(0, 4, index.findRange(Long.MIN_VALUE, Long.MAX_VALUE));
+        assertRange(4, 4, index.findRange(3 * HOUR, Long.MAX_VALUE));
+        // windows between or beyond the steps are empty
+        assertEmpty(index.findRange(HOUR + 1, 2 * HOUR - 1));
+        assertEmpty(index.findRange(4 * HOUR, 5 * HOUR));
+        assertEmpty(index.findRange(Long.MIN_VALUE, -1));
+        assertEmpty(index().findRange(Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testUnsortedAxisIsScanned() {
+        TimeAxisIndex index = index(2 * HOUR, 0, 3 * HOUR, HOUR);
+        Assert.assertEquals(3, index.findNearest(HOUR + 1));
+        Assert.assertEquals(1, index.findNearest(-HOUR));
+        assertRange(1, 3, index.findRange(0, HOUR));
+        assertEmpty(index.findRange(4 * HOUR, 5 * HOUR));
+    }
+
+    private static void assertRange(int first, int last, int[] range) {
+        Assert.assertEquals(first, range[0]);
+        Assert.assertEquals(last, range[1]);
+    }
+
+    private static void assertEmpty(int[] range) {
+        Assert.assertTrue(range[1] < range[0]);
+    }
+}
@@ -0,0 +1,332 @@
+package com.asascience.ncsos.cdmclasses;
+
+import com.asascience.ncsos.util.DiscreteSamplingGeometryUtil;
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ucar.ma2.Array;
+import ucar.ma2.ArrayChar;
+import ucar.ma2.DataType;
+import ucar.nc2.Attribute;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.Variable;
+import ucar.nc2.constants.FeatureType;
+import ucar.nc2.dataset.NetcdfDataset;
+import ucar.nc2.ft.FeatureDataset;
+import ucar.nc2.ft.FeatureDatasetFactoryManager;
+import ucar.nc2.ft.StationTimeSeriesFeatureCollection;
+
+import java.io.File;
+import java.util.Formatter;
+
+/**
+ * Observations read by the array reader against the same stations read
+ * through the point feature iterator, for each of the CF 1.6 time series
+ * layouts the reader supports
+ */
+public class TimeSeriesArrayReaderTest {
+
+    private static final String[] STATIONS = { "north", "south", "east" };
+    private static final String[] VARIABLES = { "temp", "salinity", "quality" };
+    private static final double FILL = -9999.0;
+    private static final String TIME_UNITS = "hours since 2013-01-01 00:00:00";
+    private static final String[][] WINDOWS = {
+            null,
+            { "2013-01-01T01:00:00Z", "2013-01-01T03:00:00Z" },
+            { "2013-01-01T02:00:00Z" },
+            { "2013-02-01T00:00:00Z", "2013-03-01T00:00:00Z" } };
+
+    /**
+     * hours of the observations of each station; the east station has none
+     */
+    private static final double[][] HOURS = { { 0, 1, 2, 3, 4 }, { 1, 2.5, 4 }, {} };
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("timeseries", ".nc");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    // values of an observation, the same in every layout
+    private static float temp(int station, double hour) {
+        return (float) (10 * station + hour + 0.1);
+    }
+
+    private static double salinity(int station, double hour) {
+        return 30 + station + hour / 3;
+    }
+
+    private static int quality(int station, double hour) {
+        return (int) (station + 2 * hour);
+    }
+
+    @Test
+    public void testOrthogonal() throws Exception {
+        // every station on the hours 0 to 4, the observations missing from HOURS are filled
+        double[] hours = { 0, 1, 2, 3, 4 };
+        NetcdfFileWriter writer = create();
+        writer.addDimension(null, "time", hours.length);
+        Variable[] stations = addStations(writer);
+        Variable time = addTime(writer, "time");
+        Variable[] data = addData(writer, "station time");
+        writer.create();
+        writeStations(writer, stations);
+        writer.write(time, Array.factory(hours));
+        float[] temps = new float[STATIONS.length * hours.length];
+        double[] salinities = new double[temps.length];
+        int[] qualities = new int[temps.length];
+        for (int s = 0; s < STATIONS.length; s++) {
+            for (int t = 0; t < hours.length; t++) {
+                int i = s * hours.length + t;
+                boolean observed = contains(HOURS[s], hours[t]);
+                temps[i] = observed ? temp(s, hours[t]) : (float) FILL;
+                salinities[i] = observed ? salinity(s, hours[t]) : FILL;
+                qualities[i] = observed ? quality(s, hours[t]) : (int) FILL;
+            }
+        }
+        int[] shape = { STATIONS.length, hours.length };
+        writeData(writer, data, shape, temps, salinities, qualities);
+        writer.close();
+        assertArrayReadMatchesIterator();
+    }
+
+    @Test
+    public void testIncompleteMultidimensional() throws Exception {
+        int maxObs = 5;
+        NetcdfFileWriter writer = create();
+        writer.addDimension(null, "obs", maxObs);
+        Variable[] stations = addStations(writer);
+        Variable time = addTime(writer, "station obs");
+        Variable[] data = addData(writer, "station obs");
+        writer.create();
+        writeStations(writer, stations);
+        double[] times = new double[STATIONS.length * maxObs];
+        float[] temps = new float[times.length];
+        double[] salinities = new double[times.length];
+        int[] qualities = new int[times.length];
+        for (int s = 0; s < STATIONS.length; s++) {
+            for (int o = 0; o < maxObs; o++) {
+                int i = s * maxObs + o;
+                boolean observed = o < HOURS[s].length;
+                double hour = observed ? HOURS[s][o] : FILL;
+                times[i] = hour;
+                temps[i] = observed ? temp(s, hour) : (float) FILL;
+                salinities[i] = observed ? salinity(s, hour) : FILL;
+                qualities[i] = observed ? quality(s, hour) : (int) FILL;
+            }
+        }
+        int[] shape = { STATIONS.length, maxObs };
+        writer.write(time, Array.factory(DataType.DOUBLE, shape, times));
+        writeData(writer, data, shape, temps, salinities, qualities);
+        writer.close();
+        assertArrayReadMatchesIterator();
+    }
+
+    @Test
+    public void testContiguousRagged() throws Exception {
+        int nObs = HOURS[0].length + HOURS[1].length + HOURS[2].length;
+        NetcdfFileWriter writer = create();
+        writer.addDimension(null, "obs", nObs);
+        Variable[] stations = addStations(writer);
+        Variable rowSize = writer.addVariable(null, "row_size", DataType.INT, "station");
+        writer.addVariableAttribute(rowSize, new Attribute("sample_dimension", "obs"));
+        Variable time = addTime(writer, "obs");
+        Variable[] data = addData(writer, "obs");
+        writer.create();
+        writeStations(writer, stations);
+        int[] rowSizes = new int[STATIONS.length];
+        int[] stationOfObs = new int[nObs];
+        double[] hourOfObs = new double[nObs];
+        int o = 0;
+        for (int s = 0; s < STATIONS.length; s++) {
+            rowSizes[s] = HOURS[s].length;
+            for (double hour : HOURS[s]) {
+                stationOfObs[o] = s;
+                hourOfObs[o++] = hour;
+            }
+        }
+        writer.write(rowSize, Array.factory(rowSizes));
+        writeObservations(writer, time, data, stationOfObs, hourOfObs);
+        writer.close();
+        assertArrayReadMatchesIterator();
+    }
+
+    @Test
+    public void testIndexedRagged() throws Exception {
+        // the observations of the stations interleaved in time order
+        int nObs = HOURS[0].length + HOURS[1].length + HOURS[2].length;
+        NetcdfFileWriter writer = create();
+        writer.addDimension(null, "obs", nObs);
+        Variable[] stations = addStations(writer);
+        Variable stationIndex = writer.addVariable(null, "station_index", DataType.INT, "obs");
+        writer.addVariableAttribute(stationIndex, new Attribute("instance_dimension", "station"));
+        Variable time = addTime(writer, "obs");
+        Variable[] data = addData(writer, "obs");
+        writer.create();
+        writeStations(writer, stations);
+        int[] stationOfObs = new int[nObs];
+        double[] hourOfObs = new double[nObs];
+        int[] next = new int[STATIONS.length];
+        for (int o = 0; o < nObs; o++) {
+            // the station with the earliest observation not yet written
+            int station = -1;
+            for (int s = 0; s < STATIONS.length; s++) {
+                if (next[s] < HOURS[s].length && (station < 0 || HOURS[s][next[s]] < HOURS[station][next[station]])) {
+                    station = s;
+                }
+            }
+            stationOfObs[o] = station;
+            hourOfObs[o] = HOURS[station][next[station]++];
+        }
+        writer.write(stationIndex, Array.factory(stationOfObs));
+        writeObservations(writer, time, data, stationOfObs, hourOfObs);
+        writer.close();
+        assertArrayReadMatchesIterator();
+    }
+
+    /**
+     * Reads every station in every window through both paths and compares
+     * the observations
+     */
+    private void assertArrayReadMatchesIterator() throws Exception {
+        NetcdfDataset dataset = NetcdfDataset.openDataset(file.getPath());
+        try {
+            TimeSeriesArrayReader reader = TimeSeriesArrayReader.create(dataset);
+            Assert.assertNotNull("layout not recognized", reader);
+            FeatureDataset featureDataset = FeatureDatasetFactoryManager.wrap(FeatureType.STATION, dataset, null, new Formatter());
+            Assert.assertNotNull(featureDataset);
+            StationTimeSeriesFeatureCollection collection =
+                    (StationTimeSeriesFeatureCollection) DiscreteSamplingGeometryUtil.extractFeatureDatasetCollection(featureDataset);
+
+            for (int s = 0; s < STATIONS.length; s++) {
+                // the array reader must take the station, not leave it to the iterator
+                Assert.assertNotNull(STATIONS[s], reader.read(STATIONS[s], 0, VARIABLES, null));
+                for (String[] window : WINDOWS) {
+                    TimeSeries bulk = new TimeSeries(new String[] { STATIONS[s] }, window, VARIABLES);
+                    bulk.setData(collection);
+                    bulk.setNetcdfDataset(dataset);
+                    TimeSeries iterated = new TimeSeries(new String[] { STATIONS[s] }, window, VARIABLES);
+                    iterated.setData(collection);
+                    assertSameObservations(STATIONS[s], iterated.getDataBatch(0), bulk.getDataBatch(0));
+                }
+            }
+        } finally {
+            dataset.close();
+        }
+    }
+
+    private static void assertSameObservations(String station, ObservationBatch expected, ObservationBatch actual) {
+        Assert.assertFalse(expected.getError(), expected.hasError());
+        Assert.assertFalse(actual.getError(), actual.hasError());
+        Assert.assertEquals(station, expected.size(), actual.size());
+        for (int row = 0; row < expected.size(); row++) {
+            Assert.assertEquals(station, expected.getTime(row), actual.getTime(row));
+            Assert.assertEquals(station, expected.getStation(row), actual.getStation(row));
+            for (String variable : VARIABLES) {
+                int expectedColumn = expected.getColumnIndex(variable);
+                int actualColumn = actual.getColumnIndex(variable);
+                Assert.assertEquals(expected.getColumnType(expectedColumn), actual.getColumnType(actualColumn));
+                Assert.assertEquals(station + " " + variable, value(expected, expectedColumn, row), value(actual, actualColumn, row));
+            }
+        }
+    }
+
+    private static String value(ObservationBatch batch, int column, int row) {
+        StringBuilder out = new StringBuilder();
+        batch.appendValue(out, column, row);
+        return out.toString();
+    }
+
+    private static boolean contains(double[] values, double value) {
+        for (double v : values) {
+            if (v == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private NetcdfFileWriter create() throws Exception {
+        NetcdfFileWriter writer = NetcdfFileWriter.createNew(NetcdfFileWriter.Version.netcdf3, file.getPath());
+        writer.addGroupAttribute(null, new Attribute("Conventions", "CF-1.6"));
+        writer.addGroupAttribute(null, new Attribute("featureType", "timeSeries"));
+        writer.addDimension(null, "station", STATIONS.length);
+        writer.addDimension(null, "name_strlen", 8);
+        return writer;
+    }
+
+    private static Variable[] addStations(NetcdfFileWriter writer) {
+        Variable id = writer.addVariable(null, "station_name", DataType.CHAR, "station name_strlen");
+        writer.addVariableAttribute(id, new Attribute("cf_role", "timeseries_id"));
+        Variable lat = writer.addVariable(null, "lat", DataType.DOUBLE, "station");
+        writer.addVariableAttribute(lat, new Attribute("standard_name", "latitude"));
+        writer.addVariableAttribute(lat, new Attribute("units", "degrees_north"));
+        Variable lon = writer.addVariable(null, "lon", DataType.DOUBLE, "station");
+        writer.addVariableAttribute(lon, new Attribute("standard_name", "longitude"));
+        writer.addVariableAttribute(lon, new Attribute("units", "degrees_east"));
+        return new Variable[] { id, lat, lon };
+    }
+
+    private static void writeStations(NetcdfFileWriter writer, Variable[] stations) throws Exception {
+        ArrayChar.D2 names = new ArrayChar.D2(STATIONS.length, 8);
+        for (int s = 0; s < STATIONS.length; s++) {
+            names.setString(s, STATIONS[s]);
+        }
+        writer.write(stations[0], names);
+        writer.write(stations[1], Array.factory(new double[] { 42.5, 41.0, 41.75 }));
+        writer.write(stations[2], Array.factory(new double[] { -70.5, -71.25, -69.0 }));
+    }
+
+    private static Variable addTime(NetcdfFileWriter writer, String dims) {
+        Variable time = writer.addVariable(null, "time", DataType.DOUBLE, dims);
+        writer.addVariableAttribute(time, new Attribute("standard_name", "time"));
+        writer.addVariableAttribute(time, new Attribute("units", TIME_UNITS));
+        writer.addVariableAttribute(time, new Attribute("_FillValue", FILL));
+        return time;
+    }
+
+    private static Variable[] addData(NetcdfFileWriter writer, String dims) {
+        Variable temp = writer.addVariable(null, "temp", DataType.FLOAT, dims);
+        writer.addVariableAttribute(temp, new Attribute("_FillValue", (float) FILL));
+        Variable salinity = writer.addVariable(null, "salinity", DataType.DOUBLE, dims);
+        writer.addVariableAttribute(salinity, new Attribute("_FillValue", FILL));
+        Variable quality = writer.addVariable(null, "quality", DataType.INT, dims);
+        writer.addVariableAttribute(quality, new Attribute("_FillValue", (int) FILL));
+        for (Variable var : new Variable[] { temp, salinity, quality }) {
+            writer.addVariableAttribute(var, new Attribute("coordinates", "time lat lon"));
+        }
+        return new Variable[] { temp, salinity, quality };
+    }
+
+    private static void writeData(NetcdfFileWriter writer, Variable[] data, int[] shape,
+                                  float[] temps, double[] salinities, int[] qualities) throws Exception {
+        writer.write(data[0], Array.factory(DataType.FLOAT, shape, temps));
+        writer.write(data[1], Array.factory(DataType.DOUBLE, shape, salinities));
+        writer.write(data[2], Array.factory(DataType.INT, shape, qualities));
+    }
+
+    /**
+     * Writes the time and data of observations along the observation dimension
+     */
+    private static void writeObservations(NetcdfFileWriter writer, Variable time, Variable[] data,
+                                          int[] stationOfObs, double[] hourOfObs) throws Exception {
+        int nObs = stationOfObs.length;
+        float[] temps = new float[nObs];
+        double[] salinities = new double[nObs];
+        int[] qualities = new int[nObs];
+        for (int o = 0; o < nObs; o++) {
+            temps[o] = temp(stationOfObs[o], hourOfObs[o]);
+            salinities[o] = salinity(stationOfObs[o], hourOfObs[o]);
+            qualities[o] = quality(stationOfObs[o], hourOfObs[o]);
+        }
+        writer.write(time, Array.factory(hourOfObs));
+        writeData(writer, data, new int[] { nObs }, temps, salinities, qualities);
+    }
+}
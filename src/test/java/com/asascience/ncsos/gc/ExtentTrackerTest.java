@@ -0,0 +1,328 @@
+package com.asascience.ncsos.gc;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ucar.ma2.Array;
+import ucar.ma2.ArrayChar;
+import ucar.ma2.DataType;
+import ucar.nc2.Attribute;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.Variable;
+import ucar.nc2.constants.FeatureType;
+import ucar.nc2.dataset.NetcdfDataset;
+import ucar.nc2.time.CalendarDateRange;
+import ucar.unidata.geoloc.LatLonRect;
+
+import java.io.File;
+import java.util.HashMap;
+
+/**
+ * Extents extended with appended records must equal the extents computed
+ * from scratch by GetCapabilities, for every layout the tracker supports
+ */
+public class ExtentTrackerTest {
+
+    private static final long MODIFIED = 1380000000000L;
+    private static final String TIME_UNITS = "hours since 2013-01-01 00:00:00";
+
+    /**
+     * Writes a dataset holding the first records of a fixed sequence
+     */
+    private interface Fixture {
+        void write(String path, int records) throws Exception;
+    }
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("extents", ".nc");
+    }
+
+    @After
+    public void tearDown() {
+        ExtentTracker.clear();
+        file.delete();
+    }
+
+    // values of record r, the same whichever dataset holds it
+    private static double time(int r) {
+        return r;
+    }
+
+    private static double lat(int r) {
+        return 10 + 0.5 * r;
+    }
+
+    private static double lon(int r) {
+        return -70 - 0.25 * r;
+    }
+
+    @Test
+    public void testSingleTrajectory() throws Exception {
+        assertIncrementalMatchesFull(FeatureType.TRAJECTORY, new Fixture() {
+            public void write(String path, int records) throws Exception {
+                NetcdfFileWriter writer = create(path, "trajectory");
+                writer.addDimension(null, "obs", records);
+                writer.addDimension(null, "name_strlen", 8);
+                Variable id = writer.addVariable(null, "trajectory", DataType.CHAR, "name_strlen");
+                writer.addVariableAttribute(id, new Attribute("cf_role", "trajectory_id"));
+                Variable[] obs = addObservations(writer, "obs", true);
+                writer.create();
+                ArrayChar.D1 name = new ArrayChar.D1(8);
+                name.setString("glider");
+                writer.write(id, name);
+                writeObservations(writer, obs, 0, records);
+                writer.close();
+            }
+        }, 5, 9);
+    }
+
+    @Test
+    public void testOrthogonalTimeSeries() throws Exception {
+        assertIncrementalMatchesFull(FeatureType.STATION, new Fixture() {
+            public void write(String path, int records) throws Exception {
+                NetcdfFileWriter writer = create(path, "timeSeries");
+                writer.addDimension(null, "station", 2);
+                writer.addDimension(null, "time", records);
+                writer.addDimension(null, "name_strlen", 8);
+                Variable[] stations = addStations(writer);
+                Variable time = writer.addVariable(null, "time", DataType.DOUBLE, "time");
+                addAttributes(writer, time, "time", TIME_UNITS);
+                Variable temp = writer.addVariable(null, "temp", DataType.DOUBLE, "station time");
+                writer.addVariableAttribute(temp, new Attribute("coordinates", "time lat lon"));
+                writer.create();
+                writeStations(writer, stations);
+                double[] times = new double[records];
+                double[] temps = new double[2 * records];
+                for (int r = 0; r < records; r++) {
+                    times[r] = time(r);
+                    temps[r] = r;
+                    temps[records + r] = 2 * r;
+                }
+                writer.write(time, Array.factory(times));
+                writer.write(temp, Array.factory(DataType.DOUBLE, new int[] { 2, records }, temps));
+                writer.close();
+            }
+        }, 4, 7);
+    }
+
+    @Test
+    public void testContiguousRaggedTrajectories() throws Exception {
+        assertIncrementalMatchesFull(FeatureType.TRAJECTORY, contiguousRagged(3), 6, 11);
+    }
+
+    @Test
+    public void testContiguousRaggedWithRowsMovedIsComputedAgain() throws Exception {
+        // the first trajectory takes the appended rows
+        writeAndRecord(FeatureType.TRAJECTORY, contiguousRagged(3), 6);
+        contiguousRagged(5).write(file.getPath(), 11);
+        file.setLastModified(MODIFIED + 2000);
+        NetcdfDataset grown = NetcdfDataset.openDataset(file.getPath());
+        try {
+            Assert.assertNull(ExtentTracker.refresh(grown, FeatureType.TRAJECTORY));
+        } finally {
+            grown.close();
+        }
+    }
+
+    @Test
+    public void testIndexedRaggedTimeSeries() throws Exception {
+        assertIncrementalMatchesFull(FeatureType.STATION, new Fixture() {
+            public void write(String path, int records) throws Exception {
+                NetcdfFileWriter writer = create(path, "timeSeries");
+                writer.addDimension(null, "station", 2);
+                writer.addDimension(null, "obs", records);
+                writer.addDimension(null, "name_strlen", 8);
+                Variable[] stations = addStations(writer);
+                Variable index = writer.addVariable(null, "station_index", DataType.INT, "obs");
+                writer.addVariableAttribute(index, new Attribute("instance_dimension", "station"));
+                Variable[] obs = addObservations(writer, "obs", false);
+                writer.create();
+                writeStations(writer, stations);
+                // the stations take turns, the second one twice in a row
+                int[] owners = new int[records];
+                for (int r = 0; r < records; r++) {
+                    owners[r] = (r % 3 == 0) ? 0 : 1;
+                }
+                writer.write(index, Array.factory(owners));
+                writeObservations(writer, obs, 0, records);
+                writer.close();
+            }
+        }, 5, 12);
+    }
+
+    @Test
+    public void testUnchangedDatasetReturnsTheRecordedExtents() throws Exception {
+        Fixture fixture = contiguousRagged(3);
+        writeAndRecord(FeatureType.TRAJECTORY, fixture, 6);
+        NetcdfDataset dataset = NetcdfDataset.openDataset(file.getPath());
+        try {
+            ExtentTracker tracked = ExtentTracker.refresh(dataset, FeatureType.TRAJECTORY);
+            Assert.assertNotNull(tracked);
+            Assert.assertSame(tracked, ExtentTracker.refresh(dataset, FeatureType.TRAJECTORY));
+            // another feature type is not served from it
+            Assert.assertNull(ExtentTracker.refresh(dataset, FeatureType.STATION));
+        } finally {
+            dataset.close();
+        }
+    }
+
+    /**
+     * Two trajectories, the first with a fixed number of rows and the second
+     * with the rest
+     */
+    private static Fixture contiguousRagged(final int firstRows) {
+        return new Fixture() {
+            public void write(String path, int records) throws Exception {
+                NetcdfFileWriter writer = create(path, "trajectory");
+                writer.addDimension(null, "trajectory", 2);
+                writer.addDimension(null, "obs", records);
+                writer.addDimension(null, "name_strlen", 8);
+                Variable id = writer.addVariable(null, "trajectory_name", DataType.CHAR, "trajectory name_strlen");
+                writer.addVariableAttribute(id, new Attribute("cf_role", "trajectory_id"));
+                Variable rowSize = writer.addVariable(null, "row_size", DataType.INT, "trajectory");
+                writer.addVariableAttribute(rowSize, new Attribute("sample_dimension", "obs"));
+                Variable[] obs = addObservations(writer, "obs", true);
+                writer.create();
+                ArrayChar.D2 names = new ArrayChar.D2(2, 8);
+                names.setString(0, "first");
+                names.setString(1, "second");
+                writer.write(id, names);
+                writer.write(rowSize, Array.factory(new int[] { firstRows, records - firstRows }));
+                writeObservations(writer, obs, 0, records);
+                writer.close();
+            }
+        };
+    }
+
+    private static NetcdfFileWriter create(String path, String featureType) {
+        new File(path).delete();
+        NetcdfFileWriter writer = NetcdfFileWriter.createNew(NetcdfFileWriter.Version.netcdf3, path);
+        writer.addGroupAttribute(null, new Attribute("Conventions", "CF-1.6"));
+        writer.addGroupAttribute(null, new Attribute("featureType", featureType));
+        return writer;
+    }
+
+    private static void addAttributes(NetcdfFileWriter writer, Variable var, String standardName, String units) {
+        writer.addVariableAttribute(var, new Attribute("standard_name", standardName));
+        writer.addVariableAttribute(var, new Attribute("units", units));
+    }
+
+    /**
+     * Adds time, temperature and, when given per record, latitude and longitude along a dimension
+     * @return time, temp, lat and lon (null when not per record)
+     */
+    private static Variable[] addObservations(NetcdfFileWriter writer, String dim, boolean locations) {
+        Variable time = writer.addVariable(null, "time", DataType.DOUBLE, dim);
+        addAttributes(writer, time, "time", TIME_UNITS);
+        Variable temp = writer.addVariable(null, "temp", DataType.DOUBLE, dim);
+        writer.addVariableAttribute(temp, new Attribute("coordinates", "time lat lon"));
+        Variable lat = null;
+        Variable lon = null;
+        if (locations) {
+            lat = writer.addVariable(null, "lat", DataType.DOUBLE, dim);
+            addAttributes(writer, lat, "latitude", "degrees_north");
+            lon = writer.addVariable(null, "lon", DataType.DOUBLE, dim);
+            addAttributes(writer, lon, "longitude", "degrees_east");
+        }
+        return new Variable[] { time, temp, lat, lon };
+    }
+
+    private static void writeObservations(NetcdfFileWriter writer, Variable[] obs, int first, int records) throws Exception {
+        double[][] values = new double[4][records];
+        for (int r = 0; r < records; r++) {
+            values[0][r] = time(first + r);
+            values[1][r] = first + r;
+            values[2][r] = lat(first + r);
+            values[3][r] = lon(first + r);
+        }
+        for (int v = 0; v < obs.length; v++) {
+            if (obs[v] != null) {
+                writer.write(obs[v], Array.factory(values[v]));
+            }
+        }
+    }
+
+    /**
+     * @return station_name, lat and lon, one per station
+     */
+    private static Variable[] addStations(NetcdfFileWriter writer) {
+        Variable id = writer.addVariable(null, "station_name", DataType.CHAR, "station name_strlen");
+        writer.addVariableAttribute(id, new Attribute("cf_role", "timeseries_id"));
+        Variable lat = writer.addVariable(null, "lat", DataType.DOUBLE, "station");
+        addAttributes(writer, lat, "latitude", "degrees_north");
+        Variable lon = writer.addVariable(null, "lon", DataType.DOUBLE, "station");
+        addAttributes(writer, lon, "longitude", "degrees_east");
+        return new Variable[] { id, lat, lon };
+    }
+
+    private static void writeStations(NetcdfFileWriter writer, Variable[] stations) throws Exception {
+        ArrayChar.D2 names = new ArrayChar.D2(2, 8);
+        names.setString(0, "north");
+        names.setString(1, "south");
+        writer.write(stations[0], names);
+        writer.write(stations[1], Array.factory(new double[] { 42.5, 41.0 }));
+        writer.write(stations[2], Array.factory(new double[] { -70.5, -71.25 }));
+    }
+
+    /**
+     * Writes a dataset and computes its extents through GetCapabilities, which records them
+     */
+    private void writeAndRecord(FeatureType featureType, Fixture fixture, int records) throws Exception {
+        fixture.write(file.getPath(), records);
+        file.setLastModified(MODIFIED);
+        NetcdfDataset dataset = NetcdfDataset.openDataset(file.getPath());
+        try {
+            new GetCapabilitiesRequestHandler(dataset, "http://localhost/thredds/sos/extents.nc", "all");
+            Assert.assertNotNull("extents were not recorded", ExtentTracker.refresh(dataset, featureType));
+        } finally {
+            dataset.close();
+        }
+    }
+
+    private void assertIncrementalMatchesFull(FeatureType featureType, Fixture fixture, int before, int after) throws Exception {
+        writeAndRecord(featureType, fixture, before);
+
+        fixture.write(file.getPath(), after);
+        file.setLastModified(MODIFIED + 2000);
+        NetcdfDataset grown = NetcdfDataset.openDataset(file.getPath());
+        try {
+            ExtentTracker incremental = ExtentTracker.refresh(grown, featureType);
+            Assert.assertNotNull("extents were not extended", incremental);
+
+            ExtentTracker.clear();
+            new GetCapabilitiesRequestHandler(grown, "http://localhost/thredds/sos/extents.nc", "all");
+            ExtentTracker full = ExtentTracker.refresh(grown, featureType);
+            Assert.assertNotNull(full);
+            Assert.assertNotSame(incremental, full);
+
+            Assert.assertEquals(full.getStart().getMillis(), incremental.getStart().getMillis());
+            Assert.assertEquals(full.getEnd().getMillis(), incremental.getEnd().getMillis());
+            HashMap<Integer, CalendarDateRange> fullRanges = full.getDateRanges();
+            HashMap<Integer, CalendarDateRange> ranges = incremental.getDateRanges();
+            Assert.assertEquals(fullRanges.keySet(), ranges.keySet());
+            for (Integer feature : fullRanges.keySet()) {
+                Assert.assertEquals(fullRanges.get(feature).getStart().getMillis(), ranges.get(feature).getStart().getMillis());
+                Assert.assertEquals(fullRanges.get(feature).getEnd().getMillis(), ranges.get(feature).getEnd().getMillis());
+            }
+            HashMap<Integer, LatLonRect> fullBoxes = full.getBoundingBoxes();
+            HashMap<Integer, LatLonRect> boxes = incremental.getBoundingBoxes();
+            Assert.assertEquals(fullBoxes.keySet(), boxes.keySet());
+            for (Integer feature : fullBoxes.keySet()) {
+                LatLonRect expected = fullBoxes.get(feature);
+                LatLonRect actual = boxes.get(feature);
+                Assert.assertEquals(expected.getLatMin(), actual.getLatMin(), 1e-9);
+                Assert.assertEquals(expected.getLatMax(), actual.getLatMax(), 1e-9);
+                Assert.assertEquals(expected.getLonMin(), actual.getLonMin(), 1e-9);
+                Assert.assertEquals(expected.getLonMax(), actual.getLonMax(), 1e-9);
+            }
+            // the appended records did move the extents
+            Assert.assertEquals((long) (time(after - 1) * 3600000L), incremental.getEnd().getMillis() - incremental.getStart().getMillis());
+        } finally {
+            grown.close();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.asascience.ncsos.outputformatter;
+
+import com.asascience.ncsos.service.Parser;
+import junit.framework.Assert;
+import org.jdom.CDATA;
+import org.jdom.Comment;
+import org.jdom.Document;
+import org.jdom.Element;
+import org.jdom.Namespace;
+import org.jdom.input.SAXBuilder;
+import org.jdom.output.Format;
+import org.jdom.output.XMLOutputter;
+import org.junit.Test;
+import ucar.nc2.dataset.NetcdfDataset;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Output of the streaming outputter against XMLOutputter with the pretty
+ * format, which wrote the responses before values were streamed
+ */
+public class StreamingXMLOutputterTest {
+
+    private static final Namespace SWE = Namespace.getNamespace("swe", "http://www.opengis.net/swe/1.0.1");
+    private static final Namespace XLINK = Namespace.getNamespace("xlink", "http://www.w3.org/1999/xlink");
+    private static final String DATASET = "resources/datasets/cf_templates/timeSeries-Orthogonal-Multidimensional-MultipleStations-H.2.1.nc";
+
+    private static String prettyPrint(Document document) throws IOException {
+        StringWriter writer = new StringWriter();
+        new XMLOutputter(Format.getPrettyFormat()).output(document, writer);
+        return writer.toString();
+    }
+
+    private static StreamingXMLOutputter.ContentStreamer streamer(final String... chunks) {
+        return new StreamingXMLOutputter.ContentStreamer() {
+            public void writeContent(Writer out) throws IOException {
+                for (String chunk : chunks) {
+                    out.write(chunk);
+                }
+            }
+        };
+    }
+
+    @Test
+    public void testMatchesXMLOutputter() throws Exception {
+        Element root = new Element("Collection", Namespace.getNamespace("om", "http://www.opengis.net/om/1.0"));
+        root.addNamespaceDeclaration(SWE);
+        Document document = new Document(root);
+        root.addContent(new Comment(" a comment "));
+        // escaping of text and attributes, and an attribute namespace declared on its element
+        Element member = new Element("member", root.getNamespace());
+        member.setAttribute("href", "urn:a&b", XLINK);
+        member.setAttribute("separators", "\n\t\r\"<>");
+        member.setText("  1 < 2 & 3 > 2\r\n");
+        root.addContent(member);
+        // empty and whitespace only elements
+        root.addContent(new Element("empty", SWE));
+        root.addContent(new Element("blank", SWE).setText("  \n "));
+        root.addContent(new Element("cdata", SWE).addContent(new CDATA("<raw>")));
+        Element nested = new Element("nested", Namespace.getNamespace("http://example.com/default"));
+        nested.addContent(new Element("child", Namespace.getNamespace("http://example.com/default")).setText("text"));
+        root.addContent(nested);
+        Element values = new Element("values", SWE);
+        values.setAttribute("count", "2");
+        root.addContent(values);
+        Element none = new Element("none", SWE);
+        root.addContent(none);
+
+        StreamingXMLOutputter outputter = new StreamingXMLOutputter();
+        outputter.setContentStreamer(values, streamer("2013-01-01T00:00:00Z,a<b", "", " & c>d\n", "2013-01-01T01:00:00Z,x"));
+        outputter.setContentStreamer(none, streamer());
+        StringWriter streamed = new StringWriter();
+        outputter.output(document, streamed);
+        // the streamed elements are restored
+        Assert.assertEquals(0, values.getContentSize());
+
+        values.setText("2013-01-01T00:00:00Z,a<b & c>d\n2013-01-01T01:00:00Z,x");
+        Assert.assertEquals(prettyPrint(document), streamed.toString());
+    }
+
+    @Test
+    public void testElementsOutsideTheDocumentAreIgnored() throws Exception {
+        Document document = new Document(new Element("root", SWE));
+        StreamingXMLOutputter outputter = new StreamingXMLOutputter();
+        outputter.setContentStreamer(new Element("values", SWE), streamer("not written"));
+        StringWriter streamed = new StringWriter();
+        outputter.output(document, streamed);
+        Assert.assertEquals(prettyPrint(document), streamed.toString());
+    }
+
+    @Test
+    public void testOosTethysResponseMatchesXMLOutputter() throws Exception {
+        assertResponseMatchesXMLOutputter("text/xml;subtype=\"om/1.0.0\"");
+    }
+
+    @Test
+    public void testIoos10ResponseMatchesXMLOutputter() throws Exception {
+        assertResponseMatchesXMLOutputter("text/xml;subtype=\"om/1.0.0/profiles/ioos_sos/1.0\"");
+    }
+
+    /**
+     * Streams a GetObservation response, then prints the formatter's
+     * document with the streamed values put back as text through
+     * XMLOutputter and compares the two
+     */
+    private static void assertResponseMatchesXMLOutputter(String responseFormat) throws Exception {
+        String path = new File(DATASET).getAbsolutePath();
+        String query = "request=GetObservation&service=SOS&version=1.0.0"
+                + "&responseFormat=" + URLEncoder.encode(responseFormat, "UTF-8")
+                + "&offering=urn:ioos:network:ncsos:all"
+                + "&procedure=urn:ioos:station:ncsos:Station-0,urn:ioos:station:ncsos:Station-1"
+                + "&observedProperty=air_temperature";
+        NetcdfDataset dataset = NetcdfDataset.openDataset(path);
+        try {
+            OutputFormatter formatter = (OutputFormatter) new Parser().enhanceGETRequest(dataset, query, path).get(Parser.OUTPUT_FORMATTER);
+            StringWriter streamed = new StringWriter();
+            formatter.writeOutput(streamed);
+
+            // put the streamed values back into the elements that were streamed
+            List<Element> parsedValues = findValues(new SAXBuilder().build(new StringReader(streamed.toString())));
+            List<Element> documentValues = findValues(formatter.document);
+            Assert.assertEquals(parsedValues.size(), documentValues.size());
+            int streamedCount = 0;
+            for (int i = 0; i < documentValues.size(); i++) {
+                if (documentValues.get(i).getContentSize() == 0 && parsedValues.get(i).getText().length() > 0) {
+                    documentValues.get(i).setText(parsedValues.get(i).getText());
+                    streamedCount++;
+                }
+            }
+            Assert.assertTrue(streamedCount > 0);
+            Assert.assertEquals(prettyPrint(formatter.document), streamed.toString());
+        } finally {
+            dataset.close();
+        }
+    }
+
+    private static List<Element> findValues(Document document) {
+        List<Element> values = new ArrayList<Element>();
+        for (Iterator it = document.getDescendants(); it.hasNext();) {
+            Object o = it.next();
+            if (o instanceof Element && ((Element) o).getName().equals("values")) {
+                values.add((Element) o);
+            }
+        }
+        return values;
+    }
+}
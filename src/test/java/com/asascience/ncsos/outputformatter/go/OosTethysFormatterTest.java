@@ -0,0 +1,69 @@
+package com.asascience.ncsos.outputformatter.go;
+
+import com.asascience.ncsos.cdmclasses.ObservationBatch;
+import com.asascience.ncsos.go.GetObservationRequestHandler;
+import junit.framework.Assert;
+import org.jdom.Document;
+import org.jdom.Element;
+import org.jdom.input.SAXBuilder;
+import org.junit.Test;
+import ucar.nc2.dataset.NetcdfDataset;
+
+import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Stations whose observations cannot be read while an OOSTethys response is
+ * being streamed
+ */
+public class OosTethysFormatterTest {
+
+    private static final String DATASET = "resources/datasets/cf_templates/timeSeries-Orthogonal-Multidimensional-MultipleStations-H.2.1.nc";
+    private static final String ERROR = "ERROR =reading data from dataset: forced";
+
+    @Test
+    public void testBatchErrorIsWrittenInPlaceOfTheValues() throws Exception {
+        NetcdfDataset dataset = NetcdfDataset.openDataset(new File(DATASET).getAbsolutePath());
+        try {
+            GetObservationRequestHandler handler = new GetObservationRequestHandler(dataset,
+                    new String[] { "urn:ioos:station:ncsos:Station-0", "urn:ioos:station:ncsos:Station-1" },
+                    "urn:ioos:network:ncsos:all", new String[] { "air_temperature" }, null,
+                    GetObservationRequestHandler.OOSTETHYS_RESPONSE_FORMAT, new HashMap<String, String>()) {
+                @Override
+                public ObservationBatch getObservationBatch(int relIndex) {
+                    ObservationBatch batch = new ObservationBatch(new String[] { "temperature" });
+                    if (relIndex == 1) {
+                        batch.setError(ERROR);
+                    } else {
+                        batch.setDouble(0, batch.addRow(631152000000L, relIndex), 18.5);
+                    }
+                    return batch;
+                }
+            };
+            StringWriter writer = new StringWriter();
+            handler.getOutputFormatter().writeOutput(writer);
+
+            Document response = new SAXBuilder().build(new StringReader(writer.toString()));
+            Assert.assertEquals("ObservationCollection", response.getRootElement().getName());
+            int stations = 0;
+            for (Iterator it = response.getDescendants(); it.hasNext();) {
+                Object o = it.next();
+                if (o instanceof Element && ((Element) o).getName().equals("values")) {
+                    String values = ((Element) o).getText();
+                    if (stations == 0) {
+                        Assert.assertEquals("1990-01-01T00:00:00Z,18.5", values);
+                    } else {
+                        Assert.assertEquals(ERROR, values);
+                    }
+                    stations++;
+                }
+            }
+            Assert.assertEquals(2, stations);
+        } finally {
+            dataset.close();
+        }
+    }
+}
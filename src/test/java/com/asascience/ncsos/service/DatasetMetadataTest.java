@@ -0,0 +1,106 @@
+package com.asascience.ncsos.service;
+
+import com.asascience.ncsos.gc.GetCapabilitiesRequestHandler;
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ucar.nc2.dataset.NetcdfDataset;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Hits and misses of the dataset metadata cache, which is keyed by dataset
+ * location and request uri and invalidated by the last modified time
+ */
+public class DatasetMetadataTest {
+
+    private static final String DATASET = "resources/datasets/cf_templates/timeSeries-Orthogonal-Multidimensional-MultipleStations-H.2.1.nc";
+    private static final long MODIFIED = 1380000000000L;
+    private static final String URI = "http://localhost/thredds/sos/stations.nc?";
+    // the same file served under another catalog path
+    private static final String OTHER_URI = "http://localhost/thredds/sos/wrapped/stations.nc?";
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        DatasetMetadata.clear();
+        file = File.createTempFile("metadata", ".nc");
+        Files.copy(new File(DATASET).toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        file.setLastModified(MODIFIED);
+    }
+
+    @After
+    public void tearDown() {
+        DatasetMetadata.clear();
+        file.delete();
+    }
+
+    @Test
+    public void testCachedPerDatasetUri() throws Exception {
+        NetcdfDataset dataset = NetcdfDataset.openDataset(file.getPath());
+        try {
+            Assert.assertNull(DatasetMetadata.get(dataset, URI));
+            new GetCapabilitiesRequestHandler(dataset, URI, "all");
+            DatasetMetadata metadata = DatasetMetadata.get(dataset, URI);
+            Assert.assertNotNull(metadata);
+            Assert.assertEquals(MODIFIED, metadata.getLastModified());
+            Assert.assertTrue(metadata.getStationNames().containsValue("Station-0"));
+
+            // a second request by the same uri is served from the cache
+            new GetCapabilitiesRequestHandler(dataset, URI, "all");
+            Assert.assertSame(metadata, DatasetMetadata.get(dataset, URI));
+
+            // other uris of the same location are scanned on their own
+            Assert.assertNull(DatasetMetadata.get(dataset, OTHER_URI));
+            Assert.assertNull(DatasetMetadata.get(dataset, null));
+            new GetCapabilitiesRequestHandler(dataset, OTHER_URI, "all");
+            DatasetMetadata other = DatasetMetadata.get(dataset, OTHER_URI);
+            Assert.assertNotNull(other);
+            Assert.assertNotSame(metadata, other);
+            Assert.assertSame(metadata, DatasetMetadata.get(dataset, URI));
+        } finally {
+            dataset.close();
+        }
+    }
+
+    @Test
+    public void testModifiedDatasetMisses() throws Exception {
+        NetcdfDataset dataset = NetcdfDataset.openDataset(file.getPath());
+        try {
+            new GetCapabilitiesRequestHandler(dataset, URI, "all");
+            Assert.assertNotNull(DatasetMetadata.get(dataset, URI));
+        } finally {
+            dataset.close();
+        }
+
+        file.setLastModified(MODIFIED + 2000);
+        NetcdfDataset modified = NetcdfDataset.openDataset(file.getPath());
+        try {
+            Assert.assertNull(DatasetMetadata.get(modified, URI));
+            // the next request scans the dataset again and replaces the entry
+            new GetCapabilitiesRequestHandler(modified, URI, "all");
+            DatasetMetadata metadata = DatasetMetadata.get(modified, URI);
+            Assert.assertNotNull(metadata);
+            Assert.assertEquals(MODIFIED + 2000, metadata.getLastModified());
+        } finally {
+            modified.close();
+        }
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        NetcdfDataset dataset = NetcdfDataset.openDataset(file.getPath());
+        try {
+            new GetCapabilitiesRequestHandler(dataset, URI, "all");
+            Assert.assertNotNull(DatasetMetadata.get(dataset, URI));
+            DatasetMetadata.clear();
+            Assert.assertNull(DatasetMetadata.get(dataset, URI));
+        } finally {
+            dataset.close();
+        }
+    }
+}
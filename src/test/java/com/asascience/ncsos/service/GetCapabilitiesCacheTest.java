@@ -0,0 +1,131 @@
+package com.asascience.ncsos.service;
+
+import com.asascience.ncsos.outputformatter.CachedResponseFormatter;
+import com.asascience.ncsos.outputformatter.OutputFormatter;
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ucar.nc2.dataset.NetcdfDataset;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Invalidation of cached GetCapabilities responses by the modified time of
+ * the dataset, and eviction once the character budget is used up
+ */
+public class GetCapabilitiesCacheTest {
+
+    private static final String DATASET = "resources/datasets/cf_templates/timeSeries-Orthogonal-Multidimensional-MultipleStations-H.2.1.nc";
+    private static final long MODIFIED = 1380000000000L;
+    private static final String URI = "http://localhost/thredds/sos/stations.nc?";
+    // the largest response that is cached, a quarter of the 16M character budget
+    private static final int MAX_RESPONSE_CHARS = 4 * 1024 * 1024;
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        GetCapabilitiesCache.clear();
+        file = File.createTempFile("capabilities", ".nc");
+        Files.copy(new File(DATASET).toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        file.setLastModified(MODIFIED);
+    }
+
+    @After
+    public void tearDown() {
+        GetCapabilitiesCache.clear();
+        file.delete();
+    }
+
+    private static OutputFormatter response(char c, int length) {
+        char[] content = new char[length];
+        Arrays.fill(content, c);
+        return new CachedResponseFormatter(new String(content), "text/xml");
+    }
+
+    private static String write(OutputFormatter formatter) throws Exception {
+        StringWriter writer = new StringWriter();
+        formatter.writeOutput(writer);
+        return writer.toString();
+    }
+
+    @Test
+    public void testKeyIgnoresSectionOrderAndCase() throws Exception {
+        NetcdfDataset dataset = NetcdfDataset.openDataset(file.getPath());
+        try {
+            Assert.assertEquals(GetCapabilitiesCache.createKey(dataset, URI, "Contents, ServiceIdentification"),
+                    GetCapabilitiesCache.createKey(dataset, URI, "serviceidentification,contents"));
+            Assert.assertFalse(GetCapabilitiesCache.createKey(dataset, URI, "all").equals(
+                    GetCapabilitiesCache.createKey(dataset, "http://localhost/thredds/sos/other.nc?", "all")));
+        } finally {
+            dataset.close();
+        }
+    }
+
+    @Test
+    public void testModifiedDatasetMisses() throws Exception {
+        NetcdfDataset dataset = NetcdfDataset.openDataset(file.getPath());
+        String key;
+        try {
+            key = GetCapabilitiesCache.createKey(dataset, URI, "all");
+            GetCapabilitiesCache.put(dataset, key, response('a', 100));
+            OutputFormatter cached = GetCapabilitiesCache.get(dataset, key);
+            Assert.assertNotNull(cached);
+            Assert.assertEquals(100, write(cached).length());
+        } finally {
+            dataset.close();
+        }
+
+        file.setLastModified(MODIFIED + 2000);
+        NetcdfDataset modified = NetcdfDataset.openDataset(file.getPath());
+        try {
+            Assert.assertEquals(MODIFIED + 2000, modified.getLastModified());
+            Assert.assertNull(GetCapabilitiesCache.get(modified, key));
+            // the stale entry was dropped, so the new response is cached in its place
+            GetCapabilitiesCache.put(modified, key, response('b', 100));
+            Assert.assertEquals('b', write(GetCapabilitiesCache.get(modified, key)).charAt(0));
+        } finally {
+            modified.close();
+        }
+    }
+
+    @Test
+    public void testBudgetEvictsTheLeastRecentlyUsed() throws Exception {
+        NetcdfDataset dataset = NetcdfDataset.openDataset(file.getPath());
+        try {
+            // four of the largest responses fill the budget
+            String[] keys = new String[5];
+            for (int i = 0; i < 4; i++) {
+                keys[i] = GetCapabilitiesCache.createKey(dataset, URI, "section" + i);
+                GetCapabilitiesCache.put(dataset, keys[i], response((char) ('a' + i), MAX_RESPONSE_CHARS));
+            }
+            for (int i = 0; i < 4; i++) {
+                Assert.assertNotNull(GetCapabilitiesCache.get(dataset, keys[i]));
+            }
+            // the first response was used last, so the second is now the eldest
+            Assert.assertNotNull(GetCapabilitiesCache.get(dataset, keys[0]));
+
+            keys[4] = GetCapabilitiesCache.createKey(dataset, URI, "section4");
+            GetCapabilitiesCache.put(dataset, keys[4], response('e', 10));
+            Assert.assertNull(GetCapabilitiesCache.get(dataset, keys[1]));
+            Assert.assertNotNull(GetCapabilitiesCache.get(dataset, keys[0]));
+            Assert.assertNotNull(GetCapabilitiesCache.get(dataset, keys[2]));
+            Assert.assertNotNull(GetCapabilitiesCache.get(dataset, keys[3]));
+            Assert.assertNotNull(GetCapabilitiesCache.get(dataset, keys[4]));
+
+            // a response larger than a quarter of the budget is served but not cached
+            String large = GetCapabilitiesCache.createKey(dataset, URI, "large");
+            OutputFormatter served = GetCapabilitiesCache.put(dataset, large, response('f', MAX_RESPONSE_CHARS + 1));
+            Assert.assertEquals(MAX_RESPONSE_CHARS + 1, ((CachedResponseFormatter) served).length());
+            Assert.assertNull(GetCapabilitiesCache.get(dataset, large));
+            Assert.assertNotNull(GetCapabilitiesCache.get(dataset, keys[4]));
+        } finally {
+            dataset.close();
+        }
+    }
+}
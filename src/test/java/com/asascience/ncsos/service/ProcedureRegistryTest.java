@@ -0,0 +1,122 @@
+package com.asascience.ncsos.service;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Case-insensitive station, sensor and network lookups of the procedure
+ * registry, with plain and URN station names
+ */
+public class ProcedureRegistryTest {
+
+    private static final String AUTHORITY = "Test.Authority";
+
+    /**
+     * @param names station names, keyed by their position plus 10 so that
+     * keys are not confused with positions
+     */
+    private static ProcedureRegistry registry(String... names) {
+        Map<Integer, String> stations = new LinkedHashMap<Integer, String>();
+        for (int i = 0; i < names.length; i++) {
+            stations.put(i + 10, names[i]);
+        }
+        return new ProcedureRegistry(AUTHORITY, stations, Arrays.asList("Temperature", "sea_water_salinity"));
+    }
+
+    @Test
+    public void testStationNamesAndUrnsIgnoreCase() {
+        ProcedureRegistry registry = registry("Buoy-A", "buoy-b");
+        Assert.assertEquals(10, registry.getStationIndex("Buoy-A"));
+        Assert.assertEquals(10, registry.getStationIndex("buoy-a"));
+        Assert.assertEquals(10, registry.getStationIndex("BUOY-A"));
+        Assert.assertEquals(11, registry.getStationIndex("Buoy-B"));
+        // station URNs resolve to the same station as the name
+        Assert.assertEquals(10, registry.getStationIndex("urn:ioos:station:Test.Authority:Buoy-A"));
+        Assert.assertEquals(10, registry.getStationIndex("URN:IOOS:STATION:test.authority:buoy-a"));
+        Assert.assertTrue(registry.isStationUrn("urn:ioos:station:test.authority:BUOY-B"));
+        Assert.assertTrue(registry.isProcedure("urn:ioos:station:test.authority:BUOY-B"));
+        // a bare name is not a procedure
+        Assert.assertFalse(registry.isStationUrn("Buoy-A"));
+        Assert.assertFalse(registry.isProcedure("Buoy-A"));
+        Assert.assertEquals(-1, registry.getStationIndex("buoy-c"));
+        Assert.assertEquals(-1, registry.getStationIndex("urn:ioos:station:other:buoy-a"));
+        Assert.assertEquals(-1, registry.getStationIndex(null));
+    }
+
+    @Test
+    public void testFirstStationWinsWhenNamesOnlyDifferInCase() {
+        ProcedureRegistry registry = registry("Buoy", "BUOY");
+        Assert.assertEquals(10, registry.getStationIndex("BUOY"));
+        Assert.assertEquals(10, registry.getStationIndex("urn:ioos:station:test.authority:buoy"));
+        Assert.assertEquals(10, registry.getSensorStationIndex("urn:ioos:sensor:test.authority:BUOY:temperature"));
+    }
+
+    @Test
+    public void testUrnNamedStations() {
+        String name = "urn:ioos:station:other.authority:Pier-7";
+        Assert.assertEquals(name, ProcedureRegistry.stationUrn(AUTHORITY, name));
+        Assert.assertEquals("urn:ioos:station:Test.Authority:Pier-7", ProcedureRegistry.stationUrn(AUTHORITY, "Pier-7"));
+        // sensor URNs use the last part of a station URN
+        Assert.assertEquals("urn:ioos:sensor:Test.Authority:Pier-7:Temperature",
+                ProcedureRegistry.sensorUrn(AUTHORITY, name, "Temperature"));
+
+        ProcedureRegistry registry = registry(name);
+        Assert.assertEquals(10, registry.getStationIndex(name));
+        Assert.assertEquals(10, registry.getStationIndex(name.toUpperCase()));
+        Assert.assertTrue(registry.isStationUrn(name));
+        // the URN is kept as it is, not moved to the naming authority of the dataset
+        Assert.assertFalse(registry.isStationUrn("urn:ioos:station:test.authority:pier-7"));
+        Assert.assertEquals(10, registry.getSensorStationIndex("urn:ioos:sensor:test.authority:pier-7:temperature"));
+        Assert.assertEquals(-1, registry.getSensorStationIndex("urn:ioos:sensor:test.authority:" + name + ":temperature"));
+    }
+
+    @Test
+    public void testSensorUrnsAreSplitIntoStationAndSensor() {
+        ProcedureRegistry registry = registry("Buoy-A", "Buoy:B");
+        String urn = "urn:ioos:sensor:test.authority:buoy-a:SEA_WATER_SALINITY";
+        Assert.assertEquals(10, registry.getSensorStationIndex(urn));
+        // the sensor keeps the case of its variable
+        Assert.assertEquals("sea_water_salinity", registry.getSensorName(urn));
+        Assert.assertEquals("Temperature", registry.getSensorName("URN:IOOS:SENSOR:TEST.AUTHORITY:BUOY-A:TEMPERATURE"));
+        Assert.assertTrue(registry.isProcedure(urn));
+        // the sensor is the part after the last colon, so station names may hold colons
+        Assert.assertEquals(11, registry.getSensorStationIndex("urn:ioos:sensor:test.authority:buoy:b:temperature"));
+
+        Assert.assertEquals(-1, registry.getSensorStationIndex("urn:ioos:sensor:test.authority:buoy-a:wind"));
+        Assert.assertNull(registry.getSensorName("urn:ioos:sensor:test.authority:buoy-a:wind"));
+        Assert.assertEquals(-1, registry.getSensorStationIndex("urn:ioos:sensor:test.authority:buoy-c:temperature"));
+        Assert.assertNull(registry.getSensorName("urn:ioos:sensor:test.authority:buoy-c:temperature"));
+        // wrong prefix or authority
+        Assert.assertEquals(-1, registry.getSensorStationIndex("urn:ioos:station:test.authority:buoy-a:temperature"));
+        Assert.assertEquals(-1, registry.getSensorStationIndex("urn:ioos:sensor:other:buoy-a:temperature"));
+        // no sensor part
+        Assert.assertEquals(-1, registry.getSensorStationIndex("urn:ioos:sensor:test.authority:buoy-a"));
+        Assert.assertEquals(-1, registry.getSensorStationIndex("urn:ioos:sensor:test.authority:"));
+        Assert.assertEquals(-1, registry.getSensorStationIndex(null));
+        Assert.assertFalse(registry.isProcedure("urn:ioos:sensor:test.authority:buoy-a:wind"));
+    }
+
+    @Test
+    public void testNetworkAll() {
+        ProcedureRegistry registry = registry("Buoy-A");
+        Assert.assertEquals("urn:ioos:network:Test.Authority:all", ProcedureRegistry.networkAllUrn(AUTHORITY));
+        Assert.assertTrue(registry.isNetworkAll("urn:ioos:network:Test.Authority:all"));
+        Assert.assertTrue(registry.isNetworkAll("URN:IOOS:NETWORK:TEST.AUTHORITY:ALL"));
+        Assert.assertTrue(registry.isProcedure("urn:ioos:network:test.authority:all"));
+        Assert.assertFalse(registry.isNetworkAll("urn:ioos:network:other:all"));
+        Assert.assertFalse(registry.isNetworkAll(null));
+        Assert.assertFalse(registry.isProcedure(null));
+    }
+
+    @Test
+    public void testEmptyDataset() {
+        ProcedureRegistry registry = new ProcedureRegistry(AUTHORITY, null, null);
+        Assert.assertEquals(-1, registry.getStationIndex("Buoy-A"));
+        Assert.assertEquals(-1, registry.getSensorStationIndex("urn:ioos:sensor:test.authority:buoy-a:temperature"));
+        Assert.assertTrue(registry.isNetworkAll("urn:ioos:network:test.authority:all"));
+    }
+}
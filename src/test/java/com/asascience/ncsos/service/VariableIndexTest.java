@@ -0,0 +1,78 @@
+package com.asascience.ncsos.service;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ucar.ma2.DataType;
+import ucar.nc2.Attribute;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.Variable;
+import ucar.nc2.dataset.NetcdfDataset;
+
+import java.io.File;
+
+/**
+ * Lookups of the variable index by variable name and by standard_name, both
+ * of which match in any case
+ */
+public class VariableIndexTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("variables", ".nc");
+        NetcdfFileWriter writer = NetcdfFileWriter.createNew(NetcdfFileWriter.Version.netcdf3, file.getPath());
+        writer.addDimension(null, "time", 2);
+        Variable temp = writer.addVariable(null, "Temp", DataType.FLOAT, "time");
+        writer.addVariableAttribute(temp, new Attribute("standard_name", "sea_water_temperature"));
+        // the attribute name in another case
+        Variable salinity = writer.addVariable(null, "salinity", DataType.FLOAT, "time");
+        writer.addVariableAttribute(salinity, new Attribute("Standard_Name", "Sea_Water_Salinity"));
+        writer.addVariable(null, "depth", DataType.FLOAT, "time");
+        writer.create();
+        writer.close();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testLookupByName() throws Exception {
+        NetcdfDataset dataset = NetcdfDataset.openDataset(file.getPath());
+        try {
+            VariableIndex index = VariableIndex.build(dataset, null);
+            Assert.assertEquals("Temp", index.resolveVariableName("Temp"));
+            Assert.assertEquals("Temp", index.resolveVariableName("temp"));
+            Assert.assertEquals("salinity", index.resolveVariableName("SALINITY"));
+            Assert.assertEquals("depth", index.resolveVariableName("depth"));
+            Assert.assertNull(index.resolveVariableName("pressure"));
+
+            Assert.assertEquals("sea_water_temperature", index.getStandardName("TEMP"));
+            Assert.assertEquals("Sea_Water_Salinity", index.getStandardName("salinity"));
+            Assert.assertNull(index.getStandardName("depth"));
+            Assert.assertNull(index.getStandardName("pressure"));
+        } finally {
+            dataset.close();
+        }
+    }
+
+    @Test
+    public void testLookupByStandardName() throws Exception {
+        NetcdfDataset dataset = NetcdfDataset.openDataset(file.getPath());
+        try {
+            VariableIndex index = VariableIndex.build(dataset, null);
+            Assert.assertEquals("Temp", index.resolveVariableName("sea_water_temperature"));
+            Assert.assertEquals("Temp", index.resolveVariableName("Sea_Water_Temperature"));
+            // found by the standard_name whatever the case of the attribute name
+            Assert.assertEquals("salinity", index.resolveVariableName("sea_water_salinity"));
+            Assert.assertEquals("salinity", index.resolveVariableName("Sea_Water_Salinity"));
+            Assert.assertNull(index.resolveVariableName("sea_water_pressure"));
+        } finally {
+            dataset.close();
+        }
+    }
+}
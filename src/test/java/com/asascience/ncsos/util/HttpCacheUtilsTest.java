@@ -0,0 +1,72 @@
+package com.asascience.ncsos.util;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import ucar.nc2.dataset.NetcdfDataset;
+
+import java.io.File;
+
+public class HttpCacheUtilsTest {
+
+    private static final String QUERY = "request=GetCapabilities&service=SOS";
+    private static final String DATASET = "resources/datasets/cf_templates/timeSeries-Orthogonal-Multidimensional-MultipleStations-H.2.1.nc";
+
+    @Test
+    public void testETagDependsOnDatasetPath() {
+        String first = HttpCacheUtils.createETag("/a/station.nc", 1000L, QUERY);
+        String second = HttpCacheUtils.createETag("/b/station.nc", 1000L, QUERY);
+        Assert.assertFalse(first.equals(second));
+    }
+
+    @Test
+    public void testETagIgnoresParameterOrderAndCase() {
+        String first = HttpCacheUtils.createETag("/a/station.nc", 1000L, QUERY);
+        String second = HttpCacheUtils.createETag("/a/station.nc", 1000L, "SERVICE=SOS&Request=GetCapabilities");
+        Assert.assertEquals(first, second);
+    }
+
+    @Test
+    public void testETagChangesWithLastModified() {
+        String first = HttpCacheUtils.createETag("/a/station.nc", 1000L, QUERY);
+        String second = HttpCacheUtils.createETag("/a/station.nc", 2000L, QUERY);
+        Assert.assertFalse(first.equals(second));
+    }
+
+    @Test
+    public void testValidatedRequests() {
+        Assert.assertTrue(HttpCacheUtils.isValidatedRequest(QUERY));
+        Assert.assertTrue(HttpCacheUtils.isValidatedRequest("service=SOS&request=describesensor&procedure=urn"));
+        Assert.assertFalse(HttpCacheUtils.isValidatedRequest("request=GetObservation&service=SOS"));
+        Assert.assertFalse(HttpCacheUtils.isValidatedRequest("service=SOS"));
+        Assert.assertFalse(HttpCacheUtils.isValidatedRequest(null));
+    }
+
+    @Test
+    public void testPlainLocalFile() throws Exception {
+        File file = new File(DATASET).getAbsoluteFile();
+        NetcdfDataset dataset = NetcdfDataset.openDataset(file.getPath());
+        try {
+            Assert.assertEquals(file, HttpCacheUtils.getLocalFile(dataset).getAbsoluteFile());
+            Assert.assertEquals(file.lastModified(), HttpCacheUtils.getLastModified("/plain/station.nc", dataset));
+            // remembered for requests that have not opened the dataset
+            Assert.assertEquals(file.lastModified(), HttpCacheUtils.getLastModified("/plain/station.nc"));
+        } finally {
+            dataset.close();
+        }
+    }
+
+    @Test
+    public void testFileWrappedByCatalogNcMLIsNotALocalFile() throws Exception {
+        File file = new File(DATASET).getAbsoluteFile();
+        // the dataset handler gives catalog NcML as a dataset around the dataset of the file
+        NetcdfDataset wrapped = new NetcdfDataset(NetcdfDataset.openDataset(file.getPath()), false);
+        try {
+            Assert.assertEquals(file.getPath(), wrapped.getLocation());
+            Assert.assertNull(HttpCacheUtils.getLocalFile(wrapped));
+            HttpCacheUtils.getLastModified("/wrapped/station.nc", wrapped);
+            Assert.assertEquals(0, HttpCacheUtils.getLastModified("/wrapped/station.nc"));
+        } finally {
+            wrapped.close();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.asascience.ncsos.util;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import ucar.nc2.units.DateFormatter;
+
+import java.util.Date;
+import java.util.Random;
+
+/**
+ * Timestamps of the date writer against DateFormatter.toDateTimeStringISO,
+ * which formatted the observation times before
+ */
+public class IsoDateWriterTest {
+
+    private static final long SECOND = 1000L;
+    private static final long DAY = 86400000L;
+    // 1582-10-15T00:00:00Z, the first day of the gregorian calendar
+    private static final long GREGORIAN_CUTOVER = -12219292800000L;
+
+    private final DateFormatter formatter = new DateFormatter();
+
+    private String expected(long millis) {
+        return formatter.toDateTimeStringISO(new Date(millis));
+    }
+
+    @Test
+    public void testNegativeEpochsWithSubSecondRemainders() {
+        IsoDateWriter writer = new IsoDateWriter();
+        Assert.assertEquals("1969-12-31T23:59:59Z", writer.format(-1));
+        Assert.assertEquals("1969-12-31T23:59:59Z", writer.format(-999));
+        Assert.assertEquals("1969-12-31T23:59:59Z", writer.format(-1000));
+        Assert.assertEquals("1969-12-31T23:59:58Z", writer.format(-1001));
+        Assert.assertEquals("1969-12-31T00:00:00Z", writer.format(-DAY));
+        Assert.assertEquals("1969-12-30T23:59:59Z", writer.format(-DAY - 1));
+        Assert.assertEquals("1970-01-01T00:00:00Z", writer.format(999));
+        for (long millis : new long[] { -1, -999, -1000, -1001, -DAY + 1, -DAY, -DAY - 1, -DAY - 999, 0, 1, 999 }) {
+            Assert.assertEquals(expected(millis), writer.format(millis));
+        }
+        Random random = new Random(18);
+        for (int i = 0; i < 100000; i++) {
+            long millis = (long) (GREGORIAN_CUTOVER * random.nextDouble());
+            Assert.assertEquals(expected(millis), writer.format(millis));
+        }
+    }
+
+    @Test
+    public void testLeapDaysAndCenturyYears() {
+        IsoDateWriter writer = new IsoDateWriter();
+        Assert.assertEquals("2000-02-29T12:00:00Z", writer.format(951825600000L));
+        Assert.assertEquals("2000-03-01T00:00:00Z", writer.format(951868800000L));
+        // 1900 is not a leap year
+        Assert.assertEquals("1900-02-28T23:59:59Z", writer.format(-2203891200000L - SECOND));
+        Assert.assertEquals("1900-03-01T00:00:00Z", writer.format(-2203891200000L));
+        // every day from the cutover to 2500, at a random time of day
+        Random random = new Random(29);
+        for (long day = GREGORIAN_CUTOVER / DAY; day < 194800; day++) {
+            long millis = day * DAY + (long) (DAY * random.nextDouble());
+            Assert.assertEquals(expected(millis), writer.format(millis));
+        }
+    }
+
+    @Test
+    public void testGregorianCutover() {
+        IsoDateWriter writer = new IsoDateWriter();
+        Assert.assertEquals("1582-10-15T00:00:00Z", writer.format(GREGORIAN_CUTOVER));
+        // the day before is a julian date, ten days earlier
+        Assert.assertEquals("1582-10-04T23:59:59Z", writer.format(GREGORIAN_CUTOVER - 1));
+        for (long millis : new long[] { GREGORIAN_CUTOVER, GREGORIAN_CUTOVER - 1, GREGORIAN_CUTOVER - DAY,
+                GREGORIAN_CUTOVER - 400 * 365 * DAY, -62135596800000L }) {
+            Assert.assertEquals(expected(millis), writer.format(millis));
+        }
+    }
+
+    @Test
+    public void testDayPrefixCarriedAcrossCalls() {
+        IsoDateWriter writer = new IsoDateWriter();
+        StringBuilder out = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        // the same day, the next day, back to the first day, the julian
+        // fallback in between and a negative day with the same time of day
+        long first = 1356998400000L + 3600 * SECOND;
+        long[] times = { first, first + 1, first + 59 * SECOND, first + DAY, first + DAY + SECOND, first,
+                GREGORIAN_CUTOVER - DAY, first + 2 * SECOND, -first, -first + SECOND, first + 3 * SECOND };
+        for (long millis : times) {
+            writer.append(out, millis).append(',');
+            expected.append(expected(millis)).append(',');
+        }
+        Assert.assertEquals(expected.toString(), out.toString());
+
+        Random random = new Random(7);
+        long millis = 1356998400000L;
+        for (int i = 0; i < 100000; i++) {
+            // mostly steps within a day, sometimes across several days
+            millis += (random.nextInt(10) == 0) ? (long) (random.nextGaussian() * 3 * DAY) : random.nextInt(3600000);
+            Assert.assertEquals(expected(millis), writer.append(new StringBuilder(), millis).toString());
+        }
+    }
+}
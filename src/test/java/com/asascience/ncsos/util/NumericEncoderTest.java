@@ -0,0 +1,120 @@
+package com.asascience.ncsos.util;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Encoded values against Double.toString and Float.toString, which wrote
+ * the observations before, and against the DecimalFormat that formatted
+ * degrees
+ */
+public class NumericEncoderTest {
+
+    private static String encode(double value, int maxFractionDigits) {
+        return NumericEncoder.appendDouble(new StringBuilder(), value, maxFractionDigits).toString();
+    }
+
+    private static String encode(float value, int maxFractionDigits) {
+        return NumericEncoder.appendFloat(new StringBuilder(), value, maxFractionDigits).toString();
+    }
+
+    private static void assertDouble(double value) {
+        Assert.assertEquals(Double.toString(value), encode(value, NumericEncoder.NO_PRECISION));
+    }
+
+    private static void assertFloat(float value) {
+        Assert.assertEquals(Float.toString(value), encode(value, NumericEncoder.NO_PRECISION));
+    }
+
+    @Test
+    public void testRoundsToLeastSignificantDigit() {
+        Assert.assertEquals("12.35", encode(12.3456, 2));
+        Assert.assertEquals("12.3", encode(12.3456f, 1));
+        Assert.assertEquals("13.0", encode(12.6, 0));
+        Assert.assertEquals("-7.0", encode(-7.04f, 0));
+        // values with fewer digits than the cap are left as they are
+        Assert.assertEquals("12.5", encode(12.5, 3));
+        Assert.assertEquals("0.1", encode(0.1f, 6));
+        // halves go to the even digit, as Math.rint does
+        Assert.assertEquals("2.0", encode(2.5, 0));
+        Assert.assertEquals("4.0", encode(3.5, 0));
+        // values too large for the scaled value to hold a fraction are kept
+        Assert.assertEquals(Double.toString(1.2345678901234567e17), encode(1.2345678901234567e17, 3));
+        // no cap
+        Assert.assertEquals("12.3456", encode(12.3456, NumericEncoder.NO_PRECISION));
+        // special values
+        Assert.assertEquals("NaN", encode(Double.NaN, 2));
+        Assert.assertEquals("-Infinity", encode(Float.NEGATIVE_INFINITY, 2));
+    }
+
+    @Test
+    public void testPlainRangeMatchesToString() {
+        Random random = new Random(19);
+        for (int i = 0; i < 200000; i++) {
+            // a decade between 1e-3 and 1e7, with as many digits as observations usually have
+            double magnitude = Math.pow(10, random.nextInt(10) - 3);
+            double value = magnitude * (1 + 9 * random.nextDouble());
+            if (random.nextBoolean()) {
+                value = -value;
+            }
+            int digits = random.nextInt(8);
+            double rounded = Math.rint(value * Math.pow(10, digits)) / Math.pow(10, digits);
+            assertDouble(value);
+            assertDouble(rounded);
+            assertFloat((float) value);
+            assertFloat((float) rounded);
+        }
+        // the bounds of the plain range, and either side of them
+        for (double value : new double[] { 1e-3, 9.99e-4, 1e7, 9999999.5, 1.0, 0.5, 123456.789 }) {
+            assertDouble(value);
+            assertDouble(-value);
+            assertFloat((float) value);
+            assertFloat((float) -value);
+        }
+    }
+
+    @Test
+    public void testNegativeZero() {
+        Assert.assertEquals("-0.0", encode(-0.0, NumericEncoder.NO_PRECISION));
+        Assert.assertEquals("-0.0", encode(-0.0f, NumericEncoder.NO_PRECISION));
+        Assert.assertEquals("0.0", encode(0.0, NumericEncoder.NO_PRECISION));
+        Assert.assertEquals("0.0", encode(0.0f, 2));
+        // small negative values rounded to zero keep their sign, as Double.toString would
+        Assert.assertEquals(Double.toString(Math.rint(-0.001 * 100) / 100), encode(-0.001, 2));
+        Assert.assertEquals("-0.0", encode(-0.001f, 2));
+    }
+
+    @Test
+    public void testFractionZeroPadding() {
+        Assert.assertEquals("1.005", encode(1.005, NumericEncoder.NO_PRECISION));
+        Assert.assertEquals("1.05", encode(1.05, NumericEncoder.NO_PRECISION));
+        Assert.assertEquals("10.0005", encode(10.0005, NumericEncoder.NO_PRECISION));
+        Assert.assertEquals("0.0012", encode(0.0012, NumericEncoder.NO_PRECISION));
+        Assert.assertEquals("-0.0012", encode(-0.0012f, NumericEncoder.NO_PRECISION));
+        Assert.assertEquals("1.005", encode(1.005f, NumericEncoder.NO_PRECISION));
+        Assert.assertEquals("1.0", encode(1.0004, 3));
+        Assert.assertEquals("1.001", encode(1.0006, 3));
+        Assert.assertEquals("-1.0E-4", encode(-1.0E-4, NumericEncoder.NO_PRECISION));
+    }
+
+    @Test
+    public void testFormatDegreeMatchesDecimalFormat() {
+        DecimalFormat format = new DecimalFormat("0.0#############", DecimalFormatSymbols.getInstance(Locale.US));
+        Random random = new Random(14);
+        for (int i = 0; i < 200000; i++) {
+            double degree = 360 * random.nextDouble() - 180;
+            double rounded = Math.rint(degree * 10000) / 10000;
+            Assert.assertEquals(format.format(degree), NumericEncoder.formatDegree(degree));
+            Assert.assertEquals(format.format(rounded), NumericEncoder.formatDegree(rounded));
+        }
+        for (double degree : new double[] { 0, 90, -180, 0.1, 0.1 + 0.2, 1e-15, 1e-14, 5e-15, 12345678.25, -1.005 }) {
+            Assert.assertEquals(format.format(degree), NumericEncoder.formatDegree(degree));
+        }
+        Assert.assertEquals("NaN", NumericEncoder.formatDegree(Double.NaN));
+    }
+}